@@ -0,0 +1,210 @@
+/*
+ * Crown Copyright (C) 2021 Dstl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package uk.gov.dstl.annot8.corenlp;
+
+import io.annot8.api.components.Processor;
+import io.annot8.api.components.responses.ProcessorResponse;
+import io.annot8.api.data.Item;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Asynchronous entry point to a processor, so that the calling thread isn't blocked while CoreNLP runs.
+ *
+ * Items are processed on a pool of threads, with at most a fixed number of items in flight at once. When that limit
+ * is reached, {@link #submit(Item)} blocks (and {@link #trySubmit(Item, long, TimeUnit)} waits) until an earlier item
+ * completes, applying back-pressure to the caller.
+ *
+ * The returned futures complete in the order the items were submitted, and an item submitted more than once is
+ * processed once at a time, in the order it was submitted, so results are written to each item in order.
+ * Different items are processed concurrently, so the wrapped processor must be safe to call from several threads,
+ * as the processors in this package are.
+ *
+ * Items submitted after this is closed, or which the executor refuses to run, aren't processed, and their futures
+ * complete exceptionally.
+ */
+public class AsyncProcessor implements AutoCloseable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(AsyncProcessor.class);
+
+  private final Processor processor;
+  private final ExecutorService executor;
+  private final boolean ownsExecutor;
+  private final int maxInFlight;
+  private final Semaphore permits;
+
+  private final Map<String, CompletableFuture<?>> lastByItem = new ConcurrentHashMap<>();
+  private CompletableFuture<?> last = CompletableFuture.completedFuture(null);
+  private boolean closed = false;
+
+  private final AtomicLong submitted = new AtomicLong();
+  private final AtomicLong blocked = new AtomicLong();
+
+  /**
+   * Process items on a pool with one thread for each item that may be in flight
+   */
+  public AsyncProcessor(Processor processor, int maxInFlight){
+    this(processor, maxInFlight, createExecutor(maxInFlight), true);
+  }
+
+  /**
+   * Process items on the given executor, which isn't shut down when this is closed
+   */
+  public AsyncProcessor(Processor processor, int maxInFlight, ExecutorService executor){
+    this(processor, maxInFlight, executor, false);
+  }
+
+  private AsyncProcessor(Processor processor, int maxInFlight, ExecutorService executor, boolean ownsExecutor){
+    if(maxInFlight <= 0)
+      throw new IllegalArgumentException("Maximum number of items in flight must be greater than 0");
+
+    this.processor = processor;
+    this.maxInFlight = maxInFlight;
+    this.executor = executor;
+    this.ownsExecutor = ownsExecutor;
+    this.permits = new Semaphore(maxInFlight, true);
+  }
+
+  private static ExecutorService createExecutor(int threads){
+    AtomicInteger count = new AtomicInteger();
+    return Executors.newFixedThreadPool(threads, r -> {
+      Thread t = new Thread(r, "annot8-corenlp-async-" + count.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    });
+  }
+
+  /**
+   * Submit the item for processing, waiting until fewer than the maximum number of items are in flight
+   */
+  public CompletableFuture<ProcessorResponse> submit(Item item) throws InterruptedException {
+    if(!permits.tryAcquire()) {
+      blocked.incrementAndGet();
+      permits.acquire();
+    }
+
+    return start(item);
+  }
+
+  /**
+   * Submit the item for processing, waiting up to the timeout for fewer than the maximum number of items to be
+   * in flight.
+   *
+   * @return the future result, or null if the item wasn't submitted because too many items were still in flight
+   */
+  public CompletableFuture<ProcessorResponse> trySubmit(Item item, long timeout, TimeUnit unit) throws InterruptedException {
+    if(!permits.tryAcquire()) {
+      blocked.incrementAndGet();
+      if(!permits.tryAcquire(timeout, unit))
+        return null;
+    }
+
+    return start(item);
+  }
+
+  private synchronized CompletableFuture<ProcessorResponse> start(Item item){
+    if(closed) {
+      permits.release();
+      return CompletableFuture.failedFuture(new IllegalStateException("Item " + item.getId() + " submitted after the processor was closed"));
+    }
+
+    submitted.incrementAndGet();
+
+    //Wait for any earlier processing of the same item, whether or not it succeeded
+    CompletableFuture<?> previousForItem = lastByItem.getOrDefault(item.getId(), CompletableFuture.completedFuture(null));
+    CompletableFuture<ProcessorResponse> work = previousForItem.handle((r, e) -> null)
+        .thenCompose(v -> process(item));
+
+    lastByItem.put(item.getId(), work);
+    work.whenComplete((r, e) -> lastByItem.remove(item.getId(), work));
+
+    //Complete in submission order, releasing the permit once the result has been handed back
+    CompletableFuture<ProcessorResponse> ordered = last.handle((r, e) -> null).thenCompose(v -> work);
+    ordered.whenComplete((r, e) -> permits.release());
+    last = ordered;
+
+    return ordered;
+  }
+
+  /**
+   * Run the processor on the executor, returning a failed future rather than throwing if the executor rejects the item,
+   * so that the item's permit is still released and later items aren't held up
+   */
+  private CompletableFuture<ProcessorResponse> process(Item item){
+    try {
+      return CompletableFuture.supplyAsync(() -> processor.process(item), executor);
+    }catch (RejectedExecutionException e){
+      return CompletableFuture.failedFuture(e);
+    }
+  }
+
+  /**
+   * Number of items submitted whose results haven't yet been handed back
+   */
+  public int getInFlight(){
+    return maxInFlight - permits.availablePermits();
+  }
+
+  public int getMaxInFlight() {
+    return maxInFlight;
+  }
+
+  /**
+   * Number of items submitted
+   */
+  public long getSubmitted() {
+    return submitted.get();
+  }
+
+  /**
+   * Number of submissions that had to wait because the maximum number of items were in flight
+   */
+  public long getBlocked() {
+    return blocked.get();
+  }
+
+  /**
+   * Stop accepting items, wait for the items in flight to complete, and shut down the thread pool if it was created
+   * by this. The wrapped processor isn't closed.
+   */
+  @Override
+  public void close() {
+    CompletableFuture<?> pending;
+    synchronized (this) {
+      closed = true;
+      pending = last;
+    }
+
+    try {
+      pending.handle((r, e) -> null).get();
+    }catch (InterruptedException e){
+      Thread.currentThread().interrupt();
+    }catch (ExecutionException e){
+      //Failures are reported through the futures returned to the caller
+    }
+
+    if(ownsExecutor)
+      executor.shutdown();
+
+    LOGGER.debug("Processed {} items asynchronously, {} of which waited for capacity", submitted.get(), blocked.get());
+  }
+}
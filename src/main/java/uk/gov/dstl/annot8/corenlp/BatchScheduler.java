@@ -0,0 +1,353 @@
+/*
+ * Crown Copyright (C) 2021 Dstl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package uk.gov.dstl.annot8.corenlp;
+
+import io.annot8.api.components.Processor;
+import io.annot8.api.components.responses.ProcessorResponse;
+import io.annot8.api.data.Item;
+import io.annot8.common.data.bounds.SpanBounds;
+import io.annot8.common.data.content.Text;
+import io.annot8.conventions.AnnotationTypes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Processes batches of items in parallel, scheduling the most costly items first (longest processing time first),
+ * so that a large document isn't left running on its own at the end of a batch while the other workers are idle.
+ *
+ * The cost of each item is estimated before the batch starts, by default from the number of tokens and sentences in
+ * its text (see {@link #estimateCost(Item)}). Each worker takes the most costly item that hasn't been started, so the
+ * remaining items fill in around the large ones.
+ *
+ * An item costing more than its share of the batch (the total cost divided by the number of workers) is counted
+ * as oversized. Such items can't be split between workers by the scheduler, as the processor has to see the whole item,
+ * but the sentence level stages (e.g. POS, parsing) of a processor configured with a {@link SharedExecutor} will split
+ * its sentences between the executor's threads.
+ *
+ * The time taken by each batch, and how much of it the workers spent processing items (utilisation) and on CPU,
+ * are recorded, both for each batch and in total. The processor must be safe to call from several threads, as the
+ * processors in this package are, and the items in a batch should be distinct.
+ */
+public class BatchScheduler implements AutoCloseable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(BatchScheduler.class);
+  private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+  /**
+   * Approximate number of characters per token, used to estimate the cost of text that hasn't been tokenised
+   */
+  public static final int CHARS_PER_TOKEN = 6;
+
+  /**
+   * Cost of each sentence, relative to a cost of 1 for each token, accounting for the fixed cost of converting and
+   * annotating a sentence
+   */
+  public static final double SENTENCE_COST = 10.0;
+
+  private final Processor processor;
+  private final int workers;
+  private final ToDoubleFunction<Item> estimator;
+  private final ExecutorService executor;
+
+  private final AtomicLong batches = new AtomicLong();
+  private final AtomicLong items = new AtomicLong();
+  private final AtomicLong oversized = new AtomicLong();
+  private final AtomicLong capacityNanos = new AtomicLong();
+  private final AtomicLong busyNanos = new AtomicLong();
+  private final AtomicLong cpuNanos = new AtomicLong();
+
+  public BatchScheduler(Processor processor, int workers){
+    this(processor, workers, BatchScheduler::estimateCost);
+  }
+
+  /**
+   * Schedule items using the given estimate of their cost
+   */
+  public BatchScheduler(Processor processor, int workers, ToDoubleFunction<Item> estimator){
+    if(workers <= 0)
+      throw new IllegalArgumentException("Number of workers must be greater than 0");
+
+    this.processor = processor;
+    this.workers = workers;
+    this.estimator = estimator;
+
+    AtomicInteger count = new AtomicInteger();
+    this.executor = Executors.newFixedThreadPool(workers, r -> {
+      Thread t = new Thread(r, "annot8-corenlp-batch-" + count.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    });
+  }
+
+  /**
+   * Estimate the cost of processing an item, as the number of tokens in its text plus {@link #SENTENCE_COST} for
+   * each sentence. Text that hasn't been tokenised is assumed to have a token for every {@link #CHARS_PER_TOKEN} characters.
+   */
+  public static double estimateCost(Item item){
+    return item.getContents(Text.class).mapToDouble(content -> {
+      long tokens = content.getAnnotations().getByBoundsAndType(SpanBounds.class, AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).count();
+      if(tokens == 0)
+        tokens = content.getData().length() / CHARS_PER_TOKEN;
+
+      long sentences = content.getAnnotations().getByBoundsAndType(SpanBounds.class, AnnotationTypes.ANNOTATION_TYPE_SENTENCE).count();
+
+      return tokens + SENTENCE_COST * sentences;
+    }).sum();
+  }
+
+  /**
+   * Process the items, returning once they have all been processed
+   */
+  public Batch process(List<? extends Item> batch) throws InterruptedException {
+    int n = batch.size();
+
+    double[] costs = new double[n];
+    double totalCost = 0.0;
+    for(int i = 0; i < n; i++) {
+      costs[i] = estimator.applyAsDouble(batch.get(i));
+      totalCost += costs[i];
+    }
+
+    //Most costly first, keeping the submitted order for items of equal cost
+    Integer[] order = new Integer[n];
+    for(int i = 0; i < n; i++)
+      order[i] = i;
+    Arrays.sort(order, (a, b) -> Double.compare(costs[b], costs[a]));
+
+    double share = totalCost / workers;
+    int batchOversized = 0;
+    for(double cost : costs) {
+      if(cost > share)
+        batchOversized++;
+    }
+
+    ProcessorResponse[] responses = new ProcessorResponse[n];
+    RuntimeException[] failures = new RuntimeException[n];
+    AtomicInteger next = new AtomicInteger();
+
+    boolean measureCpu = THREADS.isCurrentThreadCpuTimeSupported() && THREADS.isThreadCpuTimeEnabled();
+
+    List<Callable<long[]>> tasks = new ArrayList<>();
+    for(int w = 0; w < Math.min(workers, n); w++){
+      tasks.add(() -> {
+        long cpuStart = measureCpu ? THREADS.getCurrentThreadCpuTime() : 0;
+        long busy = 0;
+
+        int i;
+        while((i = next.getAndIncrement()) < n){
+          int index = order[i];
+
+          long start = System.nanoTime();
+          try {
+            responses[index] = processor.process(batch.get(index));
+          }catch (RuntimeException e){
+            failures[index] = e;
+          }
+          busy += System.nanoTime() - start;
+        }
+
+        return new long[]{busy, measureCpu ? THREADS.getCurrentThreadCpuTime() - cpuStart : 0};
+      });
+    }
+
+    long start = System.nanoTime();
+    List<Future<long[]>> futures = executor.invokeAll(tasks);
+    long nanos = System.nanoTime() - start;
+
+    long batchBusy = 0;
+    long batchCpu = 0;
+    for(Future<long[]> future : futures){
+      try {
+        long[] times = future.get();
+        batchBusy += times[0];
+        batchCpu += times[1];
+      }catch (ExecutionException e){
+        //Failures of individual items are caught within the task
+        throw new IllegalStateException("Batch worker failed", e.getCause());
+      }
+    }
+
+    Batch result = new Batch(responses, failures, totalCost, batchOversized, workers, nanos, batchBusy, measureCpu ? batchCpu : -1);
+
+    batches.incrementAndGet();
+    items.addAndGet(n);
+    oversized.addAndGet(batchOversized);
+    capacityNanos.addAndGet(nanos * workers);
+    busyNanos.addAndGet(batchBusy);
+    cpuNanos.addAndGet(measureCpu ? batchCpu : 0);
+
+    LOGGER.debug("Processed batch of {} items in {} ms, with utilisation {}", n, nanos / 1000000, result.getUtilisation());
+
+    return result;
+  }
+
+  public int getWorkers() {
+    return workers;
+  }
+
+  /**
+   * Number of batches processed
+   */
+  public long getBatches() {
+    return batches.get();
+  }
+
+  /**
+   * Number of items processed, across all batches
+   */
+  public long getItems() {
+    return items.get();
+  }
+
+  /**
+   * Number of items, across all batches, that cost more than their batch's share per worker
+   */
+  public long getOversized() {
+    return oversized.get();
+  }
+
+  /**
+   * Mean time taken to process a batch, in nanoseconds
+   */
+  public long getMeanBatchNanos(){
+    long b = batches.get();
+    return b == 0 ? 0 : capacityNanos.get() / workers / b;
+  }
+
+  /**
+   * Fraction of the workers' time, across all batches, spent processing items
+   */
+  public double getUtilisation(){
+    long capacity = capacityNanos.get();
+    return capacity == 0 ? 0.0 : (double) busyNanos.get() / capacity;
+  }
+
+  /**
+   * Fraction of the workers' time, across all batches, spent on CPU, or -1 if thread CPU time can't be measured.
+   * Time spent on other threads, such as those of a {@link SharedExecutor}, isn't included.
+   */
+  public double getCpuUtilisation(){
+    if(!THREADS.isCurrentThreadCpuTimeSupported() || !THREADS.isThreadCpuTimeEnabled())
+      return -1;
+
+    long capacity = capacityNanos.get();
+    return capacity == 0 ? 0.0 : (double) cpuNanos.get() / capacity;
+  }
+
+  /**
+   * Shut down the workers. The processor isn't closed.
+   */
+  @Override
+  public void close() {
+    executor.shutdown();
+
+    LOGGER.debug("Processed {} items in {} batches, with utilisation {} ({} oversized items)", items.get(), batches.get(), getUtilisation(), oversized.get());
+  }
+
+  /**
+   * Results and timings of a batch
+   */
+  public static class Batch {
+    private final ProcessorResponse[] responses;
+    private final RuntimeException[] failures;
+    private final double estimatedCost;
+    private final int oversized;
+    private final int workers;
+    private final long nanos;
+    private final long busyNanos;
+    private final long cpuNanos;
+
+    private Batch(ProcessorResponse[] responses, RuntimeException[] failures, double estimatedCost, int oversized,
+                  int workers, long nanos, long busyNanos, long cpuNanos){
+      this.responses = responses;
+      this.failures = failures;
+      this.estimatedCost = estimatedCost;
+      this.oversized = oversized;
+      this.workers = workers;
+      this.nanos = nanos;
+      this.busyNanos = busyNanos;
+      this.cpuNanos = cpuNanos;
+    }
+
+    /**
+     * Responses from the processor, in the order the items were given, with null for any item where the processor threw an exception
+     */
+    public List<ProcessorResponse> getResponses() {
+      return Collections.unmodifiableList(Arrays.asList(responses));
+    }
+
+    /**
+     * Exceptions thrown by the processor, in the order the items were given, with null for any item processed without an exception
+     */
+    public List<RuntimeException> getFailures() {
+      return Collections.unmodifiableList(Arrays.asList(failures));
+    }
+
+    /**
+     * Total estimated cost of the items
+     */
+    public double getEstimatedCost() {
+      return estimatedCost;
+    }
+
+    /**
+     * Number of items costing more than their share per worker
+     */
+    public int getOversized() {
+      return oversized;
+    }
+
+    /**
+     * Time between the batch starting and its last item completing, in nanoseconds
+     */
+    public long getNanos() {
+      return nanos;
+    }
+
+    /**
+     * Total time the workers spent processing items, in nanoseconds
+     */
+    public long getBusyNanos() {
+      return busyNanos;
+    }
+
+    /**
+     * Fraction of the workers' time spent processing items
+     */
+    public double getUtilisation(){
+      return nanos == 0 ? 0.0 : (double) busyNanos / ((double) nanos * workers);
+    }
+
+    /**
+     * Fraction of the workers' time spent on CPU, or -1 if thread CPU time can't be measured
+     */
+    public double getCpuUtilisation(){
+      if(cpuNanos < 0)
+        return -1;
+
+      return nanos == 0 ? 0.0 : (double) cpuNanos / ((double) nanos * workers);
+    }
+  }
+}
@@ -0,0 +1,221 @@
+/*
+ * Crown Copyright (C) 2021 Dstl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package uk.gov.dstl.annot8.corenlp;
+
+import io.annot8.common.data.content.Text;
+import io.annot8.components.base.text.processors.AbstractTextProcessor;
+
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Base class for the CoreNLP text processors, providing the behaviour they share, each part of which is configured
+ * by {@link ProcessorSettings}.
+ *
+ * If result caching is enabled, the annotations and groups the processor creates are cached and replayed onto content
+ * with the same text and existing annotations, rather than processing it again.
+ *
+ * Documents that take longer than a threshold to process can be captured, along with their input annotations and the
+ * processor's settings, for later replay (see {@link SlowDocumentCapture}).
+ *
+ * If a cost budget is set, content whose estimated cost (see {@link CostModel}) exceeds it is processed in the cheaper
+ * mode given by {@link #getDegradation()}, and the degradation is recorded on the item.
+ *
+ * The memory used by the processor is also accounted for: the size of its models (if enabled in its settings,
+ * and once the subclass calls {@link #modelsLoaded()}), and the memory allocated processing each document.
+ */
+public abstract class CoreNLPTextProcessor extends AbstractTextProcessor {
+
+  private final ResultCache cache;
+  private final String fingerprint;
+  private final MemoryUsage memoryUsage;
+  private final SlowDocumentCapture capture;
+  private final CostModel costModel;
+  private final AtomicLong degraded = new AtomicLong();
+
+  protected CoreNLPTextProcessor(ProcessorSettings settings){
+    memoryUsage = new MemoryUsage(settings.isMeasureModelMemory());
+    capture = SlowDocumentCapture.create(settings);
+    costModel = CostModel.create(settings);
+
+    if(settings.getResultCacheMegabytes() > 0){
+      cache = new ResultCache(settings.getResultCacheMegabytes() * 1024L * 1024L);
+      fingerprint = ResultCache.fingerprint(getClass(), settings);
+    }else{
+      cache = null;
+      fingerprint = null;
+    }
+  }
+
+  /**
+   * Called by subclasses once they have loaded their models, to measure and log the memory they use
+   */
+  protected void modelsLoaded(){
+    long bytes = memoryUsage.modelsLoaded();
+    if(bytes >= 0)
+      log().info("Models use approximately {} MB of heap", String.format("%.1f", bytes / (1024.0 * 1024.0)));
+  }
+
+  @Override
+  protected final void process(Text content) {
+    //Inputs have to be identified before processing, as the processor adds annotations
+    Set<String> inputs = capture == null ? null : SlowDocumentCapture.snapshot(content);
+    long start = System.nanoTime();
+
+    long allocatedBefore = MemoryUsage.currentThreadAllocatedBytes();
+    try {
+      processOrReplay(content, selectDegradation(content));
+    }finally {
+      long nanos = System.nanoTime() - start;
+
+      long allocated = memoryUsage.recordDocument(allocatedBefore);
+      if(allocated >= 0)
+        log().debug("Allocated {} bytes processing content {}", allocated, content.getId());
+
+      if(capture != null)
+        capture.capture(getClass(), content, inputs, nanos);
+    }
+  }
+
+  /**
+   * Decide whether the content is processed in full or degraded, and record any degradation on the item.
+   * This is done whether or not the result is replayed from the cache, as the decision depends only on the
+   * content's existing annotations and the settings, which also determine the cache key.
+   *
+   * @return the name of the degradation, or null if the content is processed in full
+   */
+  private String selectDegradation(Text content){
+    String degradation = getDegradation();
+    if(costModel == null || degradation == null)
+      return null;
+
+    CostModel.Cost cost = costModel.estimate(content);
+    if(!costModel.isOverBudget(cost))
+      return null;
+
+    degraded.incrementAndGet();
+    CostModel.recordDegradation(content, getClass(), degradation);
+    log().debug("Estimated cost {} of content {} exceeds budget {}, applying degradation {}", cost, content.getId(), costModel.getBudget(), degradation);
+
+    return degradation;
+  }
+
+  private void processOrReplay(Text content, String degradation) {
+    if(cache == null){
+      processTextOrDegraded(content, degradation);
+      return;
+    }
+
+    ResultCache.Snapshot snapshot = cache.snapshot(fingerprint, content);
+
+    StageEvent event = StageEvent.start(StageEvent.REPLAY, getClass());
+    if(snapshot.replay()) {
+      event.finish(content.getId(), content.getData().length(), 0, 0, snapshot.getReplayed());
+      log().debug("Replayed cached result for content {}", content.getId());
+      return;
+    }
+
+    processTextOrDegraded(content, degradation);
+    snapshot.record();
+  }
+
+  private void processTextOrDegraded(Text content, String degradation){
+    if(degradation == null) {
+      processText(content);
+    }else{
+      processDegraded(content);
+    }
+  }
+
+  /**
+   * Process content that isn't in the cache
+   */
+  protected abstract void processText(Text content);
+
+  /**
+   * Name of the cheaper mode used for content whose estimated cost exceeds the cost budget,
+   * or null if the processor always processes content in full
+   */
+  protected String getDegradation(){
+    return null;
+  }
+
+  /**
+   * Process content that isn't in the cache, and whose estimated cost exceeds the cost budget,
+   * in the mode given by {@link #getDegradation()}
+   */
+  protected void processDegraded(Text content){
+    processText(content);
+  }
+
+  /**
+   * Number of contents whose results were replayed from the cache
+   */
+  public long getResultCacheHits(){
+    return cache == null ? 0 : cache.getHits();
+  }
+
+  /**
+   * Number of contents that had to be processed
+   */
+  public long getResultCacheMisses(){
+    return cache == null ? 0 : cache.getMisses();
+  }
+
+  /**
+   * Number of results evicted from the cache to stay within its memory limit
+   */
+  public long getResultCacheEvictions(){
+    return cache == null ? 0 : cache.getEvictions();
+  }
+
+  /**
+   * Estimated memory used by the cache, in bytes
+   */
+  public long getResultCacheWeight(){
+    return cache == null ? 0 : cache.getWeight();
+  }
+
+  /**
+   * Number of documents that took longer than the capture threshold, or 0 if capture isn't enabled
+   */
+  public int getSlowDocumentsCaptured(){
+    return capture == null ? 0 : capture.getCaptured();
+  }
+
+  /**
+   * Number of documents whose estimated cost exceeded the cost budget, and so were processed in a cheaper mode
+   */
+  public long getDegradedDocuments(){
+    return degraded.get();
+  }
+
+  /**
+   * Memory used by the processor's models, and allocated processing documents
+   */
+  public MemoryUsage getMemoryUsage() {
+    return memoryUsage;
+  }
+
+  @Override
+  public void close() {
+    log().debug("Memory usage: {}", memoryUsage);
+    if(cache != null)
+      log().debug("Result cache hit rate {} ({} hits, {} misses, {} evictions, {} results using ~{} bytes)",
+          cache.getHitRate(), cache.getHits(), cache.getMisses(), cache.getEvictions(), cache.size(), cache.getWeight());
+  }
+}
@@ -16,9 +16,11 @@
  */
 package uk.gov.dstl.annot8.corenlp;
 
+import edu.stanford.nlp.ling.CoreAnnotation;
 import edu.stanford.nlp.ling.CoreAnnotations;
 import edu.stanford.nlp.ling.CoreLabel;
 import edu.stanford.nlp.util.CoreMap;
+import edu.stanford.nlp.util.ErasureUtils;
 import io.annot8.api.annotations.Annotation;
 import io.annot8.common.data.bounds.SpanBounds;
 import io.annot8.common.data.content.Text;
@@ -84,25 +86,57 @@ public class CoreNLPUtils {
     //Private constructor for utility class
   }
 
-  public static edu.stanford.nlp.pipeline.Annotation createCoreNLPDocument(Text content){
-    edu.stanford.nlp.pipeline.Annotation document = new edu.stanford.nlp.pipeline.Annotation(content.getData());
+  /**
+   * The Annot8 entities passed to CoreNLP, set on the document and indexed by each mention's {@link CoreAnnotations.EntityMentionIndexAnnotation}
+   */
+  public static class Annot8EntitiesAnnotation implements CoreAnnotation<List<Annotation>> {
+    @Override
+    public Class<List<Annotation>> getType() {
+      return ErasureUtils.uncheckedCast(List.class);
+    }
+  }
 
-    List<Annotation> sentences = content.getAnnotations().getByBoundsAndType(SpanBounds.class, AnnotationTypes.ANNOTATION_TYPE_SENTENCE)
-        .sorted(SortUtils.SORT_BY_SPANBOUNDS)
-        .collect(Collectors.toList());
+  /**
+   * Index of the Annot8 entities passed to CoreNLP, created on first use and cached on the document
+   */
+  public static class Annot8SpanIndexAnnotation implements CoreAnnotation<SpanIndex> {
+    @Override
+    public Class<SpanIndex> getType() {
+      return SpanIndex.class;
+    }
+  }
 
-    List<Annotation> tokens = content.getAnnotations().getByBoundsAndType(SpanBounds.class, AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN)
-        .sorted(SortUtils.SORT_BY_SPANBOUNDS)
-        .collect(Collectors.toList());
+  /**
+   * The mention indices of the Annot8 entities covering a token, set on each token
+   */
+  public static class Annot8EntityIndicesAnnotation implements CoreAnnotation<List<Integer>> {
+    @Override
+    public Class<List<Integer>> getType() {
+      return ErasureUtils.uncheckedCast(List.class);
+    }
+  }
 
-    List<Annotation> entities = content.getAnnotations().getByBounds(SpanBounds.class)
-        .filter(CoreNLPUtils::isCoreNLPType)
-        .sorted(SortUtils.SORT_BY_SPANBOUNDS)
-        .collect(Collectors.toList());
+  public static edu.stanford.nlp.pipeline.Annotation createCoreNLPDocument(Text content){
+    return createCoreNLPDocument(content, getSentences(content), getTokens(content), getEntities(content));
+  }
 
+  /**
+   * Create a CoreNLP document from the given sentences, tokens and entities of the content, which must each be
+   * sorted by their bounds. This allows documents to be created for part of the content.
+   *
+   * Because the inputs are sorted, the tokens of each entity and sentence (and the mentions of each sentence) are
+   * found by binary search over their offsets, which are held in per-thread scratch arrays reused between documents.
+   */
+  public static edu.stanford.nlp.pipeline.Annotation createCoreNLPDocument(Text content, List<Annotation> sentences, List<Annotation> tokens, List<Annotation> entities){
+    StageEvent event = StageEvent.start(StageEvent.CONVERSION, CoreNLPUtils.class);
+
+    edu.stanford.nlp.pipeline.Annotation document = new edu.stanford.nlp.pipeline.Annotation(content.getData());
+    document.set(CoreAnnotations.DocIDAnnotation.class, content.getId());
+    Scratch scratch = SCRATCH.get();
 
     //Create tokens - additional information will be added later
-    List<CoreLabel> cTokens = new ArrayList<>();
+    List<CoreLabel> cTokens = new ArrayList<>(tokens.size());
+    Offsets tokenOffsets = scratch.tokens.reset(tokens.size());
     for (Annotation token : tokens) {
       Optional<SpanBounds> opt = token.getBounds(SpanBounds.class);
       if(opt.isEmpty())
@@ -124,10 +158,12 @@ public class CoreNLPUtils {
       cToken.set(CoreAnnotations.NamedEntityTagAnnotation.class, "O");
 
       cTokens.add(cToken);
+      tokenOffsets.add(tokenBounds.getBegin(), tokenBounds.getEnd());
     }
 
     //Create mentions (entities), and add additional information to tokens
-    List<CoreMap> cMentions = new ArrayList<>();
+    List<CoreMap> cMentions = new ArrayList<>(entities.size());
+    Offsets mentionOffsets = scratch.mentions.reset(entities.size());
     for(int entityIndex = 0; entityIndex < entities.size(); entityIndex++){
       Annotation entity = entities.get(entityIndex);
 
@@ -136,39 +172,56 @@ public class CoreNLPUtils {
         continue;
       SpanBounds entityBounds = opt.get();
 
-      CoreMap cMention = new edu.stanford.nlp.pipeline.Annotation(content.getText(entity).orElse(""));
+      Optional<String> entityText = content.getText(entity);
+      CoreMap cMention = new edu.stanford.nlp.pipeline.Annotation(entityText.orElse(""));
 
       cMention.set(CoreAnnotations.EntityMentionIndexAnnotation.class, entityIndex);
 
-      cMention.set(CoreAnnotations.NamedEntityTagAnnotation.class, getCoreNLPType(entity));
+      String type = getCoreNLPType(entity);
+      cMention.set(CoreAnnotations.NamedEntityTagAnnotation.class, type);
 
       cMention.set(CoreAnnotations.CharacterOffsetBeginAnnotation.class, entityBounds.getBegin());
       cMention.set(CoreAnnotations.CharacterOffsetEndAnnotation.class, entityBounds.getEnd());
 
-      content.getText(entity).ifPresent(s -> {
+      entityText.ifPresent(s -> {
         cMention.set(CoreAnnotations.TextAnnotation.class, s);
         cMention.set(CoreAnnotations.ValueAnnotation.class, s);
       });
 
+      //Shared by all of the entity's tokens, as it's immutable
+      Map<String, Double> probabilities = Map.of(type, entity.getProperties().get(PropertyKeys.PROPERTY_KEY_PROBABILITY, Double.class).orElse(1.0d));
+
       int firstToken = Integer.MAX_VALUE;
       int lastToken = Integer.MIN_VALUE;
 
-      List<CoreLabel> cMentionTokens = new ArrayList<>();
-      for(int tokenIndex = 0; tokenIndex < tokens.size(); tokenIndex++){
-        CoreLabel cToken = cTokens.get(tokenIndex);
-        if(cToken.beginPosition() < entityBounds.getBegin() || cToken.endPosition() > entityBounds.getEnd())
+      int from = tokenOffsets.firstStartingAtOrAfter(entityBounds.getBegin());
+      int to = tokenOffsets.firstStartingAfter(entityBounds.getEnd(), from);
+      List<CoreLabel> cMentionTokens = new ArrayList<>(to - from);
+      for(int tokenIndex = from; tokenIndex < to; tokenIndex++){
+        if(tokenOffsets.end(tokenIndex) > entityBounds.getEnd())
           continue;
 
+        CoreLabel cToken = cTokens.get(tokenIndex);
+
         if(tokenIndex < firstToken)
           firstToken = tokenIndex;
 
         if(tokenIndex >= lastToken)
           lastToken = tokenIndex + 1;
 
-        cToken.set(CoreAnnotations.NamedEntityTagAnnotation.class, getCoreNLPType(entity));
-        cToken.set(CoreAnnotations.NamedEntityTagProbsAnnotation.class,
-            Map.of(getCoreNLPType(entity), entity.getProperties().get(PropertyKeys.PROPERTY_KEY_PROBABILITY, Double.class)
-                .orElse(1.0d)));
+        //Most tokens belong to a single entity, so only create a mutable list for those belonging to several
+        List<Integer> cTokenEntities = cToken.get(Annot8EntityIndicesAnnotation.class);
+        if(cTokenEntities == null){
+          cToken.set(Annot8EntityIndicesAnnotation.class, List.of(entityIndex));
+        }else{
+          List<Integer> updated = new ArrayList<>(cTokenEntities.size() + 1);
+          updated.addAll(cTokenEntities);
+          updated.add(entityIndex);
+          cToken.set(Annot8EntityIndicesAnnotation.class, updated);
+        }
+
+        cToken.set(CoreAnnotations.NamedEntityTagAnnotation.class, type);
+        cToken.set(CoreAnnotations.NamedEntityTagProbsAnnotation.class, probabilities);
 
         cMentionTokens.add(cToken);
       }
@@ -178,10 +231,11 @@ public class CoreNLPUtils {
       cMention.set(CoreAnnotations.TokensAnnotation.class, cMentionTokens);
 
       cMentions.add(cMention);
+      mentionOffsets.add(entityBounds.getBegin(), entityBounds.getEnd());
     }
 
     //Create sentences, and add additional information to tokens and mentions
-    List<CoreMap> cSentences = new ArrayList<>();
+    List<CoreMap> cSentences = new ArrayList<>(sentences.size());
     for(int sentenceIndex = 0; sentenceIndex < sentences.size(); sentenceIndex++){
       Annotation sentence = sentences.get(sentenceIndex);
 
@@ -199,15 +253,19 @@ public class CoreNLPUtils {
       //Get tokens
       int firstToken = Integer.MAX_VALUE;
       int lastToken = Integer.MIN_VALUE;
-      List<CoreLabel> cSentenceTokens = new ArrayList<>();
+
+      int from = tokenOffsets.firstStartingAtOrAfter(sentenceBounds.getBegin());
+      int to = tokenOffsets.firstStartingAfter(sentenceBounds.getEnd(), from);
+      List<CoreLabel> cSentenceTokens = new ArrayList<>(to - from);
 
       //Get tokens and add sentence index
       int sentenceToken = 1;
-      for(int tokenIndex = 0; tokenIndex < cTokens.size(); tokenIndex++){
-        CoreLabel cToken = cTokens.get(tokenIndex);
-        if(cToken.beginPosition() < sentenceBounds.getBegin() || cToken.endPosition() > sentenceBounds.getEnd())
+      for(int tokenIndex = from; tokenIndex < to; tokenIndex++){
+        if(tokenOffsets.end(tokenIndex) > sentenceBounds.getEnd())
           continue;
 
+        CoreLabel cToken = cTokens.get(tokenIndex);
+
         if(tokenIndex < firstToken)
           firstToken = tokenIndex;
 
@@ -224,12 +282,18 @@ public class CoreNLPUtils {
       cSentence.set(CoreAnnotations.TokenEndAnnotation.class, lastToken);
       cSentence.set(CoreAnnotations.TokensAnnotation.class, cSentenceTokens);
 
+      //Reuse any existing dependency parse
+      ParseUtils.setDependencies(sentence, cSentence);
+
       //Get mentions and add sentence index
-      List<CoreMap> cSentenceMentions = new ArrayList<>();
-      for (CoreMap cMention : cMentions) {
-        if (cMention.get(CoreAnnotations.CharacterOffsetBeginAnnotation.class) < sentenceBounds.getBegin() || cMention.get(CoreAnnotations.CharacterOffsetEndAnnotation.class) > sentenceBounds.getEnd())
+      from = mentionOffsets.firstStartingAtOrAfter(sentenceBounds.getBegin());
+      to = mentionOffsets.firstStartingAfter(sentenceBounds.getEnd(), from);
+      List<CoreMap> cSentenceMentions = new ArrayList<>(to - from);
+      for (int mentionIndex = from; mentionIndex < to; mentionIndex++) {
+        if (mentionOffsets.end(mentionIndex) > sentenceBounds.getEnd())
           continue;
 
+        CoreMap cMention = cMentions.get(mentionIndex);
         cMention.set(CoreAnnotations.SentenceIndexAnnotation.class, sentenceIndex);
 
         cSentenceMentions.add(cMention);
@@ -243,10 +307,284 @@ public class CoreNLPUtils {
     document.set(CoreAnnotations.TokensAnnotation.class, cTokens);
     document.set(CoreAnnotations.MentionsAnnotation.class, cMentions);
     document.set(CoreAnnotations.SentencesAnnotation.class, cSentences);
+    document.set(Annot8EntitiesAnnotation.class, entities);
+
+    tokenOffsets.release();
+    mentionOffsets.release();
+
+    event.finish(document, cMentions.size());
 
     return document;
   }
 
+  private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+  /**
+   * Working space for {@link #createCoreNLPDocument(Text, List, List, List)}, reused by each thread between documents.
+   * Only the offsets are reused, as the CoreNLP objects created are handed back to the caller.
+   */
+  private static class Scratch {
+    private final Offsets tokens = new Offsets();
+    private final Offsets mentions = new Offsets();
+  }
+
+  /**
+   * Begin and end offsets of a list of spans, sorted by their begin offset.
+   * Arrays grown beyond {@link #MAX_RETAINED_CAPACITY} for an unusually large document are released once it has
+   * been converted, so that each thread doesn't hold on to them for the rest of its life.
+   */
+  private static class Offsets {
+    private static final int INITIAL_CAPACITY = 256;
+    private static final int MAX_RETAINED_CAPACITY = 65536;
+
+    private int[] begins = new int[INITIAL_CAPACITY];
+    private int[] ends = new int[INITIAL_CAPACITY];
+    private int size = 0;
+
+    private Offsets reset(int capacity){
+      if(capacity > begins.length){
+        begins = new int[capacity];
+        ends = new int[capacity];
+      }
+      size = 0;
+
+      return this;
+    }
+
+    private void release(){
+      if(begins.length > MAX_RETAINED_CAPACITY){
+        begins = new int[INITIAL_CAPACITY];
+        ends = new int[INITIAL_CAPACITY];
+      }
+      size = 0;
+    }
+
+    private void add(int begin, int end){
+      begins[size] = begin;
+      ends[size] = end;
+      size++;
+    }
+
+    private int end(int index){
+      return ends[index];
+    }
+
+    /**
+     * Index of the first span beginning at or after the offset, or the number of spans if there isn't one
+     */
+    private int firstStartingAtOrAfter(int offset){
+      int low = 0;
+      int high = size;
+      while(low < high){
+        int mid = (low + high) >>> 1;
+        if(begins[mid] < offset) {
+          low = mid + 1;
+        }else{
+          high = mid;
+        }
+      }
+
+      return low;
+    }
+
+    /**
+     * Index of the first span at or after the given index beginning after the offset, or the number of spans if there isn't one
+     */
+    private int firstStartingAfter(int offset, int from){
+      int low = from;
+      int high = size;
+      while(low < high){
+        int mid = (low + high) >>> 1;
+        if(begins[mid] <= offset) {
+          low = mid + 1;
+        }else{
+          high = mid;
+        }
+      }
+
+      return low;
+    }
+  }
+
+  /**
+   * Create a new document containing only the given sentences of an existing document, along with
+   * their tokens and mentions, so that annotators can be run over part of a document.
+   *
+   * The sentences, tokens and mentions are shared with the original document and are re-indexed in place,
+   * so the original document should not be used once the sub-document has been created.
+   */
+  public static edu.stanford.nlp.pipeline.Annotation createSubDocument(edu.stanford.nlp.pipeline.Annotation document, List<CoreMap> sentences){
+    edu.stanford.nlp.pipeline.Annotation subDocument = new edu.stanford.nlp.pipeline.Annotation(document.get(CoreAnnotations.TextAnnotation.class));
+    subDocument.set(CoreAnnotations.DocIDAnnotation.class, document.get(CoreAnnotations.DocIDAnnotation.class));
+
+    List<CoreLabel> cTokens = new ArrayList<>();
+    List<CoreMap> cMentions = new ArrayList<>();
+    for(int sentenceIndex = 0; sentenceIndex < sentences.size(); sentenceIndex++){
+      CoreMap cSentence = sentences.get(sentenceIndex);
+      List<CoreLabel> cSentenceTokens = cSentence.get(CoreAnnotations.TokensAnnotation.class);
+      List<CoreMap> cSentenceMentions = cSentence.get(CoreAnnotations.MentionsAnnotation.class);
+
+      int tokenOffset = cSentenceTokens.isEmpty() ? 0 : cTokens.size() - cSentence.get(CoreAnnotations.TokenBeginAnnotation.class);
+
+      cSentence.set(CoreAnnotations.SentenceIndexAnnotation.class, sentenceIndex);
+      cSentence.set(CoreAnnotations.TokenBeginAnnotation.class, cTokens.size());
+      for(CoreLabel cToken : cSentenceTokens)
+        cToken.set(CoreAnnotations.SentenceIndexAnnotation.class, sentenceIndex);
+
+      cTokens.addAll(cSentenceTokens);
+      cSentence.set(CoreAnnotations.TokenEndAnnotation.class, cTokens.size());
+
+      if(cSentenceMentions == null)
+        continue;
+
+      for(CoreMap cMention : cSentenceMentions){
+        cMention.set(CoreAnnotations.SentenceIndexAnnotation.class, sentenceIndex);
+        List<CoreLabel> cMentionTokens = cMention.get(CoreAnnotations.TokensAnnotation.class);
+        if(cMentionTokens != null && !cMentionTokens.isEmpty()) {
+          cMention.set(CoreAnnotations.TokenBeginAnnotation.class, cMention.get(CoreAnnotations.TokenBeginAnnotation.class) + tokenOffset);
+          cMention.set(CoreAnnotations.TokenEndAnnotation.class, cMention.get(CoreAnnotations.TokenEndAnnotation.class) + tokenOffset);
+        }
+
+        cMentions.add(cMention);
+      }
+    }
+
+    subDocument.set(CoreAnnotations.TokensAnnotation.class, cTokens);
+    subDocument.set(CoreAnnotations.MentionsAnnotation.class, cMentions);
+    subDocument.set(CoreAnnotations.SentencesAnnotation.class, new ArrayList<>(sentences));
+    subDocument.set(Annot8EntitiesAnnotation.class, document.get(Annot8EntitiesAnnotation.class));
+
+    return subDocument;
+  }
+
+  /**
+   * Sentences of the document containing at least the given number of entity mentions
+   */
+  public static List<CoreMap> getSentencesWithMentions(edu.stanford.nlp.pipeline.Annotation document, int minMentions){
+    List<CoreMap> sentences = new ArrayList<>();
+    for(CoreMap sentence : document.get(CoreAnnotations.SentencesAnnotation.class)){
+      List<CoreMap> mentions = sentence.get(CoreAnnotations.MentionsAnnotation.class);
+      if(mentions != null && mentions.size() >= minMentions)
+        sentences.add(sentence);
+    }
+
+    return sentences;
+  }
+
+  /**
+   * Find the Annot8 entities of the given type whose bounds exactly match the given tokens
+   */
+  public static List<Annotation> getEntities(CoreMap document, Collection<CoreLabel> tokens, String type){
+    return getEntities(document, tokens, type, MatchPolicy.EXACT);
+  }
+
+  /**
+   * Find the Annot8 entities of the given type which match the given tokens according to the policy, using a
+   * {@link SpanIndex} of the entities passed to {@link #createCoreNLPDocument(Text)} rather than searching the content.
+   *
+   * For {@link MatchPolicy#EXACT}, all exact matches are returned. For other policies, only the closest match is returned,
+   * so that a mention doesn't get linked to several overlapping entities.
+   */
+  public static List<Annotation> getEntities(CoreMap document, Collection<CoreLabel> tokens, String type, MatchPolicy policy){
+    if(tokens.isEmpty())
+      return Collections.emptyList();
+
+    SpanIndex index = getSpanIndex(document);
+    if(index == null)
+      return Collections.emptyList();
+
+    SpanBounds bounds = getBounds(tokens);
+    List<Annotation> matches = index.find(bounds.getBegin(), bounds.getEnd(), policy);
+    matches.removeIf(a -> !a.getType().equals(type));
+
+    if(policy == MatchPolicy.EXACT || matches.size() <= 1)
+      return matches;
+
+    return List.of(Collections.min(matches, SpanIndex.closestTo(bounds.getBegin(), bounds.getEnd())));
+  }
+
+  /**
+   * Find the Annot8 entities which match the given tokens according to the policy, as {@link #getEntities(CoreMap, Collection, String, MatchPolicy)},
+   * using the entity type of the tokens. If the tokens have more than one entity type, then no entities are returned
+   * as they span multiple entities. For policies other than {@link MatchPolicy#EXACT}, tokens which aren't part of an entity are ignored.
+   */
+  public static List<Annotation> resolveEntities(CoreMap document, Collection<CoreLabel> tokens, MatchPolicy policy){
+    Set<String> types = new HashSet<>();
+    for(CoreLabel token : tokens)
+      types.add(CORENLP_TO_ANNOT8.getOrDefault(token.ner(), "_"));
+
+    if(policy != MatchPolicy.EXACT)
+      types.remove("_");
+
+    //If there isn't exactly one type then it exceeds annotation bounds and/or spans multiple annotations,
+    //and if the type is undefined we'd need to create a new entity
+    if(types.size() != 1 || types.contains("_"))
+      return Collections.emptyList();
+
+    return getEntities(document, tokens, types.iterator().next(), policy);
+  }
+
+  private static SpanIndex getSpanIndex(CoreMap document){
+    SpanIndex index = document.get(Annot8SpanIndexAnnotation.class);
+    if(index != null)
+      return index;
+
+    List<Annotation> entities = document.get(Annot8EntitiesAnnotation.class);
+    if(entities == null)
+      return null;
+
+    index = new SpanIndex(entities);
+    document.set(Annot8SpanIndexAnnotation.class, index);
+
+    return index;
+  }
+
+  /**
+   * The smallest bounds covering all of the tokens
+   */
+  public static SpanBounds getBounds(Collection<CoreLabel> tokens){
+    int min = Integer.MAX_VALUE;
+    int max = Integer.MIN_VALUE;
+
+    for(CoreLabel token : tokens){
+      if(token.beginPosition() < min)
+        min = token.beginPosition();
+
+      if(token.endPosition() > max)
+        max = token.endPosition();
+    }
+
+    return new SpanBounds(min, max);
+  }
+
+  /**
+   * Sentences in the content, sorted by their bounds
+   */
+  public static List<Annotation> getSentences(Text content){
+    return content.getAnnotations().getByBoundsAndType(SpanBounds.class, AnnotationTypes.ANNOTATION_TYPE_SENTENCE)
+        .sorted(SortUtils.SORT_BY_SPANBOUNDS)
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Word tokens in the content, sorted by their bounds
+   */
+  public static List<Annotation> getTokens(Text content){
+    return content.getAnnotations().getByBoundsAndType(SpanBounds.class, AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN)
+        .sorted(SortUtils.SORT_BY_SPANBOUNDS)
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Entities in the content with a type that can be passed to CoreNLP, sorted by their bounds
+   */
+  public static List<Annotation> getEntities(Text content){
+    return content.getAnnotations().getByBounds(SpanBounds.class)
+        .filter(CoreNLPUtils::isCoreNLPType)
+        .sorted(SortUtils.SORT_BY_SPANBOUNDS)
+        .collect(Collectors.toList());
+  }
+
   public static String getCoreNLPType(Annotation entity){
     String type = entity.getType();
     Optional<String> subtype = entity.getProperties().get(PropertyKeys.PROPERTY_KEY_SUBTYPE, String.class);
@@ -21,36 +21,47 @@ import edu.stanford.nlp.coref.data.CorefChain;
 import edu.stanford.nlp.ling.CoreAnnotations;
 import edu.stanford.nlp.ling.CoreLabel;
 import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.pipeline.Annotator;
 import edu.stanford.nlp.pipeline.CorefAnnotator;
+import edu.stanford.nlp.pipeline.DependencyParseAnnotator;
+import edu.stanford.nlp.pipeline.DeterministicCorefAnnotator;
 import edu.stanford.nlp.pipeline.ParserAnnotator;
 import edu.stanford.nlp.util.CoreMap;
+import edu.stanford.nlp.util.PropertiesUtils;
 import io.annot8.api.annotations.Group;
 import io.annot8.api.capabilities.Capabilities;
 import io.annot8.api.components.annotations.ComponentDescription;
 import io.annot8.api.components.annotations.ComponentName;
 import io.annot8.api.components.annotations.SettingsClass;
 import io.annot8.api.context.Context;
+import io.annot8.api.settings.Description;
 import io.annot8.common.components.AbstractProcessorDescriptor;
 import io.annot8.common.components.capabilities.SimpleCapabilities;
 import io.annot8.common.data.bounds.SpanBounds;
 import io.annot8.common.data.content.Text;
-import io.annot8.components.base.text.processors.AbstractTextProcessor;
 import io.annot8.conventions.AnnotationTypes;
 import io.annot8.conventions.GroupRoles;
 import io.annot8.conventions.GroupTypes;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Properties;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 @ComponentName("CoreNLP Coreference")
 @ComponentDescription("Coreference entities using CoreNLP's Parser (parse) and Coreference (coref)")
-@SettingsClass(CoreNLPSettings.class)
-public class Coreference extends AbstractProcessorDescriptor<Coreference.Processor, CoreNLPSettings> {
+@SettingsClass(Coreference.Settings.class)
+public class Coreference extends AbstractProcessorDescriptor<Coreference.Processor, Coreference.Settings> {
 
   @Override
-  protected Processor createComponent(Context context, CoreNLPSettings settings) {
-    return new Processor(settings.getProperties());
+  protected Processor createComponent(Context context, Coreference.Settings settings) {
+    return new Processor(settings);
   }
 
   @Override
@@ -66,49 +77,453 @@ public class Coreference extends AbstractProcessorDescriptor<Coreference.Process
     return builder.build();
   }
 
-  public static class Processor extends AbstractTextProcessor {
+  public static class Processor extends CoreNLPTextProcessor {
 
-    private final ParserAnnotator parser;
-    private final CorefAnnotator coref;
+    private static final Set<String> PRONOUN_TAGS = Set.of("PRP", "PRP$", "WP", "WP$");
+    private static final Set<String> ANAPHOR_WORDS = Set.of(
+        "i", "me", "my", "mine", "myself", "we", "us", "our", "ours", "ourselves",
+        "you", "your", "yours", "yourself", "yourselves",
+        "he", "him", "his", "himself", "she", "her", "hers", "herself", "it", "its", "itself",
+        "they", "them", "their", "theirs", "themselves",
+        "who", "whom", "whose", "this", "that", "these", "those"
+    );
+
+    private final Annotator parser;
+    private final Annotator coref;
+    private final boolean filterSentences;
+    private final Degradation degradation;
+    private final int degradedWindowSentences;
+    private final boolean dependencyBackend;
+    private final MatchPolicy matchPolicy;
+    private final ParseCache parseCache;
+    private final String parseFingerprint;
+    private final SharedExecutor executor;
+
+    private final AtomicLong sentencesParsed = new AtomicLong();
+    private final AtomicLong sentencesSkipped = new AtomicLong();
 
     public Processor(Properties properties){
-      parser = new ParserAnnotator(ParserAnnotator.STANFORD_PARSE, properties);
-      coref = new CorefAnnotator(properties);
+      this(new Settings(properties));
+    }
+
+    public Processor(Settings settings){
+      super(settings);
+
+      Properties properties = settings.getParseBackend().apply(settings.getProperties());
+      if(settings.getAlgorithm() != null)
+        properties = settings.getAlgorithm().apply(properties);
+
+      executor = SharedExecutor.forName(settings.getExecutor());
+      if(executor != null)
+        properties = SharedExecutor.singleThreaded(properties);
+
+      if(settings.getParseBackend() == ParseBackend.DEPENDENCY) {
+        parser = new DependencyParseAnnotator(PropertiesUtils.extractPrefixedProperties(properties, "depparse."));
+        parseFingerprint = ParseCache.fingerprint(settings.getParseBackend().name(), properties, "depparse.");
+      }else{
+        parser = new ParserAnnotator(ParserAnnotator.STANFORD_PARSE, properties);
+        parseFingerprint = ParseCache.fingerprint(settings.getParseBackend().name(), properties, "parse.");
+      }
+
+      parseCache = ParseCache.openOrNull(settings.getParseCacheFile(), settings.getParseCacheMegabytes() * 1024L * 1024L);
+
+      if(settings.getAlgorithm() == Algorithm.DETERMINISTIC) {
+        coref = new DeterministicCorefAnnotator(properties);
+      }else{
+        coref = new CorefAnnotator(properties);
+      }
+
+      filterSentences = settings.isFilterSentences();
+      dependencyBackend = settings.getParseBackend() == ParseBackend.DEPENDENCY;
+      matchPolicy = settings.getMatchPolicy();
+      degradation = settings.getDegradation();
+      degradedWindowSentences = settings.getDegradedWindowSentences();
+
+      modelsLoaded();
+    }
+
+    @Override
+    protected void processText(Text content) {
+      Annotation document = CoreNLPUtils.createCoreNLPDocument(content);
+      parse(document, filterSentences);
+      StageEvent.annotate(coref, document);
+      saveChains(content, document);
+    }
+
+    @Override
+    protected String getDegradation() {
+      return degradation == Degradation.NONE ? null : degradation.name();
     }
 
     @Override
-    protected void process(Text content) {
+    protected void processDegraded(Text content) {
+      switch (degradation) {
+        case SKIP:
+          log().debug("Skipping coreference of content {}", content.getId());
+          break;
+        case FILTERED:
+          Annotation document = CoreNLPUtils.createCoreNLPDocument(content);
+          parse(document, true);
+          StageEvent.annotate(coref, document);
+          saveChains(content, document);
+          break;
+        case WINDOWED:
+          processWindowed(content);
+          break;
+        default:
+          processText(content);
+      }
+    }
+
+    /**
+     * Parse the document, and then find coreference chains within windows of consecutive sentences,
+     * so that the cost of coreference grows linearly rather than quadratically with the length of the document.
+     * Chains can't link mentions in different windows.
+     */
+    private void processWindowed(Text content){
       Annotation document = CoreNLPUtils.createCoreNLPDocument(content);
-      parser.annotate(document);
-      coref.annotate(document);
+      parse(document, filterSentences);
 
+      List<CoreMap> sentences = document.get(CoreAnnotations.SentencesAnnotation.class);
+      if(sentences.size() <= degradedWindowSentences){
+        StageEvent.annotate(coref, document);
+        saveChains(content, document);
+        return;
+      }
+
+      //Each window is re-indexed in place by createSubDocument, so its chains are saved before the next is created
+      for(int i = 0; i < sentences.size(); i += degradedWindowSentences){
+        Annotation window = CoreNLPUtils.createSubDocument(document, sentences.subList(i, Math.min(i + degradedWindowSentences, sentences.size())));
+        StageEvent.annotate(coref, window);
+        saveChains(content, window);
+      }
+    }
+
+    private void saveChains(Text content, Annotation document){
       List<CoreLabel> tokens = document.get(CoreAnnotations.TokensAnnotation.class);
       List<CoreMap> sentences = document.get(CoreAnnotations.SentencesAnnotation.class);
 
+      StageEvent writeEvent = StageEvent.start(StageEvent.WRITE, getClass());
+      int outputs = 0;
       for (CorefChain cc : document.get(CorefCoreAnnotations.CorefChainAnnotation.class).values()) {
         Group.Builder builder = content.getItem().getGroups().create()
             .withType(GroupTypes.GROUP_TYPE_GRAMMAR_COREFERENCE);
 
-        AtomicInteger count = new AtomicInteger(0);
+        Set<String> mentions = new HashSet<>();
         cc.getMentionsInTextualOrder().forEach(cm -> {
           int sentenceOffset = sentences.get(cm.sentNum - 1).get(CoreAnnotations.TokenBeginAnnotation.class);
 
-          SpanBounds sbMention = new SpanBounds(tokens.get(sentenceOffset + cm.startIndex - 1).beginPosition(), tokens.get(sentenceOffset + cm.endIndex - 2).endPosition());
-          String type = CoreNLPUtils.CORENLP_TO_ANNOT8.getOrDefault(tokens.get(cm.headIndex - 1).ner(), "_");
+          List<CoreLabel> mentionTokens = tokens.subList(sentenceOffset + cm.startIndex - 1, sentenceOffset + cm.endIndex - 1);
+          String type = CoreNLPUtils.CORENLP_TO_ANNOT8.getOrDefault(tokens.get(sentenceOffset + cm.headIndex - 1).ner(), "_");
 
-          content.getAnnotations().getByBoundsAndType(SpanBounds.class, type)
-              .filter(a -> a.getBounds(SpanBounds.class).get().isSame(sbMention))
+          CoreNLPUtils.getEntities(document, mentionTokens, type, matchPolicy)
               .forEach(a -> {
-                builder.withAnnotation(GroupRoles.GROUP_ROLE_MENTION, a);
-                count.incrementAndGet();
+                //With inexact matching, several mentions may match the same entity
+                if(mentions.add(a.getId()))
+                  builder.withAnnotation(GroupRoles.GROUP_ROLE_MENTION, a);
               });
         });
 
-        if(count.get() < 2)
+        if(mentions.size() < 2)
           continue;
 
         builder.save();
+        outputs++;
+      }
+      writeEvent.finish(document, outputs);
+    }
+
+    private void parse(Annotation document, boolean filter){
+      List<CoreMap> sentences = document.get(CoreAnnotations.SentencesAnnotation.class);
+
+      List<CoreMap> toParse = new ArrayList<>(sentences.size());
+      for(CoreMap sentence : sentences){
+        //Reuse any existing dependency parse (e.g. from the Dependency Parse processor) if we only need dependencies
+        if(dependencyBackend && ParseUtils.hasDependencies(sentence))
+          continue;
+
+        if(filter && !isCandidate(sentence)) {
+          ParseUtils.setPlaceholderParse(sentence);
+          continue;
+        }
+
+        toParse.add(sentence);
+      }
+
+      int parsed = toParse.size();
+      if(!toParse.isEmpty()) {
+        if(parseCache == null) {
+          ParseUtils.parse(parser, document, toParse, executor);
+        }else{
+          parsed = parseCache.parse(parser, parseFingerprint, document, toParse, executor);
+        }
+      }
+
+      sentencesParsed.addAndGet(parsed);
+      sentencesSkipped.addAndGet(sentences.size() - parsed);
+      log().debug("Parsed {} of {} sentences", parsed, sentences.size());
+    }
+
+    /**
+     * Test of whether a sentence could contribute a mention to a coreference chain,
+     * based on existing entity mentions, pronouns and demonstratives.
+     */
+    protected static boolean isCandidate(CoreMap sentence){
+      List<CoreMap> mentions = sentence.get(CoreAnnotations.MentionsAnnotation.class);
+      if(mentions != null && !mentions.isEmpty())
+        return true;
+
+      for(CoreLabel token : sentence.get(CoreAnnotations.TokensAnnotation.class)){
+        if(token.tag() != null && PRONOUN_TAGS.contains(token.tag()))
+          return true;
+
+        if(token.word() != null && ANAPHOR_WORDS.contains(token.word().toLowerCase(Locale.ROOT)))
+          return true;
       }
+
+      return false;
+    }
+
+    /**
+     * Number of sentences passed to the parser
+     */
+    public long getSentencesParsed() {
+      return sentencesParsed.get();
+    }
+
+    /**
+     * Number of sentences not passed to the parser, either because they were given a placeholder parse,
+     * they already had a dependency parse that could be reused, or their parse was in the parse cache
+     */
+    public long getSentencesSkipped() {
+      return sentencesSkipped.get();
+    }
+
+    @Override
+    public void close() {
+      super.close();
+
+      if(parseCache != null) {
+        try {
+          parseCache.close();
+        } catch (IOException e) {
+          log().warn("Unable to close parse cache", e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Coreference algorithms supported by CoreNLP
+   */
+  public enum Algorithm {
+    /**
+     * Rule-based sieve system (dcoref), which requires constituency parses
+     */
+    DETERMINISTIC(Collections.emptyMap()),
+
+    /**
+     * Statistical mention ranking model
+     */
+    STATISTICAL(Map.of("coref.algorithm", "statistical")),
+
+    /**
+     * Neural mention ranking model, which is the most accurate but slowest algorithm
+     */
+    NEURAL(Map.of("coref.algorithm", "neural"));
+
+    private final Map<String, String> properties;
+
+    Algorithm(Map<String, String> properties){
+      this.properties = properties;
+    }
+
+    /**
+     * Returns a copy of the given properties, with the properties selecting this algorithm added where they haven't already been set
+     */
+    public Properties apply(Properties properties){
+      Properties applied = new Properties();
+      if(properties != null)
+        applied.putAll(properties);
+
+      this.properties.forEach((k, v) -> {
+        if(!applied.containsKey(k))
+          applied.setProperty(k, v);
+      });
+
+      return applied;
+    }
+  }
+
+  /**
+   * Parsers that can be used to provide the syntactic structure required by the coreference algorithm
+   */
+  public enum ParseBackend {
+    /**
+     * CoreNLP's default PCFG constituency parser
+     */
+    CONSTITUENCY(Collections.emptyMap()),
+
+    /**
+     * Shift-reduce constituency parser, which is considerably faster than the PCFG parser
+     * (requires the English models jar on the classpath)
+     */
+    SHIFT_REDUCE(Map.of("parse.model", "edu/stanford/nlp/models/srparser/englishSR.ser.gz")),
+
+    /**
+     * Neural dependency parser only, with mentions detected from the dependency parse rather than a constituency parse
+     */
+    DEPENDENCY(Map.of("coref.md.type", "dependency"));
+
+    private final Map<String, String> properties;
+
+    ParseBackend(Map<String, String> properties){
+      this.properties = properties;
+    }
+
+    /**
+     * Returns a copy of the given properties, with the backend's properties added where they haven't already been set
+     */
+    public Properties apply(Properties properties){
+      Properties applied = new Properties();
+      if(properties != null)
+        applied.putAll(properties);
+
+      this.properties.forEach((k, v) -> {
+        if(!applied.containsKey(k))
+          applied.setProperty(k, v);
+      });
+
+      return applied;
+    }
+  }
+
+  /**
+   * Cheaper modes used for documents whose estimated cost exceeds the cost budget
+   */
+  public enum Degradation {
+    /**
+     * Always process documents in full
+     */
+    NONE,
+
+    /**
+     * Only parse sentences containing an entity, pronoun or demonstrative, as with filterSentences
+     */
+    FILTERED,
+
+    /**
+     * Find coreference chains within windows of consecutive sentences, rather than across the whole document
+     */
+    WINDOWED,
+
+    /**
+     * Don't perform coreference
+     */
+    SKIP
+  }
+
+  public static class Settings extends ProcessorSettings {
+
+    private Algorithm algorithm = null;
+    private ParseBackend parseBackend = ParseBackend.CONSTITUENCY;
+    private boolean filterSentences = false;
+    private MatchPolicy matchPolicy = MatchPolicy.EXACT;
+    private String parseCacheFile = null;
+    private int parseCacheMegabytes = 1024;
+    private Degradation degradation = Degradation.WINDOWED;
+    private int degradedWindowSentences = 10;
+    private String executor = null;
+
+    public Settings(){
+      super();
+    }
+
+    public Settings(Properties properties){
+      super(properties);
+    }
+
+    @Description(value = "Only parse sentences containing an entity, pronoun or demonstrative, giving other sentences a placeholder parse", defaultValue = "false")
+    public boolean isFilterSentences() {
+      return filterSentences;
+    }
+    public void setFilterSentences(boolean filterSentences) {
+      this.filterSentences = filterSentences;
+    }
+
+    @Description("Coreference algorithm to use (DETERMINISTIC, STATISTICAL or NEURAL), or null to use CoreNLP's default or the coref.algorithm property")
+    public Algorithm getAlgorithm() {
+      return algorithm;
+    }
+    public void setAlgorithm(Algorithm algorithm) {
+      this.algorithm = algorithm;
+    }
+
+    @Description(value = "Parser to use (CONSTITUENCY, SHIFT_REDUCE or DEPENDENCY). The DETERMINISTIC algorithm requires a constituency parser", defaultValue = "CONSTITUENCY")
+    public ParseBackend getParseBackend() {
+      return parseBackend;
+    }
+    public void setParseBackend(ParseBackend parseBackend) {
+      this.parseBackend = parseBackend;
+    }
+
+    @Description(value = "How mentions are matched to existing entities (EXACT, WITHIN, COVERING or OVERLAP)", defaultValue = "EXACT")
+    public MatchPolicy getMatchPolicy() {
+      return matchPolicy;
+    }
+    public void setMatchPolicy(MatchPolicy matchPolicy) {
+      this.matchPolicy = matchPolicy;
+    }
+
+    @Description("File in which to persist parses between runs, so that previously seen sentences don't need to be parsed again, or null to disable the parse cache. Each file can only be used by one process at a time, so processes running in parallel need separate files")
+    public String getParseCacheFile() {
+      return parseCacheFile;
+    }
+    public void setParseCacheFile(String parseCacheFile) {
+      this.parseCacheFile = parseCacheFile;
+    }
+
+    @Description(value = "Maximum size of the parse cache file, in megabytes, after which no further parses are added", defaultValue = "1024")
+    public int getParseCacheMegabytes() {
+      return parseCacheMegabytes;
+    }
+    public void setParseCacheMegabytes(int parseCacheMegabytes) {
+      this.parseCacheMegabytes = parseCacheMegabytes;
+    }
+
+    @Description(value = "Cheaper mode used for documents whose estimated cost exceeds the cost budget (NONE, FILTERED, WINDOWED or SKIP)", defaultValue = "WINDOWED")
+    public Degradation getDegradation() {
+      return degradation;
+    }
+    public void setDegradation(Degradation degradation) {
+      this.degradation = degradation;
+    }
+
+    @Description(value = "Number of sentences in each window when the WINDOWED degradation is applied", defaultValue = "10")
+    public int getDegradedWindowSentences() {
+      return degradedWindowSentences;
+    }
+    public void setDegradedWindowSentences(int degradedWindowSentences) {
+      this.degradedWindowSentences = degradedWindowSentences;
+    }
+
+    @Description("Name of the shared executor used to process the sentences of a document in parallel, or null to process each document on a single thread")
+    public String getExecutor() {
+      return executor;
+    }
+    public void setExecutor(String executor) {
+      this.executor = executor;
+    }
+
+    @Override
+    public boolean validate() {
+      return super.validate() &&
+          parseBackend != null &&
+          matchPolicy != null &&
+          parseCacheMegabytes > 0 &&
+          degradation != null &&
+          degradedWindowSentences > 0 &&
+          !(algorithm == Algorithm.DETERMINISTIC && parseBackend == ParseBackend.DEPENDENCY);
     }
   }
 }
\ No newline at end of file
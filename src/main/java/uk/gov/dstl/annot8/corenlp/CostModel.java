@@ -0,0 +1,163 @@
+/*
+ * Crown Copyright (C) 2021 Dstl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package uk.gov.dstl.annot8.corenlp;
+
+import io.annot8.common.components.AbstractProcessorDescriptor;
+import io.annot8.common.data.bounds.SpanBounds;
+import io.annot8.common.data.content.Text;
+import io.annot8.conventions.AnnotationTypes;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Linear estimate of the cost of processing a document, from the number of tokens, sentences and entities it contains,
+ * which is compared against a budget so that processors can use a cheaper mode for documents that would otherwise
+ * take disproportionately long (see {@link CoreNLPTextProcessor}).
+ *
+ * The degradation applied by each processor is recorded as a property of the item, under a key made up of
+ * {@link #PROPERTY_KEY_DEGRADATION}, the content ID and the processor, and can be read with {@link #getDegradations(Text)}.
+ */
+public class CostModel {
+
+  public static final String PROPERTY_KEY_DEGRADATION = "degradation";
+
+  private final long budget;
+  private final double tokenCost;
+  private final double sentenceCost;
+  private final double entityCost;
+
+  public CostModel(long budget, double tokenCost, double sentenceCost, double entityCost){
+    if(budget <= 0)
+      throw new IllegalArgumentException("Cost budget must be greater than 0");
+
+    this.budget = budget;
+    this.tokenCost = tokenCost;
+    this.sentenceCost = sentenceCost;
+    this.entityCost = entityCost;
+  }
+
+  /**
+   * Create a cost model from the settings, or return null if no budget is set
+   */
+  public static CostModel create(ProcessorSettings settings){
+    if(settings.getCostBudget() <= 0)
+      return null;
+
+    return new CostModel(settings.getCostBudget(), settings.getCostPerToken(), settings.getCostPerSentence(), settings.getCostPerEntity());
+  }
+
+  /**
+   * Count the tokens, sentences and entities in the content, and estimate the cost of processing it
+   */
+  public Cost estimate(Text content){
+    long tokens = content.getAnnotations().getByBoundsAndType(SpanBounds.class, AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).count();
+    long sentences = content.getAnnotations().getByBoundsAndType(SpanBounds.class, AnnotationTypes.ANNOTATION_TYPE_SENTENCE).count();
+    long entities = content.getAnnotations().getByBounds(SpanBounds.class)
+        .filter(CoreNLPUtils::isCoreNLPType)
+        .count();
+
+    return estimate(tokens, sentences, entities);
+  }
+
+  public Cost estimate(long tokens, long sentences, long entities){
+    return new Cost(tokens, sentences, entities, tokens * tokenCost + sentences * sentenceCost + entities * entityCost);
+  }
+
+  public boolean isOverBudget(Cost cost){
+    return cost.getTotal() > budget;
+  }
+
+  public long getBudget() {
+    return budget;
+  }
+
+  /**
+   * Record the degradation applied to the content by the processor on the content's item
+   */
+  public static void recordDegradation(Text content, Class<?> processor, String degradation){
+    content.getItem().getProperties().set(key(content, processor), degradation);
+  }
+
+  /**
+   * The degradations applied to the content, keyed by the name of the processor which applied them
+   */
+  public static Map<String, String> getDegradations(Text content){
+    String prefix = PROPERTY_KEY_DEGRADATION + "." + content.getId() + ".";
+
+    Map<String, String> degradations = new HashMap<>();
+    content.getItem().getProperties().getAll().forEach((k, v) -> {
+      if(k.startsWith(prefix))
+        degradations.put(k.substring(prefix.length()), String.valueOf(v));
+    });
+
+    return degradations;
+  }
+
+  private static String key(Text content, Class<?> processor){
+    return PROPERTY_KEY_DEGRADATION + "." + content.getId() + "." + processorName(processor);
+  }
+
+  /**
+   * Name of the processor, using the name of the descriptor for processors nested within their descriptor (e.g. NER)
+   */
+  private static String processorName(Class<?> processor){
+    Class<?> enclosing = processor.getEnclosingClass();
+    if(enclosing != null && AbstractProcessorDescriptor.class.isAssignableFrom(enclosing))
+      return enclosing.getSimpleName();
+
+    return processor.getSimpleName();
+  }
+
+  /**
+   * Estimated cost of processing a document
+   */
+  public static class Cost {
+    private final long tokens;
+    private final long sentences;
+    private final long entities;
+    private final double total;
+
+    private Cost(long tokens, long sentences, long entities, double total){
+      this.tokens = tokens;
+      this.sentences = sentences;
+      this.entities = entities;
+      this.total = total;
+    }
+
+    public long getTokens() {
+      return tokens;
+    }
+
+    public long getSentences() {
+      return sentences;
+    }
+
+    public long getEntities() {
+      return entities;
+    }
+
+    public double getTotal() {
+      return total;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%.0f (%d tokens, %d sentences, %d entities)", total, tokens, sentences, entities);
+    }
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * Crown Copyright (C) 2021 Dstl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package uk.gov.dstl.annot8.corenlp;
+
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.pipeline.DependencyParseAnnotator;
+import edu.stanford.nlp.semgraph.SemanticGraphCoreAnnotations;
+import edu.stanford.nlp.util.CoreMap;
+import io.annot8.api.capabilities.Capabilities;
+import io.annot8.api.components.annotations.ComponentDescription;
+import io.annot8.api.components.annotations.ComponentName;
+import io.annot8.api.components.annotations.SettingsClass;
+import io.annot8.api.context.Context;
+import io.annot8.api.settings.Description;
+import io.annot8.common.components.AbstractProcessorDescriptor;
+import io.annot8.common.components.capabilities.SimpleCapabilities;
+import io.annot8.common.data.bounds.SpanBounds;
+import io.annot8.common.data.content.Text;
+import io.annot8.components.base.text.processors.AbstractTextProcessor;
+import io.annot8.conventions.AnnotationTypes;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Collectors;
+
+@ComponentName("CoreNLP Dependency Parse")
+@ComponentDescription("Add dependency parses to sentences using CoreNLP's Dependency Parser (depparse), so that later processors don't need to parse them again")
+@SettingsClass(DependencyParse.Settings.class)
+public class DependencyParse extends AbstractProcessorDescriptor<DependencyParse.Processor, DependencyParse.Settings> {
+
+  @Override
+  protected Processor createComponent(Context context, Settings settings) {
+    return new Processor(settings);
+  }
+
+  @Override
+  public Capabilities capabilities() {
+    return new SimpleCapabilities.Builder()
+        .withProcessesAnnotations(AnnotationTypes.ANNOTATION_TYPE_SENTENCE, SpanBounds.class)
+        .withProcessesAnnotations(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN, SpanBounds.class)
+        .build();
+  }
+
+  public static class Processor extends AbstractTextProcessor {
+
+    private final DependencyParseAnnotator parser;
+    private final SharedExecutor executor;
+
+    public Processor(Properties properties){
+      this(new Settings(properties));
+    }
+
+    public Processor(Settings settings){
+      executor = SharedExecutor.forName(settings.getExecutor());
+      parser = new DependencyParseAnnotator(executor == null ? settings.getProperties() : SharedExecutor.singleThreaded(settings.getProperties()));
+    }
+
+    @Override
+    protected void process(Text content) {
+      List<io.annot8.api.annotations.Annotation> sentences = CoreNLPUtils.getSentences(content);
+      Annotation document = CoreNLPUtils.createCoreNLPDocument(content, sentences, CoreNLPUtils.getTokens(content), CoreNLPUtils.getEntities(content));
+
+      //Sentences which already have a parse will have had it restored by createCoreNLPDocument
+      List<CoreMap> unparsed = document.get(CoreAnnotations.SentencesAnnotation.class).stream()
+          .filter(s -> !ParseUtils.hasDependencies(s))
+          .collect(Collectors.toList());
+
+      if(unparsed.isEmpty())
+        return;
+
+      ParseUtils.parse(parser, document, unparsed, executor);
+
+      StageEvent writeEvent = StageEvent.start(StageEvent.WRITE, getClass());
+      for(CoreMap sentence : unparsed){
+        io.annot8.api.annotations.Annotation annot8Sentence = sentences.get(sentence.get(CoreAnnotations.SentenceIndexAnnotation.class));
+
+        content.getAnnotations().create().from(annot8Sentence)
+            .withProperty(ParseUtils.PROPERTY_KEY_BASIC_DEPENDENCIES, ParseUtils.encode(sentence.get(SemanticGraphCoreAnnotations.BasicDependenciesAnnotation.class)))
+            .withProperty(ParseUtils.PROPERTY_KEY_ENHANCED_DEPENDENCIES, ParseUtils.encode(sentence.get(SemanticGraphCoreAnnotations.EnhancedDependenciesAnnotation.class)))
+            .withProperty(ParseUtils.PROPERTY_KEY_ENHANCED_PLUS_PLUS_DEPENDENCIES, ParseUtils.encode(sentence.get(SemanticGraphCoreAnnotations.EnhancedPlusPlusDependenciesAnnotation.class)))
+            .withProperty(ParseUtils.PROPERTY_KEY_DEPENDENCY_TOKENS, ParseUtils.fingerprint(sentence.get(CoreAnnotations.TokensAnnotation.class)))
+            .save();
+      }
+      writeEvent.finish(document, unparsed.size());
+    }
+  }
+
+  public static class Settings extends CoreNLPSettings {
+
+    private String executor = null;
+
+    public Settings(){
+      super();
+    }
+
+    public Settings(Properties properties){
+      super(properties);
+    }
+
+    @Description("Name of the shared executor used to process the sentences of a document in parallel, or null to process each document on a single thread")
+    public String getExecutor() {
+      return executor;
+    }
+    public void setExecutor(String executor) {
+      this.executor = executor;
+    }
+  }
+}
@@ -0,0 +1,345 @@
+/*
+ * Crown Copyright (C) 2021 Dstl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package uk.gov.dstl.annot8.corenlp;
+
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.process.CoreLabelTokenFactory;
+import edu.stanford.nlp.process.PTBTokenizer;
+import io.annot8.api.annotations.Annotation;
+import io.annot8.api.capabilities.Capabilities;
+import io.annot8.api.components.annotations.ComponentDescription;
+import io.annot8.api.components.annotations.ComponentName;
+import io.annot8.api.components.annotations.SettingsClass;
+import io.annot8.api.context.Context;
+import io.annot8.api.exceptions.Annot8Exception;
+import io.annot8.api.settings.Description;
+import io.annot8.common.components.AbstractProcessorDescriptor;
+import io.annot8.common.components.capabilities.SimpleCapabilities;
+import io.annot8.common.data.bounds.SpanBounds;
+import io.annot8.common.data.content.Text;
+import io.annot8.common.data.utils.SortUtils;
+import io.annot8.components.base.text.processors.AbstractTextProcessor;
+import io.annot8.conventions.AnnotationTypes;
+import io.annot8.conventions.PropertyKeys;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
+
+@ComponentName("CoreNLP Gazetteer")
+@ComponentDescription("Extract entities from lists of known terms, matched against existing word tokens")
+@SettingsClass(Gazetteer.Settings.class)
+public class Gazetteer extends AbstractProcessorDescriptor<Gazetteer.Processor, Gazetteer.Settings> {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(Gazetteer.class);
+
+  //Compiled automata, shared between all processors configured with the same terms, and released when the last processor using them is closed
+  private static final Map<List<Object>, SharedAutomaton> AUTOMATA = new HashMap<>();
+
+  @Override
+  protected Processor createComponent(Context context, Settings settings) {
+    try {
+      return new Processor(settings);
+    } catch (Annot8Exception e) {
+      LOGGER.error("Unable to create processor", e);
+      return null;
+    }
+  }
+
+  @Override
+  public Capabilities capabilities() {
+    SimpleCapabilities.Builder builder = new SimpleCapabilities.Builder()
+        .withProcessesAnnotations(AnnotationTypes.ANNOTATION_TYPE_SENTENCE, SpanBounds.class)
+        .withProcessesAnnotations(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN, SpanBounds.class);
+
+    Set<String> types = new HashSet<>(getSettings().getTerms().keySet());
+    types.addAll(getSettings().getFiles().keySet());
+
+    types.stream()
+        .map(t -> CoreNLPUtils.CORENLP_TO_ANNOT8.getOrDefault(t, CoreNLPUtils.UNDEFINED_ENTITY))
+        .distinct()
+        .forEach(t -> builder.withCreatesAnnotations(t, SpanBounds.class));
+
+    return builder.build();
+  }
+
+  /**
+   * Returns the automaton for the settings, compiling it if an automaton for the same terms (and the same versions of
+   * the files) isn't already held. Each call should be matched by a call to {@link #releaseAutomaton(GazetteerAutomaton)}
+   * once the automaton is no longer needed.
+   */
+  public static GazetteerAutomaton getAutomaton(Settings settings) throws Annot8Exception {
+    //Copy the settings into the key, so that later changes to the settings don't affect the shared automata
+    Map<String, List<String>> terms = new HashMap<>();
+    settings.getTerms().forEach((type, t) -> terms.put(type, List.copyOf(t)));
+
+    Map<String, String> files = new HashMap<>(settings.getFiles());
+    boolean caseSensitive = settings.isCaseSensitive();
+    String tokenizerOptions = settings.getProperties().getProperty("tokenize.options", "");
+
+    //Files are keyed by their modification time as well as their path, so that an edited file is compiled again
+    Map<String, List<Object>> fileVersions = new HashMap<>();
+    files.forEach((type, file) -> fileVersions.put(type, List.of(file, lastModified(file))));
+
+    List<Object> key = List.of(terms, fileVersions, caseSensitive, tokenizerOptions);
+
+    SharedAutomaton shared;
+    boolean compiling = false;
+    synchronized (AUTOMATA) {
+      shared = AUTOMATA.get(key);
+      if(shared == null) {
+        shared = new SharedAutomaton();
+        AUTOMATA.put(key, shared);
+        compiling = true;
+      }
+
+      shared.references++;
+    }
+
+    //Compile outside the lock, so that a large gazetteer doesn't hold up other processors, which wait only if they need the same automaton
+    if(compiling) {
+      try {
+        shared.automaton.complete(compile(terms, files, caseSensitive, tokenizerOptions));
+      }catch (Annot8Exception | RuntimeException e){
+        synchronized (AUTOMATA) {
+          AUTOMATA.remove(key, shared);
+        }
+        shared.automaton.completeExceptionally(e);
+        throw e;
+      }
+    }
+
+    try {
+      return shared.automaton.join();
+    }catch (CompletionException e){
+      if(e.getCause() instanceof Annot8Exception)
+        throw (Annot8Exception) e.getCause();
+
+      throw new Annot8Exception("Unable to compile gazetteer", e.getCause());
+    }
+  }
+
+  /**
+   * Release a reference to an automaton returned by {@link #getAutomaton(Settings)}, discarding the automaton once
+   * all references have been released
+   */
+  public static void releaseAutomaton(GazetteerAutomaton automaton){
+    synchronized (AUTOMATA) {
+      Iterator<SharedAutomaton> iterator = AUTOMATA.values().iterator();
+      while(iterator.hasNext()){
+        SharedAutomaton shared = iterator.next();
+        if(shared.automaton.getNow(null) != automaton)
+          continue;
+
+        if(--shared.references <= 0)
+          iterator.remove();
+
+        return;
+      }
+    }
+  }
+
+  private static long lastModified(String file){
+    try {
+      return Files.getLastModifiedTime(Paths.get(file)).toMillis();
+    }catch (IOException e){
+      //The file will fail to compile, reporting the error
+      return -1;
+    }
+  }
+
+  /**
+   * Compile the terms and files in the settings into a new automaton
+   */
+  public static GazetteerAutomaton compile(Settings settings) throws Annot8Exception {
+    return compile(settings.getTerms(), settings.getFiles(), settings.isCaseSensitive(), settings.getProperties().getProperty("tokenize.options", ""));
+  }
+
+  private static GazetteerAutomaton compile(Map<String, ? extends Collection<String>> terms, Map<String, String> files, boolean caseSensitive, String tokenizerOptions) throws Annot8Exception {
+    GazetteerAutomaton.Builder builder = new GazetteerAutomaton.Builder(caseSensitive);
+
+    terms.forEach((type, t) -> t.forEach(term -> builder.add(tokenize(term, tokenizerOptions), type)));
+
+    for(Map.Entry<String, String> e : files.entrySet()){
+      try {
+        for(String term : Files.readAllLines(Paths.get(e.getValue()), StandardCharsets.UTF_8)){
+          if(term.isBlank() || term.startsWith("#"))
+            continue;
+
+          builder.add(tokenize(term.strip(), tokenizerOptions), e.getKey());
+        }
+      } catch (IOException ioe) {
+        throw new Annot8Exception("Unable to read gazetteer file " + e.getValue(), ioe);
+      }
+    }
+
+    GazetteerAutomaton automaton = builder.build();
+    LOGGER.info("Compiled gazetteer with {} terms", automaton.size());
+
+    return automaton;
+  }
+
+  /**
+   * Split a term into tokens, in the same way as the CoreNLP tokenizer so that the terms match against CoreNLP word tokens
+   */
+  private static List<String> tokenize(String term, String options){
+    PTBTokenizer<CoreLabel> tokenizer = new PTBTokenizer<>(new StringReader(term), new CoreLabelTokenFactory(), options);
+
+    return tokenizer.tokenize().stream()
+        .map(cl -> term.substring(cl.beginPosition(), cl.endPosition()))
+        .collect(Collectors.toList());
+  }
+
+  private static class SharedAutomaton {
+    //Completed once the automaton has been compiled by the first processor to need it
+    private final CompletableFuture<GazetteerAutomaton> automaton = new CompletableFuture<>();
+    private int references = 0;
+  }
+
+  public static class Processor extends AbstractTextProcessor {
+
+    private final GazetteerAutomaton automaton;
+    private final boolean shared;
+
+    /**
+     * Create a processor using the shared automaton for the settings, which is released when the processor is closed
+     */
+    public Processor(Settings settings) throws Annot8Exception {
+      this.automaton = getAutomaton(settings);
+      this.shared = true;
+    }
+
+    public Processor(GazetteerAutomaton automaton){
+      this.automaton = automaton;
+      this.shared = false;
+    }
+
+    @Override
+    protected void process(Text content) {
+      List<SpanBounds> sentences = content.getAnnotations().getByBoundsAndType(SpanBounds.class, AnnotationTypes.ANNOTATION_TYPE_SENTENCE)
+          .sorted(SortUtils.SORT_BY_SPANBOUNDS)
+          .map(a -> a.getBounds(SpanBounds.class).get())
+          .collect(Collectors.toList());
+
+      List<Annotation> tokens = content.getAnnotations().getByBoundsAndType(SpanBounds.class, AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN)
+          .sorted(SortUtils.SORT_BY_SPANBOUNDS)
+          .collect(Collectors.toList());
+
+      if(sentences.isEmpty()){
+        tag(content, tokens);
+        return;
+      }
+
+      //Terms aren't matched across sentence boundaries
+      int tokenIndex = 0;
+      for(SpanBounds sentence : sentences){
+        while(tokenIndex < tokens.size() && tokens.get(tokenIndex).getBounds(SpanBounds.class).get().getBegin() < sentence.getBegin())
+          tokenIndex++;
+
+        int sentenceStart = tokenIndex;
+        while(tokenIndex < tokens.size() && tokens.get(tokenIndex).getBounds(SpanBounds.class).get().getEnd() <= sentence.getEnd())
+          tokenIndex++;
+
+        tag(content, tokens.subList(sentenceStart, tokenIndex));
+      }
+    }
+
+    private void tag(Text content, List<Annotation> tokens){
+      if(tokens.isEmpty())
+        return;
+
+      List<String> words = tokens.stream()
+          .map(t -> content.getText(t).orElse(""))
+          .collect(Collectors.toList());
+
+      for(GazetteerAutomaton.Match match : automaton.matchLongest(words)){
+        SpanBounds sb = new SpanBounds(tokens.get(match.getBegin()).getBounds(SpanBounds.class).get().getBegin(),
+            tokens.get(match.getEnd() - 1).getBounds(SpanBounds.class).get().getEnd());
+
+        content.getAnnotations().create()
+            .withBounds(sb)
+            .withType(CoreNLPUtils.CORENLP_TO_ANNOT8.getOrDefault(match.getType(), CoreNLPUtils.UNDEFINED_ENTITY))
+            .withProperty(PropertyKeys.PROPERTY_KEY_SUBTYPE, match.getType())
+            .save();
+      }
+    }
+
+    @Override
+    public void close() {
+      if(shared)
+        releaseAutomaton(automaton);
+    }
+  }
+
+  public static class Settings extends CoreNLPSettings {
+
+    private Map<String, List<String>> terms = new HashMap<>();
+    private Map<String, String> files = new HashMap<>();
+    private boolean caseSensitive = false;
+
+    @Description("Terms to match, keyed by the CoreNLP type (e.g. PERSON) of the entities to create")
+    public Map<String, List<String>> getTerms() {
+      return terms;
+    }
+    public void setTerms(Map<String, List<String>> terms) {
+      this.terms = terms;
+    }
+    public void addTerms(String type, String... terms){
+      if(this.terms == null)
+        this.terms = new HashMap<>();
+
+      this.terms.computeIfAbsent(type, t -> new ArrayList<>()).addAll(Arrays.asList(terms));
+    }
+
+    @Description("Files containing terms to match (one per line), keyed by the CoreNLP type (e.g. PERSON) of the entities to create")
+    public Map<String, String> getFiles() {
+      return files;
+    }
+    public void setFiles(Map<String, String> files) {
+      this.files = files;
+    }
+    public void addFile(String type, String file){
+      if(files == null)
+        files = new HashMap<>();
+
+      files.put(type, file);
+    }
+
+    @Description(value = "Should terms be matched case sensitively", defaultValue = "false")
+    public boolean isCaseSensitive() {
+      return caseSensitive;
+    }
+    public void setCaseSensitive(boolean caseSensitive) {
+      this.caseSensitive = caseSensitive;
+    }
+
+    @Override
+    public boolean validate() {
+      return terms != null && files != null && properties != null &&
+          CoreNLPUtils.CORENLP_TO_ANNOT8.keySet().containsAll(terms.keySet()) &&
+          CoreNLPUtils.CORENLP_TO_ANNOT8.keySet().containsAll(files.keySet());
+    }
+  }
+}
@@ -0,0 +1,247 @@
+/*
+ * Crown Copyright (C) 2021 Dstl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package uk.gov.dstl.annot8.corenlp;
+
+import java.util.*;
+
+/**
+ * Aho-Corasick automaton over sequences of word tokens, used to find every occurrence of a
+ * (potentially very large) list of terms in a single pass over the tokens. The time taken to
+ * match is linear in the number of tokens plus the number of matches, regardless of how many
+ * terms are in the automaton.
+ *
+ * Instances are immutable once built, and can be shared between threads.
+ */
+public class GazetteerAutomaton {
+
+  private static final int ROOT = 0;
+  private static final int NONE = -1;
+
+  private final boolean caseSensitive;
+
+  private final List<Map<String, Integer>> transitions;
+  private final int[] fail;
+  private final int[] dictionaryLink;
+  private final int[] depth;
+  private final String[] types;
+
+  private final int termCount;
+
+  private GazetteerAutomaton(Builder builder){
+    this.caseSensitive = builder.caseSensitive;
+    this.transitions = builder.transitions;
+    this.depth = builder.depth.stream().mapToInt(Integer::intValue).toArray();
+    this.types = builder.types.toArray(new String[0]);
+    this.termCount = builder.termCount;
+
+    int nodes = transitions.size();
+    fail = new int[nodes];
+    dictionaryLink = new int[nodes];
+    dictionaryLink[ROOT] = NONE;
+
+    //Breadth first search to set the failure links
+    Deque<Integer> queue = new ArrayDeque<>();
+    for(int child : transitions.get(ROOT).values()){
+      fail[child] = ROOT;
+      dictionaryLink[child] = NONE;
+      queue.add(child);
+    }
+
+    while(!queue.isEmpty()){
+      int node = queue.poll();
+
+      for(Map.Entry<String, Integer> e : transitions.get(node).entrySet()){
+        int child = e.getValue();
+
+        int f = fail[node];
+        while(f != ROOT && !transitions.get(f).containsKey(e.getKey()))
+          f = fail[f];
+
+        fail[child] = transitions.get(f).getOrDefault(e.getKey(), ROOT);
+        dictionaryLink[child] = types[fail[child]] != null ? fail[child] : dictionaryLink[fail[child]];
+
+        queue.add(child);
+      }
+    }
+  }
+
+  /**
+   * Find all occurrences of terms within the tokens, including overlapping occurrences
+   */
+  public List<Match> match(List<String> tokens){
+    List<Match> matches = new ArrayList<>();
+
+    int state = ROOT;
+    for(int i = 0; i < tokens.size(); i++){
+      String token = normalize(tokens.get(i));
+
+      while(state != ROOT && !transitions.get(state).containsKey(token))
+        state = fail[state];
+      state = transitions.get(state).getOrDefault(token, ROOT);
+
+      int node = types[state] != null ? state : dictionaryLink[state];
+      while(node != NONE){
+        matches.add(new Match(i + 1 - depth[node], i + 1, types[node]));
+        node = dictionaryLink[node];
+      }
+    }
+
+    return matches;
+  }
+
+  /**
+   * Find the longest occurrences of terms within the tokens, choosing the leftmost where occurrences overlap
+   */
+  public List<Match> matchLongest(List<String> tokens){
+    List<Match> matches = match(tokens);
+    matches.sort(Comparator.comparingInt(Match::getBegin).thenComparing(Comparator.comparingInt(Match::getLength).reversed()));
+
+    List<Match> selected = new ArrayList<>();
+    int end = 0;
+    for(Match m : matches){
+      if(m.getBegin() < end)
+        continue;
+
+      selected.add(m);
+      end = m.getEnd();
+    }
+
+    return selected;
+  }
+
+  public boolean isCaseSensitive() {
+    return caseSensitive;
+  }
+
+  /**
+   * The number of distinct terms in the automaton
+   */
+  public int size(){
+    return termCount;
+  }
+
+  private String normalize(String token){
+    return caseSensitive ? token : token.toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * An occurrence of a term, given as token offsets (begin inclusive, end exclusive)
+   */
+  public static class Match {
+    private final int begin;
+    private final int end;
+    private final String type;
+
+    public Match(int begin, int end, String type){
+      this.begin = begin;
+      this.end = end;
+      this.type = type;
+    }
+
+    public int getBegin() {
+      return begin;
+    }
+
+    public int getEnd() {
+      return end;
+    }
+
+    public int getLength(){
+      return end - begin;
+    }
+
+    public String getType() {
+      return type;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      Match match = (Match) o;
+      return begin == match.begin && end == match.end && Objects.equals(type, match.type);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(begin, end, type);
+    }
+
+    @Override
+    public String toString() {
+      return type + "[" + begin + "," + end + ")";
+    }
+  }
+
+  /**
+   * Builder for the automaton. The builder should not be reused once {@link #build()} has been called.
+   */
+  public static class Builder {
+    private final boolean caseSensitive;
+
+    private final List<Map<String, Integer>> transitions = new ArrayList<>();
+    private final List<Integer> depth = new ArrayList<>();
+    private final List<String> types = new ArrayList<>();
+    private int termCount = 0;
+
+    public Builder(boolean caseSensitive){
+      this.caseSensitive = caseSensitive;
+      addNode(0);
+    }
+
+    /**
+     * Add a term, already split into tokens. If the same term is added more than once,
+     * then the first type it was added with is used.
+     */
+    public Builder add(List<String> tokens, String type){
+      if(tokens.isEmpty())
+        return this;
+
+      int node = ROOT;
+      for(String token : tokens){
+        String t = caseSensitive ? token : token.toLowerCase(Locale.ROOT);
+
+        Integer next = transitions.get(node).get(t);
+        if(next == null){
+          next = addNode(depth.get(node) + 1);
+          transitions.get(node).put(t, next);
+        }
+
+        node = next;
+      }
+
+      if(types.get(node) == null){
+        types.set(node, type);
+        termCount++;
+      }
+
+      return this;
+    }
+
+    public GazetteerAutomaton build(){
+      return new GazetteerAutomaton(this);
+    }
+
+    private int addNode(int d){
+      transitions.add(new HashMap<>(4));
+      depth.add(d);
+      types.add(null);
+
+      return transitions.size() - 1;
+    }
+  }
+}
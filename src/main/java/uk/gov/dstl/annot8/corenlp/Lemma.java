@@ -20,11 +20,14 @@ import edu.stanford.nlp.ling.CoreAnnotations;
 import edu.stanford.nlp.ling.CoreLabel;
 import edu.stanford.nlp.pipeline.Annotation;
 import edu.stanford.nlp.pipeline.MorphaAnnotator;
+import edu.stanford.nlp.util.ArrayCoreMap;
+import edu.stanford.nlp.util.CoreMap;
 import io.annot8.api.capabilities.Capabilities;
 import io.annot8.api.components.annotations.ComponentDescription;
 import io.annot8.api.components.annotations.ComponentName;
+import io.annot8.api.components.annotations.SettingsClass;
 import io.annot8.api.context.Context;
-import io.annot8.api.settings.NoSettings;
+import io.annot8.api.settings.Description;
 import io.annot8.common.components.AbstractProcessorDescriptor;
 import io.annot8.common.components.capabilities.SimpleCapabilities;
 import io.annot8.common.data.bounds.SpanBounds;
@@ -33,16 +36,19 @@ import io.annot8.components.base.text.processors.AbstractTextProcessor;
 import io.annot8.conventions.AnnotationTypes;
 import io.annot8.conventions.PropertyKeys;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 
 @ComponentName("CoreNLP Lemmatization")
 @ComponentDescription("Add lemmas to WordTokens using CoreNLP's Lemma annotator")
-public class Lemma extends AbstractProcessorDescriptor<Lemma.Processor, NoSettings> {
+@SettingsClass(Lemma.Settings.class)
+public class Lemma extends AbstractProcessorDescriptor<Lemma.Processor, Lemma.Settings> {
 
   @Override
-  protected Processor createComponent(Context context, NoSettings settings) {
-    return new Processor();
+  protected Processor createComponent(Context context, Settings settings) {
+    return new Processor(settings.getCacheSize());
   }
 
   @Override
@@ -56,11 +62,27 @@ public class Lemma extends AbstractProcessorDescriptor<Lemma.Processor, NoSettin
   public static class Processor extends AbstractTextProcessor {
 
     private final MorphaAnnotator annotator = new MorphaAnnotator();
+    private final LruCache<String, String> cache;
+
+    public Processor(){
+      this(0);
+    }
+
+    public Processor(int cacheSize){
+      cache = cacheSize > 0 ? new LruCache<>(cacheSize) : null;
+    }
 
     @Override
     protected void process(Text content) {
       Annotation document = CoreNLPUtils.createCoreNLPDocument(content);
-      annotator.annotate(document);
+      if(cache == null) {
+        StageEvent.annotate(annotator, document);
+      }else{
+        lemmatizeWithCache(document);
+      }
+
+      StageEvent writeEvent = StageEvent.start(StageEvent.WRITE, getClass());
+      int outputs = 0;
 
       Map<Integer, io.annot8.api.annotations.Annotation> annotPos = content.getAnnotations()
           .getByBoundsAndType(SpanBounds.class, AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN)
@@ -78,7 +100,83 @@ public class Lemma extends AbstractProcessorDescriptor<Lemma.Processor, NoSettin
         content.getAnnotations().create().from(annotPos.get(i))
             .withProperty(PropertyKeys.PROPERTY_KEY_LEMMA, lemmaPos.get(i).get(CoreAnnotations.LemmaAnnotation.class))
             .save();
+        outputs++;
       }
+
+      writeEvent.finish(document, outputs);
+    }
+
+    private void lemmatizeWithCache(Annotation document){
+      List<CoreLabel> uncached = new ArrayList<>();
+      for(CoreMap sentence : document.get(CoreAnnotations.SentencesAnnotation.class)){
+        for(CoreLabel token : sentence.get(CoreAnnotations.TokensAnnotation.class)){
+          String lemma = cache.get(cacheKey(token));
+          if(lemma == null){
+            uncached.add(token);
+          }else{
+            token.setLemma(lemma);
+          }
+        }
+      }
+
+      if(uncached.isEmpty())
+        return;
+
+      //Morpha lemmatizes each token independently, so the uncached tokens can be passed as a single sentence
+      CoreMap missing = new ArrayCoreMap();
+      missing.set(CoreAnnotations.TokensAnnotation.class, uncached);
+
+      Annotation missingDocument = new Annotation("");
+      missingDocument.set(CoreAnnotations.DocIDAnnotation.class, document.get(CoreAnnotations.DocIDAnnotation.class));
+      missingDocument.set(CoreAnnotations.SentencesAnnotation.class, List.of(missing));
+      StageEvent.annotate(annotator, missingDocument);
+
+      for(CoreLabel token : uncached){
+        if(token.lemma() != null)
+          cache.put(cacheKey(token), token.lemma());
+      }
+    }
+
+    private static String cacheKey(CoreLabel token){
+      return token.word() + '\t' + token.tag();
+    }
+
+    /**
+     * Number of tokens whose lemma was taken from the cache
+     */
+    public long getCacheHits(){
+      return cache == null ? 0 : cache.getHits();
+    }
+
+    /**
+     * Number of tokens whose lemma had to be calculated by Morpha
+     */
+    public long getCacheMisses(){
+      return cache == null ? 0 : cache.getMisses();
+    }
+
+    @Override
+    public void close() {
+      if(cache != null)
+        log().debug("Lemma cache hit rate {} ({} hits, {} misses, {} evictions)", cache.getHitRate(), cache.getHits(), cache.getMisses(), cache.getEvictions());
+    }
+  }
+
+  public static class Settings implements io.annot8.api.settings.Settings {
+
+    private int cacheSize = 10000;
+
+    @Description(value = "Maximum number of (word, part of speech) pairs to cache lemmas for, or 0 to disable caching", defaultValue = "10000")
+    public int getCacheSize() {
+      return cacheSize;
+    }
+    public void setCacheSize(int cacheSize) {
+      this.cacheSize = cacheSize;
+    }
+
+    @Override
+    public boolean validate() {
+      return cacheSize >= 0;
     }
   }
 }
\ No newline at end of file
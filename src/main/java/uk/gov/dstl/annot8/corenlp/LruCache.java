@@ -0,0 +1,172 @@
+/*
+ * Crown Copyright (C) 2021 Dstl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package uk.gov.dstl.annot8.corenlp;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
+
+/**
+ * Thread-safe cache holding at most a fixed number of entries, or entries up to a fixed total weight,
+ * evicting the least recently used entries when full. Hits and misses are counted so that the
+ * effectiveness of the cache can be monitored.
+ */
+public class LruCache<K, V> {
+
+  private final int maxSize;
+  private final long maxWeight;
+  private final ToLongFunction<? super V> weigher;
+  private final Map<K, V> map;
+  private long weight = 0;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  public LruCache(int maxSize){
+    if(maxSize <= 0)
+      throw new IllegalArgumentException("Cache size must be greater than 0");
+
+    this.maxSize = maxSize;
+    this.maxWeight = Long.MAX_VALUE;
+    this.weigher = null;
+    this.map = new LinkedHashMap<>(16, 0.75f, true){
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+        if(size() <= LruCache.this.maxSize)
+          return false;
+
+        evictions.incrementAndGet();
+        return true;
+      }
+    };
+  }
+
+  /**
+   * Create a cache bounded by the total weight of its values, rather than the number of entries.
+   * A value heavier than the maximum weight is never retained, and doesn't evict any other values.
+   */
+  public LruCache(long maxWeight, ToLongFunction<? super V> weigher){
+    if(maxWeight <= 0)
+      throw new IllegalArgumentException("Cache weight must be greater than 0");
+
+    this.maxSize = Integer.MAX_VALUE;
+    this.maxWeight = maxWeight;
+    this.weigher = weigher;
+    this.map = new LinkedHashMap<>(16, 0.75f, true);
+  }
+
+  /**
+   * Returns the cached value for the key, or null if it isn't in the cache
+   */
+  public V get(K key){
+    V value;
+    synchronized (map) {
+      value = map.get(key);
+    }
+
+    if(value == null) {
+      misses.incrementAndGet();
+    }else{
+      hits.incrementAndGet();
+    }
+
+    return value;
+  }
+
+  public void put(K key, V value){
+    synchronized (map) {
+      if(weigher == null) {
+        map.put(key, value);
+        return;
+      }
+
+      //A value that could never fit would otherwise evict everything else, so it isn't held, and neither is any older value for its key
+      long valueWeight = weigher.applyAsLong(value);
+      V previous = valueWeight > maxWeight ? map.remove(key) : map.put(key, value);
+      if(previous != null)
+        weight -= weigher.applyAsLong(previous);
+
+      if(valueWeight > maxWeight)
+        return;
+
+      weight += valueWeight;
+
+      //Iteration order is least recently used first
+      Iterator<V> iterator = map.values().iterator();
+      while(weight > maxWeight && iterator.hasNext()){
+        weight -= weigher.applyAsLong(iterator.next());
+        iterator.remove();
+        evictions.incrementAndGet();
+      }
+    }
+  }
+
+  public void clear(){
+    synchronized (map) {
+      map.clear();
+      weight = 0;
+    }
+  }
+
+  public int size(){
+    synchronized (map) {
+      return map.size();
+    }
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  /**
+   * Total weight of the cached values, or 0 if the cache is bounded by the number of entries
+   */
+  public long getWeight(){
+    synchronized (map) {
+      return weight;
+    }
+  }
+
+  public long getMaxWeight() {
+    return maxWeight;
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  /**
+   * Fraction of lookups that were found in the cache, or 0 if there have been no lookups
+   */
+  public double getHitRate(){
+    long h = hits.get();
+    long total = h + misses.get();
+
+    return total == 0 ? 0.0 : (double) h / total;
+  }
+}
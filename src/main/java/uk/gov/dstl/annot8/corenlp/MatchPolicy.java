@@ -0,0 +1,42 @@
+/*
+ * Crown Copyright (C) 2021 Dstl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package uk.gov.dstl.annot8.corenlp;
+
+/**
+ * How the span of a CoreNLP mention is matched to the bounds of existing Annot8 entities
+ */
+public enum MatchPolicy {
+  /**
+   * The entity must have exactly the same bounds as the mention
+   */
+  EXACT,
+
+  /**
+   * The entity must be entirely within the mention, for example where CoreNLP includes a determiner or title in the mention
+   */
+  WITHIN,
+
+  /**
+   * The entity must entirely cover the mention, for example where CoreNLP only uses part of a name
+   */
+  COVERING,
+
+  /**
+   * The entity must overlap the mention
+   */
+  OVERLAP
+}
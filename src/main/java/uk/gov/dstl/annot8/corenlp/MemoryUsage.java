@@ -0,0 +1,149 @@
+/*
+ * Crown Copyright (C) 2021 Dstl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package uk.gov.dstl.annot8.corenlp;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Approximate memory accounting for a processor: the heap retained by the models it loads, and the memory allocated
+ * while processing each document.
+ *
+ * Model memory is the growth in heap use (after garbage collection) while the processor is created, so it is only
+ * accurate if nothing else is being created at the same time, and it excludes models already loaded and shared by
+ * an earlier processor. As it requires garbage collection, it is only measured if enabled in the settings.
+ *
+ * Allocation is taken from the JVM's per-thread allocation counters, if the JVM supports them, and only includes
+ * memory allocated on the calling thread (not, for instance, on a {@link SharedExecutor}).
+ */
+public class MemoryUsage {
+
+  private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+  private final long heapBefore;
+  private long modelBytes = -1;
+
+  private final AtomicLong documents = new AtomicLong();
+  private final AtomicLong allocatedBytes = new AtomicLong();
+  private final AtomicLong maxAllocatedBytes = new AtomicLong();
+
+  /**
+   * Start accounting, before any models are loaded
+   */
+  public MemoryUsage(boolean measureModels){
+    heapBefore = measureModels ? usedHeap() : -1;
+  }
+
+  /**
+   * Record that the models have been loaded
+   *
+   * @return the approximate size of the models in bytes, or -1 if it isn't being measured
+   */
+  public long modelsLoaded(){
+    if(heapBefore >= 0)
+      modelBytes = Math.max(0, usedHeap() - heapBefore);
+
+    return modelBytes;
+  }
+
+  /**
+   * Bytes allocated so far by the current thread, or -1 if the JVM doesn't support allocation counters
+   */
+  public static long currentThreadAllocatedBytes(){
+    if(!(THREADS instanceof com.sun.management.ThreadMXBean))
+      return -1;
+
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+    if(!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled())
+      return -1;
+
+    return threads.getCurrentThreadAllocatedBytes();
+  }
+
+  /**
+   * Heap in use, after requesting a garbage collection
+   */
+  public static long usedHeap(){
+    Runtime runtime = Runtime.getRuntime();
+    for(int i = 0; i < 3; i++)
+      System.gc();
+
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  /**
+   * Record the memory allocated processing a document, given the value of {@link #currentThreadAllocatedBytes()}
+   * before it was processed
+   *
+   * @return the bytes allocated, or -1 if allocation isn't being counted
+   */
+  public long recordDocument(long allocatedBefore){
+    if(allocatedBefore < 0)
+      return -1;
+
+    long allocated = currentThreadAllocatedBytes() - allocatedBefore;
+    documents.incrementAndGet();
+    allocatedBytes.addAndGet(allocated);
+    maxAllocatedBytes.accumulateAndGet(allocated, Math::max);
+
+    return allocated;
+  }
+
+  /**
+   * Approximate size of the models in bytes, or -1 if it wasn't measured
+   */
+  public long getModelBytes() {
+    return modelBytes;
+  }
+
+  /**
+   * Number of documents whose allocation has been recorded
+   */
+  public long getDocuments() {
+    return documents.get();
+  }
+
+  /**
+   * Total bytes allocated processing the recorded documents
+   */
+  public long getAllocatedBytes() {
+    return allocatedBytes.get();
+  }
+
+  /**
+   * Most bytes allocated processing a single document
+   */
+  public long getMaxAllocatedBytes() {
+    return maxAllocatedBytes.get();
+  }
+
+  /**
+   * Mean bytes allocated per document, or 0 if no documents have been recorded
+   */
+  public double getMeanAllocatedBytes(){
+    long d = documents.get();
+    return d == 0 ? 0.0 : (double) allocatedBytes.get() / d;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("models %s, %d documents allocating %.1f MB/doc on average (max %.1f MB)",
+        modelBytes < 0 ? "not measured" : String.format("~%.1f MB", modelBytes / (1024.0 * 1024.0)),
+        getDocuments(), getMeanAllocatedBytes() / (1024.0 * 1024.0), getMaxAllocatedBytes() / (1024.0 * 1024.0));
+  }
+}
@@ -17,7 +17,9 @@
 package uk.gov.dstl.annot8.corenlp;
 
 import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.ling.CoreLabel;
 import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.pipeline.DefaultPaths;
 import edu.stanford.nlp.pipeline.NERCombinerAnnotator;
 import edu.stanford.nlp.util.CoreMap;
 import io.annot8.api.capabilities.Capabilities;
@@ -31,7 +33,6 @@ import io.annot8.common.components.AbstractProcessorDescriptor;
 import io.annot8.common.components.capabilities.SimpleCapabilities;
 import io.annot8.common.data.bounds.SpanBounds;
 import io.annot8.common.data.content.Text;
-import io.annot8.components.base.text.processors.AbstractTextProcessor;
 import io.annot8.conventions.AnnotationTypes;
 import io.annot8.conventions.PropertyKeys;
 import org.slf4j.Logger;
@@ -39,6 +40,8 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 @ComponentName("CoreNLP NER")
 @ComponentDescription("Extract entities using CoreNLP's NER annotator")
@@ -50,7 +53,7 @@ public class NER extends AbstractProcessorDescriptor<NER.Processor, NER.Settings
   @Override
   protected Processor createComponent(Context context, Settings settings) {
     try {
-      return new Processor(settings.getTypeMapping(), settings.getProperties(), settings.getProbabilityThreshold());
+      return new Processor(settings);
     } catch (Annot8Exception e) {
       LOGGER.error("Unable to create processor", e);
       return null;
@@ -64,69 +67,500 @@ public class NER extends AbstractProcessorDescriptor<NER.Processor, NER.Settings
         .withProcessesAnnotations(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN, SpanBounds.class)
         .withCreatesAnnotations("entity", SpanBounds.class);
 
-    for(String creates : new HashSet<>(getSettings().getTypeMapping().values())){
+    Set<String> profileTypes = getSettings().getProfile().getTypes();
+
+    Set<String> created = new HashSet<>();
+    getSettings().getTypeMapping().forEach((source, target) -> {
+      if(profileTypes == null || profileTypes.contains(source))
+        created.add(target);
+    });
+
+    for(String creates : created){
       builder = builder.withCreatesAnnotations(creates, SpanBounds.class);
     }
 
     return builder.build();
   }
 
-  public static class Processor extends AbstractTextProcessor {
+  public static class Processor extends CoreNLPTextProcessor {
+
+    private static final Set<String> TRIAGE_WORDS = Set.of(
+        "today", "tonight", "yesterday", "tomorrow", "now", "ago", "currently", "recently",
+        "morning", "afternoon", "evening", "night", "noon", "midnight", "weekend",
+        "second", "seconds", "minute", "minutes", "hour", "hours", "day", "days", "week", "weeks",
+        "fortnight", "month", "months", "quarter", "year", "years", "decade", "decades", "century",
+        "daily", "weekly", "monthly", "quarterly", "annually", "annual",
+        "one", "two", "three", "four", "five", "six", "seven", "eight", "nine", "ten", "eleven", "twelve",
+        "twenty", "thirty", "forty", "fifty", "hundred", "thousand", "million", "billion", "dozen", "half",
+        "first", "third", "fourth", "fifth", "last", "next", "once", "twice",
+        "percent", "dollars", "pounds", "euros", "cents", "pence"
+    );
 
     private final NERCombinerAnnotator annotator;
+    private final NERCombinerAnnotator degradedAnnotator;
+    private final Degradation degradation;
     private final Map<String, String> typeMapping;
     private final double probThreshold;
+    private final boolean triage;
+    private final int batchSize;
+
+    private final SentenceCache<List<CachedMention>> sentenceCache;
+
+    private final AtomicLong triageSentences = new AtomicLong();
+    private final AtomicLong triageSkipped = new AtomicLong();
 
     public Processor(Map<String, String> typeMapping, Properties properties, double probThreshold) throws Annot8Exception {
-      this.typeMapping = typeMapping;
-      this.probThreshold = probThreshold;
+      this(createSettings(typeMapping, properties, probThreshold));
+    }
+
+    public Processor(Settings settings) throws Annot8Exception {
+      super(settings);
+
+      this.typeMapping = settings.getTypeMapping();
+      this.probThreshold = settings.getProbabilityThreshold();
+      this.triage = settings.isTriage();
+      this.batchSize = settings.getBatchSize();
+      this.sentenceCache = SentenceCache.create(settings.getSentenceCacheMegabytes(), mentions -> 40 + 48L * mentions.size());
+
+      this.degradation = settings.getDegradation();
 
       try {
-        annotator = new NERCombinerAnnotator(properties);
+        annotator = new NERCombinerAnnotator(settings.getProfile().apply(settings.getProperties()));
+
+        //The degraded profile is only loaded if it could be used, as it holds a second set of models
+        if(degradation == Degradation.PROFILE && settings.getCostBudget() > 0) {
+          degradedAnnotator = new NERCombinerAnnotator(settings.getDegradedProfile().apply(settings.getProperties()));
+        }else{
+          degradedAnnotator = null;
+        }
       }catch (IOException e){
         throw new Annot8Exception("Unable to create CoreNLP NERCombinerAnnotator", e);
       }
+
+      modelsLoaded();
+    }
+
+    private static Settings createSettings(Map<String, String> typeMapping, Properties properties, double probThreshold){
+      Settings settings = new Settings(typeMapping, properties);
+      settings.setProbabilityThreshold(probThreshold);
+
+      return settings;
+    }
+
+    @Override
+    protected void processText(Text content) {
+      process(content, annotator, triage, sentenceCache);
+    }
+
+    @Override
+    protected String getDegradation() {
+      return degradation == Degradation.NONE ? null : degradation.name();
     }
 
     @Override
-    protected void process(Text content) {
-      Annotation document = CoreNLPUtils.createCoreNLPDocument(content);
-      annotator.annotate(document);
+    protected void processDegraded(Text content) {
+      switch (degradation) {
+        case SKIP:
+          log().debug("Skipping NER of content {}", content.getId());
+          break;
+        case TRIAGE:
+          process(content, annotator, true, sentenceCache);
+          break;
+        case PROFILE:
+          //Entities found with the degraded profile aren't cached, as they would be replayed onto documents processed in full
+          process(content, degradedAnnotator, triage, null);
+          break;
+        default:
+          processText(content);
+      }
+    }
+
+    private void process(Text content, NERCombinerAnnotator annotator, boolean triage, SentenceCache<List<CachedMention>> sentenceCache){
+      if(batchSize > 0) {
+        processInBatches(content, annotator, triage, sentenceCache);
+      }else{
+        tagAndSave(content, CoreNLPUtils.createCoreNLPDocument(content), annotator, triage, sentenceCache);
+      }
+    }
+
+    /**
+     * Convert, tag and save entities for batches of sentences in turn, so that only one batch is held
+     * as CoreNLP objects at any time. Batches are always split between sentences, and CoreNLP entity
+     * mentions don't cross sentence boundaries, so the entities found are the same as for the whole document
+     * (with the exception of existing entities that cross a batch boundary, which are not passed to CoreNLP).
+     */
+    private void processInBatches(Text content, NERCombinerAnnotator annotator, boolean triage, SentenceCache<List<CachedMention>> sentenceCache){
+      List<io.annot8.api.annotations.Annotation> sentences = CoreNLPUtils.getSentences(content);
+      List<io.annot8.api.annotations.Annotation> tokens = CoreNLPUtils.getTokens(content);
+      List<io.annot8.api.annotations.Annotation> entities = CoreNLPUtils.getEntities(content);
+
+      int tokenIndex = 0;
+      int entityIndex = 0;
+      for(int sentenceIndex = 0; sentenceIndex < sentences.size(); sentenceIndex += batchSize){
+        List<io.annot8.api.annotations.Annotation> batchSentences = sentences.subList(sentenceIndex, Math.min(sentenceIndex + batchSize, sentences.size()));
 
+        int begin = getBounds(batchSentences.get(0)).getBegin();
+        int end = getBounds(batchSentences.get(batchSentences.size() - 1)).getEnd();
+
+        while(tokenIndex < tokens.size() && getBounds(tokens.get(tokenIndex)).getBegin() < begin)
+          tokenIndex++;
+        int firstToken = tokenIndex;
+        while(tokenIndex < tokens.size() && getBounds(tokens.get(tokenIndex)).getEnd() <= end)
+          tokenIndex++;
+
+        while(entityIndex < entities.size() && getBounds(entities.get(entityIndex)).getBegin() < begin)
+          entityIndex++;
+        List<io.annot8.api.annotations.Annotation> batchEntities = new ArrayList<>();
+        while(entityIndex < entities.size() && getBounds(entities.get(entityIndex)).getBegin() < end){
+          if(getBounds(entities.get(entityIndex)).getEnd() <= end)
+            batchEntities.add(entities.get(entityIndex));
+          entityIndex++;
+        }
+
+        tagAndSave(content, CoreNLPUtils.createCoreNLPDocument(content, batchSentences, tokens.subList(firstToken, tokenIndex), batchEntities),
+            annotator, triage, sentenceCache);
+      }
+    }
+
+    private static SpanBounds getBounds(io.annot8.api.annotations.Annotation annotation){
+      return annotation.getBounds(SpanBounds.class).get();
+    }
+
+    private void tagAndSave(Text content, Annotation document, NERCombinerAnnotator annotator, boolean triage, SentenceCache<List<CachedMention>> sentenceCache){
+      if(triage) {
+        List<CoreMap> sentences = document.get(CoreAnnotations.SentencesAnnotation.class);
+        List<CoreMap> candidates = sentences.stream()
+            .filter(Processor::isCandidate)
+            .collect(Collectors.toList());
+
+        triageSentences.addAndGet(sentences.size());
+        triageSkipped.addAndGet(sentences.size() - candidates.size());
+        log().debug("Triage skipped {} of {} sentences", sentences.size() - candidates.size(), sentences.size());
+
+        if(candidates.isEmpty())
+          return;
+
+        if(candidates.size() < sentences.size())
+          document = CoreNLPUtils.createSubDocument(document, candidates);
+      }
+
+      if(sentenceCache != null){
+        tagWithCache(content, document, annotator, sentenceCache);
+        return;
+      }
+
+      StageEvent.annotate(annotator, document);
+
+      StageEvent writeEvent = StageEvent.start(StageEvent.WRITE, getClass());
+      int outputs = 0;
       for(CoreMap mention : document.get(CoreAnnotations.MentionsAnnotation.class)){
-        SpanBounds sb = new SpanBounds(mention.get(CoreAnnotations.CharacterOffsetBeginAnnotation.class), mention.get(CoreAnnotations.CharacterOffsetEndAnnotation.class));
+        if(saveEntity(content,
+            mention.get(CoreAnnotations.CharacterOffsetBeginAnnotation.class), mention.get(CoreAnnotations.CharacterOffsetEndAnnotation.class),
+            mention.get(CoreAnnotations.NamedEntityTagAnnotation.class), getProbability(mention)))
+          outputs++;
+      }
+      writeEvent.finish(document, outputs);
+    }
 
-        String type = mention.get(CoreAnnotations.NamedEntityTagAnnotation.class);
-        String coreNLPType = typeMapping.getOrDefault(type, "entity");
+    /**
+     * Tag the sentences of the document, taking the mentions of any previously seen sentences from the cache
+     * and only passing the remaining sentences to the NER annotator
+     */
+    private void tagWithCache(Text content, Annotation document, NERCombinerAnnotator annotator, SentenceCache<List<CachedMention>> sentenceCache){
+      List<CoreMap> sentences = document.get(CoreAnnotations.SentencesAnnotation.class);
 
-        //Assume if there are multiple probabilities then the highest is the one we're using,
-        // as the Map key doesn't always match the type
-        Map<String, Double> probs = mention.get(CoreAnnotations.NamedEntityTagProbsAnnotation.class);
-        OptionalDouble optProb = probs.values().stream().mapToDouble(Double::doubleValue).max();
-        Double prob = null;
-        if(optProb.isPresent())
-          prob = optProb.getAsDouble();
+      //Entities from cached sentences are written as the cache is read
+      StageEvent cachedEvent = StageEvent.start(StageEvent.WRITE, getClass());
+      int cachedOutputs = 0;
 
-        if(prob != null && prob < probThreshold)
+      List<CoreMap> uncached = new ArrayList<>();
+      List<String> uncachedKeys = new ArrayList<>();
+      for(CoreMap sentence : sentences){
+        String key = SentenceCache.key(sentence);
+        List<CachedMention> mentions = sentenceCache.get(key);
+        if(mentions == null){
+          uncached.add(sentence);
+          uncachedKeys.add(key);
           continue;
+        }
+
+        List<CoreLabel> tokens = sentence.get(CoreAnnotations.TokensAnnotation.class);
+        for(CachedMention m : mentions) {
+          if(saveEntity(content, tokens.get(m.firstToken).beginPosition(), tokens.get(m.lastToken).endPosition(), m.type, m.probability))
+            cachedOutputs++;
+        }
+      }
+      cachedEvent.finish(document, cachedOutputs);
 
-        content.getAnnotations().create()
-            .withBounds(sb)
-            .withType(coreNLPType)
-            .withProperty(PropertyKeys.PROPERTY_KEY_PROBABILITY, prob)
-            .withProperty(PropertyKeys.PROPERTY_KEY_SUBTYPE, type)
-            .save();
+      if(uncached.isEmpty())
+        return;
 
-        //TODO: Add information from edu.stanford.nlp.time.TimeAnnotations$TimexAnnotation
+      StageEvent.annotate(annotator, uncached.size() < sentences.size() ? CoreNLPUtils.createSubDocument(document, uncached) : document);
+
+      StageEvent writeEvent = StageEvent.start(StageEvent.WRITE, getClass());
+      int outputs = 0;
+      for(int i = 0; i < uncached.size(); i++){
+        CoreMap sentence = uncached.get(i);
+        List<CoreMap> sentenceMentions = sentence.get(CoreAnnotations.MentionsAnnotation.class);
+        if(sentenceMentions == null)
+          sentenceMentions = Collections.emptyList();
+
+        List<CachedMention> mentions = new ArrayList<>();
+        for(CoreMap mention : sentenceMentions){
+          int begin = mention.get(CoreAnnotations.CharacterOffsetBeginAnnotation.class);
+          int end = mention.get(CoreAnnotations.CharacterOffsetEndAnnotation.class);
+          String type = mention.get(CoreAnnotations.NamedEntityTagAnnotation.class);
+          Double prob = getProbability(mention);
+
+          if(saveEntity(content, begin, end, type, prob))
+            outputs++;
+
+          if(mentions != null){
+            int[] indices = SentenceCache.getTokenIndices(sentence, mention.get(CoreAnnotations.TokensAnnotation.class));
+
+            //Mentions that can't be expressed as a run of the sentence's tokens aren't cached
+            List<CoreLabel> tokens = sentence.get(CoreAnnotations.TokensAnnotation.class);
+            if(indices == null || indices.length == 0 ||
+                tokens.get(indices[0]).beginPosition() != begin || tokens.get(indices[indices.length - 1]).endPosition() != end) {
+              mentions = null;
+            }else{
+              mentions.add(new CachedMention(indices[0], indices[indices.length - 1], type, prob));
+            }
+          }
+        }
+
+        if(mentions != null)
+          sentenceCache.put(uncachedKeys.get(i), mentions);
       }
+      writeEvent.finish(document, outputs);
+    }
+
+    /**
+     * Save the entity, if its probability isn't below the threshold
+     *
+     * @return true if the entity was saved
+     */
+    private boolean saveEntity(Text content, int begin, int end, String type, Double prob){
+      if(prob != null && prob < probThreshold)
+        return false;
+
+      content.getAnnotations().create()
+          .withBounds(new SpanBounds(begin, end))
+          .withType(typeMapping.getOrDefault(type, "entity"))
+          .withProperty(PropertyKeys.PROPERTY_KEY_PROBABILITY, prob)
+          .withProperty(PropertyKeys.PROPERTY_KEY_SUBTYPE, type)
+          .save();
+
+      //TODO: Add information from edu.stanford.nlp.time.TimeAnnotations$TimexAnnotation
+      return true;
+    }
+
+    /**
+     * Assume if there are multiple probabilities then the highest is the one we're using,
+     * as the Map key doesn't always match the type
+     */
+    private static Double getProbability(CoreMap mention){
+      Map<String, Double> probs = mention.get(CoreAnnotations.NamedEntityTagProbsAnnotation.class);
+      OptionalDouble optProb = probs.values().stream().mapToDouble(Double::doubleValue).max();
+
+      return optProb.isPresent() ? optProb.getAsDouble() : null;
+    }
+
+    /**
+     * Cheap test of whether a sentence could contain a named entity, based on existing entity mentions
+     * (e.g. from a gazetteer), part of speech tags, capitalisation, digits and common numeric and temporal words.
+     * Where part of speech tags aren't available, a capitalised first word is also treated as a candidate.
+     */
+    protected static boolean isCandidate(CoreMap sentence){
+      List<CoreMap> mentions = sentence.get(CoreAnnotations.MentionsAnnotation.class);
+      if(mentions != null && !mentions.isEmpty())
+        return true;
+
+      List<CoreLabel> tokens = sentence.get(CoreAnnotations.TokensAnnotation.class);
+      for(int i = 0; i < tokens.size(); i++){
+        String word = tokens.get(i).word();
+        String tag = tokens.get(i).tag();
+        if(word == null || word.isEmpty())
+          continue;
+
+        if(tag != null && (tag.startsWith("NNP") || "CD".equals(tag)))
+          return true;
+
+        if(Character.isUpperCase(word.charAt(0)) && (i > 0 || tag == null) && !"I".equals(word))
+          return true;
+
+        if(word.chars().anyMatch(c -> Character.isDigit(c) || c == '@' || c == '$' || c == '%'))
+          return true;
+
+        if(word.contains("://") || word.startsWith("www.") || TRIAGE_WORDS.contains(word.toLowerCase(Locale.ROOT)))
+          return true;
+      }
+
+      return false;
+    }
+
+    /**
+     * Number of sentences considered by the triage stage
+     */
+    public long getTriageSentences() {
+      return triageSentences.get();
+    }
+
+    /**
+     * Number of sentences that the triage stage didn't pass to the NER annotator
+     */
+    public long getTriageSkipped() {
+      return triageSkipped.get();
+    }
+
+    /**
+     * Fraction of sentences that the triage stage didn't pass to the NER annotator
+     */
+    public double getTriageSkippedFraction() {
+      long sentences = triageSentences.get();
+      return sentences == 0 ? 0.0 : (double) triageSkipped.get() / sentences;
+    }
+
+    /**
+     * Number of sentences whose entities were taken from the sentence cache
+     */
+    public long getSentenceCacheHits(){
+      return sentenceCache == null ? 0 : sentenceCache.getHits();
+    }
+
+    /**
+     * Number of sentences that had to be passed to the NER annotator
+     */
+    public long getSentenceCacheMisses(){
+      return sentenceCache == null ? 0 : sentenceCache.getMisses();
+    }
+
+    @Override
+    public void close() {
+      super.close();
+      if(sentenceCache != null)
+        log().debug("NER sentence cache {}", sentenceCache);
+    }
+
+    /**
+     * An entity mention found in a sentence, held as the indices of its first and last tokens within the sentence
+     */
+    private static class CachedMention {
+      private final int firstToken;
+      private final int lastToken;
+      private final String type;
+      private final Double probability;
+
+      private CachedMention(int firstToken, int lastToken, String type, Double probability){
+        this.firstToken = firstToken;
+        this.lastToken = lastToken;
+        this.type = type;
+        this.probability = probability;
+      }
+    }
+  }
+
+
+  /**
+   * Predefined configurations of the NER annotator, trading the range of entity types that can be
+   * found against speed and memory use. Any properties explicitly set on the {@link Settings} take
+   * precedence over those set by the profile.
+   */
+  public enum Profile {
+    /**
+     * Only the 3 class CRF classifier (PERSON, LOCATION, ORGANIZATION), with no numeric, temporal or fine-grained annotators
+     */
+    FAST(Set.of("PERSON", "LOCATION", "ORGANIZATION"),
+        Map.of(
+            "ner.model", DefaultPaths.DEFAULT_NER_THREECLASS_MODEL,
+            "ner.applyNumericClassifiers", "false",
+            "ner.useSUTime", "false",
+            "ner.applyFineGrained", "false",
+            "ner.buildEntityMentions", "true")),
+
+    /**
+     * The 3 class and MUC CRF classifiers, with the numeric classifiers and SUTime but without fine-grained types
+     */
+    BALANCED(Set.of("PERSON", "LOCATION", "ORGANIZATION", "MONEY", "PERCENT", "DATE", "TIME", "DURATION", "SET", "NUMBER", "ORDINAL"),
+        Map.of(
+            "ner.model", DefaultPaths.DEFAULT_NER_THREECLASS_MODEL + "," + DefaultPaths.DEFAULT_NER_MUC_MODEL,
+            "ner.applyNumericClassifiers", "true",
+            "ner.useSUTime", "true",
+            "ner.applyFineGrained", "false",
+            "ner.buildEntityMentions", "true")),
+
+    /**
+     * CoreNLP's default NER configuration, with all classifiers and sub-annotators
+     */
+    FULL(null, Collections.emptyMap());
+
+    private final Set<String> types;
+    private final Map<String, String> properties;
+
+    Profile(Set<String> types, Map<String, String> properties){
+      this.types = types;
+      this.properties = properties;
+    }
+
+    /**
+     * The CoreNLP entity types that can be produced by this profile, or null if any type can be produced
+     */
+    public Set<String> getTypes() {
+      return types;
+    }
+
+    /**
+     * Returns a copy of the given properties, with the profile's properties added where they haven't already been set
+     */
+    public Properties apply(Properties properties){
+      Properties applied = new Properties();
+      if(properties != null)
+        applied.putAll(properties);
+
+      this.properties.forEach((k, v) -> {
+        if(!applied.containsKey(k))
+          applied.setProperty(k, v);
+      });
+
+      return applied;
     }
   }
 
+  /**
+   * Cheaper modes used for documents whose estimated cost exceeds the cost budget
+   */
+  public enum Degradation {
+    /**
+     * Always process documents in full
+     */
+    NONE,
+
+    /**
+     * Only pass sentences that could contain entities to the NER annotator, as with triage
+     */
+    TRIAGE,
+
+    /**
+     * Use the degraded profile, which is loaded alongside the main profile
+     */
+    PROFILE,
+
+    /**
+     * Don't extract entities
+     */
+    SKIP
+  }
 
-  public static class Settings extends CoreNLPSettings {
+  public static class Settings extends ProcessorSettings {
 
     private Map<String, String> typeMapping;
     private double probabilityThreshold = 0.0;
+    private Profile profile = Profile.FULL;
+    private boolean triage = false;
+    private int batchSize = 0;
+    private int sentenceCacheMegabytes = 0;
+    private Degradation degradation = Degradation.TRIAGE;
+    private Profile degradedProfile = Profile.FAST;
 
     public Settings(){
       typeMapping = CoreNLPUtils.CORENLP_TO_ANNOT8;
@@ -160,11 +594,64 @@ public class NER extends AbstractProcessorDescriptor<NER.Processor, NER.Settings
       this.probabilityThreshold = probabilityThreshold;
     }
 
+    @Description(value = "Profile determining which classifiers and sub-annotators are loaded (FAST, BALANCED or FULL)", defaultValue = "FULL")
+    public Profile getProfile() {
+      return profile;
+    }
+    public void setProfile(Profile profile) {
+      this.profile = profile;
+    }
+
+    @Description(value = "Only pass sentences that could contain entities (based on capitalisation, digits, part of speech and existing entities) to the NER annotator", defaultValue = "false")
+    public boolean isTriage() {
+      return triage;
+    }
+    public void setTriage(boolean triage) {
+      this.triage = triage;
+    }
+
+    @Description(value = "Approximate memory, in megabytes, to use for caching the entities of previously seen sentences, or 0 to disable caching", defaultValue = "0")
+    public int getSentenceCacheMegabytes() {
+      return sentenceCacheMegabytes;
+    }
+    public void setSentenceCacheMegabytes(int sentenceCacheMegabytes) {
+      this.sentenceCacheMegabytes = sentenceCacheMegabytes;
+    }
+
+    @Description(value = "Number of sentences to convert and tag at a time, limiting memory use on large documents, or 0 to tag the whole document at once", defaultValue = "0")
+    public int getBatchSize() {
+      return batchSize;
+    }
+    public void setBatchSize(int batchSize) {
+      this.batchSize = batchSize;
+    }
+
+    @Description(value = "Cheaper mode used for documents whose estimated cost exceeds the cost budget (NONE, TRIAGE, PROFILE or SKIP)", defaultValue = "TRIAGE")
+    public Degradation getDegradation() {
+      return degradation;
+    }
+    public void setDegradation(Degradation degradation) {
+      this.degradation = degradation;
+    }
+
+    @Description(value = "Profile used when the PROFILE degradation is applied (FAST, BALANCED or FULL)", defaultValue = "FAST")
+    public Profile getDegradedProfile() {
+      return degradedProfile;
+    }
+    public void setDegradedProfile(Profile degradedProfile) {
+      this.degradedProfile = degradedProfile;
+    }
+
     @Override
     public boolean validate() {
       return typeMapping != null && !typeMapping.isEmpty() &&
           probabilityThreshold >= 0.0 && probabilityThreshold <= 1.0 &&
-          properties != null;
+          profile != null &&
+          degradation != null &&
+          degradedProfile != null &&
+          batchSize >= 0 &&
+          sentenceCacheMegabytes >= 0 &&
+          super.validate();
     }
   }
 }
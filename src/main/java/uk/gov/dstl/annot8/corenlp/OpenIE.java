@@ -21,6 +21,7 @@ import edu.stanford.nlp.ling.CoreAnnotations;
 import edu.stanford.nlp.ling.CoreLabel;
 import edu.stanford.nlp.naturalli.NaturalLogicAnnotations;
 import edu.stanford.nlp.naturalli.NaturalLogicAnnotator;
+import edu.stanford.nlp.naturalli.SentenceFragment;
 import edu.stanford.nlp.pipeline.Annotation;
 import edu.stanford.nlp.pipeline.DependencyParseAnnotator;
 import edu.stanford.nlp.util.CoreMap;
@@ -30,30 +31,36 @@ import io.annot8.api.components.annotations.ComponentDescription;
 import io.annot8.api.components.annotations.ComponentName;
 import io.annot8.api.components.annotations.SettingsClass;
 import io.annot8.api.context.Context;
+import io.annot8.api.settings.Description;
 import io.annot8.common.components.AbstractProcessorDescriptor;
 import io.annot8.common.components.capabilities.SimpleCapabilities;
 import io.annot8.common.data.bounds.SpanBounds;
 import io.annot8.common.data.content.Text;
-import io.annot8.components.base.text.processors.AbstractTextProcessor;
 import io.annot8.conventions.AnnotationTypes;
 import io.annot8.conventions.GroupRoles;
 import io.annot8.conventions.GroupTypes;
 import io.annot8.conventions.PropertyKeys;
 import org.apache.commons.lang3.text.WordUtils;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 @ComponentName("CoreNLP OpenIE Relation")
 @ComponentDescription("Extract relations between existing annotations using CoreNLP's Dependency Parser (depparse), Natural Logic annotator (natlog), and OpenIE Relation annotator (openie)")
-@SettingsClass(CoreNLPSettings.class)
-public class OpenIE extends AbstractProcessorDescriptor<OpenIE.Processor, CoreNLPSettings> {
+@SettingsClass(OpenIE.Settings.class)
+public class OpenIE extends AbstractProcessorDescriptor<OpenIE.Processor, OpenIE.Settings> {
 
   @Override
-  protected Processor createComponent(Context context, CoreNLPSettings settings) {
-    return new Processor(settings.getProperties());
+  protected Processor createComponent(Context context, OpenIE.Settings settings) {
+    return new Processor(settings);
   }
 
   @Override
@@ -69,87 +76,317 @@ public class OpenIE extends AbstractProcessorDescriptor<OpenIE.Processor, CoreNL
     return builder.build();
   }
 
-  public static class Processor extends AbstractTextProcessor {
+  public static class Processor extends CoreNLPTextProcessor {
 
     private final DependencyParseAnnotator parserAnnotator;
     private final NaturalLogicAnnotator logicAnnotator;
     private final edu.stanford.nlp.naturalli.OpenIE openIE;
+    private final boolean entityAnchored;
+    private final Degradation degradation;
+    private static final String MAX_ENTAILMENTS_PER_CLAUSE = "openie.max_entailments_per_clause";
+
+    private final int maxEntailmentsPerClause;
+    private final MatchPolicy matchPolicy;
+    private final SentenceCache<List<SentenceCache.Triple>> sentenceCache;
+    private final ParseCache parseCache;
+    private final String parseFingerprint;
+    private final SharedExecutor executor;
+
+    private final AtomicLong sentencesProcessed = new AtomicLong();
+    private final AtomicLong sentencesSkipped = new AtomicLong();
+    private final AtomicLong triplesProduced = new AtomicLong();
+    private final AtomicLong triplesKept = new AtomicLong();
 
     public Processor(Properties properties){
+      this(new Settings(properties));
+    }
+
+    public Processor(Settings settings){
+      super(settings);
+
+      Properties properties = new Properties();
+      properties.putAll(settings.getProperties());
+      //A value given explicitly in the CoreNLP properties takes precedence over the setting
+      if(!properties.containsKey(MAX_ENTAILMENTS_PER_CLAUSE))
+        properties.setProperty(MAX_ENTAILMENTS_PER_CLAUSE, Integer.toString(settings.getMaxEntailmentsPerClause()));
+
+      executor = SharedExecutor.forName(settings.getExecutor());
+      if(executor != null)
+        properties = SharedExecutor.singleThreaded(properties);
+
       parserAnnotator = new DependencyParseAnnotator(properties);
       logicAnnotator = new NaturalLogicAnnotator(properties);
       openIE = new edu.stanford.nlp.naturalli.OpenIE(properties);
+
+      entityAnchored = settings.isEntityAnchored();
+      degradation = settings.getDegradation();
+      maxEntailmentsPerClause = Integer.parseInt(properties.getProperty(MAX_ENTAILMENTS_PER_CLAUSE).trim());
+      matchPolicy = settings.getMatchPolicy();
+      sentenceCache = SentenceCache.create(settings.getSentenceCacheMegabytes(), SentenceCache::weigh);
+
+      parseCache = ParseCache.openOrNull(settings.getParseCacheFile(), settings.getParseCacheMegabytes() * 1024L * 1024L);
+      parseFingerprint = ParseCache.fingerprint("DEPENDENCY", properties, "depparse.");
+
+      modelsLoaded();
     }
 
     @Override
-    protected void process(Text content) {
+    protected void processText(Text content) {
+      extract(content, entityAnchored, sentenceCache);
+    }
+
+    @Override
+    protected String getDegradation() {
+      return degradation == Degradation.NONE ? null : degradation.name();
+    }
+
+    @Override
+    protected void processDegraded(Text content) {
+      switch (degradation) {
+        case SKIP:
+          log().debug("Skipping OpenIE of content {}", content.getId());
+          break;
+        case ENTITY_ANCHORED:
+          //Anchored triples are only cached if all triples are anchored, as they would otherwise be replayed onto documents processed in full
+          extract(content, true, entityAnchored ? sentenceCache : null);
+          break;
+        default:
+          processText(content);
+      }
+    }
+
+    private void extract(Text content, boolean entityAnchored, SentenceCache<List<SentenceCache.Triple>> sentenceCache){
       Annotation document = CoreNLPUtils.createCoreNLPDocument(content);
-      parserAnnotator.annotate(document);
-      logicAnnotator.annotate(document);
-      openIE.annotate(document);
 
-      for(CoreMap sentence: document.get(CoreAnnotations.SentencesAnnotation.class)) {
+      //Relations are only created between existing entities, so only sentences with at least two can produce output
+      List<CoreMap> allSentences = document.get(CoreAnnotations.SentencesAnnotation.class);
+      List<CoreMap> eligible = CoreNLPUtils.getSentencesWithMentions(document, 2);
+      sentencesProcessed.addAndGet(eligible.size());
+      sentencesSkipped.addAndGet(allSentences.size() - eligible.size());
+
+      if(eligible.isEmpty()) {
+        log().debug("No sentences contain two or more entities");
+        return;
+      }
+
+      //Triples from cached sentences are written as the cache is read
+      StageEvent cachedEvent = StageEvent.start(StageEvent.WRITE, getClass());
+
+      //Take the triples of previously seen sentences from the cache, if it's enabled
+      List<CoreMap> uncached = new ArrayList<>();
+      List<String> uncachedKeys = new ArrayList<>();
+      long kept = 0;
+      for(CoreMap sentence : eligible){
+        String key = sentenceCache == null ? null : SentenceCache.key(sentence);
+        List<SentenceCache.Triple> cached = key == null ? null : sentenceCache.get(key);
+        if(cached == null){
+          uncached.add(sentence);
+          uncachedKeys.add(key);
+          continue;
+        }
+
+        for(SentenceCache.Triple triple : cached){
+          if(saveRelation(content, document, triple.getRelation(), triple.getConfidence(), triple.getSubject(sentence), triple.getObject(sentence)))
+            kept++;
+        }
+      }
+      cachedEvent.finish(document, (int) kept);
+
+      if(uncached.isEmpty()) {
+        triplesKept.addAndGet(kept);
+        return;
+      }
+
+      if(uncached.size() < allSentences.size())
+        document = CoreNLPUtils.createSubDocument(document, uncached);
+
+      //Only parse sentences that don't already have a dependency parse (e.g. from the Dependency Parse processor)
+      List<CoreMap> unparsed = uncached.stream()
+          .filter(s -> !ParseUtils.hasDependencies(s))
+          .collect(Collectors.toList());
+      if(!unparsed.isEmpty()) {
+        if(parseCache == null) {
+          ParseUtils.parse(parserAnnotator, document, unparsed, executor);
+        }else{
+          parseCache.parse(parserAnnotator, parseFingerprint, document, unparsed, executor);
+        }
+      }
+
+      ParseUtils.parse(logicAnnotator, document, document.get(CoreAnnotations.SentencesAnnotation.class), executor);
+      if(entityAnchored){
+        StageEvent anchoredEvent = StageEvent.start(StageEvent.ANNOTATE, openIE.getClass());
+        uncached.forEach(this::annotateAnchored);
+        anchoredEvent.finish(document, -1);
+      }else {
+        StageEvent.annotate(openIE, document);
+      }
+
+      StageEvent writeEvent = StageEvent.start(StageEvent.WRITE, getClass());
+      long cachedKept = kept;
+      long produced = 0;
+      for(int i = 0; i < uncached.size(); i++) {
+        CoreMap sentence = uncached.get(i);
         Collection<RelationTriple> relations = sentence.get(NaturalLogicAnnotations.RelationTriplesAnnotation.class);
         if(relations == null)
-          continue;
+          relations = Collections.emptyList();
 
+        produced += relations.size();
+
+        List<SentenceCache.Triple> triples = new ArrayList<>();
         for (RelationTriple relation : relations) {
-          String relationType = GroupTypes.RELATION_PREFIX + normalizeRelation(relation.relationLemmaGloss());
+          String relationName = normalizeRelation(relation.relationLemmaGloss());
+          if(saveRelation(content, document, relationName, relation.confidence, relation.subject, relation.object))
+            kept++;
 
-          Group.Builder builder = content.getItem().getGroups().create()
-              .withType(relationType)
-              .withProperty(PropertyKeys.PROPERTY_KEY_PROBABILITY, relation.confidence);
+          if(triples != null) {
+            SentenceCache.Triple triple = SentenceCache.Triple.of(sentence, relationName, relation.confidence, relation.subject, relation.object);
+            if(triple == null) {
+              //Triples that can't be held relative to the sentence's tokens can't be cached
+              triples = null;
+            }else{
+              triples.add(triple);
+            }
+          }
+        }
 
-          //Subjects
-          if(relation.subject.isEmpty())
-            continue;
+        if(sentenceCache != null && triples != null)
+          sentenceCache.put(uncachedKeys.get(i), triples);
+      }
 
-          List<String> subjectTypes = relation.subject.stream().map(cl -> CoreNLPUtils.CORENLP_TO_ANNOT8.getOrDefault(cl.ner(), "_")).distinct().collect(Collectors.toList());
-          if(subjectTypes.size() > 1)
-            continue; // If it's greater than one, then it exceeds annotation bounds and/or spans multiple annotations
+      writeEvent.finish(document, (int) (kept - cachedKept));
 
-          String subjectType = subjectTypes.get(0);
-          if("_".equals(subjectType))
-            continue; // We'd need to create a new entity
+      triplesProduced.addAndGet(produced);
+      triplesKept.addAndGet(kept);
+      log().debug("Kept {} of {} triples", kept, produced);
+    }
 
-          content.getAnnotations().getByBoundsAndType(SpanBounds.class, subjectType)
-              .filter(a -> a.getBounds(SpanBounds.class).get().equals(getBounds(relation.subject)))
-              .forEach(a -> builder.withAnnotation(GroupRoles.GROUP_ROLE_SOURCE, a));
+    /**
+     * Save the triple as a group, if both the subject and object can be resolved to existing entities
+     *
+     * @return true if the group was saved
+     */
+    private boolean saveRelation(Text content, Annotation document, String relation, double confidence,
+                                 List<CoreLabel> subject, List<CoreLabel> object){
+      Group.Builder builder = content.getItem().getGroups().create()
+          .withType(GroupTypes.RELATION_PREFIX + relation)
+          .withProperty(PropertyKeys.PROPERTY_KEY_PROBABILITY, confidence);
 
-          //Objects
-          if(relation.object.isEmpty())
-            continue;
+      //Subjects
+      List<io.annot8.api.annotations.Annotation> subjectEntities = CoreNLPUtils.resolveEntities(document, subject, matchPolicy);
+      if(subjectEntities.isEmpty())
+        return false;
 
-          List<String> objectTypes = relation.object.stream().map(cl -> CoreNLPUtils.CORENLP_TO_ANNOT8.getOrDefault(cl.ner(), "_")).distinct().collect(Collectors.toList());
-          if(objectTypes.size() > 1)
-            continue; // If it's greater than one, then it exceeds annotation bounds and/or spans multiple annotations
+      subjectEntities.forEach(a -> builder.withAnnotation(GroupRoles.GROUP_ROLE_SOURCE, a));
 
-          String objectType = objectTypes.get(0);
-          if("_".equals(objectType))
-            continue; // We'd need to create a new entity
+      //Objects
+      List<io.annot8.api.annotations.Annotation> objectEntities = CoreNLPUtils.resolveEntities(document, object, matchPolicy);
+      if(objectEntities.isEmpty())
+        return false;
 
-          content.getAnnotations().getByBoundsAndType(SpanBounds.class, objectType)
-              .filter(a -> a.getBounds(SpanBounds.class).get().equals(getBounds(relation.object)))
-              .forEach(a -> builder.withAnnotation(GroupRoles.GROUP_ROLE_TARGET, a));
+      objectEntities.forEach(a -> builder.withAnnotation(GroupRoles.GROUP_ROLE_TARGET, a));
 
-          builder.save();
-        }
-      }
+      builder.save();
+      return true;
     }
 
-    private static SpanBounds getBounds(Collection<CoreLabel> coreLabels){
-      int min = Integer.MAX_VALUE;
-      int max = Integer.MIN_VALUE;
+    /**
+     * Extract triples from the sentence, as the OpenIE annotator does, but only searching
+     * for entailments of clauses which contain at least two entities
+     */
+    private void annotateAnchored(CoreMap sentence){
+      List<SentenceFragment> fragments = new ArrayList<>();
+      for(SentenceFragment clause : openIE.clausesInSentence(sentence)){
+        if(countEntities(clause) < 2)
+          continue;
 
-      for(CoreLabel label : coreLabels){
-        if(label.beginPosition() < min)
-          min = label.beginPosition();
+        List<SentenceFragment> entailments = openIE.entailmentsFromClause(clause);
+        if(entailments.size() > maxEntailmentsPerClause)
+          entailments = entailments.subList(0, maxEntailmentsPerClause);
 
-        if(label.endPosition() > max)
-          max = label.endPosition();
+        fragments.addAll(entailments);
       }
 
-      return new SpanBounds(min, max);
+      sentence.set(NaturalLogicAnnotations.RelationTriplesAnnotation.class,
+          fragments.isEmpty() ? new ArrayList<>() : openIE.relationsInFragments(fragments, sentence));
+    }
+
+    /**
+     * Number of distinct entities with at least one token in the fragment
+     */
+    private static int countEntities(SentenceFragment fragment){
+      Set<Integer> entities = new HashSet<>();
+      for(CoreLabel token : fragment.words){
+        List<Integer> indices = token.get(CoreNLPUtils.Annot8EntityIndicesAnnotation.class);
+        if(indices != null)
+          entities.addAll(indices);
+      }
+
+      return entities.size();
+    }
+
+    /**
+     * Number of sentences containing at least two entities, which were passed to CoreNLP
+     */
+    public long getSentencesProcessed() {
+      return sentencesProcessed.get();
+    }
+
+    /**
+     * Number of sentences skipped because they contain fewer than two entities
+     */
+    public long getSentencesSkipped() {
+      return sentencesSkipped.get();
+    }
+
+    /**
+     * Number of triples produced by OpenIE, excluding those taken from the sentence cache
+     */
+    public long getTriplesProduced() {
+      return triplesProduced.get();
+    }
+
+    /**
+     * Number of triples produced by OpenIE that were saved as groups
+     */
+    public long getTriplesKept() {
+      return triplesKept.get();
+    }
+
+    /**
+     * Maximum number of entailments searched for from each clause, from the CoreNLP properties if given there,
+     * otherwise from the settings
+     */
+    public int getMaxEntailmentsPerClause() {
+      return maxEntailmentsPerClause;
+    }
+
+    /**
+     * Number of sentences whose triples were taken from the sentence cache
+     */
+    public long getSentenceCacheHits(){
+      return sentenceCache == null ? 0 : sentenceCache.getHits();
+    }
+
+    /**
+     * Number of sentences that had to be passed to OpenIE
+     */
+    public long getSentenceCacheMisses(){
+      return sentenceCache == null ? 0 : sentenceCache.getMisses();
+    }
+
+    @Override
+    public void close() {
+      super.close();
+      if(sentenceCache != null)
+        log().debug("OpenIE sentence cache {}", sentenceCache);
+
+      if(parseCache != null) {
+        try {
+          parseCache.close();
+        } catch (IOException e) {
+          log().warn("Unable to close parse cache", e);
+        }
+      }
     }
 
     private static String normalizeRelation(String s){
@@ -160,4 +397,113 @@ public class OpenIE extends AbstractProcessorDescriptor<OpenIE.Processor, CoreNL
       return fully.substring(0, 1).toLowerCase() + fully.substring(1);
     }
   }
+
+  /**
+   * Cheaper modes used for documents whose estimated cost exceeds the cost budget
+   */
+  public enum Degradation {
+    /**
+     * Always process documents in full
+     */
+    NONE,
+
+    /**
+     * Only search for entailments of clauses containing at least two entities, as with entityAnchored
+     */
+    ENTITY_ANCHORED,
+
+    /**
+     * Don't extract triples
+     */
+    SKIP
+  }
+
+  public static class Settings extends ProcessorSettings {
+
+    private boolean entityAnchored = false;
+    private int maxEntailmentsPerClause = 1000;
+    private MatchPolicy matchPolicy = MatchPolicy.EXACT;
+    private int sentenceCacheMegabytes = 0;
+    private String parseCacheFile = null;
+    private int parseCacheMegabytes = 1024;
+    private Degradation degradation = Degradation.ENTITY_ANCHORED;
+    private String executor = null;
+
+    public Settings(){
+      super();
+    }
+
+    public Settings(Properties properties){
+      super(properties);
+    }
+
+    @Description(value = "Only search for entailments of clauses containing at least two entities, as other clauses can't produce a relation between existing entities", defaultValue = "false")
+    public boolean isEntityAnchored() {
+      return entityAnchored;
+    }
+    public void setEntityAnchored(boolean entityAnchored) {
+      this.entityAnchored = entityAnchored;
+    }
+
+    @Description(value = "Maximum number of entailments to search for from each clause, unless openie.max_entailments_per_clause is given in the properties", defaultValue = "1000")
+    public int getMaxEntailmentsPerClause() {
+      return maxEntailmentsPerClause;
+    }
+    public void setMaxEntailmentsPerClause(int maxEntailmentsPerClause) {
+      this.maxEntailmentsPerClause = maxEntailmentsPerClause;
+    }
+
+    @Description(value = "How mentions are matched to existing entities (EXACT, WITHIN, COVERING or OVERLAP)", defaultValue = "EXACT")
+    public MatchPolicy getMatchPolicy() {
+      return matchPolicy;
+    }
+    public void setMatchPolicy(MatchPolicy matchPolicy) {
+      this.matchPolicy = matchPolicy;
+    }
+
+    @Description(value = "Approximate memory, in megabytes, to use for caching the triples of previously seen sentences, or 0 to disable caching", defaultValue = "0")
+    public int getSentenceCacheMegabytes() {
+      return sentenceCacheMegabytes;
+    }
+    public void setSentenceCacheMegabytes(int sentenceCacheMegabytes) {
+      this.sentenceCacheMegabytes = sentenceCacheMegabytes;
+    }
+
+    @Description("File in which to persist dependency parses between runs, so that previously seen sentences don't need to be parsed again, or null to disable the parse cache. Each file can only be used by one process at a time, so processes running in parallel need separate files")
+    public String getParseCacheFile() {
+      return parseCacheFile;
+    }
+    public void setParseCacheFile(String parseCacheFile) {
+      this.parseCacheFile = parseCacheFile;
+    }
+
+    @Description(value = "Maximum size of the parse cache file, in megabytes, after which no further parses are added", defaultValue = "1024")
+    public int getParseCacheMegabytes() {
+      return parseCacheMegabytes;
+    }
+    public void setParseCacheMegabytes(int parseCacheMegabytes) {
+      this.parseCacheMegabytes = parseCacheMegabytes;
+    }
+
+    @Description(value = "Cheaper mode used for documents whose estimated cost exceeds the cost budget (NONE, ENTITY_ANCHORED or SKIP)", defaultValue = "ENTITY_ANCHORED")
+    public Degradation getDegradation() {
+      return degradation;
+    }
+    public void setDegradation(Degradation degradation) {
+      this.degradation = degradation;
+    }
+
+    @Description("Name of the shared executor used to process the sentences of a document in parallel, or null to process each document on a single thread")
+    public String getExecutor() {
+      return executor;
+    }
+    public void setExecutor(String executor) {
+      this.executor = executor;
+    }
+
+    @Override
+    public boolean validate() {
+      return super.validate() && maxEntailmentsPerClause > 0 && matchPolicy != null && sentenceCacheMegabytes >= 0 && parseCacheMegabytes > 0 && degradation != null;
+    }
+  }
 }
@@ -20,11 +20,13 @@ import edu.stanford.nlp.ling.CoreAnnotations;
 import edu.stanford.nlp.ling.CoreLabel;
 import edu.stanford.nlp.pipeline.Annotation;
 import edu.stanford.nlp.pipeline.POSTaggerAnnotator;
+import edu.stanford.nlp.util.CoreMap;
 import io.annot8.api.capabilities.Capabilities;
 import io.annot8.api.components.annotations.ComponentDescription;
 import io.annot8.api.components.annotations.ComponentName;
 import io.annot8.api.components.annotations.SettingsClass;
 import io.annot8.api.context.Context;
+import io.annot8.api.settings.Description;
 import io.annot8.common.components.AbstractProcessorDescriptor;
 import io.annot8.common.components.capabilities.SimpleCapabilities;
 import io.annot8.common.data.bounds.SpanBounds;
@@ -33,18 +35,20 @@ import io.annot8.components.base.text.processors.AbstractTextProcessor;
 import io.annot8.conventions.AnnotationTypes;
 import io.annot8.conventions.PropertyKeys;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.stream.Collectors;
 
 @ComponentName("CoreNLP POS")
 @ComponentDescription("Add Parts of Speech information to tokens")
-@SettingsClass(CoreNLPSettings.class)
-public class POS extends AbstractProcessorDescriptor<POS.Processor, CoreNLPSettings> {
+@SettingsClass(POS.Settings.class)
+public class POS extends AbstractProcessorDescriptor<POS.Processor, POS.Settings> {
 
   @Override
-  protected Processor createComponent(Context context, CoreNLPSettings settings) {
-    return new Processor(settings.getProperties());
+  protected Processor createComponent(Context context, Settings settings) {
+    return new Processor(settings);
   }
 
   @Override
@@ -58,15 +62,30 @@ public class POS extends AbstractProcessorDescriptor<POS.Processor, CoreNLPSetti
   public static class Processor extends AbstractTextProcessor {
 
     private final POSTaggerAnnotator tagger;
+    private final SentenceCache<String[]> sentenceCache;
+    private final SharedExecutor executor;
 
     public Processor(Properties properties){
-      tagger = new POSTaggerAnnotator(POSTaggerAnnotator.STANFORD_POS, properties);
+      this(new Settings(properties));
+    }
+
+    public Processor(Settings settings){
+      executor = SharedExecutor.forName(settings.getExecutor());
+      tagger = new POSTaggerAnnotator(POSTaggerAnnotator.STANFORD_POS, executor == null ? settings.getProperties() : SharedExecutor.singleThreaded(settings.getProperties()));
+      sentenceCache = SentenceCache.create(settings.getSentenceCacheMegabytes(), tags -> 16 + 8L * tags.length);
     }
 
     @Override
     protected void process(Text content) {
       Annotation document = CoreNLPUtils.createCoreNLPDocument(content);
-      tagger.annotate(document);
+      if(sentenceCache == null) {
+        ParseUtils.parse(tagger, document, document.get(CoreAnnotations.SentencesAnnotation.class), executor);
+      }else{
+        tagWithCache(document);
+      }
+
+      StageEvent writeEvent = StageEvent.start(StageEvent.WRITE, getClass());
+      int outputs = 0;
 
       Map<Integer, io.annot8.api.annotations.Annotation> annotPos = content.getAnnotations()
           .getByBoundsAndType(SpanBounds.class, AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN)
@@ -84,8 +103,98 @@ public class POS extends AbstractProcessorDescriptor<POS.Processor, CoreNLPSetti
         content.getAnnotations().create().from(annotPos.get(i))
             .withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, tokenPos.get(i).get(CoreAnnotations.PartOfSpeechAnnotation.class))
             .save();
+        outputs++;
       }
 
+      writeEvent.finish(document, outputs);
+    }
+
+    private void tagWithCache(Annotation document){
+      List<CoreMap> sentences = document.get(CoreAnnotations.SentencesAnnotation.class);
+
+      List<CoreMap> uncached = new ArrayList<>();
+      List<String> uncachedKeys = new ArrayList<>();
+      for(CoreMap sentence : sentences){
+        String key = SentenceCache.key(sentence);
+        String[] tags = sentenceCache.get(key);
+        if(tags == null){
+          uncached.add(sentence);
+          uncachedKeys.add(key);
+          continue;
+        }
+
+        List<CoreLabel> tokens = sentence.get(CoreAnnotations.TokensAnnotation.class);
+        for(int i = 0; i < tags.length; i++)
+          tokens.get(i).setTag(tags[i]);
+      }
+
+      if(uncached.isEmpty())
+        return;
+
+      Annotation toTag = uncached.size() < sentences.size() ? CoreNLPUtils.createSubDocument(document, uncached) : document;
+      ParseUtils.parse(tagger, toTag, uncached, executor);
+
+      for(int i = 0; i < uncached.size(); i++){
+        String[] tags = uncached.get(i).get(CoreAnnotations.TokensAnnotation.class).stream()
+            .map(CoreLabel::tag)
+            .toArray(String[]::new);
+        sentenceCache.put(uncachedKeys.get(i), tags);
+      }
+    }
+
+    /**
+     * Number of sentences whose tags were taken from the sentence cache
+     */
+    public long getSentenceCacheHits(){
+      return sentenceCache == null ? 0 : sentenceCache.getHits();
+    }
+
+    /**
+     * Number of sentences that had to be tagged
+     */
+    public long getSentenceCacheMisses(){
+      return sentenceCache == null ? 0 : sentenceCache.getMisses();
+    }
+
+    @Override
+    public void close() {
+      if(sentenceCache != null)
+        log().debug("POS sentence cache {}", sentenceCache);
+    }
+  }
+
+  public static class Settings extends CoreNLPSettings {
+
+    private int sentenceCacheMegabytes = 0;
+    private String executor = null;
+
+    public Settings(){
+      super();
+    }
+
+    public Settings(Properties properties){
+      super(properties);
+    }
+
+    @Description(value = "Approximate memory, in megabytes, to use for caching the tags of previously seen sentences, or 0 to disable caching", defaultValue = "0")
+    public int getSentenceCacheMegabytes() {
+      return sentenceCacheMegabytes;
+    }
+    public void setSentenceCacheMegabytes(int sentenceCacheMegabytes) {
+      this.sentenceCacheMegabytes = sentenceCacheMegabytes;
+    }
+
+    @Description("Name of the shared executor used to process the sentences of a document in parallel, or null to process each document on a single thread")
+    public String getExecutor() {
+      return executor;
+    }
+    public void setExecutor(String executor) {
+      this.executor = executor;
+    }
+
+    @Override
+    public boolean validate() {
+      return super.validate() && sentenceCacheMegabytes >= 0;
     }
   }
 }
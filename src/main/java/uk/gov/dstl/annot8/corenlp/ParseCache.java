@@ -0,0 +1,595 @@
+/*
+ * Crown Copyright (C) 2021 Dstl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package uk.gov.dstl.annot8.corenlp;
+
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.ling.IndexedWord;
+import edu.stanford.nlp.pipeline.Annotator;
+import edu.stanford.nlp.semgraph.SemanticGraph;
+import edu.stanford.nlp.semgraph.SemanticGraphCoreAnnotations;
+import edu.stanford.nlp.semgraph.SemanticGraphEdge;
+import edu.stanford.nlp.trees.GrammaticalRelation;
+import edu.stanford.nlp.trees.LabeledScoredTreeFactory;
+import edu.stanford.nlp.trees.Tree;
+import edu.stanford.nlp.trees.TreeCoreAnnotations;
+import edu.stanford.nlp.trees.TreeFactory;
+import edu.stanford.nlp.util.CoreMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Persistent cache of sentence parses, so that reprocessing a corpus doesn't need to parse sentences again.
+ *
+ * Parses are appended to a single file, which is memory mapped for reading and indexed in memory when it is opened.
+ * Each record holds a hash of the parser fingerprint and the sentence's words and tags, followed by a compact binary
+ * encoding of the constituency tree and dependency graphs, with tokens referred to by their index in the sentence.
+ * Records are never removed or replaced; once the file reaches its maximum size, no further parses are added.
+ *
+ * Caches are shared between processors using the same file, and are closed when the last of them is closed.
+ * Only one process can have a cache file open at a time, as records are appended at the end of the file as this
+ * process last saw it; the file is locked while it's open, and opening a file locked by another process fails.
+ */
+public class ParseCache implements Closeable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ParseCache.class);
+
+  private static final int MAGIC = 0x50415253;
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 8;
+  private static final int KEY_SIZE = 32;
+  private static final int MAX_FILE_SIZE = Integer.MAX_VALUE;
+
+  private static final int FLAG_TREE = 1;
+  private static final int FLAG_GRAPHS = 2;
+
+  private static final Map<Path, ParseCache> OPEN = new HashMap<>();
+
+  private final Path file;
+  private final long maxBytes;
+  private final FileChannel channel;
+  private final Map<ByteBuffer, Long> index = new HashMap<>();
+  private MappedByteBuffer mapped;
+  private long size;
+  private int references = 0;
+  private boolean full = false;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  private ParseCache(Path file, long maxBytes) throws IOException {
+    this.file = file;
+    this.maxBytes = Math.min(maxBytes, MAX_FILE_SIZE);
+    this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+    try {
+      lock();
+      load();
+    }catch (IOException e){
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Open the cache held in the given file, creating it if it doesn't exist, or return the already open cache for the file.
+   * The maximum size of an already open cache isn't changed.
+   */
+  public static ParseCache open(String file, long maxBytes) throws IOException {
+    Path path = Paths.get(file).toAbsolutePath().normalize();
+
+    synchronized (OPEN) {
+      ParseCache cache = OPEN.get(path);
+      if(cache == null) {
+        cache = new ParseCache(path, maxBytes);
+        OPEN.put(path, cache);
+      }
+
+      cache.references++;
+      return cache;
+    }
+  }
+
+  /**
+   * Open the cache as {@link #open(String, long)}, returning null if no file is given or the file can't be opened
+   */
+  public static ParseCache openOrNull(String file, long maxBytes){
+    if(file == null || file.isEmpty())
+      return null;
+
+    try {
+      return open(file, maxBytes);
+    }catch (IOException e){
+      LOGGER.warn("Unable to open parse cache {}, parses won't be cached", file, e);
+      return null;
+    }
+  }
+
+  /**
+   * Describe a parser by the name of its backend and its properties with the given prefixes, so that parses are
+   * only reused by parsers configured in the same way
+   */
+  public static String fingerprint(String backend, Properties properties, String... prefixes){
+    StringBuilder sb = new StringBuilder(backend);
+    new TreeMap<>(properties).forEach((k, v) -> {
+      //The number of threads doesn't affect the parse
+      if(k.toString().endsWith(".nthreads"))
+        return;
+
+      for(String prefix : prefixes){
+        if(k.toString().startsWith(prefix)) {
+          sb.append('\n').append(k).append('=').append(v);
+          break;
+        }
+      }
+    });
+
+    return sb.toString();
+  }
+
+  private void lock() throws IOException {
+    FileLock lock;
+    try {
+      //Released when the channel is closed
+      lock = channel.tryLock();
+    }catch (OverlappingFileLockException e){
+      lock = null;
+    }
+
+    if(lock == null)
+      throw new IOException(file + " is already in use by another process, and a parse cache can only be written by one process at a time");
+  }
+
+  private void load() throws IOException {
+    size = channel.size();
+    if(size == 0){
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      header.putInt(MAGIC).putInt(VERSION).flip();
+      while(header.hasRemaining())
+        channel.write(header, header.position());
+      size = HEADER_SIZE;
+    }
+
+    remap();
+    if(size < HEADER_SIZE || mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION)
+      throw new IOException(file + " is not a parse cache, or was written by an incompatible version");
+
+    long position = HEADER_SIZE;
+    while(position + 4 + KEY_SIZE <= size){
+      int length = mapped.getInt((int) position);
+      if(length < 0 || position + 4 + KEY_SIZE + length > size)
+        break;
+
+      byte[] key = new byte[KEY_SIZE];
+      ((ByteBuffer) mapped.duplicate().position((int) position + 4)).get(key);
+      index.put(ByteBuffer.wrap(key), position);
+
+      position += 4 + KEY_SIZE + length;
+    }
+
+    if(position < size){
+      //Discard a partially written record, e.g. from a process that was killed while writing
+      LOGGER.warn("Discarding {} bytes of incomplete data from the end of parse cache {}", size - position, file);
+      channel.truncate(position);
+      size = position;
+      remap();
+    }
+
+    full = size >= maxBytes;
+  }
+
+  private void remap() throws IOException {
+    mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+  }
+
+  /**
+   * Set cached parses on the sentences, and parse the remaining sentences with the parser, adding their parses
+   * to the cache. The parser fingerprint should identify the parser and its configuration.
+   *
+   * @return the number of sentences that were parsed
+   */
+  public int parse(Annotator parser, String fingerprint, edu.stanford.nlp.pipeline.Annotation document, List<CoreMap> sentences){
+    return parse(parser, fingerprint, document, sentences, null);
+  }
+
+  /**
+   * Set cached parses on the sentences, as {@link #parse(Annotator, String, edu.stanford.nlp.pipeline.Annotation, List)},
+   * parsing the remaining sentences in parallel on the executor if it isn't null
+   *
+   * @return the number of sentences that were parsed
+   */
+  public int parse(Annotator parser, String fingerprint, edu.stanford.nlp.pipeline.Annotation document, List<CoreMap> sentences, SharedExecutor executor){
+    List<CoreMap> missing = new ArrayList<>();
+    List<byte[]> keys = new ArrayList<>();
+    for(CoreMap sentence : sentences){
+      //Keys must be created before parsing, as the parser may add tags
+      byte[] key = key(fingerprint, sentence);
+      if(!get(key, sentence)){
+        missing.add(sentence);
+        keys.add(key);
+      }
+    }
+
+    if(missing.isEmpty())
+      return 0;
+
+    ParseUtils.parse(parser, document, missing, executor);
+
+    for(int i = 0; i < missing.size(); i++)
+      put(keys.get(i), missing.get(i));
+
+    return missing.size();
+  }
+
+  /**
+   * Hash of the parser fingerprint and the words and tags of the sentence
+   */
+  public static byte[] key(String fingerprint, CoreMap sentence){
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+
+    digest.update(fingerprint.getBytes(StandardCharsets.UTF_8));
+    for(CoreLabel token : sentence.get(CoreAnnotations.TokensAnnotation.class)){
+      digest.update((byte) 0);
+      digest.update(Objects.toString(token.word(), "").getBytes(StandardCharsets.UTF_8));
+      digest.update((byte) 1);
+      digest.update(Objects.toString(token.tag(), "").getBytes(StandardCharsets.UTF_8));
+    }
+
+    return digest.digest();
+  }
+
+  /**
+   * Set the cached parse for the key on the sentence, if there is one.
+   *
+   * @return true if the parse was found
+   */
+  public boolean get(byte[] key, CoreMap sentence){
+    byte[] record;
+    synchronized (this) {
+      Long position = index.get(ByteBuffer.wrap(key));
+      if(position == null || mapped == null){
+        misses.incrementAndGet();
+        return false;
+      }
+
+      //Records appended since the file was last mapped are outside the mapping
+      if(position >= mapped.capacity()) {
+        try {
+          remap();
+        }catch (IOException e){
+          LOGGER.warn("Unable to map parse cache {}", file, e);
+          misses.incrementAndGet();
+          return false;
+        }
+      }
+
+      int length = mapped.getInt(position.intValue());
+      record = new byte[length];
+      ((ByteBuffer) mapped.duplicate().position(position.intValue() + 4 + KEY_SIZE)).get(record);
+    }
+
+    try {
+      decode(record, sentence);
+    }catch (IOException | RuntimeException e){
+      LOGGER.warn("Unable to decode cached parse in {}", file, e);
+      misses.incrementAndGet();
+      return false;
+    }
+
+    hits.incrementAndGet();
+    return true;
+  }
+
+  /**
+   * Append the parse of the sentence to the cache, if there's space and it isn't already cached
+   */
+  public void put(byte[] key, CoreMap sentence){
+    byte[] record;
+    try {
+      record = encode(sentence);
+    }catch (IOException e){
+      throw new UncheckedIOException(e);
+    }
+
+    if(record == null)
+      return;
+
+    synchronized (this) {
+      if(full || mapped == null || index.containsKey(ByteBuffer.wrap(key)))
+        return;
+
+      if(size + 4 + KEY_SIZE + record.length > maxBytes){
+        LOGGER.info("Parse cache {} has reached its maximum size, no further parses will be added", file);
+        full = true;
+        return;
+      }
+
+      ByteBuffer buffer = ByteBuffer.allocate(4 + KEY_SIZE + record.length);
+      buffer.putInt(record.length).put(key).put(record).flip();
+
+      try {
+        long position = size;
+        while(buffer.hasRemaining())
+          position += channel.write(buffer, position);
+
+        index.put(ByteBuffer.wrap(key.clone()), size);
+        size = position;
+      }catch (IOException e){
+        LOGGER.warn("Unable to write to parse cache {}, no further parses will be added", file, e);
+        full = true;
+      }
+    }
+  }
+
+  /**
+   * Encode the tree and graphs of the sentence, or return null if there's nothing to encode or
+   * the sentence is too long to encode
+   */
+  private static byte[] encode(CoreMap sentence) throws IOException {
+    List<CoreLabel> tokens = sentence.get(CoreAnnotations.TokensAnnotation.class);
+    if(tokens.size() > 0xFFFF)
+      return null;
+
+    Tree tree = sentence.get(TreeCoreAnnotations.TreeAnnotation.class);
+    boolean graphs = ParseUtils.hasDependencies(sentence);
+    if(tree == null && !graphs)
+      return null;
+
+    Map<String, Integer> strings = new LinkedHashMap<>();
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(body);
+
+    if(tree != null)
+      encode(tree, out, strings);
+
+    if(graphs) {
+      encode(sentence.get(SemanticGraphCoreAnnotations.BasicDependenciesAnnotation.class), out, strings);
+      encode(sentence.get(SemanticGraphCoreAnnotations.EnhancedDependenciesAnnotation.class), out, strings);
+      encode(sentence.get(SemanticGraphCoreAnnotations.EnhancedPlusPlusDependenciesAnnotation.class), out, strings);
+    }
+
+    if(strings.size() > 0xFFFF)
+      return null;
+
+    ByteArrayOutputStream record = new ByteArrayOutputStream(body.size() + 64);
+    DataOutputStream header = new DataOutputStream(record);
+    header.writeByte((tree == null ? 0 : FLAG_TREE) | (graphs ? FLAG_GRAPHS : 0));
+    header.writeShort(tokens.size());
+    header.writeShort(strings.size());
+    for(String s : strings.keySet())
+      header.writeUTF(s);
+
+    body.writeTo(record);
+    return record.toByteArray();
+  }
+
+  /**
+   * Write the tree in pre-order, with each internal node as its label and number of children,
+   * and each leaf as 0xFFFF (leaves are the tokens of the sentence, in order)
+   */
+  private static void encode(Tree tree, DataOutputStream out, Map<String, Integer> strings) throws IOException {
+    if(tree.isLeaf()){
+      out.writeShort(0xFFFF);
+      return;
+    }
+
+    out.writeShort(string(tree.value(), strings));
+    out.writeShort(tree.numChildren());
+    for(Tree child : tree.children())
+      encode(child, out, strings);
+  }
+
+  /**
+   * Write the roots and edges of the graph, with each word as its index within the sentence and copy count
+   */
+  private static void encode(SemanticGraph graph, DataOutputStream out, Map<String, Integer> strings) throws IOException {
+    Collection<IndexedWord> roots = graph.getRoots();
+    out.writeShort(roots.size());
+    for(IndexedWord root : roots)
+      encode(root, out);
+
+    out.writeInt(graph.edgeCount());
+    for(SemanticGraphEdge edge : graph.edgeIterable()){
+      encode(edge.getGovernor(), out);
+      encode(edge.getDependent(), out);
+      out.writeShort(string(edge.getRelation().toString(), strings));
+      out.writeBoolean(edge.isExtra());
+    }
+  }
+
+  private static void encode(IndexedWord word, DataOutputStream out) throws IOException {
+    out.writeShort(word.index());
+    out.writeByte(word.copyCount());
+  }
+
+  private static int string(String s, Map<String, Integer> strings){
+    return strings.computeIfAbsent(s, k -> strings.size());
+  }
+
+  private static void decode(byte[] record, CoreMap sentence) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+    List<CoreLabel> tokens = sentence.get(CoreAnnotations.TokensAnnotation.class);
+
+    int flags = in.readUnsignedByte();
+    if(in.readUnsignedShort() != tokens.size())
+      throw new IOException("Cached parse has a different number of tokens to the sentence");
+
+    String[] strings = new String[in.readUnsignedShort()];
+    for(int i = 0; i < strings.length; i++)
+      strings[i] = in.readUTF();
+
+    Tree tree = null;
+    if((flags & FLAG_TREE) != 0){
+      TreeFactory tf = new LabeledScoredTreeFactory(CoreLabel.factory());
+      Iterator<CoreLabel> leaves = tokens.iterator();
+      tree = decodeTree(in, tf, strings, leaves);
+      if(leaves.hasNext())
+        throw new IOException("Cached tree has fewer leaves than the sentence has tokens");
+
+      tree.indexSpans(0);
+    }
+
+    SemanticGraph basic = null;
+    SemanticGraph enhanced = null;
+    SemanticGraph enhancedPlusPlus = null;
+    if((flags & FLAG_GRAPHS) != 0){
+      basic = decodeGraph(in, strings, tokens);
+      enhanced = decodeGraph(in, strings, tokens);
+      enhancedPlusPlus = decodeGraph(in, strings, tokens);
+    }
+
+    //Only modify the sentence once the whole record has been decoded
+    if(tree != null) {
+      sentence.set(TreeCoreAnnotations.TreeAnnotation.class, tree);
+
+      //The parser tags any untagged tokens, so do the same from the tree
+      List<edu.stanford.nlp.ling.Label> tags = tree.preTerminalYield();
+      for(int i = 0; i < tokens.size() && i < tags.size(); i++){
+        if(tokens.get(i).tag() == null)
+          tokens.get(i).setTag(tags.get(i).value());
+      }
+    }
+
+    if(basic != null) {
+      sentence.set(SemanticGraphCoreAnnotations.BasicDependenciesAnnotation.class, basic);
+      sentence.set(SemanticGraphCoreAnnotations.EnhancedDependenciesAnnotation.class, enhanced);
+      sentence.set(SemanticGraphCoreAnnotations.EnhancedPlusPlusDependenciesAnnotation.class, enhancedPlusPlus);
+    }
+  }
+
+  private static Tree decodeTree(DataInputStream in, TreeFactory tf, String[] strings, Iterator<CoreLabel> tokens) throws IOException {
+    int label = in.readUnsignedShort();
+    if(label == 0xFFFF){
+      if(!tokens.hasNext())
+        throw new IOException("Cached tree has more leaves than the sentence has tokens");
+
+      return tf.newLeaf(tokens.next());
+    }
+
+    int numChildren = in.readUnsignedShort();
+    List<Tree> children = new ArrayList<>(numChildren);
+    for(int i = 0; i < numChildren; i++)
+      children.add(decodeTree(in, tf, strings, tokens));
+
+    return tf.newTreeNode(strings[label], children);
+  }
+
+  private static SemanticGraph decodeGraph(DataInputStream in, String[] strings, List<CoreLabel> tokens) throws IOException {
+    SemanticGraph graph = new SemanticGraph();
+    Map<Integer, IndexedWord> words = new HashMap<>();
+
+    int roots = in.readUnsignedShort();
+    for(int i = 0; i < roots; i++) {
+      IndexedWord root = decodeWord(in, tokens, words);
+      graph.addVertex(root);
+      graph.addRoot(root);
+    }
+
+    int edges = in.readInt();
+    for(int i = 0; i < edges; i++){
+      IndexedWord governor = decodeWord(in, tokens, words);
+      IndexedWord dependent = decodeWord(in, tokens, words);
+      GrammaticalRelation relation = GrammaticalRelation.valueOf(GrammaticalRelation.Language.UniversalEnglish, strings[in.readUnsignedShort()]);
+      boolean extra = in.readBoolean();
+
+      graph.addVertex(governor);
+      graph.addVertex(dependent);
+      graph.addEdge(governor, dependent, relation, Double.NEGATIVE_INFINITY, extra);
+    }
+
+    return graph;
+  }
+
+  private static IndexedWord decodeWord(DataInputStream in, List<CoreLabel> tokens, Map<Integer, IndexedWord> words) throws IOException {
+    int index = in.readUnsignedShort();
+    int copyCount = in.readUnsignedByte();
+
+    return words.computeIfAbsent(index << 8 | copyCount, k -> ParseUtils.getWord(tokens, index, copyCount));
+  }
+
+  /**
+   * Number of sentences whose parse was found in the cache
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * Number of sentences whose parse wasn't found in the cache
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * Number of parses held in the cache
+   */
+  public synchronized int size() {
+    return index.size();
+  }
+
+  /**
+   * Size of the cache file, in bytes
+   */
+  public synchronized long getFileSize() {
+    return size;
+  }
+
+  public Path getFile() {
+    return file;
+  }
+
+  /**
+   * Release this reference to the cache, closing the file once all references have been released
+   */
+  @Override
+  public void close() throws IOException {
+    synchronized (OPEN) {
+      if(references == 0 || --references > 0)
+        return;
+
+      OPEN.remove(file);
+    }
+
+    synchronized (this) {
+      LOGGER.debug("Closing parse cache {} ({} parses, {} bytes, {} hits, {} misses)", file, index.size(), size, hits.get(), misses.get());
+      mapped = null;
+      index.clear();
+      channel.close();
+    }
+  }
+}
@@ -0,0 +1,277 @@
+/*
+ * Crown Copyright (C) 2021 Dstl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package uk.gov.dstl.annot8.corenlp;
+
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.ling.IndexedWord;
+import edu.stanford.nlp.pipeline.Annotator;
+import edu.stanford.nlp.semgraph.SemanticGraph;
+import edu.stanford.nlp.semgraph.SemanticGraphCoreAnnotations;
+import edu.stanford.nlp.semgraph.SemanticGraphEdge;
+import edu.stanford.nlp.trees.GrammaticalRelation;
+import edu.stanford.nlp.trees.LabeledScoredTreeFactory;
+import edu.stanford.nlp.trees.Tree;
+import edu.stanford.nlp.trees.TreeCoreAnnotations;
+import edu.stanford.nlp.trees.TreeFactory;
+import edu.stanford.nlp.util.CoreMap;
+import io.annot8.api.annotations.Annotation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.StringJoiner;
+
+/**
+ * Utilities for working with constituency and dependency parses of CoreNLP sentences
+ */
+public class ParseUtils {
+
+  public static final String PROPERTY_KEY_BASIC_DEPENDENCIES = "basicDependencies";
+  public static final String PROPERTY_KEY_ENHANCED_DEPENDENCIES = "enhancedDependencies";
+  public static final String PROPERTY_KEY_ENHANCED_PLUS_PLUS_DEPENDENCIES = "enhancedPlusPlusDependencies";
+  public static final String PROPERTY_KEY_DEPENDENCY_TOKENS = "dependencyTokens";
+
+  private static final String ROOT = "0";
+  private static final String EXTRA = "!";
+
+  private ParseUtils(){
+    //Private constructor for utility class
+  }
+
+  /**
+   * Returns true if the sentence has basic, enhanced and enhanced++ dependency graphs
+   */
+  public static boolean hasDependencies(CoreMap sentence){
+    return sentence.containsKey(SemanticGraphCoreAnnotations.BasicDependenciesAnnotation.class)
+        && sentence.containsKey(SemanticGraphCoreAnnotations.EnhancedDependenciesAnnotation.class)
+        && sentence.containsKey(SemanticGraphCoreAnnotations.EnhancedPlusPlusDependenciesAnnotation.class);
+  }
+
+  /**
+   * Set the dependency graphs on a CoreNLP sentence from the encoded graphs in the properties of the Annot8 sentence,
+   * if they are present and were parsed from the same tokens as the sentence now has (see {@link #fingerprint(List)}).
+   * Returns true if the graphs were set.
+   */
+  public static boolean setDependencies(Annotation annot8Sentence, CoreMap sentence){
+    Optional<String> basic = annot8Sentence.getProperties().get(PROPERTY_KEY_BASIC_DEPENDENCIES, String.class);
+    Optional<String> enhanced = annot8Sentence.getProperties().get(PROPERTY_KEY_ENHANCED_DEPENDENCIES, String.class);
+    Optional<String> enhancedPlusPlus = annot8Sentence.getProperties().get(PROPERTY_KEY_ENHANCED_PLUS_PLUS_DEPENDENCIES, String.class);
+    Optional<String> parsedTokens = annot8Sentence.getProperties().get(PROPERTY_KEY_DEPENDENCY_TOKENS, String.class);
+    if(basic.isEmpty() || enhanced.isEmpty() || enhancedPlusPlus.isEmpty() || parsedTokens.isEmpty())
+      return false;
+
+    //The sentence has been tokenized differently since it was parsed
+    List<CoreLabel> tokens = sentence.get(CoreAnnotations.TokensAnnotation.class);
+    if(!parsedTokens.get().equals(fingerprint(tokens)))
+      return false;
+
+    SemanticGraph basicGraph;
+    SemanticGraph enhancedGraph;
+    SemanticGraph enhancedPlusPlusGraph;
+    try {
+      basicGraph = decode(basic.get(), tokens);
+      enhancedGraph = decode(enhanced.get(), tokens);
+      enhancedPlusPlusGraph = decode(enhancedPlusPlus.get(), tokens);
+    }catch (IllegalArgumentException e){
+      //The encoded graphs aren't valid for the tokens
+      return false;
+    }
+
+    sentence.set(SemanticGraphCoreAnnotations.BasicDependenciesAnnotation.class, basicGraph);
+    sentence.set(SemanticGraphCoreAnnotations.EnhancedDependenciesAnnotation.class, enhancedGraph);
+    sentence.set(SemanticGraphCoreAnnotations.EnhancedPlusPlusDependenciesAnnotation.class, enhancedPlusPlusGraph);
+
+    return true;
+  }
+
+  /**
+   * Describe the tokens of a sentence by their number and a hash of their words, so that a parse stored with the sentence
+   * is only reused if the sentence still has the tokens it was parsed from
+   */
+  public static String fingerprint(List<CoreLabel> tokens){
+    int hash = 0;
+    for(CoreLabel token : tokens)
+      hash = 31 * hash + Objects.hashCode(token.word());
+
+    return tokens.size() + ":" + Integer.toHexString(hash);
+  }
+
+  /**
+   * Encode a dependency graph as a compact string, with an edge of the form {@code governor:dependent:relation} for
+   * each edge and root (which has a governor of 0), separated by spaces. Words are identified by their index within
+   * the sentence, followed by {@code .n} for copy nodes. Extra edges (see {@link SemanticGraphEdge#isExtra()}) are
+   * prefixed by {@code !}.
+   */
+  public static String encode(SemanticGraph graph){
+    StringJoiner joiner = new StringJoiner(" ");
+    for(IndexedWord root : graph.getRoots())
+      joiner.add(ROOT + ":" + encode(root) + ":root");
+
+    for(SemanticGraphEdge edge : graph.edgeIterable())
+      joiner.add((edge.isExtra() ? EXTRA : "") + encode(edge.getGovernor()) + ":" + encode(edge.getDependent()) + ":" + edge.getRelation().toString());
+
+    return joiner.toString();
+  }
+
+  private static String encode(IndexedWord word){
+    if(word.copyCount() > 0)
+      return word.index() + "." + word.copyCount();
+
+    return Integer.toString(word.index());
+  }
+
+  /**
+   * Decode a dependency graph created by {@link #encode(SemanticGraph)}, using the tokens of the sentence it was created from.
+   * Throws an IllegalArgumentException if the encoded graph isn't valid for the tokens.
+   */
+  public static SemanticGraph decode(String encoded, List<CoreLabel> tokens){
+    SemanticGraph graph = new SemanticGraph();
+    if(encoded.isEmpty())
+      return graph;
+
+    Map<String, IndexedWord> words = new HashMap<>();
+    for(String edge : encoded.split(" ")){
+      boolean extra = edge.startsWith(EXTRA);
+      String[] parts = (extra ? edge.substring(EXTRA.length()) : edge).split(":", 3);
+      if(parts.length != 3)
+        throw new IllegalArgumentException("Invalid dependency edge " + edge);
+
+      IndexedWord dependent = words.computeIfAbsent(parts[1], k -> decode(k, tokens));
+      graph.addVertex(dependent);
+
+      if(ROOT.equals(parts[0])){
+        graph.addRoot(dependent);
+      }else{
+        IndexedWord governor = words.computeIfAbsent(parts[0], k -> decode(k, tokens));
+        graph.addVertex(governor);
+        graph.addEdge(governor, dependent, GrammaticalRelation.valueOf(GrammaticalRelation.Language.UniversalEnglish, parts[2]), Double.NEGATIVE_INFINITY, extra);
+      }
+    }
+
+    return graph;
+  }
+
+  private static IndexedWord decode(String word, List<CoreLabel> tokens){
+    int separator = word.indexOf('.');
+    int index = Integer.parseInt(separator < 0 ? word : word.substring(0, separator));
+
+    return getWord(tokens, index, separator < 0 ? 0 : Integer.parseInt(word.substring(separator + 1)));
+  }
+
+  /**
+   * Create a dependency graph word for the token with the given (1-based) index in the sentence, as a copy node if the copy count is above 0.
+   * Throws an IllegalArgumentException if the index is outside the sentence.
+   */
+  static IndexedWord getWord(List<CoreLabel> tokens, int index, int copyCount){
+    if(index < 1 || index > tokens.size())
+      throw new IllegalArgumentException("Dependency index " + index + " is outside the sentence");
+
+    IndexedWord original = new IndexedWord(tokens.get(index - 1));
+    if(copyCount == 0)
+      return original;
+
+    return original.makeSoftCopy(copyCount);
+  }
+
+  /**
+   * Run a parser over some of the sentences of a document, as {@link #parse(Annotator, edu.stanford.nlp.pipeline.Annotation, List)},
+   * splitting the sentences between the threads of the executor. The parser must be able to annotate sentences
+   * independently and concurrently, as CoreNLP's sentence annotators do. If the executor is null, the sentences are parsed
+   * on the calling thread.
+   */
+  public static void parse(Annotator parser, edu.stanford.nlp.pipeline.Annotation document, List<CoreMap> sentences, SharedExecutor executor){
+    if(executor == null || sentences.size() < 2){
+      parse(parser, document, sentences);
+      return;
+    }
+
+    executor.forEachChunk(sentences, s -> s.get(CoreAnnotations.TokensAnnotation.class).size(),
+        chunk -> parse(parser, document, chunk));
+  }
+
+  /**
+   * Run a parser over some of the sentences of a document. The sentences keep their original indices,
+   * so they are parsed in place via a document holding just those sentences.
+   */
+  public static void parse(Annotator parser, edu.stanford.nlp.pipeline.Annotation document, List<CoreMap> sentences){
+    if(sentences.size() == document.get(CoreAnnotations.SentencesAnnotation.class).size()){
+      StageEvent.annotate(parser, document);
+      return;
+    }
+
+    edu.stanford.nlp.pipeline.Annotation subset = new edu.stanford.nlp.pipeline.Annotation(document.get(CoreAnnotations.TextAnnotation.class));
+    subset.set(CoreAnnotations.DocIDAnnotation.class, document.get(CoreAnnotations.DocIDAnnotation.class));
+    subset.set(CoreAnnotations.SentencesAnnotation.class, sentences);
+    StageEvent.annotate(parser, subset);
+  }
+
+  /**
+   * Set a cheap placeholder parse on a sentence, in place of running a parser. The constituency tree is flat
+   * (with each token under its part of speech, beneath a single X node), and in the dependency graphs every token
+   * depends on the first token.
+   */
+  public static void setPlaceholderParse(CoreMap sentence){
+    List<CoreLabel> tokens = sentence.get(CoreAnnotations.TokensAnnotation.class);
+
+    sentence.set(TreeCoreAnnotations.TreeAnnotation.class, placeholderTree(tokens));
+    sentence.set(SemanticGraphCoreAnnotations.BasicDependenciesAnnotation.class, placeholderGraph(tokens));
+    sentence.set(SemanticGraphCoreAnnotations.EnhancedDependenciesAnnotation.class, placeholderGraph(tokens));
+    sentence.set(SemanticGraphCoreAnnotations.EnhancedPlusPlusDependenciesAnnotation.class, placeholderGraph(tokens));
+  }
+
+  /**
+   * Create a flat constituency tree for the tokens
+   */
+  public static Tree placeholderTree(List<CoreLabel> tokens){
+    TreeFactory tf = new LabeledScoredTreeFactory(CoreLabel.factory());
+
+    List<Tree> children = new ArrayList<>(tokens.size());
+    for(CoreLabel token : tokens){
+      String tag = token.tag() == null ? "X" : token.tag();
+      children.add(tf.newTreeNode(tag, List.of(tf.newLeaf(token))));
+    }
+
+    Tree root = tf.newTreeNode("ROOT", List.of(tf.newTreeNode("X", children)));
+    root.indexSpans(0);
+
+    return root;
+  }
+
+  /**
+   * Create a flat dependency graph for the tokens, with the first token as the root
+   */
+  public static SemanticGraph placeholderGraph(List<CoreLabel> tokens){
+    SemanticGraph graph = new SemanticGraph();
+    if(tokens.isEmpty())
+      return graph;
+
+    IndexedWord root = new IndexedWord(tokens.get(0));
+    graph.addRoot(root);
+
+    for(int i = 1; i < tokens.size(); i++){
+      IndexedWord dependent = new IndexedWord(tokens.get(i));
+      graph.addVertex(dependent);
+      graph.addEdge(root, dependent, GrammaticalRelation.DEPENDENT, Double.NEGATIVE_INFINITY, false);
+    }
+
+    return graph;
+  }
+}
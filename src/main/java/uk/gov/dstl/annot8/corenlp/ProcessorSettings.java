@@ -0,0 +1,115 @@
+/*
+ * Crown Copyright (C) 2021 Dstl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package uk.gov.dstl.annot8.corenlp;
+
+import io.annot8.api.settings.Description;
+
+import java.util.Properties;
+
+/**
+ * Settings shared by the processors extending {@link CoreNLPTextProcessor}, covering result caching, model memory
+ * accounting, capture of slow documents and degradation of costly documents
+ */
+public class ProcessorSettings extends CoreNLPSettings {
+
+  private int resultCacheMegabytes = 0;
+  private String captureDirectory = null;
+  private long captureThresholdMillis = 10000;
+  private long costBudget = 0;
+  private double costPerToken = 1.0;
+  private double costPerSentence = 0.0;
+  private double costPerEntity = 0.0;
+  private boolean measureModelMemory = false;
+
+  public ProcessorSettings(){
+    super();
+  }
+
+  public ProcessorSettings(Properties properties){
+    super(properties);
+  }
+
+  @Description(value = "Approximate memory, in megabytes, to use for caching the results of previously seen documents, or 0 to disable caching", defaultValue = "0")
+  public int getResultCacheMegabytes() {
+    return resultCacheMegabytes;
+  }
+  public void setResultCacheMegabytes(int resultCacheMegabytes) {
+    this.resultCacheMegabytes = resultCacheMegabytes;
+  }
+
+  @Description("Directory to which documents that take longer than the capture threshold to process are written, so that they can be replayed, or null to disable capture")
+  public String getCaptureDirectory() {
+    return captureDirectory;
+  }
+  public void setCaptureDirectory(String captureDirectory) {
+    this.captureDirectory = captureDirectory;
+  }
+
+  @Description(value = "Time, in milliseconds, above which a document is captured", defaultValue = "10000")
+  public long getCaptureThresholdMillis() {
+    return captureThresholdMillis;
+  }
+  public void setCaptureThresholdMillis(long captureThresholdMillis) {
+    this.captureThresholdMillis = captureThresholdMillis;
+  }
+
+  @Description(value = "Estimated cost above which the processor uses a cheaper mode for a document, or 0 to always process documents in full. The cost is the weighted sum of the number of tokens, sentences and entities", defaultValue = "0")
+  public long getCostBudget() {
+    return costBudget;
+  }
+  public void setCostBudget(long costBudget) {
+    this.costBudget = costBudget;
+  }
+
+  @Description(value = "Cost of each token in a document", defaultValue = "1.0")
+  public double getCostPerToken() {
+    return costPerToken;
+  }
+  public void setCostPerToken(double costPerToken) {
+    this.costPerToken = costPerToken;
+  }
+
+  @Description(value = "Cost of each sentence in a document", defaultValue = "0.0")
+  public double getCostPerSentence() {
+    return costPerSentence;
+  }
+  public void setCostPerSentence(double costPerSentence) {
+    this.costPerSentence = costPerSentence;
+  }
+
+  @Description(value = "Cost of each entity in a document", defaultValue = "0.0")
+  public double getCostPerEntity() {
+    return costPerEntity;
+  }
+  public void setCostPerEntity(double costPerEntity) {
+    this.costPerEntity = costPerEntity;
+  }
+
+  @Description(value = "Measure and log the approximate heap used by the processor's models when it is created. This forces garbage collection, so slows startup", defaultValue = "false")
+  public boolean isMeasureModelMemory() {
+    return measureModelMemory;
+  }
+  public void setMeasureModelMemory(boolean measureModelMemory) {
+    this.measureModelMemory = measureModelMemory;
+  }
+
+  @Override
+  public boolean validate() {
+    return super.validate() && resultCacheMegabytes >= 0 && captureThresholdMillis >= 0 &&
+        costBudget >= 0 && costPerToken >= 0 && costPerSentence >= 0 && costPerEntity >= 0;
+  }
+}
@@ -16,6 +16,7 @@
  */
 package uk.gov.dstl.annot8.corenlp;
 
+import edu.stanford.nlp.ie.KBPRelationExtractor;
 import edu.stanford.nlp.ie.util.RelationTriple;
 import edu.stanford.nlp.ling.CoreAnnotations;
 import edu.stanford.nlp.ling.CoreLabel;
@@ -28,23 +29,23 @@ import io.annot8.api.components.annotations.ComponentDescription;
 import io.annot8.api.components.annotations.ComponentName;
 import io.annot8.api.components.annotations.SettingsClass;
 import io.annot8.api.context.Context;
+import io.annot8.api.settings.Description;
 import io.annot8.common.components.AbstractProcessorDescriptor;
 import io.annot8.common.components.capabilities.SimpleCapabilities;
 import io.annot8.common.data.bounds.SpanBounds;
 import io.annot8.common.data.content.Text;
-import io.annot8.components.base.text.processors.AbstractTextProcessor;
 import io.annot8.conventions.AnnotationTypes;
 import io.annot8.conventions.GroupRoles;
 import io.annot8.conventions.GroupTypes;
 import io.annot8.conventions.PropertyKeys;
 
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicLong;
 
 @ComponentName("CoreNLP KBP Relation")
 @ComponentDescription("Extract relations between existing annotations using CoreNLP's KBP Relation annotator (kbp)")
-@SettingsClass(CoreNLPSettings.class)
-public class Relation extends AbstractProcessorDescriptor<Relation.Processor, CoreNLPSettings> {
+@SettingsClass(Relation.Settings.class)
+public class Relation extends AbstractProcessorDescriptor<Relation.Processor, Relation.Settings> {
 
   private static final Map<String, String> KBP_TO_GROUPS = new HashMap<>();
   private static final Set<String> OMNI_DIRECTIONAL_RELATIONS = new HashSet<>();
@@ -101,8 +102,8 @@ public class Relation extends AbstractProcessorDescriptor<Relation.Processor, Co
   }
 
   @Override
-  protected Processor createComponent(Context context, CoreNLPSettings settings) {
-    return new Processor(settings.getProperties());
+  protected Processor createComponent(Context context, Relation.Settings settings) {
+    return new Processor(settings);
   }
 
   @Override
@@ -114,99 +115,453 @@ public class Relation extends AbstractProcessorDescriptor<Relation.Processor, Co
     CoreNLPUtils.ANNOT8_TO_CORENLP.keySet().forEach(a -> builder.withProcessesAnnotations(a, SpanBounds.class));
     builder.withProcessesAnnotations(CoreNLPUtils.UNDEFINED_ENTITY, SpanBounds.class);
 
-    Set<String> groups = new HashSet<>(KBP_TO_GROUPS.values());
+    Set<String> groups = new HashSet<>();
+    Set<String> enabledRelations = getSettings().getRelations();
+    if(enabledRelations == null || enabledRelations.isEmpty()){
+      groups.addAll(KBP_TO_GROUPS.values());
+    }else{
+      enabledRelations.forEach(r -> groups.add(KBP_TO_GROUPS.getOrDefault(r, GroupTypes.RELATION_PREFIX + r)));
+    }
     groups.forEach(builder::withCreatesGroups);
 
     return builder.build();
   }
 
-  public static class Processor extends AbstractTextProcessor {
+  public static class Processor extends CoreNLPTextProcessor {
+
+    private static final String KBP_NONE = "none";
 
     private final KBPAnnotator kbp;
+    private final Set<String> enabledRelations;
+    private final Set<String> subjectTypes;
+    private final Set<String> mentionTypes;
+    private final double confidenceThreshold;
+    private final MatchPolicy matchPolicy;
+    private final SentenceCache<List<SentenceCache.Triple>> sentenceCache;
+    private final Degradation degradation;
+
+    private final AtomicLong sentencesProcessed = new AtomicLong();
+    private final AtomicLong sentencesSkipped = new AtomicLong();
 
     public Processor(Properties properties){
-      kbp = new KBPAnnotator(properties);
+      this(new Settings(properties));
+    }
+
+    public Processor(Settings settings){
+      super(settings);
+
+      kbp = new KBPAnnotator(getKBPProperties(settings));
+      confidenceThreshold = settings.getConfidenceThreshold();
+      matchPolicy = settings.getMatchPolicy();
+      sentenceCache = SentenceCache.create(settings.getSentenceCacheMegabytes(), SentenceCache::weigh);
+      degradation = settings.getDegradation();
+
+      if(settings.getRelations() == null || settings.getRelations().isEmpty()) {
+        enabledRelations = null;
+        subjectTypes = null;
+        mentionTypes = null;
+      }else{
+        enabledRelations = new HashSet<>(settings.getRelations());
+        subjectTypes = getSubjectTypes(enabledRelations);
+        mentionTypes = getMentionTypes(enabledRelations);
+      }
+
+      modelsLoaded();
     }
 
     @Override
-    protected void process(Text content) {
+    protected void processText(Text content) {
       Annotation document = CoreNLPUtils.createCoreNLPDocument(content);
-      kbp.annotate(document);
 
-      for(CoreMap sentence: document.get(CoreAnnotations.SentencesAnnotation.class)) {
+      //Relations are only created between existing entities, so only sentences with at least two can produce output
+      List<CoreMap> allSentences = document.get(CoreAnnotations.SentencesAnnotation.class);
+      List<CoreMap> eligible = CoreNLPUtils.getSentencesWithMentions(document, 2);
+      if(subjectTypes != null)
+        eligible.removeIf(s -> !hasSubjectType(s));
+      if(mentionTypes != null)
+        eligible.removeIf(s -> getRelatableMentions(s).size() < 2);
+
+      sentencesProcessed.addAndGet(eligible.size());
+      sentencesSkipped.addAndGet(allSentences.size() - eligible.size());
+
+      if(eligible.isEmpty()) {
+        log().debug("No sentences contain two or more entities that could be related, including a possible subject");
+        return;
+      }
+
+      //Relations from cached sentences are written as the cache is read
+      StageEvent cachedEvent = StageEvent.start(StageEvent.WRITE, getClass());
+      int cachedOutputs = 0;
+
+      //Take the relations of previously seen sentences from the cache, if it's enabled
+      List<CoreMap> uncached = new ArrayList<>();
+      List<String> uncachedKeys = new ArrayList<>();
+      for(CoreMap sentence : eligible){
+        String key = sentenceCache == null ? null : SentenceCache.key(sentence);
+        List<SentenceCache.Triple> cached = key == null ? null : sentenceCache.get(key);
+        if(cached == null){
+          uncached.add(sentence);
+          uncachedKeys.add(key);
+          continue;
+        }
+
+        Set<String> omniDirectionalRelations = new HashSet<>();
+        for(SentenceCache.Triple triple : cached) {
+          if(saveRelation(content, document, triple.getRelation(), triple.getConfidence(), triple.getSubject(sentence), triple.getObject(sentence), omniDirectionalRelations))
+            cachedOutputs++;
+        }
+      }
+      cachedEvent.finish(document, cachedOutputs);
+
+      if(uncached.isEmpty())
+        return;
+
+      if(uncached.size() < allSentences.size())
+        document = CoreNLPUtils.createSubDocument(document, uncached);
+
+      //The KBP annotator considers every pair of mentions in a sentence, so hide those that can't be part of an enabled relation
+      List<CoreMap> documentMentions = document.get(CoreAnnotations.MentionsAnnotation.class);
+      List<List<CoreMap>> sentenceMentions = mentionTypes == null ? null : hideMentions(document, uncached);
+      try {
+        StageEvent.annotate(kbp, document);
+      }finally{
+        if(sentenceMentions != null) {
+          for (int i = 0; i < uncached.size(); i++)
+            uncached.get(i).set(CoreAnnotations.MentionsAnnotation.class, sentenceMentions.get(i));
+          document.set(CoreAnnotations.MentionsAnnotation.class, documentMentions);
+        }
+      }
+
+      StageEvent writeEvent = StageEvent.start(StageEvent.WRITE, getClass());
+      int outputs = 0;
+      for(int i = 0; i < uncached.size(); i++) {
+        CoreMap sentence = uncached.get(i);
         Collection<RelationTriple> relations = sentence.get(CoreAnnotations.KBPTriplesAnnotation.class);
         if(relations == null)
-          continue;
+          relations = Collections.emptyList();
 
+        List<SentenceCache.Triple> triples = new ArrayList<>();
         Set<String> omniDirectionalRelations = new HashSet<>();
         for (RelationTriple relation : relations) {
-          String relationType = KBP_TO_GROUPS.getOrDefault(relation.relationHead().word(), GroupTypes.RELATION_PREFIX + relation.relationHead().word());
-          boolean omniDirectional = OMNI_DIRECTIONAL_RELATIONS.contains(relationType);
+          if(enabledRelations != null && !enabledRelations.contains(relation.relationHead().word()))
+            continue;
 
-          if(omniDirectional){
-            Set<String> tokenPos = new TreeSet<>();
-            relation.subject.forEach(r -> tokenPos.add(r.beginPosition() + "-" + r.endPosition()));
-            relation.object.forEach(r -> tokenPos.add(r.beginPosition() + "-" + r.endPosition()));
+          if(relation.confidence < confidenceThreshold)
+            continue;
+
+          if(saveRelation(content, document, relation.relationHead().word(), relation.confidence, relation.subject, relation.object, omniDirectionalRelations))
+            outputs++;
 
-            if(!omniDirectionalRelations.add(relation.relationHead() + ":" + String.join("/", tokenPos))){
-              continue;
+          if(triples != null) {
+            SentenceCache.Triple triple = SentenceCache.Triple.of(sentence, relation.relationHead().word(), relation.confidence, relation.subject, relation.object);
+            if(triple == null) {
+              //Relations with mentions from elsewhere in the document can't be held relative to the sentence, so the sentence isn't cached
+              triples = null;
+            }else{
+              triples.add(triple);
             }
           }
+        }
 
-          Group.Builder builder = content.getItem().getGroups().create()
-              .withType(relationType)
-              .withProperty(PropertyKeys.PROPERTY_KEY_PROBABILITY, relation.confidence);
+        if(sentenceCache != null && triples != null)
+          sentenceCache.put(uncachedKeys.get(i), triples);
+      }
+      writeEvent.finish(document, outputs);
+    }
 
-          //Subjects
-          if(relation.subject.isEmpty())
-            continue;
+    @Override
+    protected String getDegradation() {
+      return degradation == Degradation.NONE ? null : degradation.name();
+    }
 
-          List<String> subjectTypes = relation.subject.stream().map(cl -> CoreNLPUtils.CORENLP_TO_ANNOT8.getOrDefault(cl.ner(), "_")).distinct().collect(Collectors.toList());
-          if(subjectTypes.size() > 1)
-            continue; // If it's greater than one, then it exceeds annotation bounds and/or spans multiple annotations
+    @Override
+    protected void processDegraded(Text content) {
+      if(degradation == Degradation.SKIP) {
+        log().debug("Skipping relation extraction of content {}", content.getId());
+        return;
+      }
 
-          String subjectType = subjectTypes.get(0);
-          if("_".equals(subjectType))
-            continue; // We'd need to create a new entity
+      processText(content);
+    }
+
+    /**
+     * Save the relation as a group, unless it duplicates an omni-directional relation already saved for the sentence,
+     * or its subject or object can't be resolved to existing entities
+     *
+     * @return true if the group was saved
+     */
+    private boolean saveRelation(Text content, Annotation document, String relation, double confidence,
+                                 List<CoreLabel> subject, List<CoreLabel> object, Set<String> omniDirectionalRelations){
+      String relationType = KBP_TO_GROUPS.getOrDefault(relation, GroupTypes.RELATION_PREFIX + relation);
+      boolean omniDirectional = OMNI_DIRECTIONAL_RELATIONS.contains(relationType);
+
+      if(omniDirectional){
+        Set<String> tokenPos = new TreeSet<>();
+        subject.forEach(r -> tokenPos.add(r.beginPosition() + "-" + r.endPosition()));
+        object.forEach(r -> tokenPos.add(r.beginPosition() + "-" + r.endPosition()));
+
+        if(!omniDirectionalRelations.add(relation + ":" + String.join("/", tokenPos))){
+          return false;
+        }
+      }
 
-          content.getAnnotations().getByBoundsAndType(SpanBounds.class, subjectType)
-              .filter(a -> a.getBounds(SpanBounds.class).get().equals(getBounds(relation.subject)))
-              .forEach(a -> builder.withAnnotation(omniDirectional ? GroupRoles.GROUP_ROLE_OBJECT : GroupRoles.GROUP_ROLE_SOURCE, a));
+      Group.Builder builder = content.getItem().getGroups().create()
+          .withType(relationType)
+          .withProperty(PropertyKeys.PROPERTY_KEY_PROBABILITY, confidence);
 
-          //Objects
-          if(relation.object.isEmpty())
-            continue;
+      //Subjects
+      List<io.annot8.api.annotations.Annotation> subjectEntities = CoreNLPUtils.resolveEntities(document, subject, matchPolicy);
+      if(subjectEntities.isEmpty())
+        return false;
 
-          List<String> objectTypes = relation.object.stream().map(cl -> CoreNLPUtils.CORENLP_TO_ANNOT8.getOrDefault(cl.ner(), "_")).distinct().collect(Collectors.toList());
-          if(objectTypes.size() > 1)
-            continue; // If it's greater than one, then it exceeds annotation bounds and/or spans multiple annotations
+      subjectEntities.forEach(a -> builder.withAnnotation(omniDirectional ? GroupRoles.GROUP_ROLE_OBJECT : GroupRoles.GROUP_ROLE_SOURCE, a));
 
-          String objectType = objectTypes.get(0);
-          if("_".equals(objectType))
-            continue; // We'd need to create a new entity
+      //Objects
+      List<io.annot8.api.annotations.Annotation> objectEntities = CoreNLPUtils.resolveEntities(document, object, matchPolicy);
+      if(objectEntities.isEmpty())
+        return false;
 
-          content.getAnnotations().getByBoundsAndType(SpanBounds.class, objectType)
-            .filter(a -> a.getBounds(SpanBounds.class).get().equals(getBounds(relation.object)))
-            .forEach(a -> builder.withAnnotation(omniDirectional ? GroupRoles.GROUP_ROLE_OBJECT : GroupRoles.GROUP_ROLE_TARGET, a));
+      objectEntities.forEach(a -> builder.withAnnotation(omniDirectional ? GroupRoles.GROUP_ROLE_OBJECT : GroupRoles.GROUP_ROLE_TARGET, a));
 
-          builder.save();
+      builder.save();
+      return true;
+    }
+
+    /**
+     * Returns a copy of the properties, with any extractors that aren't enabled disabled
+     */
+    protected static Properties getKBPProperties(Settings settings){
+      Properties properties = new Properties();
+      if(settings.getProperties() != null)
+        properties.putAll(settings.getProperties());
+
+      if(!settings.isStatistical())
+        properties.setProperty("kbp.model", KBP_NONE);
+      if(!settings.isSemgrex())
+        properties.setProperty("kbp.semgrex", KBP_NONE);
+      if(!settings.isTokensregex())
+        properties.setProperty("kbp.tokensregex", KBP_NONE);
+
+      return properties;
+    }
+
+    /**
+     * Returns the CoreNLP entity types that can be the subject of the relations, or null if any type can be the subject
+     */
+    protected static Set<String> getSubjectTypes(Set<String> relations){
+      Set<String> types = new HashSet<>();
+      for(String relation : relations){
+        if(relation.startsWith("per:")) {
+          types.add("PERSON");
+        }else if(relation.startsWith("org:")) {
+          types.add("ORGANIZATION");
+        }else{
+          return null;
         }
       }
+
+      return types;
+    }
+
+    /**
+     * Returns the CoreNLP entity types that can be the subject or object of the relations, or null if any type can be
+     */
+    protected static Set<String> getMentionTypes(Set<String> relations){
+      Set<String> types = new HashSet<>();
+      for(String relation : relations){
+        Optional<KBPRelationExtractor.RelationType> relationType = KBPRelationExtractor.RelationType.fromString(relation);
+        if(relationType.isEmpty())
+          return null;
+
+        types.add(relationType.get().entityType.name);
+        for(KBPRelationExtractor.NERTag objectType : relationType.get().validNamedEntityLabels)
+          types.add(objectType.name);
+      }
+
+      return types;
+    }
+
+    private boolean hasSubjectType(CoreMap sentence){
+      return sentence.get(CoreAnnotations.MentionsAnnotation.class).stream()
+          .anyMatch(m -> subjectTypes.contains(m.get(CoreAnnotations.NamedEntityTagAnnotation.class)));
     }
 
-    private static SpanBounds getBounds(Collection<CoreLabel> coreLabels){
-      int min = Integer.MAX_VALUE;
-      int max = Integer.MIN_VALUE;
+    private List<CoreMap> getRelatableMentions(CoreMap sentence){
+      List<CoreMap> mentions = new ArrayList<>();
+      for(CoreMap mention : sentence.get(CoreAnnotations.MentionsAnnotation.class)){
+        if(mentionTypes.contains(mention.get(CoreAnnotations.NamedEntityTagAnnotation.class)))
+          mentions.add(mention);
+      }
 
-      for(CoreLabel label : coreLabels){
-        if(label.beginPosition() < min)
-          min = label.beginPosition();
+      return mentions;
+    }
 
-        if(label.endPosition() > max)
-          max = label.endPosition();
+    /**
+     * Removes the mentions that can't be the subject or object of an enabled relation from the sentences and the document,
+     * returning the original mentions of each sentence so that they can be restored
+     */
+    private List<List<CoreMap>> hideMentions(Annotation document, List<CoreMap> sentences){
+      List<List<CoreMap>> sentenceMentions = new ArrayList<>(sentences.size());
+      List<CoreMap> documentMentions = new ArrayList<>();
+      for(CoreMap sentence : sentences){
+        List<CoreMap> relatable = getRelatableMentions(sentence);
+        sentenceMentions.add(sentence.get(CoreAnnotations.MentionsAnnotation.class));
+        sentence.set(CoreAnnotations.MentionsAnnotation.class, relatable);
+        documentMentions.addAll(relatable);
       }
+      document.set(CoreAnnotations.MentionsAnnotation.class, documentMentions);
 
-      return new SpanBounds(min, max);
+      return sentenceMentions;
+    }
+
+    /**
+     * Number of sentences containing at least two entities that could be related (including a possible subject of an enabled relation), which were passed to CoreNLP
+     */
+    public long getSentencesProcessed() {
+      return sentencesProcessed.get();
+    }
+
+    /**
+     * Number of sentences skipped because they contain fewer than two entities that could be related, or no possible subject of an enabled relation
+     */
+    public long getSentencesSkipped() {
+      return sentencesSkipped.get();
+    }
+
+    /**
+     * Number of sentences whose relations were taken from the sentence cache
+     */
+    public long getSentenceCacheHits(){
+      return sentenceCache == null ? 0 : sentenceCache.getHits();
+    }
+
+    /**
+     * Number of sentences that had to be passed to the KBP annotator
+     */
+    public long getSentenceCacheMisses(){
+      return sentenceCache == null ? 0 : sentenceCache.getMisses();
+    }
+
+    @Override
+    public void close() {
+      super.close();
+      if(sentenceCache != null)
+        log().debug("Relation sentence cache {}", sentenceCache);
+    }
+  }
+
+  /**
+   * Cheaper modes used for documents whose estimated cost exceeds the cost budget
+   */
+  public enum Degradation {
+    /**
+     * Always process documents in full
+     */
+    NONE,
+
+    /**
+     * Don't extract relations
+     */
+    SKIP
+  }
+
+  public static class Settings extends ProcessorSettings {
+
+    private Set<String> relations = null;
+    private boolean statistical = true;
+    private boolean semgrex = true;
+    private boolean tokensregex = true;
+    private double confidenceThreshold = 0.0;
+    private MatchPolicy matchPolicy = MatchPolicy.EXACT;
+    private int sentenceCacheMegabytes = 0;
+    private Degradation degradation = Degradation.SKIP;
+
+    public Settings(){
+      super();
+    }
+
+    public Settings(Properties properties){
+      super(properties);
+    }
+
+    @Description("KBP relations to extract (e.g. per:spouse, org:founded_by), or empty to extract all relations. Entities that can't be the subject or object of any of these relations are ignored, and sentences without a possible subject and object are not processed")
+    public Set<String> getRelations() {
+      return relations;
+    }
+    public void setRelations(Set<String> relations) {
+      this.relations = relations;
+    }
+    public void addRelation(String relation){
+      if(relations == null)
+        relations = new HashSet<>();
+
+      relations.add(relation);
+    }
+
+    @Description(value = "Use the statistical KBP extractor, which is the slowest but finds the widest range of relations", defaultValue = "true")
+    public boolean isStatistical() {
+      return statistical;
+    }
+    public void setStatistical(boolean statistical) {
+      this.statistical = statistical;
+    }
+
+    @Description(value = "Use the rule-based Semgrex KBP extractor, which matches patterns over dependency graphs", defaultValue = "true")
+    public boolean isSemgrex() {
+      return semgrex;
+    }
+    public void setSemgrex(boolean semgrex) {
+      this.semgrex = semgrex;
+    }
+
+    @Description(value = "Use the rule-based TokensRegex KBP extractor, which matches patterns over tokens", defaultValue = "true")
+    public boolean isTokensregex() {
+      return tokensregex;
+    }
+    public void setTokensregex(boolean tokensregex) {
+      this.tokensregex = tokensregex;
+    }
+
+    @Description(value = "Reject any relations with a confidence below this threshold", defaultValue = "0.0")
+    public double getConfidenceThreshold() {
+      return confidenceThreshold;
+    }
+    public void setConfidenceThreshold(double confidenceThreshold) {
+      this.confidenceThreshold = confidenceThreshold;
+    }
+
+    @Description(value = "How mentions are matched to existing entities (EXACT, WITHIN, COVERING or OVERLAP)", defaultValue = "EXACT")
+    public MatchPolicy getMatchPolicy() {
+      return matchPolicy;
+    }
+    public void setMatchPolicy(MatchPolicy matchPolicy) {
+      this.matchPolicy = matchPolicy;
+    }
+
+    @Description(value = "Approximate memory, in megabytes, to use for caching the relations of previously seen sentences, or 0 to disable caching", defaultValue = "0")
+    public int getSentenceCacheMegabytes() {
+      return sentenceCacheMegabytes;
+    }
+    public void setSentenceCacheMegabytes(int sentenceCacheMegabytes) {
+      this.sentenceCacheMegabytes = sentenceCacheMegabytes;
+    }
+
+    @Description(value = "Cheaper mode used for documents whose estimated cost exceeds the cost budget (NONE or SKIP)", defaultValue = "SKIP")
+    public Degradation getDegradation() {
+      return degradation;
+    }
+    public void setDegradation(Degradation degradation) {
+      this.degradation = degradation;
+    }
+
+    @Override
+    public boolean validate() {
+      return super.validate() &&
+          (statistical || semgrex || tokensregex) &&
+          confidenceThreshold >= 0.0 && confidenceThreshold <= 1.0 &&
+          matchPolicy != null &&
+          sentenceCacheMegabytes >= 0 &&
+          degradation != null;
     }
   }
 }
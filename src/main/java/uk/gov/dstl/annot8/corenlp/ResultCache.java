@@ -0,0 +1,434 @@
+/*
+ * Crown Copyright (C) 2021 Dstl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package uk.gov.dstl.annot8.corenlp;
+
+import io.annot8.api.annotations.Annotation;
+import io.annot8.api.annotations.Group;
+import io.annot8.api.settings.Description;
+import io.annot8.common.data.bounds.SpanBounds;
+import io.annot8.common.data.content.Text;
+
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Memory bounded cache of the annotations and groups created by a processor, keyed by a hash of the text,
+ * the existing span annotations on the content and a fingerprint of the processor's settings.
+ * Results are held in a compact form that doesn't refer to the original item, and are replayed
+ * onto later content with the same key, so that duplicate documents aren't reprocessed.
+ *
+ * Property values are shared between replayed annotations and groups, so should be immutable.
+ */
+public class ResultCache {
+
+  private final LruCache<String, Result> cache;
+
+  public ResultCache(long maxBytes){
+    cache = new LruCache<>(maxBytes, Result::getWeight);
+  }
+
+  /**
+   * Hash the text and existing annotations on the content, and record the annotations and groups that
+   * already exist so that anything created after this point can be identified
+   */
+  public Snapshot snapshot(String fingerprint, Text content){
+    return new Snapshot(fingerprint, content);
+  }
+
+  /**
+   * Describes a processor's configuration, based on the values of the {@link Description} annotated getters
+   * on its settings, so that results are only reused by processors configured in the same way
+   */
+  public static String fingerprint(Class<?> processor, io.annot8.api.settings.Settings settings){
+    StringBuilder sb = new StringBuilder(processor.getName());
+
+    for(Method getter : getDescribedGetters(settings)){
+      try {
+        sb.append('\n').append(getter.getName()).append('=').append(canonical(getter.invoke(settings)));
+      } catch (ReflectiveOperationException e) {
+        throw new IllegalArgumentException("Unable to read setting " + getter.getName(), e);
+      }
+    }
+
+    return sb.toString();
+  }
+
+  /**
+   * Returns the {@link Description} annotated getters on the settings, sorted by name
+   */
+  static List<Method> getDescribedGetters(io.annot8.api.settings.Settings settings){
+    return Arrays.stream(settings.getClass().getMethods())
+        .filter(m -> m.getParameterCount() == 0 && m.isAnnotationPresent(Description.class))
+        .sorted(Comparator.comparing(Method::getName))
+        .collect(Collectors.toList());
+  }
+
+  private static String canonical(Object value){
+    if(value instanceof Map){
+      Map<String, String> sorted = new TreeMap<>();
+      ((Map<?, ?>) value).forEach((k, v) -> sorted.put(String.valueOf(k), canonical(v)));
+      return sorted.toString();
+    }else if(value instanceof Set){
+      return ((Set<?>) value).stream().map(ResultCache::canonical).sorted().collect(Collectors.toList()).toString();
+    }
+
+    return String.valueOf(value);
+  }
+
+  public long getHits() {
+    return cache.getHits();
+  }
+
+  public long getMisses() {
+    return cache.getMisses();
+  }
+
+  public long getEvictions() {
+    return cache.getEvictions();
+  }
+
+  public double getHitRate() {
+    return cache.getHitRate();
+  }
+
+  /**
+   * Number of results held in the cache
+   */
+  public int size() {
+    return cache.size();
+  }
+
+  /**
+   * Estimated memory used by the cached results, in bytes
+   */
+  public long getWeight() {
+    return cache.getWeight();
+  }
+
+  public void clear() {
+    cache.clear();
+  }
+
+  /**
+   * The state of a content before processing
+   */
+  public class Snapshot {
+    private final Text content;
+    private final String key;
+    private final List<Annotation> inputs;
+    private final Set<String> annotationIds;
+    private final Set<String> groupIds;
+    private int replayed = 0;
+
+    private Snapshot(String fingerprint, Text content){
+      this.content = content;
+
+      List<Input> sorted = content.getAnnotations().getAll()
+          .filter(a -> a.getBounds(SpanBounds.class).isPresent())
+          .map(Input::new)
+          .sorted()
+          .collect(Collectors.toList());
+
+      MessageDigest digest = createDigest();
+      update(digest, fingerprint);
+      update(digest, content.getData());
+      for(Input input : sorted) {
+        update(digest, input.begin + ":" + input.end);
+        update(digest, input.description);
+      }
+
+      this.key = toHex(digest.digest());
+      this.inputs = sorted.stream().map(i -> i.annotation).collect(Collectors.toList());
+      this.annotationIds = inputs.stream().map(Annotation::getId).collect(Collectors.toSet());
+      this.groupIds = content.getItem().getGroups().getAll().map(Group::getId).collect(Collectors.toSet());
+    }
+
+    /**
+     * Recreate the cached result for this content, if there is one.
+     *
+     * @return true if the result was found and replayed
+     */
+    public boolean replay(){
+      Result result = cache.get(key);
+      if(result == null)
+        return false;
+
+      result.replay(content, inputs);
+      replayed = result.annotationTypes.length + result.groupTypes.length;
+      return true;
+    }
+
+    /**
+     * Number of annotations and groups created by {@link #replay()}
+     */
+    public int getReplayed() {
+      return replayed;
+    }
+
+    /**
+     * Store the annotations and groups created since the snapshot was taken.
+     * Nothing is stored if a group refers to annotations on other content.
+     */
+    public void record(){
+      List<Annotation> created = content.getAnnotations().getAll()
+          .filter(a -> !annotationIds.contains(a.getId()))
+          .collect(Collectors.toList());
+      List<Group> groups = content.getItem().getGroups().getAll()
+          .filter(g -> !groupIds.contains(g.getId()))
+          .collect(Collectors.toList());
+
+      Result result = Result.record(created, groups, inputs);
+      if(result != null)
+        cache.put(key, result);
+    }
+
+    /**
+     * Hash identifying the content and processor configuration
+     */
+    public String getKey() {
+      return key;
+    }
+  }
+
+  private static MessageDigest createDigest(){
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+  }
+
+  private static void update(MessageDigest digest, String s){
+    digest.update(s.getBytes(StandardCharsets.UTF_8));
+    digest.update((byte) 0);
+  }
+
+  private static String toHex(byte[] bytes){
+    StringBuilder sb = new StringBuilder(bytes.length * 2);
+    for(byte b : bytes){
+      sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+      sb.append(Character.forDigit(b & 0xF, 16));
+    }
+
+    return sb.toString();
+  }
+
+  private static String describe(String type, Map<String, Object> properties){
+    StringBuilder sb = new StringBuilder(type);
+    new TreeMap<>(properties).forEach((k, v) -> sb.append('\t').append(k).append('=').append(v));
+
+    return sb.toString();
+  }
+
+  /**
+   * An existing annotation, ordered by bounds and then by type and properties
+   */
+  private static class Input implements Comparable<Input> {
+    private final Annotation annotation;
+    private final int begin;
+    private final int end;
+    private final String description;
+
+    private Input(Annotation annotation){
+      SpanBounds bounds = annotation.getBounds(SpanBounds.class).get();
+
+      this.annotation = annotation;
+      this.begin = bounds.getBegin();
+      this.end = bounds.getEnd();
+      this.description = describe(annotation.getType(), annotation.getProperties().getAll());
+    }
+
+    @Override
+    public int compareTo(Input o) {
+      int c = Integer.compare(begin, o.begin);
+      if(c == 0)
+        c = Integer.compare(end, o.end);
+      if(c == 0)
+        c = description.compareTo(o.description);
+
+      return c;
+    }
+  }
+
+  /**
+   * Compact, item independent, form of the annotations and groups created by a processor.
+   * Group members are encoded as indices into the sorted existing annotations, or as -(i + 1)
+   * for the i'th created annotation.
+   */
+  private static class Result {
+    private final int[] bounds;
+    private final String[] annotationTypes;
+    private final Object[][] annotationProperties;
+
+    private final String[] groupTypes;
+    private final Object[][] groupProperties;
+    private final String[][] groupRoles;
+    private final int[][] groupMembers;
+
+    private final long weight;
+
+    private Result(int[] bounds, String[] annotationTypes, Object[][] annotationProperties,
+                   String[] groupTypes, Object[][] groupProperties, String[][] groupRoles, int[][] groupMembers){
+      this.bounds = bounds;
+      this.annotationTypes = annotationTypes;
+      this.annotationProperties = annotationProperties;
+      this.groupTypes = groupTypes;
+      this.groupProperties = groupProperties;
+      this.groupRoles = groupRoles;
+      this.groupMembers = groupMembers;
+
+      this.weight = estimateWeight();
+    }
+
+    private static Result record(List<Annotation> created, List<Group> groups, List<Annotation> inputs){
+      Map<String, Integer> references = new HashMap<>();
+      for(int i = 0; i < inputs.size(); i++)
+        references.put(inputs.get(i).getId(), i);
+
+      int[] bounds = new int[created.size() * 2];
+      String[] annotationTypes = new String[created.size()];
+      Object[][] annotationProperties = new Object[created.size()][];
+      for(int i = 0; i < created.size(); i++){
+        Annotation a = created.get(i);
+        Optional<SpanBounds> sb = a.getBounds(SpanBounds.class);
+        if(sb.isEmpty())
+          return null;
+
+        bounds[2 * i] = sb.get().getBegin();
+        bounds[2 * i + 1] = sb.get().getEnd();
+        annotationTypes[i] = a.getType();
+        annotationProperties[i] = flatten(a.getProperties().getAll());
+        references.put(a.getId(), -(i + 1));
+      }
+
+      String[] groupTypes = new String[groups.size()];
+      Object[][] groupProperties = new Object[groups.size()][];
+      String[][] groupRoles = new String[groups.size()][];
+      int[][] groupMembers = new int[groups.size()][];
+      for(int i = 0; i < groups.size(); i++){
+        Group g = groups.get(i);
+
+        List<String> roles = new ArrayList<>();
+        List<Integer> members = new ArrayList<>();
+        for(Map.Entry<String, List<Annotation>> e : getMembers(g).entrySet()){
+          for(Annotation a : e.getValue()){
+            Integer ref = references.get(a.getId());
+            if(ref == null)
+              return null;
+
+            roles.add(e.getKey());
+            members.add(ref);
+          }
+        }
+
+        groupTypes[i] = g.getType();
+        groupProperties[i] = flatten(g.getProperties().getAll());
+        groupRoles[i] = roles.toArray(new String[0]);
+        groupMembers[i] = members.stream().mapToInt(Integer::intValue).toArray();
+      }
+
+      return new Result(bounds, annotationTypes, annotationProperties, groupTypes, groupProperties, groupRoles, groupMembers);
+    }
+
+    private static Map<String, List<Annotation>> getMembers(Group group){
+      Map<String, List<Annotation>> members = new LinkedHashMap<>();
+      group.getRoles().forEach(role -> members.put(role, group.getAnnotations(role).collect(Collectors.toList())));
+
+      return members;
+    }
+
+    private static Object[] flatten(Map<String, Object> properties){
+      Object[] flat = new Object[properties.size() * 2];
+      int i = 0;
+      for(Map.Entry<String, Object> e : properties.entrySet()){
+        flat[i++] = e.getKey();
+        flat[i++] = e.getValue();
+      }
+
+      return flat;
+    }
+
+    private void replay(Text content, List<Annotation> inputs){
+      List<Annotation> created = new ArrayList<>(annotationTypes.length);
+      for(int i = 0; i < annotationTypes.length; i++){
+        Annotation.Builder builder = content.getAnnotations().create()
+            .withBounds(new SpanBounds(bounds[2 * i], bounds[2 * i + 1]))
+            .withType(annotationTypes[i]);
+
+        Object[] props = annotationProperties[i];
+        for(int j = 0; j < props.length; j += 2)
+          builder = builder.withProperty((String) props[j], props[j + 1]);
+
+        created.add(builder.save());
+      }
+
+      for(int i = 0; i < groupTypes.length; i++){
+        Group.Builder builder = content.getItem().getGroups().create()
+            .withType(groupTypes[i]);
+
+        Object[] props = groupProperties[i];
+        for(int j = 0; j < props.length; j += 2)
+          builder = builder.withProperty((String) props[j], props[j + 1]);
+
+        for(int j = 0; j < groupMembers[i].length; j++){
+          int ref = groupMembers[i][j];
+          builder = builder.withAnnotation(groupRoles[i][j], ref >= 0 ? inputs.get(ref) : created.get(-ref - 1));
+        }
+
+        builder.save();
+      }
+    }
+
+    /**
+     * Rough estimate of the memory used by the result, assuming strings and boxed property values
+     * aren't shared with anything else
+     */
+    private long estimateWeight(){
+      long w = 64 + 4L * bounds.length;
+      for(int i = 0; i < annotationTypes.length; i++)
+        w += 16 + weigh(annotationTypes[i]) + weigh(annotationProperties[i]);
+
+      for(int i = 0; i < groupTypes.length; i++){
+        w += 48 + weigh(groupTypes[i]) + weigh(groupProperties[i]) + 4L * groupMembers[i].length;
+        for(String role : groupRoles[i])
+          w += 8 + weigh(role);
+      }
+
+      return w;
+    }
+
+    private static long weigh(Object[] properties){
+      long w = 16;
+      for(Object o : properties)
+        w += 8 + (o instanceof String ? weigh((String) o) : 24);
+
+      return w;
+    }
+
+    private static long weigh(String s){
+      return s == null ? 0 : 40 + s.length();
+    }
+
+    private long getWeight() {
+      return weight;
+    }
+  }
+}
@@ -0,0 +1,244 @@
+/*
+ * Crown Copyright (C) 2021 Dstl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package uk.gov.dstl.annot8.corenlp;
+
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.semgraph.SemanticGraph;
+import edu.stanford.nlp.semgraph.SemanticGraphCoreAnnotations;
+import edu.stanford.nlp.util.CoreMap;
+
+import java.util.*;
+import java.util.function.ToLongFunction;
+
+/**
+ * Memory bounded cache of the results of annotators which only look at one sentence at a time, so that
+ * sentences which are repeated across documents (e.g. signatures, disclaimers and headers) are only annotated once.
+ *
+ * Sentences are keyed by their words along with any tags, entities and dependency parse already on their tokens,
+ * so results must be stored relative to the sentence (e.g. as token indices within it) to be applied elsewhere.
+ * A cache belongs to a single processor, so the processor's settings are implicitly part of the key.
+ */
+public class SentenceCache<V> {
+
+  private final LruCache<String, Entry<V>> cache;
+  private final ToLongFunction<? super V> weigher;
+
+  public SentenceCache(long maxBytes, ToLongFunction<? super V> weigher){
+    this.cache = new LruCache<>(maxBytes, Entry::getWeight);
+    this.weigher = weigher;
+  }
+
+  /**
+   * Create a cache using the given number of megabytes, or return null if the size is 0
+   */
+  public static <V> SentenceCache<V> create(int megabytes, ToLongFunction<? super V> weigher){
+    return megabytes > 0 ? new SentenceCache<>(megabytes * 1024L * 1024L, weigher) : null;
+  }
+
+  /**
+   * Key for the sentence, made up of the word, part of speech, lemma, named entity tag and entities of
+   * each token, and the basic dependency parse if there is one. Entities are numbered in order of
+   * appearance within the sentence, rather than by their index in the document.
+   *
+   * The key should be created before the sentence is annotated, as annotators may add tags to the tokens.
+   */
+  public static String key(CoreMap sentence){
+    StringBuilder sb = new StringBuilder();
+    Map<Integer, Integer> entities = new HashMap<>();
+
+    for(CoreLabel token : sentence.get(CoreAnnotations.TokensAnnotation.class)){
+      sb.append(token.word()).append('\u0001')
+          .append(Objects.toString(token.tag(), "")).append('\u0001')
+          .append(Objects.toString(token.lemma(), "")).append('\u0001')
+          .append(Objects.toString(token.ner(), ""));
+
+      List<Integer> indices = token.get(CoreNLPUtils.Annot8EntityIndicesAnnotation.class);
+      if(indices != null){
+        for(Integer index : indices)
+          sb.append('\u0001').append(entities.computeIfAbsent(index, i -> entities.size()));
+      }
+
+      sb.append('\u0000');
+    }
+
+    SemanticGraph graph = sentence.get(SemanticGraphCoreAnnotations.BasicDependenciesAnnotation.class);
+    if(graph != null)
+      sb.append(ParseUtils.encode(graph));
+
+    return sb.toString();
+  }
+
+  /**
+   * Returns the cached result for the sentence key, or null if it isn't in the cache
+   */
+  public V get(String key){
+    Entry<V> entry = cache.get(key);
+    return entry == null ? null : entry.value;
+  }
+
+  public void put(String key, V value){
+    cache.put(key, new Entry<>(value, 56 + 2L * key.length() + weigher.applyAsLong(value)));
+  }
+
+  public long getHits() {
+    return cache.getHits();
+  }
+
+  public long getMisses() {
+    return cache.getMisses();
+  }
+
+  public long getEvictions() {
+    return cache.getEvictions();
+  }
+
+  public double getHitRate() {
+    return cache.getHitRate();
+  }
+
+  /**
+   * Number of sentences held in the cache
+   */
+  public int size() {
+    return cache.size();
+  }
+
+  /**
+   * Estimated memory used by the cached keys and results, in bytes
+   */
+  public long getWeight() {
+    return cache.getWeight();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("hit rate %.3f (%d hits, %d misses, %d evictions, %d sentences using ~%d bytes)",
+        getHitRate(), getHits(), getMisses(), getEvictions(), size(), getWeight());
+  }
+
+  private static class Entry<V> {
+    private final V value;
+    private final long weight;
+
+    private Entry(V value, long weight){
+      this.value = value;
+      this.weight = weight;
+    }
+
+    private long getWeight() {
+      return weight;
+    }
+  }
+
+  /**
+   * Returns the indices within the sentence of the given tokens, or null if any of them aren't tokens of the sentence
+   */
+  public static int[] getTokenIndices(CoreMap sentence, List<CoreLabel> tokens){
+    List<CoreLabel> sentenceTokens = sentence.get(CoreAnnotations.TokensAnnotation.class);
+
+    int[] indices = new int[tokens.size()];
+    for(int i = 0; i < tokens.size(); i++){
+      CoreLabel token = tokens.get(i);
+      int index = token.index() - 1;
+      if(index < 0 || index >= sentenceTokens.size() || sentenceTokens.get(index).beginPosition() != token.beginPosition())
+        return null;
+
+      indices[i] = index;
+    }
+
+    return indices;
+  }
+
+  /**
+   * Returns the tokens of the sentence at the given indices
+   */
+  public static List<CoreLabel> getTokens(CoreMap sentence, int[] indices){
+    List<CoreLabel> sentenceTokens = sentence.get(CoreAnnotations.TokensAnnotation.class);
+
+    List<CoreLabel> tokens = new ArrayList<>(indices.length);
+    for(int index : indices)
+      tokens.add(sentenceTokens.get(index));
+
+    return tokens;
+  }
+
+  /**
+   * A relation between tokens of a sentence, held as token indices so that it can be applied to any
+   * sentence with the same key
+   */
+  public static class Triple {
+    private final String relation;
+    private final double confidence;
+    private final int[] subject;
+    private final int[] object;
+
+    public Triple(String relation, double confidence, int[] subject, int[] object){
+      this.relation = relation;
+      this.confidence = confidence;
+      this.subject = subject;
+      this.object = object;
+    }
+
+    /**
+     * Create a triple from the subject and object tokens, or return null if any of them aren't tokens of the sentence
+     * (for instance because they've been replaced by a mention elsewhere in the document)
+     */
+    public static Triple of(CoreMap sentence, String relation, double confidence, List<CoreLabel> subject, List<CoreLabel> object){
+      int[] subjectIndices = getTokenIndices(sentence, subject);
+      int[] objectIndices = getTokenIndices(sentence, object);
+      if(subjectIndices == null || objectIndices == null)
+        return null;
+
+      return new Triple(relation, confidence, subjectIndices, objectIndices);
+    }
+
+    public String getRelation() {
+      return relation;
+    }
+
+    public double getConfidence() {
+      return confidence;
+    }
+
+    public List<CoreLabel> getSubject(CoreMap sentence) {
+      return getTokens(sentence, subject);
+    }
+
+    public List<CoreLabel> getObject(CoreMap sentence) {
+      return getTokens(sentence, object);
+    }
+
+    /**
+     * Rough estimate of the memory used by the triple, assuming the relation string is shared
+     */
+    public long getWeight(){
+      return 72 + 4L * (subject.length + object.length);
+    }
+  }
+
+  /**
+   * Rough estimate of the memory used by a list of triples
+   */
+  public static long weigh(List<Triple> triples){
+    long w = 40;
+    for(Triple t : triples)
+      w += 8 + t.getWeight();
+
+    return w;
+  }
+}
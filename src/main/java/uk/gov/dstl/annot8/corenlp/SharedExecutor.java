@@ -0,0 +1,309 @@
+/*
+ * Crown Copyright (C) 2021 Dstl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package uk.gov.dstl.annot8.corenlp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * Named, bounded thread pool shared by all processors in the JVM that refer to it, so that the CPU used for
+ * intra-document parallelism can be controlled in one place rather than by each processor (or CoreNLP annotator)
+ * creating its own threads.
+ *
+ * Executors are configured once per JVM with {@link #configure(String, int, int)}. An executor that hasn't been
+ * configured is created on first use, with the number of threads and queue capacity taken from the system properties
+ * {@code annot8.corenlp.executor.<name>.threads} and {@code annot8.corenlp.executor.<name>.queue} if they're set,
+ * or otherwise one thread per processor and a queue of four tasks per thread.
+ *
+ * When the queue is full, tasks are run on the calling thread instead, so callers are slowed rather than failing.
+ * The number of such tasks is recorded, along with the queue depth, as a measure of how saturated the executor is.
+ */
+public class SharedExecutor {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(SharedExecutor.class);
+
+  public static final String DEFAULT = "default";
+  private static final String PROPERTY_PREFIX = "annot8.corenlp.executor.";
+
+  private static final Map<String, SharedExecutor> EXECUTORS = new HashMap<>();
+
+  private final String name;
+  private final int threads;
+  private final int queueCapacity;
+  private final ThreadPoolExecutor executor;
+  private final Set<Thread> workers = ConcurrentHashMap.newKeySet();
+
+  private final AtomicLong tasksSubmitted = new AtomicLong();
+  private final AtomicLong tasksRunOnCaller = new AtomicLong();
+
+  private SharedExecutor(String name, int threads, int queueCapacity){
+    if(threads <= 0)
+      throw new IllegalArgumentException("Number of threads must be greater than 0");
+    if(queueCapacity <= 0)
+      throw new IllegalArgumentException("Queue capacity must be greater than 0");
+
+    this.name = name;
+    this.threads = threads;
+    this.queueCapacity = queueCapacity;
+
+    AtomicInteger count = new AtomicInteger();
+    this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueCapacity), r -> {
+      Thread t = new Thread(() -> {
+        workers.add(Thread.currentThread());
+        try {
+          r.run();
+        }finally {
+          workers.remove(Thread.currentThread());
+        }
+      }, "annot8-corenlp-" + name + "-" + count.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    });
+    this.executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Configure the named executor. An executor can only be configured once, and before it's first used,
+   * although repeating the same configuration is allowed.
+   *
+   * @throws IllegalStateException if the executor already exists with a different configuration
+   */
+  public static SharedExecutor configure(String name, int threads, int queueCapacity){
+    synchronized (EXECUTORS) {
+      SharedExecutor existing = EXECUTORS.get(name);
+      if(existing != null){
+        if(existing.threads != threads || existing.queueCapacity != queueCapacity)
+          throw new IllegalStateException("Executor " + name + " is already configured with " + existing.threads + " threads and a queue of " + existing.queueCapacity);
+
+        return existing;
+      }
+
+      SharedExecutor executor = new SharedExecutor(name, threads, queueCapacity);
+      EXECUTORS.put(name, executor);
+      LOGGER.info("Configured executor {} with {} threads and a queue of {}", name, threads, queueCapacity);
+
+      return executor;
+    }
+  }
+
+  /**
+   * Get the named executor, creating it with its default configuration if it hasn't been configured
+   */
+  public static SharedExecutor get(String name){
+    synchronized (EXECUTORS) {
+      SharedExecutor existing = EXECUTORS.get(name);
+      if(existing != null)
+        return existing;
+
+      int threads = Integer.getInteger(PROPERTY_PREFIX + name + ".threads", Runtime.getRuntime().availableProcessors());
+      int queueCapacity = Integer.getInteger(PROPERTY_PREFIX + name + ".queue", 4 * threads);
+
+      return configure(name, threads, queueCapacity);
+    }
+  }
+
+  /**
+   * Get the named executor, as {@link #get(String)}, or null if no name is given (e.g. the executor setting of a
+   * processor isn't set)
+   */
+  public static SharedExecutor forName(String name){
+    if(name == null || name.isEmpty())
+      return null;
+
+    return get(name);
+  }
+
+  /**
+   * Shut down the named executor, so that it can be configured again. Intended for tests.
+   */
+  public static void shutdown(String name){
+    SharedExecutor executor;
+    synchronized (EXECUTORS) {
+      executor = EXECUTORS.remove(name);
+    }
+
+    if(executor != null)
+      executor.executor.shutdown();
+  }
+
+  /**
+   * Copy the properties, limiting CoreNLP annotators to a single thread of their own
+   * (via the nthreads property and its prefixed variants), as the shared executor provides the parallelism
+   */
+  public static Properties singleThreaded(Properties properties){
+    Properties copy = new Properties();
+    copy.putAll(properties);
+
+    for(String key : copy.stringPropertyNames()){
+      if(key.equals("nthreads") || key.endsWith(".nthreads"))
+        copy.setProperty(key, "1");
+    }
+
+    return copy;
+  }
+
+  /**
+   * Run the tasks in parallel and wait for them all to finish. The calling thread runs the first task, and any
+   * tasks that couldn't be queued or hadn't started by the time it finished.
+   *
+   * If any task fails, the first exception is rethrown once all the tasks have finished.
+   */
+  public void invokeAll(List<Runnable> tasks){
+    if(tasks.isEmpty())
+      return;
+
+    //Avoid tasks waiting on tasks queued behind them
+    if(tasks.size() == 1 || workers.contains(Thread.currentThread())){
+      tasks.forEach(Runnable::run);
+      return;
+    }
+
+    List<FutureTask<Void>> futures = new ArrayList<>(tasks.size());
+    for(Runnable task : tasks)
+      futures.add(new FutureTask<>(task, null));
+
+    for(int i = 1; i < futures.size(); i++){
+      tasksSubmitted.incrementAndGet();
+      try {
+        executor.execute(futures.get(i));
+      }catch (RejectedExecutionException e){
+        tasksRunOnCaller.incrementAndGet();
+        futures.get(i).run();
+      }
+    }
+
+    futures.get(0).run();
+
+    //Take back tasks that are still queued, rather than waiting for a worker
+    for(int i = 1; i < futures.size(); i++){
+      if(executor.remove(futures.get(i))) {
+        tasksRunOnCaller.incrementAndGet();
+        futures.get(i).run();
+      }
+    }
+
+    RuntimeException failure = null;
+    for(FutureTask<Void> future : futures){
+      try {
+        future.get();
+      }catch (InterruptedException e){
+        Thread.currentThread().interrupt();
+        futures.forEach(f -> f.cancel(true));
+        throw new IllegalStateException("Interrupted while waiting for tasks on executor " + name, e);
+      }catch (ExecutionException e){
+        if(failure == null)
+          failure = e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new IllegalStateException(e.getCause());
+      }
+    }
+
+    if(failure != null)
+      throw failure;
+  }
+
+  /**
+   * Split the items into contiguous chunks of roughly equal weight, one per thread, and apply the action to each
+   * chunk in parallel
+   */
+  public <T> void forEachChunk(List<T> items, ToIntFunction<? super T> weigher, Consumer<List<T>> action){
+    if(items.isEmpty())
+      return;
+
+    long total = 0;
+    for(T item : items)
+      total += Math.max(1, weigher.applyAsInt(item));
+
+    int chunks = Math.min(threads, items.size());
+    double target = (double) total / chunks;
+
+    List<Runnable> tasks = new ArrayList<>(chunks);
+    int start = 0;
+    long weight = 0;
+    for(int i = 0; i < items.size(); i++){
+      weight += Math.max(1, weigher.applyAsInt(items.get(i)));
+
+      if(weight >= target * (tasks.size() + 1) || i == items.size() - 1){
+        List<T> chunk = items.subList(start, i + 1);
+        tasks.add(() -> action.accept(chunk));
+        start = i + 1;
+      }
+    }
+
+    invokeAll(tasks);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public int getThreads() {
+    return threads;
+  }
+
+  public int getQueueCapacity() {
+    return queueCapacity;
+  }
+
+  /**
+   * Number of tasks currently waiting for a thread
+   */
+  public int getQueueDepth(){
+    return executor.getQueue().size();
+  }
+
+  /**
+   * Number of threads currently running tasks
+   */
+  public int getActiveThreads(){
+    return executor.getActiveCount();
+  }
+
+  /**
+   * Number of tasks offered to the executor
+   */
+  public long getTasksSubmitted() {
+    return tasksSubmitted.get();
+  }
+
+  /**
+   * Number of tasks offered to the executor that were run on the calling thread instead,
+   * because the queue was full or no thread had become free
+   */
+  public long getTasksRunOnCaller() {
+    return tasksRunOnCaller.get();
+  }
+
+  /**
+   * Fraction of the tasks offered to the executor that it didn't have capacity to run, or 0 if no tasks have been offered
+   */
+  public double getSaturation(){
+    long submitted = tasksSubmitted.get();
+    return submitted == 0 ? 0.0 : (double) tasksRunOnCaller.get() / submitted;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s (%d threads, %d active, %d/%d queued, saturation %.2f)",
+        name, threads, getActiveThreads(), getQueueDepth(), queueCapacity, getSaturation());
+  }
+}
@@ -0,0 +1,416 @@
+/*
+ * Crown Copyright (C) 2021 Dstl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package uk.gov.dstl.annot8.corenlp;
+
+import io.annot8.api.annotations.Annotation;
+import io.annot8.api.settings.Settings;
+import io.annot8.common.data.bounds.SpanBounds;
+import io.annot8.common.data.content.Text;
+import io.annot8.common.data.utils.SortUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Captures documents that take longer than a threshold to process, so that they can be replayed later as
+ * reproducible performance test cases.
+ *
+ * Each capture is a gzipped binary file holding the name of the processor, the time it took, the processor's settings,
+ * the text of the content, and the span annotations on the content before it was processed (e.g. sentences, tokens and
+ * entities), with their properties. Collections and maps are stored element by element, and any other values that
+ * aren't strings, numbers or booleans are stored as strings.
+ */
+public class SlowDocumentCapture {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(SlowDocumentCapture.class);
+
+  private static final int MAGIC = 0x534c4f57;
+  private static final int VERSION = 1;
+
+  /**
+   * Maximum number of documents captured by each processor, so that a stream of slow documents can't fill the disk
+   */
+  public static final int MAX_CAPTURES = 1000;
+
+  private final Path directory;
+  private final long thresholdNanos;
+  private final Map<String, Object> settings;
+  private final AtomicInteger captured = new AtomicInteger();
+
+  public SlowDocumentCapture(String directory, long thresholdMillis){
+    this(directory, thresholdMillis, null);
+  }
+
+  /**
+   * Create a capture which stores the values of the {@link io.annot8.api.settings.Description} annotated getters
+   * on the processor's settings with each document, so that it can be replayed with the same configuration
+   */
+  public SlowDocumentCapture(String directory, long thresholdMillis, Settings settings){
+    this.directory = Paths.get(directory);
+    this.thresholdNanos = thresholdMillis * 1_000_000L;
+    this.settings = settings == null ? Collections.emptyMap() : readSettings(settings);
+  }
+
+  /**
+   * Create a capture for the settings, or return null if capture isn't enabled
+   */
+  public static SlowDocumentCapture create(ProcessorSettings settings){
+    if(settings.getCaptureDirectory() == null || settings.getCaptureDirectory().isEmpty())
+      return null;
+
+    return new SlowDocumentCapture(settings.getCaptureDirectory(), settings.getCaptureThresholdMillis(), settings);
+  }
+
+  private static Map<String, Object> readSettings(Settings settings){
+    Map<String, Object> values = new LinkedHashMap<>();
+    for(Method getter : ResultCache.getDescribedGetters(settings)){
+      try {
+        Object value = getter.invoke(settings);
+        if(value instanceof Map) {
+          value = new LinkedHashMap<>((Map<?, ?>) value);
+        }else if(value instanceof Collection) {
+          value = new ArrayList<>((Collection<?>) value);
+        }
+
+        values.put(getter.getName(), value);
+      } catch (ReflectiveOperationException e) {
+        throw new IllegalArgumentException("Unable to read setting " + getter.getName(), e);
+      }
+    }
+
+    return values;
+  }
+
+  /**
+   * Take the IDs of the annotations on the content before it is processed, so that the inputs can be told apart from
+   * the annotations added by the processor. The inputs themselves are only copied if the content is captured.
+   */
+  public static Set<String> snapshot(Text content){
+    return content.getAnnotations().getAll()
+        .map(Annotation::getId)
+        .collect(Collectors.toSet());
+  }
+
+  /**
+   * Write the content and its input annotations, identified by a {@link #snapshot(Text)} taken before processing,
+   * to the capture directory, if it took longer than the threshold
+   *
+   * @return the file written, or null if the content wasn't captured
+   */
+  public Path capture(Class<?> processor, Text content, Set<String> inputIds, long nanos){
+    if(nanos < thresholdNanos)
+      return null;
+
+    int count = captured.incrementAndGet();
+    if(count > MAX_CAPTURES) {
+      if(count == MAX_CAPTURES + 1)
+        LOGGER.warn("Captured {} slow documents in {}, no further documents will be captured", MAX_CAPTURES, directory);
+      return null;
+    }
+
+    String name = processor.getSimpleName().equals("Processor") ? processor.getEnclosingClass().getSimpleName() : processor.getSimpleName();
+    Path file = directory.resolve(String.format("%s-%d-%s.capture", name, System.currentTimeMillis(), content.getId().replaceAll("[^A-Za-z0-9_-]", "_")));
+
+    try {
+      Files.createDirectories(directory);
+      try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(file))))) {
+        write(out, processor.getName(), nanos, settings, content.getData(), content.getAnnotations().getByBounds(SpanBounds.class)
+            .filter(a -> inputIds.contains(a.getId()))
+            .sorted(SortUtils.SORT_BY_SPANBOUNDS)
+            .map(CapturedAnnotation::new)
+            .collect(Collectors.toList()));
+      }
+    }catch (IOException e){
+      LOGGER.warn("Unable to capture slow document {} to {}", content.getId(), file, e);
+      return null;
+    }
+
+    LOGGER.info("Content {} took {} ms in {}, captured to {}", content.getId(), nanos / 1_000_000, name, file);
+    return file;
+  }
+
+  private static void write(DataOutputStream out, String processor, long nanos, Map<String, Object> settings, String text, List<CapturedAnnotation> annotations) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeUTF(processor);
+    out.writeLong(nanos);
+
+    out.writeShort(settings.size());
+    for(Map.Entry<String, Object> e : settings.entrySet()){
+      out.writeUTF(e.getKey());
+      writeValue(out, e.getValue());
+    }
+
+    writeString(out, text);
+
+    out.writeInt(annotations.size());
+    for(CapturedAnnotation a : annotations){
+      out.writeUTF(a.type);
+      out.writeInt(a.begin);
+      out.writeInt(a.end);
+
+      out.writeShort(a.properties.size());
+      for(Map.Entry<String, Object> e : a.properties.entrySet()){
+        out.writeUTF(e.getKey());
+        writeValue(out, e.getValue());
+      }
+    }
+  }
+
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static void writeValue(DataOutputStream out, Object value) throws IOException {
+    if(value == null){
+      out.writeByte('N');
+    }else if(value instanceof Integer){
+      out.writeByte('I');
+      out.writeInt((Integer) value);
+    }else if(value instanceof Long){
+      out.writeByte('L');
+      out.writeLong((Long) value);
+    }else if(value instanceof Double || value instanceof Float){
+      out.writeByte('D');
+      out.writeDouble(((Number) value).doubleValue());
+    }else if(value instanceof Boolean){
+      out.writeByte('B');
+      out.writeBoolean((Boolean) value);
+    }else if(value instanceof Collection){
+      out.writeByte('C');
+      out.writeInt(((Collection<?>) value).size());
+      for(Object element : (Collection<?>) value)
+        writeValue(out, element);
+    }else if(value instanceof Map){
+      out.writeByte('M');
+      out.writeInt(((Map<?, ?>) value).size());
+      for(Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()){
+        writeString(out, String.valueOf(e.getKey()));
+        writeValue(out, e.getValue());
+      }
+    }else{
+      out.writeByte('S');
+      writeString(out, String.valueOf(value));
+    }
+  }
+
+  private static Object readValue(DataInputStream in) throws IOException {
+    int tag = in.readByte();
+    switch (tag){
+      case 'N':
+        return null;
+      case 'I':
+        return in.readInt();
+      case 'L':
+        return in.readLong();
+      case 'D':
+        return in.readDouble();
+      case 'B':
+        return in.readBoolean();
+      case 'S':
+        return readString(in);
+      case 'C':
+        int size = in.readInt();
+        List<Object> elements = new ArrayList<>(size);
+        for(int i = 0; i < size; i++)
+          elements.add(readValue(in));
+        return elements;
+      case 'M':
+        int entries = in.readInt();
+        Map<String, Object> map = new LinkedHashMap<>();
+        for(int i = 0; i < entries; i++)
+          map.put(readString(in), readValue(in));
+        return map;
+      default:
+        throw new IOException("Unknown property value type " + (char) tag);
+    }
+  }
+
+  /**
+   * Read a captured document
+   */
+  public static CapturedDocument read(Path file) throws IOException {
+    try(DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file))))) {
+      if(in.readInt() != MAGIC || in.readInt() != VERSION)
+        throw new IOException(file + " is not a captured document, or was written by an incompatible version");
+
+      String processor = in.readUTF();
+      long nanos = in.readLong();
+
+      int settingCount = in.readUnsignedShort();
+      Map<String, Object> settings = new LinkedHashMap<>();
+      for(int i = 0; i < settingCount; i++)
+        settings.put(in.readUTF(), readValue(in));
+
+      String text = readString(in);
+
+      int count = in.readInt();
+      List<CapturedAnnotation> annotations = new ArrayList<>(count);
+      for(int i = 0; i < count; i++){
+        String type = in.readUTF();
+        int begin = in.readInt();
+        int end = in.readInt();
+
+        int propertyCount = in.readUnsignedShort();
+        Map<String, Object> properties = new LinkedHashMap<>();
+        for(int j = 0; j < propertyCount; j++)
+          properties.put(in.readUTF(), readValue(in));
+
+        annotations.add(new CapturedAnnotation(type, begin, end, properties));
+      }
+
+      return new CapturedDocument(processor, nanos, settings, text, annotations);
+    }
+  }
+
+  /**
+   * Number of documents captured, including any beyond {@link #MAX_CAPTURES} that weren't written
+   */
+  public int getCaptured() {
+    return captured.get();
+  }
+
+  public Path getDirectory() {
+    return directory;
+  }
+
+  public long getThresholdMillis() {
+    return thresholdNanos / 1_000_000L;
+  }
+
+  /**
+   * A document read from a capture file
+   */
+  public static class CapturedDocument {
+    private final String processor;
+    private final long nanos;
+    private final Map<String, Object> settings;
+    private final String text;
+    private final List<CapturedAnnotation> annotations;
+
+    private CapturedDocument(String processor, long nanos, Map<String, Object> settings, String text, List<CapturedAnnotation> annotations){
+      this.processor = processor;
+      this.nanos = nanos;
+      this.settings = settings;
+      this.text = text;
+      this.annotations = annotations;
+    }
+
+    /**
+     * Name of the processor class that was slow to process the document
+     */
+    public String getProcessor() {
+      return processor;
+    }
+
+    /**
+     * Time the document took to process when it was captured, in nanoseconds
+     */
+    public long getNanos() {
+      return nanos;
+    }
+
+    /**
+     * Values of the processor's settings when the document was captured, keyed by the name of their getter.
+     * Collections are read as lists and maps as maps with string keys.
+     */
+    public Map<String, Object> getSettings() {
+      return settings;
+    }
+
+    public String getText() {
+      return text;
+    }
+
+    public List<CapturedAnnotation> getAnnotations() {
+      return annotations;
+    }
+
+    /**
+     * Recreate the captured annotations on the content, which should have the captured text
+     */
+    public void restore(Text content){
+      for(CapturedAnnotation a : annotations){
+        Annotation.Builder builder = content.getAnnotations().create()
+            .withBounds(new SpanBounds(a.begin, a.end))
+            .withType(a.type);
+        a.properties.forEach(builder::withProperty);
+        builder.save();
+      }
+    }
+  }
+
+  /**
+   * A span annotation read from a capture file
+   */
+  public static class CapturedAnnotation {
+    private final String type;
+    private final int begin;
+    private final int end;
+    private final Map<String, Object> properties;
+
+    private CapturedAnnotation(Annotation annotation){
+      SpanBounds bounds = annotation.getBounds(SpanBounds.class).get();
+      this.type = annotation.getType();
+      this.begin = bounds.getBegin();
+      this.end = bounds.getEnd();
+      this.properties = new TreeMap<>(annotation.getProperties().getAll());
+    }
+
+    private CapturedAnnotation(String type, int begin, int end, Map<String, Object> properties){
+      this.type = type;
+      this.begin = begin;
+      this.end = end;
+      this.properties = properties;
+    }
+
+    public String getType() {
+      return type;
+    }
+
+    public int getBegin() {
+      return begin;
+    }
+
+    public int getEnd() {
+      return end;
+    }
+
+    public Map<String, Object> getProperties() {
+      return properties;
+    }
+  }
+}
@@ -0,0 +1,199 @@
+/*
+ * Crown Copyright (C) 2021 Dstl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package uk.gov.dstl.annot8.corenlp;
+
+import io.annot8.api.annotations.Annotation;
+import io.annot8.common.data.bounds.SpanBounds;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Immutable index of annotations by their {@link SpanBounds}, supporting exact, containment and overlap queries.
+ *
+ * Annotations are held in arrays sorted by begin and then end, forming an implicit balanced binary tree
+ * (the root of each sub-range being its midpoint) augmented with the maximum end within each sub-tree.
+ * Queries take O(log n + k) time, where k is the number of annotations returned.
+ */
+public class SpanIndex {
+
+  private final Annotation[] annotations;
+  private final int[] begins;
+  private final int[] ends;
+  private final int[] maxEnds;
+
+  public SpanIndex(Collection<Annotation> annotations){
+    List<Annotation> withBounds = new ArrayList<>(annotations.size());
+    for(Annotation a : annotations){
+      if(a.getBounds(SpanBounds.class).isPresent())
+        withBounds.add(a);
+    }
+
+    withBounds.sort(Comparator.<Annotation>comparingInt(a -> getBounds(a).getBegin())
+        .thenComparingInt(a -> getBounds(a).getEnd()));
+
+    int n = withBounds.size();
+    this.annotations = withBounds.toArray(new Annotation[0]);
+    this.begins = new int[n];
+    this.ends = new int[n];
+    this.maxEnds = new int[n];
+
+    for(int i = 0; i < n; i++){
+      SpanBounds sb = getBounds(this.annotations[i]);
+      begins[i] = sb.getBegin();
+      ends[i] = sb.getEnd();
+    }
+
+    buildMaxEnds(0, n);
+  }
+
+  private static SpanBounds getBounds(Annotation annotation){
+    return annotation.getBounds(SpanBounds.class).get();
+  }
+
+  private int buildMaxEnds(int lo, int hi){
+    if(lo >= hi)
+      return Integer.MIN_VALUE;
+
+    int mid = (lo + hi) >>> 1;
+    maxEnds[mid] = Math.max(ends[mid], Math.max(buildMaxEnds(lo, mid), buildMaxEnds(mid + 1, hi)));
+
+    return maxEnds[mid];
+  }
+
+  public int size(){
+    return annotations.length;
+  }
+
+  /**
+   * Annotations matching the given bounds according to the policy, sorted by begin and then end
+   */
+  public List<Annotation> find(int begin, int end, MatchPolicy policy){
+    switch (policy){
+      case WITHIN:
+        return within(begin, end);
+      case COVERING:
+        return covering(begin, end);
+      case OVERLAP:
+        return overlapping(begin, end);
+      case EXACT:
+      default:
+        return exact(begin, end);
+    }
+  }
+
+  /**
+   * Annotations with exactly the given bounds
+   */
+  public List<Annotation> exact(int begin, int end){
+    List<Annotation> results = new ArrayList<>(1);
+    for(int i = lowerBound(begin); i < begins.length && begins[i] == begin && ends[i] <= end; i++){
+      if(ends[i] == end)
+        results.add(annotations[i]);
+    }
+
+    return results;
+  }
+
+  /**
+   * Annotations entirely within the given bounds
+   */
+  public List<Annotation> within(int begin, int end){
+    List<Annotation> results = new ArrayList<>();
+    for(int i = lowerBound(begin); i < begins.length && begins[i] <= end; i++){
+      if(ends[i] <= end)
+        results.add(annotations[i]);
+    }
+
+    return results;
+  }
+
+  /**
+   * Annotations entirely covering the given bounds
+   */
+  public List<Annotation> covering(int begin, int end){
+    List<Annotation> results = new ArrayList<>();
+    search(0, annotations.length, begin + 1, end - 1, results);
+
+    return results;
+  }
+
+  /**
+   * Annotations sharing at least one character with the given bounds
+   */
+  public List<Annotation> overlapping(int begin, int end){
+    List<Annotation> results = new ArrayList<>();
+    search(0, annotations.length, end, begin, results);
+
+    return results;
+  }
+
+  /**
+   * Find annotations with a begin less than beginBelow and an end greater than endAbove
+   */
+  private void search(int lo, int hi, int beginBelow, int endAbove, List<Annotation> results){
+    if(lo >= hi)
+      return;
+
+    int mid = (lo + hi) >>> 1;
+    if(maxEnds[mid] <= endAbove)
+      return;
+
+    search(lo, mid, beginBelow, endAbove, results);
+
+    if(begins[mid] >= beginBelow)
+      return;
+
+    if(ends[mid] > endAbove)
+      results.add(annotations[mid]);
+
+    search(mid + 1, hi, beginBelow, endAbove, results);
+  }
+
+  /**
+   * Index of the first annotation with a begin greater than or equal to the given value
+   */
+  private int lowerBound(int begin){
+    int lo = 0;
+    int hi = begins.length;
+    while(lo < hi){
+      int mid = (lo + hi) >>> 1;
+      if(begins[mid] < begin) {
+        lo = mid + 1;
+      }else{
+        hi = mid;
+      }
+    }
+
+    return lo;
+  }
+
+  /**
+   * Orders annotations by how closely they match the given bounds - those with the largest overlap first,
+   * and then those with the smallest difference in length
+   */
+  public static Comparator<Annotation> closestTo(int begin, int end){
+    return Comparator.<Annotation>comparingInt(a -> -overlap(getBounds(a), begin, end))
+        .thenComparingInt(a -> Math.abs((getBounds(a).getEnd() - getBounds(a).getBegin()) - (end - begin)));
+  }
+
+  private static int overlap(SpanBounds sb, int begin, int end){
+    return Math.min(sb.getEnd(), end) - Math.max(sb.getBegin(), begin);
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * Crown Copyright (C) 2021 Dstl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package uk.gov.dstl.annot8.corenlp;
+
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.pipeline.Annotator;
+import edu.stanford.nlp.util.CoreMap;
+import jdk.jfr.*;
+
+import java.util.List;
+
+/**
+ * JDK Flight Recorder event recording a stage of processing a document: conversion of Annot8 content into a CoreNLP
+ * document, a CoreNLP annotator, or writing results back to Annot8. Each event records the document it relates to,
+ * so that slow stages can be linked to the documents that caused them.
+ *
+ * When the event isn't enabled in the recording, no fields are set or counted, so the overhead is negligible.
+ * A typical use is:
+ * <pre>
+ *   StageEvent event = StageEvent.start(StageEvent.WRITE, getClass());
+ *   ...
+ *   event.finish(document, outputs);
+ * </pre>
+ */
+@Name("uk.gov.dstl.annot8.corenlp.Stage")
+@Label("CoreNLP Stage")
+@Category({"Annot8", "CoreNLP"})
+@Description("A stage of processing a document with CoreNLP")
+@StackTrace(false)
+public class StageEvent extends Event {
+
+  public static final String CONVERSION = "Conversion";
+  public static final String ANNOTATE = "Annotate";
+  public static final String WRITE = "Write";
+  public static final String REPLAY = "Replay";
+
+  @Label("Stage")
+  @Description("Conversion, Annotate, Write or Replay")
+  private String stage;
+
+  @Label("Component")
+  @Description("Class of the annotator or processor")
+  private String component;
+
+  @Label("Document ID")
+  private String documentId;
+
+  @Label("Characters")
+  @Description("Length of the document text")
+  private int characters;
+
+  @Label("Tokens")
+  private int tokens;
+
+  @Label("Sentences")
+  private int sentences;
+
+  @Label("Outputs")
+  @Description("Number of mentions (for conversion) or annotations and groups (for writing and replaying) produced, or -1 for annotators")
+  private int outputs;
+
+  /**
+   * Begin timing a stage
+   */
+  public static StageEvent start(String stage, Class<?> component){
+    StageEvent event = new StageEvent();
+    if(event.isEnabled()){
+      event.stage = stage;
+      event.component = component.getName();
+      event.begin();
+    }
+
+    return event;
+  }
+
+  /**
+   * Finish timing the stage, and commit it with the details of the CoreNLP document (if it isn't null)
+   */
+  public void finish(CoreMap document, int outputs){
+    if(!isEnabled())
+      return;
+
+    end();
+    if(!shouldCommit())
+      return;
+
+    if(document != null) {
+      documentId = document.get(CoreAnnotations.DocIDAnnotation.class);
+
+      String text = document.get(CoreAnnotations.TextAnnotation.class);
+      characters = text == null ? 0 : text.length();
+
+      List<CoreMap> documentSentences = document.get(CoreAnnotations.SentencesAnnotation.class);
+      if(documentSentences != null) {
+        sentences = documentSentences.size();
+        for(CoreMap sentence : documentSentences)
+          tokens += sentence.get(CoreAnnotations.TokensAnnotation.class).size();
+      }
+    }
+    this.outputs = outputs;
+
+    commit();
+  }
+
+  /**
+   * Finish timing the stage, and commit it with the given details, for stages without a CoreNLP document
+   */
+  public void finish(String documentId, int characters, int tokens, int sentences, int outputs){
+    if(!isEnabled())
+      return;
+
+    end();
+    if(!shouldCommit())
+      return;
+
+    this.documentId = documentId;
+    this.characters = characters;
+    this.tokens = tokens;
+    this.sentences = sentences;
+    this.outputs = outputs;
+
+    commit();
+  }
+
+  /**
+   * Run the annotator over the document, recording it as a stage
+   */
+  public static void annotate(Annotator annotator, edu.stanford.nlp.pipeline.Annotation document){
+    StageEvent event = start(ANNOTATE, annotator.getClass());
+    annotator.annotate(document);
+    event.finish(document, -1);
+  }
+}
@@ -16,7 +16,10 @@
  */
 package uk.gov.dstl.annot8.corenlp;
 
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.ling.CoreLabel;
 import edu.stanford.nlp.pipeline.CoreDocument;
+import edu.stanford.nlp.pipeline.CoreSentence;
 import edu.stanford.nlp.pipeline.StanfordCoreNLP;
 import io.annot8.api.capabilities.Capabilities;
 import io.annot8.api.components.annotations.ComponentDescription;
@@ -64,19 +67,30 @@ public class Tokenize extends AbstractProcessorDescriptor<Tokenize.Processor, Co
     @Override
     protected void process(Text content) {
       CoreDocument document = new CoreDocument(content.getData());
+      document.annotation().set(CoreAnnotations.DocIDAnnotation.class, content.getId());
+
+      StageEvent annotateEvent = StageEvent.start(StageEvent.ANNOTATE, pipeline.getClass());
       pipeline.annotate(document);
+      annotateEvent.finish(document.annotation(), -1);
 
-      document.sentences().forEach(sentence -> {
+      StageEvent writeEvent = StageEvent.start(StageEvent.WRITE, getClass());
+      int outputs = 0;
+      for(CoreSentence sentence : document.sentences()){
         content.getAnnotations().create()
             .withType(AnnotationTypes.ANNOTATION_TYPE_SENTENCE)
             .withBounds(new SpanBounds(sentence.charOffsets().first(), sentence.charOffsets().second()))
             .save();
+        outputs++;
 
-        sentence.tokens().forEach(token -> content.getAnnotations().create()
-            .withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN)
-            .withBounds(new SpanBounds(token.beginPosition(), token.endPosition()))
-            .save());
-      });
+        for(CoreLabel token : sentence.tokens()){
+          content.getAnnotations().create()
+              .withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN)
+              .withBounds(new SpanBounds(token.beginPosition(), token.endPosition()))
+              .save();
+          outputs++;
+        }
+      }
+      writeEvent.finish(document.annotation(), outputs);
     }
   }
 }
@@ -0,0 +1,166 @@
+/*
+ * Crown Copyright (C) 2021 Dstl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package uk.gov.dstl.annot8.corenlp;
+
+import io.annot8.api.components.responses.ProcessorResponse;
+import io.annot8.common.data.content.Text;
+import io.annot8.components.base.text.processors.AbstractTextProcessor;
+import io.annot8.testing.testimpl.TestItem;
+import io.annot8.testing.testimpl.content.TestStringContent;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AsyncProcessorTest {
+
+  @Test
+  public void testOrder() throws Exception {
+    SlowProcessor p = new SlowProcessor();
+    List<Integer> completed = Collections.synchronizedList(new ArrayList<>());
+
+    List<CompletableFuture<ProcessorResponse>> futures = new ArrayList<>();
+    try(AsyncProcessor async = new AsyncProcessor(p, 4)) {
+      //The first item takes longest, but its result is still handed back first
+      for (int i = 0; i < 4; i++) {
+        int index = i;
+        TestItem item = createItem("Item " + i);
+        p.delays.put(item.getId(), (long) (40 - 10 * i));
+
+        futures.add(async.submit(item).whenComplete((r, e) -> completed.add(index)));
+      }
+    }
+
+    for(CompletableFuture<ProcessorResponse> f : futures)
+      assertEquals(ProcessorResponse.Status.OK, f.get().getStatus());
+
+    assertEquals(List.of(0, 1, 2, 3), completed);
+    assertEquals(4, p.processed.size());
+  }
+
+  @Test
+  public void testBackPressure() throws Exception {
+    SlowProcessor p = new SlowProcessor();
+    p.release = new CountDownLatch(1);
+
+    try(AsyncProcessor async = new AsyncProcessor(p, 2)) {
+      CompletableFuture<ProcessorResponse> first = async.submit(createItem("First"));
+      CompletableFuture<ProcessorResponse> second = async.submit(createItem("Second"));
+      assertEquals(2, async.getInFlight());
+
+      assertNull(async.trySubmit(createItem("Third"), 50, TimeUnit.MILLISECONDS));
+      assertEquals(1, async.getBlocked());
+
+      p.release.countDown();
+      first.get();
+      second.get();
+
+      assertNotNull(async.trySubmit(createItem("Third"), 10, TimeUnit.SECONDS));
+      assertEquals(3, async.getSubmitted());
+    }
+  }
+
+  @Test
+  public void testSameItem() throws Exception {
+    SlowProcessor p = new SlowProcessor();
+    TestItem item = createItem("Item");
+    p.delays.put(item.getId(), 20L);
+
+    try(AsyncProcessor async = new AsyncProcessor(p, 4)) {
+      for(int i = 0; i < 4; i++)
+        async.submit(item);
+    }
+
+    //Repeated submissions of the same item must never overlap
+    assertEquals(4, p.processed.size());
+    assertEquals(1, p.maxConcurrent);
+  }
+
+  @Test
+  public void testClosed() throws Exception {
+    SlowProcessor p = new SlowProcessor();
+
+    AsyncProcessor async = new AsyncProcessor(p, 1);
+    async.close();
+
+    //Rejected without processing, and without holding on to the only permit
+    CompletableFuture<ProcessorResponse> future = async.submit(createItem("Item"));
+    assertThrows(ExecutionException.class, future::get);
+    assertEquals(0, async.getInFlight());
+    assertTrue(p.processed.isEmpty());
+  }
+
+  @Test
+  public void testRejected() throws Exception {
+    SlowProcessor p = new SlowProcessor();
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    executor.shutdown();
+
+    try(AsyncProcessor async = new AsyncProcessor(p, 1, executor)) {
+      CompletableFuture<ProcessorResponse> future = async.submit(createItem("First"));
+      ExecutionException e = assertThrows(ExecutionException.class, future::get);
+      assertTrue(e.getCause() instanceof RejectedExecutionException);
+
+      //The permit is released, so later items can still be submitted
+      assertEquals(0, async.getInFlight());
+      assertNotNull(async.trySubmit(createItem("Second"), 1, TimeUnit.SECONDS));
+    }
+  }
+
+  private static TestItem createItem(String text){
+    TestItem testItem = new TestItem();
+    testItem.createContent(TestStringContent.class)
+        .withData(text)
+        .save();
+
+    return testItem;
+  }
+
+  private static class SlowProcessor extends AbstractTextProcessor {
+    private final Map<String, Long> delays = new ConcurrentHashMap<>();
+    private final List<String> processed = Collections.synchronizedList(new ArrayList<>());
+    private CountDownLatch release = null;
+
+    private int concurrent = 0;
+    private int maxConcurrent = 0;
+
+    @Override
+    protected void process(Text content) {
+      synchronized (this){
+        concurrent++;
+        maxConcurrent = Math.max(maxConcurrent, concurrent);
+      }
+
+      try {
+        if(release != null)
+          release.await();
+
+        Thread.sleep(delays.getOrDefault(content.getItem().getId(), 0L));
+      }catch (InterruptedException e){
+        Thread.currentThread().interrupt();
+      }
+
+      processed.add(content.getData());
+
+      synchronized (this){
+        concurrent--;
+      }
+    }
+  }
+}
@@ -0,0 +1,131 @@
+/*
+ * Crown Copyright (C) 2021 Dstl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package uk.gov.dstl.annot8.corenlp;
+
+import io.annot8.api.components.responses.ProcessorResponse;
+import io.annot8.common.data.bounds.SpanBounds;
+import io.annot8.common.data.content.Text;
+import io.annot8.components.base.text.processors.AbstractTextProcessor;
+import io.annot8.conventions.AnnotationTypes;
+import io.annot8.testing.testimpl.TestItem;
+import io.annot8.testing.testimpl.content.TestStringContent;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BatchSchedulerTest {
+
+  @Test
+  public void testLongestFirst() throws Exception {
+    SlowProcessor p = new SlowProcessor();
+
+    List<TestItem> items = List.of(createItem(10), createItem(30), createItem(20), createItem(30));
+
+    BatchScheduler.Batch batch;
+    try(BatchScheduler scheduler = new BatchScheduler(p, 1)) {
+      batch = scheduler.process(items);
+    }
+
+    //Items of equal cost keep their submitted order
+    assertEquals(List.of(items.get(1).getId(), items.get(3).getId(), items.get(2).getId(), items.get(0).getId()), p.started);
+
+    assertEquals(4, batch.getResponses().size());
+    batch.getResponses().forEach(r -> assertEquals(ProcessorResponse.Status.OK, r.getStatus()));
+    batch.getFailures().forEach(f -> assertNull(f));
+    assertEquals(90.0, batch.getEstimatedCost(), 0.0001);
+  }
+
+  @Test
+  public void testMetrics() throws Exception {
+    SlowProcessor p = new SlowProcessor();
+
+    //The large item costs more than half of the batch, so is oversized with two workers
+    List<TestItem> items = List.of(createItem(10), createItem(10), createItem(10), createItem(10), createItem(60));
+
+    try(BatchScheduler scheduler = new BatchScheduler(p, 2)) {
+      BatchScheduler.Batch batch = scheduler.process(items);
+
+      //The workers start together, so the large item is one of the first two started
+      assertTrue(p.started.subList(0, 2).contains(items.get(4).getId()));
+      assertEquals(5, p.started.size());
+
+      assertEquals(1, batch.getOversized());
+      assertTrue(batch.getNanos() > 0);
+      assertTrue(batch.getBusyNanos() > 0);
+      assertTrue(batch.getUtilisation() > 0.0 && batch.getUtilisation() <= 1.0);
+      assertTrue(batch.getCpuUtilisation() <= 1.0);
+
+      scheduler.process(items.subList(0, 2));
+
+      assertEquals(2, scheduler.getBatches());
+      assertEquals(7, scheduler.getItems());
+      assertEquals(1, scheduler.getOversized());
+      assertTrue(scheduler.getMeanBatchNanos() > 0);
+      assertTrue(scheduler.getUtilisation() > 0.0 && scheduler.getUtilisation() <= 1.0);
+    }
+  }
+
+  @Test
+  public void testEstimateCost(){
+    TestItem item = createItem(10);
+    assertEquals(10.0, BatchScheduler.estimateCost(item), 0.0001);
+
+    //Once tokenised, the tokens and sentences are counted rather than the characters
+    Text content = item.getContents(Text.class).findFirst().get();
+    content.getAnnotations().create().withBounds(new SpanBounds(0, 60)).withType(AnnotationTypes.ANNOTATION_TYPE_SENTENCE).save();
+    content.getAnnotations().create().withBounds(new SpanBounds(0, 30)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).save();
+    content.getAnnotations().create().withBounds(new SpanBounds(30, 60)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).save();
+
+    assertEquals(2 + BatchScheduler.SENTENCE_COST, BatchScheduler.estimateCost(item), 0.0001);
+  }
+
+  @Test
+  public void testWorkers(){
+    assertThrows(IllegalArgumentException.class, () -> new BatchScheduler(new SlowProcessor(), 0));
+  }
+
+  /**
+   * Create an item whose estimated cost is the given number of tokens, and which takes that many milliseconds to process
+   */
+  private static TestItem createItem(int tokens){
+    TestItem testItem = new TestItem();
+    testItem.createContent(TestStringContent.class)
+        .withData("x".repeat(tokens * BatchScheduler.CHARS_PER_TOKEN))
+        .save();
+
+    return testItem;
+  }
+
+  private static class SlowProcessor extends AbstractTextProcessor {
+    private final List<String> started = Collections.synchronizedList(new ArrayList<>());
+
+    @Override
+    protected void process(Text content) {
+      started.add(content.getItem().getId());
+
+      try {
+        Thread.sleep(content.getData().length() / BatchScheduler.CHARS_PER_TOKEN);
+      }catch (InterruptedException e){
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
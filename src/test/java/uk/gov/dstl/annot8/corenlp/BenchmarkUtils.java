@@ -0,0 +1,115 @@
+/*
+ * Crown Copyright (C) 2021 Dstl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package uk.gov.dstl.annot8.corenlp;
+
+import io.annot8.api.components.Processor;
+import io.annot8.api.components.responses.ProcessorResponse;
+import io.annot8.testing.testimpl.TestItem;
+import io.annot8.testing.testimpl.content.TestStringContent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Helpers for the benchmark integration tests
+ */
+public class BenchmarkUtils {
+
+  public static final List<String> CORPUS = List.of(
+      "Barack Obama lives in America. Obama was the president.",
+      "Martin visited Peter, Joe and Louise in London last week.",
+      "I voted for Smith because he promised fewer cuts.",
+      "Apple Inc. was founded by Steve Jobs in California in 1976. He later returned to the company as chief executive.",
+      "The meeting will take place at the United Nations headquarters in New York on Monday, and the minutes will be published by Reuters.",
+      "Mary's brother is David. He works for Google in Dublin, where he has lived since 2015.",
+      "please find attached the report for this quarter, let me know if you have any questions.",
+      "Revenue rose 12 percent to $4.5 billion in the three months to September, the company said in a statement.",
+      "this message is confidential and intended only for the addressee. if you are not the intended recipient, please delete it.",
+      "the figures below are provisional and may change. see the notes for details."
+  );
+
+  private BenchmarkUtils(){
+    //Private constructor for utility class
+  }
+
+  /**
+   * Create new items for each document in the corpus, with sentences, tokens and parts of speech already added
+   */
+  public static List<TestItem> createItems(){
+    Processor pTokenize = new Tokenize().createComponent(null, new CoreNLPSettings());
+    Processor pPos = new POS().createComponent(null, new POS.Settings());
+
+    List<TestItem> items = new ArrayList<>();
+    for(String text : CORPUS){
+      TestItem item = new TestItem();
+      item.createContent(TestStringContent.class)
+          .withData(text)
+          .save();
+
+      assertEquals(ProcessorResponse.Status.OK, pTokenize.process(item).getStatus());
+      assertEquals(ProcessorResponse.Status.OK, pPos.process(item).getStatus());
+
+      items.add(item);
+    }
+
+    return items;
+  }
+
+  /**
+   * Create new items for each document in the corpus as above, and then run each of the processors over them
+   */
+  public static List<TestItem> createItems(Processor... processors){
+    List<TestItem> items = createItems();
+    for(Processor p : processors)
+      time(p, items);
+
+    return items;
+  }
+
+  /**
+   * Approximate heap in use, after requesting a garbage collection
+   */
+  public static long usedHeap(){
+    Runtime runtime = Runtime.getRuntime();
+    for(int i = 0; i < 3; i++)
+      System.gc();
+
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  /**
+   * Process every item with the processor, and return the elapsed time in nanoseconds
+   */
+  public static long time(Processor processor, List<TestItem> items){
+    long start = System.nanoTime();
+    for(TestItem item : items){
+      ProcessorResponse pr = processor.process(item);
+      if(pr.hasExceptions())
+        pr.getExceptions().forEach(Exception::printStackTrace);
+      assertEquals(ProcessorResponse.Status.OK, pr.getStatus());
+    }
+
+    return System.nanoTime() - start;
+  }
+
+  public static void printResult(String name, long nanos, int documents, long heapBytes, String extra){
+    System.out.println(String.format("%-40s %10.1f docs/s %10.1f MB heap  %s",
+        name, documents / (nanos / 1e9), heapBytes / (1024.0 * 1024.0), extra));
+  }
+}
@@ -0,0 +1,186 @@
+/*
+ * Crown Copyright (C) 2021 Dstl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package uk.gov.dstl.annot8.corenlp;
+
+import io.annot8.api.components.Processor;
+import io.annot8.api.components.responses.ProcessorResponse;
+import io.annot8.api.settings.Settings;
+import io.annot8.testing.testimpl.TestItem;
+import io.annot8.testing.testimpl.content.TestStringContent;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Replays a document captured by {@link SlowDocumentCapture} through a processor, timing each run, so that it can be
+ * profiled (e.g. by running with a profiler attached, or with Flight Recorder enabled).
+ *
+ * Usage: {@code CaptureReplay <capture file> [iterations] [processor class] [property=value ...]}
+ *
+ * The processor defaults to the one that captured the document, and is created with the captured settings (or default
+ * settings, if a different processor is given) plus any CoreNLP properties given. Its class must have a public
+ * constructor taking its settings.
+ */
+public class CaptureReplay {
+
+  public static void main(String[] args) throws Exception {
+    if(args.length < 1){
+      System.err.println("Usage: CaptureReplay <capture file> [iterations] [processor class] [property=value ...]");
+      System.exit(1);
+    }
+
+    SlowDocumentCapture.CapturedDocument captured = SlowDocumentCapture.read(Paths.get(args[0]));
+    int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+    String processorClass = args.length > 2 ? args[2] : captured.getProcessor();
+
+    String[] properties = new String[Math.max(0, args.length - 3)];
+    System.arraycopy(args, Math.min(3, args.length), properties, 0, properties.length);
+
+    System.out.println(String.format("Replaying %d characters with %d annotations, originally taking %.1f ms in %s",
+        captured.getText().length(), captured.getAnnotations().size(), captured.getNanos() / 1e6, captured.getProcessor()));
+
+    Map<String, Object> settings = processorClass.equals(captured.getProcessor()) ? captured.getSettings() : Collections.emptyMap();
+    Processor processor = createProcessor(processorClass, settings, properties);
+    try {
+      for (int i = 0; i < iterations; i++) {
+        long nanos = replay(captured, processor);
+        System.out.println(String.format("Run %d: %.1f ms", i + 1, nanos / 1e6));
+      }
+    }finally {
+      processor.close();
+    }
+  }
+
+  /**
+   * Process a fresh copy of the captured document with the processor, and return the time taken in nanoseconds
+   */
+  public static long replay(SlowDocumentCapture.CapturedDocument captured, Processor processor){
+    TestItem item = new TestItem();
+    TestStringContent content = item.createContent(TestStringContent.class)
+        .withData(captured.getText())
+        .save();
+    captured.restore(content);
+
+    long start = System.nanoTime();
+    ProcessorResponse response = processor.process(item);
+    long nanos = System.nanoTime() - start;
+
+    if(response.getStatus() != ProcessorResponse.Status.OK)
+      throw new IllegalStateException("Processor returned " + response.getStatus());
+
+    return nanos;
+  }
+
+  /**
+   * Create the processor with the captured settings (see {@link SlowDocumentCapture.CapturedDocument#getSettings()}),
+   * applied over its default settings, adding the CoreNLP properties (given as property=value) if the settings accept them
+   */
+  public static Processor createProcessor(String processorClass, Map<String, Object> capturedSettings, String... properties) throws Exception {
+    Class<?> clazz = Class.forName(processorClass);
+    for(Constructor<?> constructor : clazz.getConstructors()){
+      if(constructor.getParameterCount() != 1 || !Settings.class.isAssignableFrom(constructor.getParameterTypes()[0]))
+        continue;
+
+      Settings settings = (Settings) constructor.getParameterTypes()[0].getConstructor().newInstance();
+      applySettings(settings, capturedSettings);
+
+      if(settings instanceof CoreNLPSettings) {
+        for (String property : properties) {
+          String[] parts = property.split("=", 2);
+          ((CoreNLPSettings) settings).addProperty(parts[0], parts.length > 1 ? parts[1] : "");
+        }
+      }
+
+      //Don't capture the replayed document again
+      if(settings instanceof ProcessorSettings)
+        ((ProcessorSettings) settings).setCaptureDirectory(null);
+
+      return (Processor) constructor.newInstance(settings);
+    }
+
+    throw new IllegalArgumentException(processorClass + " doesn't have a public constructor taking its settings");
+  }
+
+  private static void applySettings(Settings settings, Map<String, Object> capturedSettings) throws ReflectiveOperationException {
+    for(Map.Entry<String, Object> e : capturedSettings.entrySet()){
+      String name = "set" + e.getKey().replaceFirst("^(get|is)", "");
+      Method setter = Arrays.stream(settings.getClass().getMethods())
+          .filter(m -> m.getName().equals(name) && m.getParameterCount() == 1)
+          .findFirst().orElse(null);
+
+      if(setter == null) {
+        System.err.println("Ignoring captured setting " + e.getKey() + ", which can't be set");
+        continue;
+      }
+
+      try {
+        setter.invoke(settings, convert(e.getValue(), setter.getGenericParameterTypes()[0]));
+      }catch (IllegalArgumentException ex){
+        System.err.println("Ignoring captured setting " + e.getKey() + ", which can't be converted: " + ex.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Convert a value read from a capture to the type of a setting
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static Object convert(Object value, Type type){
+    if(value == null)
+      return null;
+
+    Class<?> raw = type instanceof ParameterizedType ? (Class<?>) ((ParameterizedType) type).getRawType() : type instanceof Class ? (Class<?>) type : Object.class;
+    Type[] arguments = type instanceof ParameterizedType ? ((ParameterizedType) type).getActualTypeArguments() : new Type[0];
+
+    if(raw.isEnum())
+      return Enum.valueOf((Class<Enum>) raw, value.toString());
+
+    if(value instanceof Map){
+      Map<Object, Object> map = Properties.class.isAssignableFrom(raw) ? new Properties() : new LinkedHashMap<>();
+      Type keyType = arguments.length == 2 ? arguments[0] : Object.class;
+      Type valueType = arguments.length == 2 ? arguments[1] : Object.class;
+      ((Map<?, ?>) value).forEach((k, v) -> map.put(convert(k, keyType), convert(v, valueType)));
+      return map;
+    }
+
+    if(value instanceof List){
+      Collection<Object> collection = Set.class.isAssignableFrom(raw) ? new LinkedHashSet<>() : new ArrayList<>();
+      Type elementType = arguments.length == 1 ? arguments[0] : Object.class;
+      ((List<?>) value).forEach(v -> collection.add(convert(v, elementType)));
+      return collection;
+    }
+
+    if(value instanceof Number){
+      Number n = (Number) value;
+      if(raw == int.class || raw == Integer.class) {
+        return n.intValue();
+      }else if(raw == long.class || raw == Long.class) {
+        return n.longValue();
+      }else if(raw == float.class || raw == Float.class) {
+        return n.floatValue();
+      }else if(raw == double.class || raw == Double.class) {
+        return n.doubleValue();
+      }
+    }
+
+    return value;
+  }
+}
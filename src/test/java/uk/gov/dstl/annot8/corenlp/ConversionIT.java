@@ -0,0 +1,97 @@
+/*
+ * Crown Copyright (C) 2021 Dstl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package uk.gov.dstl.annot8.corenlp;
+
+import io.annot8.common.data.content.Text;
+import io.annot8.testing.testimpl.TestItem;
+import io.annot8.testing.testimpl.content.TestStringContent;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Measures the time taken and the memory allocated converting Annot8 content into CoreNLP documents,
+ * for the short documents of the corpus and for one long document
+ */
+public class ConversionIT {
+
+  private static final int ITERATIONS = 200;
+  private static final int LONG_DOCUMENT_REPEATS = 50;
+
+  @Test
+  public void evaluate() throws Exception {
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    NER.Processor ner = new NER.Processor(new NER.Settings());
+    List<Text> shortDocuments = contents(BenchmarkUtils.createItems(ner));
+    List<Text> longDocument = contents(List.of(createLongItem(ner)));
+
+    for(List<Text> documents : List.of(shortDocuments, longDocument)){
+      //Warm up
+      convert(documents, ITERATIONS);
+
+      long allocated = threads.getCurrentThreadAllocatedBytes();
+      long start = System.nanoTime();
+      int tokens = convert(documents, ITERATIONS);
+      long nanos = System.nanoTime() - start;
+      allocated = threads.getCurrentThreadAllocatedBytes() - allocated;
+
+      int conversions = ITERATIONS * documents.size();
+      BenchmarkUtils.printResult(documents == longDocument ? "Conversion (long document)" : "Conversion", nanos, conversions, 0,
+          String.format("%.0f bytes allocated/doc, %.0f bytes allocated/token", (double) allocated / conversions, (double) allocated / tokens));
+    }
+  }
+
+  private static int convert(List<Text> documents, int iterations){
+    int tokens = 0;
+    for(int i = 0; i < iterations; i++){
+      for(Text content : documents)
+        tokens += CoreNLPUtils.createCoreNLPDocument(content).get(edu.stanford.nlp.ling.CoreAnnotations.TokensAnnotation.class).size();
+    }
+
+    return tokens;
+  }
+
+  private static TestItem createLongItem(NER.Processor ner){
+    StringBuilder sb = new StringBuilder();
+    for(int i = 0; i < LONG_DOCUMENT_REPEATS; i++)
+      BenchmarkUtils.CORPUS.forEach(s -> sb.append(s).append('\n'));
+
+    TestItem item = new TestItem();
+    item.createContent(TestStringContent.class)
+        .withData(sb.toString())
+        .save();
+
+    BenchmarkUtils.time(new Tokenize().createComponent(null, new CoreNLPSettings()), List.of(item));
+    BenchmarkUtils.time(new POS().createComponent(null, new POS.Settings()), List.of(item));
+    BenchmarkUtils.time(ner, List.of(item));
+
+    return item;
+  }
+
+  private static List<Text> contents(List<TestItem> items){
+    List<Text> contents = new ArrayList<>();
+    items.forEach(i -> i.getContents(Text.class).forEach(contents::add));
+    assertEquals(items.size(), contents.size());
+
+    return contents;
+  }
+}
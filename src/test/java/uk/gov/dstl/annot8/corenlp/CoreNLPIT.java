@@ -19,7 +19,6 @@ package uk.gov.dstl.annot8.corenlp;
 import io.annot8.api.components.Processor;
 import io.annot8.api.components.responses.ProcessorResponse;
 import io.annot8.api.data.Item;
-import io.annot8.api.settings.NoSettings;
 import io.annot8.api.stores.AnnotationStore;
 import io.annot8.common.data.bounds.SpanBounds;
 import io.annot8.common.data.content.Text;
@@ -109,12 +108,12 @@ public class CoreNLPIT {
     OpenIE openIE = new OpenIE();
 
     Processor pTokenize = tokenize.createComponent(null, new CoreNLPSettings());
-    Processor pPos = pos.createComponent(null, new CoreNLPSettings());
-    Processor pLemma = lemma.createComponent(null, NoSettings.getInstance());
+    Processor pPos = pos.createComponent(null, new POS.Settings());
+    Processor pLemma = lemma.createComponent(null, new Lemma.Settings());
     Processor pNer = ner.createComponent(null, new NER.Settings());
-    Processor pCoref = coref.createComponent(null, new NER.Settings());
-    Processor pRelation = relation.createComponent(null, new CoreNLPSettings());
-    Processor pOpenIE = openIE.createComponent(null, new CoreNLPSettings());
+    Processor pCoref = coref.createComponent(null, new Coreference.Settings());
+    Processor pRelation = relation.createComponent(null, new Relation.Settings());
+    Processor pOpenIE = openIE.createComponent(null, new OpenIE.Settings());
 
     ProcessorResponse prTokenize = pTokenize.process(testItem);
     if(prTokenize.hasExceptions())
@@ -0,0 +1,106 @@
+/*
+ * Crown Copyright (C) 2021 Dstl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package uk.gov.dstl.annot8.corenlp;
+
+import io.annot8.api.annotations.Group;
+import io.annot8.api.components.Processor;
+import io.annot8.common.data.bounds.SpanBounds;
+import io.annot8.conventions.GroupRoles;
+import io.annot8.testing.testimpl.TestItem;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Compares the throughput, heap usage and chains found by each combination of {@link Coreference.Algorithm}
+ * and {@link Coreference.ParseBackend}. Chain quality is reported as the precision and recall of mention pairs,
+ * relative to the statistical algorithm with the constituency parser.
+ */
+public class CoreferenceBenchmarkIT {
+
+  private static final int ITERATIONS = 5;
+
+  @Test
+  public void benchmark(){
+    Processor pLemma = new Lemma().createComponent(null, new Lemma.Settings());
+    Processor pNer = new NER().createComponent(null, new NER.Settings());
+
+    Set<String> reference = null;
+    for(Coreference.Algorithm algorithm : List.of(Coreference.Algorithm.STATISTICAL, Coreference.Algorithm.DETERMINISTIC, Coreference.Algorithm.NEURAL)){
+      for(Coreference.ParseBackend backend : Coreference.ParseBackend.values()){
+        Coreference.Settings settings = new Coreference.Settings();
+        settings.setAlgorithm(algorithm);
+        settings.setParseBackend(backend);
+        if(!settings.validate())
+          continue;
+
+        long heapBefore = BenchmarkUtils.usedHeap();
+        Processor p = new Coreference().createComponent(null, settings);
+        long heapModel = BenchmarkUtils.usedHeap() - heapBefore;
+
+        //Warm up
+        BenchmarkUtils.time(p, BenchmarkUtils.createItems(pLemma, pNer));
+
+        long nanos = 0;
+        Set<String> pairs = new HashSet<>();
+        for(int i = 0; i < ITERATIONS; i++){
+          List<TestItem> items = BenchmarkUtils.createItems(pLemma, pNer);
+          nanos += BenchmarkUtils.time(p, items);
+
+          pairs = getPairs(items);
+        }
+
+        if(reference == null)
+          reference = pairs;
+
+        Set<String> correct = new HashSet<>(pairs);
+        correct.retainAll(reference);
+
+        BenchmarkUtils.printResult("Coreference " + algorithm + "/" + backend, nanos, ITERATIONS * BenchmarkUtils.CORPUS.size(), heapModel,
+            String.format("%d pairs, precision %.2f, recall %.2f", pairs.size(),
+                pairs.isEmpty() ? 0.0 : (double) correct.size() / pairs.size(),
+                reference.isEmpty() ? 0.0 : (double) correct.size() / reference.size()));
+      }
+    }
+  }
+
+  /**
+   * Every pair of mentions that are in the same chain, identified by document number and bounds
+   */
+  private static Set<String> getPairs(List<TestItem> items){
+    Set<String> pairs = new HashSet<>();
+    for(int i = 0; i < items.size(); i++){
+      for(Group g : items.get(i).getGroups().getAll().collect(Collectors.toList())){
+        List<SpanBounds> mentions = new ArrayList<>();
+        g.getAnnotations(GroupRoles.GROUP_ROLE_MENTION).forEach(a -> mentions.add(a.getBounds(SpanBounds.class).get()));
+
+        for(SpanBounds m1 : mentions){
+          for(SpanBounds m2 : mentions){
+            if(m1.getBegin() < m2.getBegin())
+              pairs.add(i + ":" + m1.getBegin() + "-" + m1.getEnd() + ":" + m2.getBegin() + "-" + m2.getEnd());
+          }
+        }
+      }
+    }
+
+    return pairs;
+  }
+}
@@ -21,6 +21,7 @@ import io.annot8.api.annotations.Group;
 import io.annot8.api.components.Processor;
 import io.annot8.api.components.responses.ProcessorResponse;
 import io.annot8.common.data.bounds.SpanBounds;
+import io.annot8.common.data.content.Text;
 import io.annot8.conventions.AnnotationTypes;
 import io.annot8.conventions.GroupRoles;
 import io.annot8.conventions.GroupTypes;
@@ -29,10 +30,14 @@ import io.annot8.testing.testimpl.TestItem;
 import io.annot8.testing.testimpl.content.TestStringContent;
 import org.junit.jupiter.api.Test;
 
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class CoreferenceTest {
@@ -59,7 +64,7 @@ public class CoreferenceTest {
     Annotation aHe = content.getAnnotations().create().withBounds(new SpanBounds(26, 28)).withType(AnnotationTypes.ANNOTATION_TYPE_PERSON).save();
 
     Coreference coref = new Coreference();
-    Processor p = coref.createComponent(null, new CoreNLPSettings());
+    Processor p = coref.createComponent(null, new Coreference.Settings());
 
     ProcessorResponse response = p.process(testItem);
     response.getExceptions().forEach(Exception::printStackTrace);
@@ -105,7 +110,7 @@ public class CoreferenceTest {
     Annotation aPresident = content.getAnnotations().create().withBounds(new SpanBounds(45, 54)).withType(CoreNLPUtils.UNDEFINED_ENTITY).withProperty(PropertyKeys.PROPERTY_KEY_SUBTYPE, "TITLE").save();
 
     Coreference coref = new Coreference();
-    Processor p = coref.createComponent(null, new CoreNLPSettings());
+    Processor p = coref.createComponent(null, new Coreference.Settings());
 
     ProcessorResponse response = p.process(testItem);
     response.getExceptions().forEach(Exception::printStackTrace);
@@ -123,6 +128,44 @@ public class CoreferenceTest {
     assertTrue(annotations.contains(aObama2));
   }
 
+  @Test
+  public void testLaterSentence() {
+    TestItem testItem = new TestItem();
+    TestStringContent content = testItem.createContent(TestStringContent.class)
+        .withData("Paris is lovely. Smith said he liked it.")
+        .save();
+
+    content.getAnnotations().create().withBounds(new SpanBounds(0, 16)).withType(AnnotationTypes.ANNOTATION_TYPE_SENTENCE).save();
+    content.getAnnotations().create().withBounds(new SpanBounds(0, 5)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "NNP").withProperty(PropertyKeys.PROPERTY_KEY_LEMMA, "Paris").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(6, 8)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "VBZ").withProperty(PropertyKeys.PROPERTY_KEY_LEMMA, "be").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(9, 15)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "JJ").withProperty(PropertyKeys.PROPERTY_KEY_LEMMA, "lovely").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(15, 16)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, ".").withProperty(PropertyKeys.PROPERTY_KEY_LEMMA, ".").save();
+
+    content.getAnnotations().create().withBounds(new SpanBounds(17, 40)).withType(AnnotationTypes.ANNOTATION_TYPE_SENTENCE).save();
+    content.getAnnotations().create().withBounds(new SpanBounds(17, 22)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "NNP").withProperty(PropertyKeys.PROPERTY_KEY_LEMMA, "Smith").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(23, 27)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "VBD").withProperty(PropertyKeys.PROPERTY_KEY_LEMMA, "say").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(28, 30)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "PRP").withProperty(PropertyKeys.PROPERTY_KEY_LEMMA, "he").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(31, 36)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "VBD").withProperty(PropertyKeys.PROPERTY_KEY_LEMMA, "like").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(37, 39)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "PRP").withProperty(PropertyKeys.PROPERTY_KEY_LEMMA, "it").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(39, 40)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, ".").withProperty(PropertyKeys.PROPERTY_KEY_LEMMA, ".").save();
+
+    content.getAnnotations().create().withBounds(new SpanBounds(0, 5)).withType(AnnotationTypes.ANNOTATION_TYPE_LOCATION).save();
+    Annotation aSmith = content.getAnnotations().create().withBounds(new SpanBounds(17, 22)).withType(AnnotationTypes.ANNOTATION_TYPE_PERSON).save();
+    Annotation aHe = content.getAnnotations().create().withBounds(new SpanBounds(28, 30)).withType(AnnotationTypes.ANNOTATION_TYPE_PERSON).save();
+
+    Processor p = new Coreference().createComponent(null, new Coreference.Settings());
+
+    ProcessorResponse response = p.process(testItem);
+    response.getExceptions().forEach(Exception::printStackTrace);
+    assertEquals(ProcessorResponse.Status.OK, response.getStatus());
+
+    //The type of a mention in the second sentence comes from its own head token, not the token at the same index in the first sentence
+    assertTrue(testItem.getGroups().getAll().anyMatch(g -> {
+      List<Annotation> annotations = g.getAnnotations(GroupRoles.GROUP_ROLE_MENTION).collect(Collectors.toList());
+      return annotations.contains(aSmith) && annotations.contains(aHe);
+    }));
+  }
+
   @Test
   public void testTwoGroups() {
     TestItem testItem = new TestItem();
@@ -153,7 +196,7 @@ public class CoreferenceTest {
     Annotation aHe = content.getAnnotations().create().withBounds(new SpanBounds(50, 52)).withType(AnnotationTypes.ANNOTATION_TYPE_PERSON).save();
 
     Coreference coref = new Coreference();
-    Processor p = coref.createComponent(null, new CoreNLPSettings());
+    Processor p = coref.createComponent(null, new Coreference.Settings());
 
     ProcessorResponse response = p.process(testItem);
     response.getExceptions().forEach(Exception::printStackTrace);
@@ -169,4 +212,175 @@ public class CoreferenceTest {
       assertTrue((annotations.contains(aAlice) && annotations.contains(aShe)) || (annotations.contains(aBob) && annotations.contains(aHe)));
     });
   }
+
+  @Test
+  public void testFilterSentences() {
+    TestItem fullItem = createFilterTestItem();
+    TestItem filteredItem = createFilterTestItem();
+
+    Coreference coref = new Coreference();
+    Coreference.Processor pFull = coref.createComponent(null, new Coreference.Settings());
+
+    Coreference.Settings settings = new Coreference.Settings();
+    settings.setFilterSentences(true);
+    Coreference.Processor pFiltered = coref.createComponent(null, settings);
+
+    ProcessorResponse response = pFull.process(fullItem);
+    response.getExceptions().forEach(Exception::printStackTrace);
+    assertEquals(ProcessorResponse.Status.OK, response.getStatus());
+
+    response = pFiltered.process(filteredItem);
+    response.getExceptions().forEach(Exception::printStackTrace);
+    assertEquals(ProcessorResponse.Status.OK, response.getStatus());
+
+    assertEquals(3, pFull.getSentencesParsed());
+    assertEquals(0, pFull.getSentencesSkipped());
+    assertEquals(2, pFiltered.getSentencesParsed());
+    assertEquals(1, pFiltered.getSentencesSkipped());
+
+    assertEquals(getChains(fullItem), getChains(filteredItem));
+
+    assertEquals(1, filteredItem.getGroups().getAll().count());
+    List<SpanBounds> mentions = getChains(filteredItem).get(0);
+    assertTrue(mentions.contains(new SpanBounds(0, 12)));
+    assertTrue(mentions.contains(new SpanBounds(50, 55)));
+  }
+
+  @Test
+  public void testDependencyBackend() {
+    TestItem testItem = createFilterTestItem();
+
+    Coreference.Settings settings = new Coreference.Settings();
+    settings.setAlgorithm(Coreference.Algorithm.STATISTICAL);
+    settings.setParseBackend(Coreference.ParseBackend.DEPENDENCY);
+    assertTrue(settings.validate());
+
+    Coreference.Processor p = new Coreference().createComponent(null, settings);
+
+    ProcessorResponse response = p.process(testItem);
+    response.getExceptions().forEach(Exception::printStackTrace);
+    assertEquals(ProcessorResponse.Status.OK, response.getStatus());
+
+    assertEquals(1, testItem.getGroups().getAll().count());
+    List<SpanBounds> mentions = getChains(testItem).get(0);
+    assertTrue(mentions.contains(new SpanBounds(0, 12)));
+    assertTrue(mentions.contains(new SpanBounds(50, 55)));
+  }
+
+  @Test
+  public void testDegradation() {
+    Coreference coref = new Coreference();
+
+    //Windows of two sentences separate the mentions of Obama in the first and third sentences
+    TestItem windowedItem = createFilterTestItem();
+    Coreference.Settings settings = new Coreference.Settings();
+    settings.setCostBudget(10);
+    settings.setDegradedWindowSentences(2);
+    Coreference.Processor pWindowed = coref.createComponent(null, settings);
+
+    ProcessorResponse response = pWindowed.process(windowedItem);
+    response.getExceptions().forEach(Exception::printStackTrace);
+    assertEquals(ProcessorResponse.Status.OK, response.getStatus());
+
+    assertEquals(1, pWindowed.getDegradedDocuments());
+    assertEquals(0, windowedItem.getGroups().getAll().count());
+    assertEquals(Map.of("Coreference", "WINDOWED"), CostModel.getDegradations(windowedItem.getContents(Text.class).findFirst().get()));
+
+    TestItem filteredItem = createFilterTestItem();
+    settings.setDegradation(Coreference.Degradation.FILTERED);
+    Coreference.Processor pFiltered = coref.createComponent(null, settings);
+
+    response = pFiltered.process(filteredItem);
+    assertEquals(ProcessorResponse.Status.OK, response.getStatus());
+    assertEquals(2, pFiltered.getSentencesParsed());
+    assertEquals(1, filteredItem.getGroups().getAll().count());
+
+    //Within budget, the document is processed in full
+    TestItem fullItem = createFilterTestItem();
+    settings.setCostBudget(1000);
+    Coreference.Processor pFull = coref.createComponent(null, settings);
+
+    response = pFull.process(fullItem);
+    assertEquals(ProcessorResponse.Status.OK, response.getStatus());
+    assertEquals(0, pFull.getDegradedDocuments());
+    assertEquals(3, pFull.getSentencesParsed());
+    assertEquals(1, fullItem.getGroups().getAll().count());
+    assertTrue(CostModel.getDegradations(fullItem.getContents(Text.class).findFirst().get()).isEmpty());
+  }
+
+  @Test
+  public void testSettings() {
+    Coreference.Settings settings = new Coreference.Settings();
+    assertTrue(settings.validate());
+
+    settings.setAlgorithm(Coreference.Algorithm.DETERMINISTIC);
+    assertTrue(settings.validate());
+
+    settings.setParseBackend(Coreference.ParseBackend.DEPENDENCY);
+    assertFalse(settings.validate());
+
+    settings.setParseBackend(null);
+    assertFalse(settings.validate());
+
+    settings = new Coreference.Settings();
+    settings.setDegradedWindowSentences(0);
+    assertFalse(settings.validate());
+
+    Properties properties = Coreference.Algorithm.NEURAL.apply(new Properties());
+    assertEquals("neural", properties.getProperty("coref.algorithm"));
+
+    properties = Coreference.ParseBackend.DEPENDENCY.apply(properties);
+    assertEquals("dependency", properties.getProperty("coref.md.type"));
+    assertEquals("neural", properties.getProperty("coref.algorithm"));
+
+    //Properties given explicitly aren't overwritten
+    Properties explicit = new Properties();
+    explicit.setProperty("coref.algorithm", "statistical");
+    assertEquals("statistical", Coreference.Algorithm.NEURAL.apply(explicit).getProperty("coref.algorithm"));
+  }
+
+  private static TestItem createFilterTestItem(){
+    TestItem testItem = new TestItem();
+    TestStringContent content = testItem.createContent(TestStringContent.class)
+        .withData("Barack Obama lives in America. Rain fell all day. Obama was the president.")
+        .save();
+
+    content.getAnnotations().create().withBounds(new SpanBounds(0, 30)).withType(AnnotationTypes.ANNOTATION_TYPE_SENTENCE).save();
+    content.getAnnotations().create().withBounds(new SpanBounds(0, 6)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "NNP").withProperty(PropertyKeys.PROPERTY_KEY_LEMMA, "Barack").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(7, 12)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "NNP").withProperty(PropertyKeys.PROPERTY_KEY_LEMMA, "Obama").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(13, 18)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "VBZ").withProperty(PropertyKeys.PROPERTY_KEY_LEMMA, "live").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(19, 21)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "IN").withProperty(PropertyKeys.PROPERTY_KEY_LEMMA, "in").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(22, 29)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "NNP").withProperty(PropertyKeys.PROPERTY_KEY_LEMMA, "America").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(29, 30)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, ".").withProperty(PropertyKeys.PROPERTY_KEY_LEMMA, ".").save();
+
+    content.getAnnotations().create().withBounds(new SpanBounds(31, 49)).withType(AnnotationTypes.ANNOTATION_TYPE_SENTENCE).save();
+    content.getAnnotations().create().withBounds(new SpanBounds(31, 35)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "NN").withProperty(PropertyKeys.PROPERTY_KEY_LEMMA, "rain").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(36, 40)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "VBD").withProperty(PropertyKeys.PROPERTY_KEY_LEMMA, "fall").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(41, 44)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "DT").withProperty(PropertyKeys.PROPERTY_KEY_LEMMA, "all").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(45, 48)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "NN").withProperty(PropertyKeys.PROPERTY_KEY_LEMMA, "day").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(48, 49)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, ".").withProperty(PropertyKeys.PROPERTY_KEY_LEMMA, ".").save();
+
+    content.getAnnotations().create().withBounds(new SpanBounds(50, 74)).withType(AnnotationTypes.ANNOTATION_TYPE_SENTENCE).save();
+    content.getAnnotations().create().withBounds(new SpanBounds(50, 55)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "NNP").withProperty(PropertyKeys.PROPERTY_KEY_LEMMA, "Obama").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(56, 59)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "VBD").withProperty(PropertyKeys.PROPERTY_KEY_LEMMA, "be").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(60, 63)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "DT").withProperty(PropertyKeys.PROPERTY_KEY_LEMMA, "the").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(64, 73)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "NN").withProperty(PropertyKeys.PROPERTY_KEY_LEMMA, "president").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(73, 74)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, ".").withProperty(PropertyKeys.PROPERTY_KEY_LEMMA, ".").save();
+
+    content.getAnnotations().create().withBounds(new SpanBounds(0, 12)).withType(AnnotationTypes.ANNOTATION_TYPE_PERSON).save();
+    content.getAnnotations().create().withBounds(new SpanBounds(22, 29)).withType(AnnotationTypes.ANNOTATION_TYPE_LOCATION).withProperty(PropertyKeys.PROPERTY_KEY_SUBTYPE, "COUNTRY").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(50, 55)).withType(AnnotationTypes.ANNOTATION_TYPE_PERSON).save();
+
+    return testItem;
+  }
+
+  private static List<List<SpanBounds>> getChains(TestItem item){
+    return item.getGroups().getAll()
+        .map(g -> g.getAnnotations(GroupRoles.GROUP_ROLE_MENTION)
+            .map(a -> a.getBounds(SpanBounds.class).get())
+            .sorted(Comparator.comparingInt(SpanBounds::getBegin))
+            .collect(Collectors.toList()))
+        .sorted(Comparator.comparingInt(l -> l.get(0).getBegin()))
+        .collect(Collectors.toList());
+  }
 }
@@ -0,0 +1,171 @@
+/*
+ * Crown Copyright (C) 2021 Dstl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package uk.gov.dstl.annot8.corenlp;
+
+import io.annot8.common.data.bounds.SpanBounds;
+import io.annot8.common.data.content.Text;
+import io.annot8.conventions.AnnotationTypes;
+import io.annot8.testing.testimpl.TestItem;
+import io.annot8.testing.testimpl.content.TestStringContent;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CostModelTest {
+
+  @Test
+  public void testEstimate(){
+    CostModel model = new CostModel(10, 1.0, 2.0, 0.5);
+
+    CostModel.Cost cost = model.estimate(createContent(createItem()));
+    assertEquals(4, cost.getTokens());
+    assertEquals(1, cost.getSentences());
+    assertEquals(2, cost.getEntities());
+    assertEquals(4 + 2 + 1, cost.getTotal(), 0.0001);
+    assertFalse(model.isOverBudget(cost));
+
+    assertTrue(model.isOverBudget(model.estimate(10, 1, 0)));
+    assertThrows(IllegalArgumentException.class, () -> new CostModel(0, 1.0, 0.0, 0.0));
+  }
+
+  @Test
+  public void testCreate(){
+    ProcessorSettings settings = new ProcessorSettings();
+    assertNull(CostModel.create(settings));
+
+    settings.setCostBudget(100);
+    assertEquals(100, CostModel.create(settings).getBudget());
+
+    settings.setCostPerEntity(-1.0);
+    assertFalse(settings.validate());
+  }
+
+  @Test
+  public void testDegradation(){
+    ProcessorSettings settings = new ProcessorSettings();
+    settings.setCostBudget(3);
+
+    DegradingProcessor p = new DegradingProcessor(settings);
+
+    TestItem item = createItem();
+    p.process(item);
+
+    assertEquals(0, p.processed);
+    assertEquals(1, p.degraded);
+    assertEquals(1, p.getDegradedDocuments());
+    assertEquals(Map.of("DegradingProcessor", "CHEAP"), CostModel.getDegradations(createContent(item)));
+
+    settings.setCostBudget(10);
+    p = new DegradingProcessor(settings);
+
+    item = createItem();
+    p.process(item);
+
+    assertEquals(1, p.processed);
+    assertEquals(0, p.degraded);
+    assertEquals(0, p.getDegradedDocuments());
+    assertTrue(CostModel.getDegradations(createContent(item)).isEmpty());
+  }
+
+  @Test
+  public void testReplayedDegradation(){
+    ProcessorSettings settings = new ProcessorSettings();
+    settings.setCostBudget(3);
+    settings.setResultCacheMegabytes(1);
+
+    DegradingProcessor p = new DegradingProcessor(settings);
+    p.process(createItem());
+
+    //The second item is replayed from the cache, but the degradation is still recorded
+    TestItem item = createItem();
+    p.process(item);
+
+    assertEquals(1, p.degraded);
+    assertEquals(1, p.getResultCacheHits());
+    assertEquals(2, p.getDegradedDocuments());
+    assertEquals(Map.of("DegradingProcessor", "CHEAP"), CostModel.getDegradations(createContent(item)));
+  }
+
+  @Test
+  public void testNotDegradable(){
+    ProcessorSettings settings = new ProcessorSettings();
+    settings.setCostBudget(1);
+
+    DegradingProcessor p = new DegradingProcessor(settings);
+    p.degradation = null;
+
+    TestItem item = createItem();
+    p.process(item);
+
+    assertEquals(1, p.processed);
+    assertEquals(0, p.getDegradedDocuments());
+    assertTrue(CostModel.getDegradations(createContent(item)).isEmpty());
+  }
+
+  private static Text createContent(TestItem item){
+    return item.getContents(Text.class).findFirst().get();
+  }
+
+  private static TestItem createItem(){
+    TestItem testItem = new TestItem();
+    TestStringContent content = testItem.createContent(TestStringContent.class)
+        .withData("John lives in London")
+        .save();
+
+    content.getAnnotations().create().withBounds(new SpanBounds(0, 20)).withType(AnnotationTypes.ANNOTATION_TYPE_SENTENCE).save();
+    content.getAnnotations().create().withBounds(new SpanBounds(0, 4)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).save();
+    content.getAnnotations().create().withBounds(new SpanBounds(5, 10)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).save();
+    content.getAnnotations().create().withBounds(new SpanBounds(11, 13)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).save();
+    content.getAnnotations().create().withBounds(new SpanBounds(14, 20)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).save();
+    content.getAnnotations().create().withBounds(new SpanBounds(0, 4)).withType(AnnotationTypes.ANNOTATION_TYPE_PERSON).save();
+    content.getAnnotations().create().withBounds(new SpanBounds(14, 20)).withType(AnnotationTypes.ANNOTATION_TYPE_LOCATION).save();
+
+    return testItem;
+  }
+
+  private static class DegradingProcessor extends CoreNLPTextProcessor {
+    private String degradation = "CHEAP";
+    private int processed = 0;
+    private int degraded = 0;
+
+    private DegradingProcessor(ProcessorSettings settings){
+      super(settings);
+    }
+
+    @Override
+    protected void processText(Text content) {
+      processed++;
+    }
+
+    @Override
+    protected String getDegradation() {
+      return degradation;
+    }
+
+    @Override
+    protected void processDegraded(Text content) {
+      degraded++;
+
+      content.getAnnotations().create()
+          .withBounds(new SpanBounds(0, 4))
+          .withType(AnnotationTypes.ANNOTATION_TYPE_PERSON)
+          .save();
+    }
+  }
+}
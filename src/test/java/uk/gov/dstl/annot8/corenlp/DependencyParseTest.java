@@ -0,0 +1,170 @@
+/*
+ * Crown Copyright (C) 2021 Dstl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package uk.gov.dstl.annot8.corenlp;
+
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.ling.IndexedWord;
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.semgraph.SemanticGraph;
+import edu.stanford.nlp.semgraph.SemanticGraphCoreAnnotations;
+import edu.stanford.nlp.semgraph.SemanticGraphEdge;
+import edu.stanford.nlp.trees.GrammaticalRelation;
+import edu.stanford.nlp.util.CoreMap;
+import io.annot8.api.components.Processor;
+import io.annot8.api.components.responses.ProcessorResponse;
+import io.annot8.common.data.bounds.SpanBounds;
+import io.annot8.conventions.AnnotationTypes;
+import io.annot8.conventions.PropertyKeys;
+import io.annot8.testing.testimpl.TestItem;
+import io.annot8.testing.testimpl.content.TestStringContent;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DependencyParseTest {
+  @Test
+  public void test(){
+    TestItem testItem = new TestItem();
+    TestStringContent content = testItem.createContent(TestStringContent.class)
+        .withData("Rachel lives in London.")
+        .save();
+
+    content.getAnnotations().create().withBounds(new SpanBounds(0, 23)).withType(AnnotationTypes.ANNOTATION_TYPE_SENTENCE).save();
+    content.getAnnotations().create().withBounds(new SpanBounds(0, 6)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "NNP").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(7, 12)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "VBZ").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(13, 15)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "IN").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(16, 22)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "NNP").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(22, 23)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, ".").save();
+
+    DependencyParse dependencyParse = new DependencyParse();
+    Processor p = dependencyParse.createComponent(null, new DependencyParse.Settings());
+
+    ProcessorResponse pr = p.process(testItem);
+    assertEquals(ProcessorResponse.Status.OK, pr.getStatus());
+
+    io.annot8.api.annotations.Annotation sentence = content.getAnnotations().getByType(AnnotationTypes.ANNOTATION_TYPE_SENTENCE).findFirst().get();
+    String basic = sentence.getProperties().get(ParseUtils.PROPERTY_KEY_BASIC_DEPENDENCIES, String.class).get();
+    assertTrue(sentence.getProperties().has(ParseUtils.PROPERTY_KEY_ENHANCED_DEPENDENCIES));
+    assertTrue(sentence.getProperties().has(ParseUtils.PROPERTY_KEY_ENHANCED_PLUS_PLUS_DEPENDENCIES));
+
+    //Rachel is the subject of lives, which is the root
+    assertTrue(basic.contains("0:2:root"));
+    assertTrue(basic.contains("2:1:nsubj"));
+
+    //The parse should be restored when the document is converted
+    Annotation document = CoreNLPUtils.createCoreNLPDocument(content);
+    CoreMap cSentence = document.get(CoreAnnotations.SentencesAnnotation.class).get(0);
+    assertTrue(ParseUtils.hasDependencies(cSentence));
+
+    SemanticGraph graph = cSentence.get(SemanticGraphCoreAnnotations.BasicDependenciesAnnotation.class);
+    assertEquals(Set.of(basic.split(" ")), Set.of(ParseUtils.encode(graph).split(" ")));
+    assertEquals("lives", graph.getFirstRoot().word());
+
+    //Processing again shouldn't change the parse
+    pr = p.process(testItem);
+    assertEquals(ProcessorResponse.Status.OK, pr.getStatus());
+    assertEquals(1, content.getAnnotations().getByType(AnnotationTypes.ANNOTATION_TYPE_SENTENCE).count());
+
+    sentence = content.getAnnotations().getByType(AnnotationTypes.ANNOTATION_TYPE_SENTENCE).findFirst().get();
+    assertEquals(basic, sentence.getProperties().get(ParseUtils.PROPERTY_KEY_BASIC_DEPENDENCIES, String.class).get());
+  }
+
+  @Test
+  public void testInvalidParse(){
+    TestItem testItem = new TestItem();
+    TestStringContent content = testItem.createContent(TestStringContent.class)
+        .withData("Hello world")
+        .save();
+
+    content.getAnnotations().create().withBounds(new SpanBounds(0, 11)).withType(AnnotationTypes.ANNOTATION_TYPE_SENTENCE)
+        .withProperty(ParseUtils.PROPERTY_KEY_BASIC_DEPENDENCIES, "0:1:root 1:3:dep")
+        .withProperty(ParseUtils.PROPERTY_KEY_ENHANCED_DEPENDENCIES, "0:1:root 1:3:dep")
+        .withProperty(ParseUtils.PROPERTY_KEY_ENHANCED_PLUS_PLUS_DEPENDENCIES, "0:1:root 1:3:dep")
+        .withProperty(ParseUtils.PROPERTY_KEY_DEPENDENCY_TOKENS, fingerprint("Hello", "world"))
+        .save();
+    content.getAnnotations().create().withBounds(new SpanBounds(0, 5)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).save();
+    content.getAnnotations().create().withBounds(new SpanBounds(6, 11)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).save();
+
+    //The parse refers to a third token which doesn't exist, so shouldn't be used
+    Annotation document = CoreNLPUtils.createCoreNLPDocument(content);
+    List<CoreMap> sentences = document.get(CoreAnnotations.SentencesAnnotation.class);
+    assertFalse(ParseUtils.hasDependencies(sentences.get(0)));
+  }
+
+  @Test
+  public void testRetokenized(){
+    TestItem testItem = new TestItem();
+    TestStringContent content = testItem.createContent(TestStringContent.class)
+        .withData("Hello world")
+        .save();
+
+    //Parsed when the sentence had different tokens, but the same number of them
+    content.getAnnotations().create().withBounds(new SpanBounds(0, 11)).withType(AnnotationTypes.ANNOTATION_TYPE_SENTENCE)
+        .withProperty(ParseUtils.PROPERTY_KEY_BASIC_DEPENDENCIES, "0:1:root 1:2:dep")
+        .withProperty(ParseUtils.PROPERTY_KEY_ENHANCED_DEPENDENCIES, "0:1:root 1:2:dep")
+        .withProperty(ParseUtils.PROPERTY_KEY_ENHANCED_PLUS_PLUS_DEPENDENCIES, "0:1:root 1:2:dep")
+        .withProperty(ParseUtils.PROPERTY_KEY_DEPENDENCY_TOKENS, fingerprint("Hello wor", "ld"))
+        .save();
+    content.getAnnotations().create().withBounds(new SpanBounds(0, 5)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).save();
+    content.getAnnotations().create().withBounds(new SpanBounds(6, 11)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).save();
+
+    Annotation document = CoreNLPUtils.createCoreNLPDocument(content);
+    assertFalse(ParseUtils.hasDependencies(document.get(CoreAnnotations.SentencesAnnotation.class).get(0)));
+  }
+
+  @Test
+  public void testExtraEdges(){
+    List<CoreLabel> tokens = List.of(token("Rachel"), token("lives"));
+
+    SemanticGraph graph = new SemanticGraph();
+    IndexedWord rachel = ParseUtils.getWord(tokens, 1, 0);
+    IndexedWord lives = ParseUtils.getWord(tokens, 2, 0);
+    graph.addVertex(rachel);
+    graph.addVertex(lives);
+    graph.addRoot(lives);
+    graph.addEdge(lives, rachel, GrammaticalRelation.valueOf(GrammaticalRelation.Language.UniversalEnglish, "nsubj:xsubj"), Double.NEGATIVE_INFINITY, true);
+
+    String encoded = ParseUtils.encode(graph);
+    assertTrue(encoded.contains("!2:1:nsubj:xsubj"));
+
+    SemanticGraph decoded = ParseUtils.decode(encoded, tokens);
+    SemanticGraphEdge edge = decoded.edgeIterable().iterator().next();
+    assertTrue(edge.isExtra());
+    assertEquals("nsubj:xsubj", edge.getRelation().toString());
+  }
+
+  private static String fingerprint(String... words){
+    List<CoreLabel> tokens = new ArrayList<>();
+    for(String word : words)
+      tokens.add(token(word));
+
+    return ParseUtils.fingerprint(tokens);
+  }
+
+  private static CoreLabel token(String word){
+    CoreLabel token = new CoreLabel();
+    token.setWord(word);
+    return token;
+  }
+}
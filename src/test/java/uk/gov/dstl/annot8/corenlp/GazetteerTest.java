@@ -0,0 +1,142 @@
+/*
+ * Crown Copyright (C) 2021 Dstl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package uk.gov.dstl.annot8.corenlp;
+
+import io.annot8.api.annotations.Annotation;
+import io.annot8.api.components.Processor;
+import io.annot8.api.components.responses.ProcessorResponse;
+import io.annot8.common.data.bounds.SpanBounds;
+import io.annot8.conventions.AnnotationTypes;
+import io.annot8.conventions.PropertyKeys;
+import io.annot8.testing.testimpl.TestItem;
+import io.annot8.testing.testimpl.content.TestStringContent;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class GazetteerTest {
+  @Test
+  public void test() throws Exception {
+    TestItem testItem = new TestItem();
+    TestStringContent content = testItem.createContent(TestStringContent.class)
+        .withData("Barack Obama lives in the united states of America.")
+        .save();
+
+    content.getAnnotations().create().withBounds(new SpanBounds(0, 51)).withType(AnnotationTypes.ANNOTATION_TYPE_SENTENCE).save();
+    content.getAnnotations().create().withBounds(new SpanBounds(0, 6)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).save();
+    content.getAnnotations().create().withBounds(new SpanBounds(7, 12)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).save();
+    content.getAnnotations().create().withBounds(new SpanBounds(13, 18)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).save();
+    content.getAnnotations().create().withBounds(new SpanBounds(19, 21)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).save();
+    content.getAnnotations().create().withBounds(new SpanBounds(22, 25)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).save();
+    content.getAnnotations().create().withBounds(new SpanBounds(26, 32)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).save();
+    content.getAnnotations().create().withBounds(new SpanBounds(33, 39)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).save();
+    content.getAnnotations().create().withBounds(new SpanBounds(40, 42)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).save();
+    content.getAnnotations().create().withBounds(new SpanBounds(43, 50)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).save();
+    content.getAnnotations().create().withBounds(new SpanBounds(50, 51)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).save();
+
+    Gazetteer.Settings settings = new Gazetteer.Settings();
+    settings.addTerms("PERSON", "Barack Obama", "Obama");
+    settings.addTerms("COUNTRY", "United States of America", "America");
+
+    Gazetteer gazetteer = new Gazetteer();
+    Processor p = gazetteer.createComponent(null, settings);
+
+    ProcessorResponse pr = p.process(testItem);
+    assertEquals(ProcessorResponse.Status.OK, pr.getStatus());
+
+    //Only the longest match should be annotated where matches overlap
+    assertEquals(1, content.getAnnotations().getByBoundsAndType(SpanBounds.class, AnnotationTypes.ANNOTATION_TYPE_PERSON).count());
+    assertEquals(1, content.getAnnotations().getByBoundsAndType(SpanBounds.class, AnnotationTypes.ANNOTATION_TYPE_LOCATION).count());
+
+    Annotation person = content.getAnnotations().getByBoundsAndType(SpanBounds.class, AnnotationTypes.ANNOTATION_TYPE_PERSON).findFirst().get();
+    assertEquals("Barack Obama", content.getText(person).get());
+    assertEquals("PERSON", person.getProperties().get(PropertyKeys.PROPERTY_KEY_SUBTYPE).get());
+
+    Annotation location = content.getAnnotations().getByBoundsAndType(SpanBounds.class, AnnotationTypes.ANNOTATION_TYPE_LOCATION).findFirst().get();
+    assertEquals("united states of America", content.getText(location).get());
+    assertEquals("COUNTRY", location.getProperties().get(PropertyKeys.PROPERTY_KEY_SUBTYPE).get());
+
+    //Automata are shared between processors with the same settings
+    Gazetteer.Settings settings2 = new Gazetteer.Settings();
+    settings2.addTerms("PERSON", "Barack Obama", "Obama");
+    settings2.addTerms("COUNTRY", "United States of America", "America");
+    GazetteerAutomaton automaton = Gazetteer.getAutomaton(settings);
+    assertSame(automaton, Gazetteer.getAutomaton(settings2));
+    Gazetteer.releaseAutomaton(automaton);
+    Gazetteer.releaseAutomaton(automaton);
+
+    p.close();
+  }
+
+  @Test
+  public void testSharedAutomata(@TempDir Path tempDir) throws Exception {
+    Path file = tempDir.resolve("people.txt");
+    Files.writeString(file, "Barack Obama\n");
+
+    Gazetteer.Settings settings = new Gazetteer.Settings();
+    settings.addFile("PERSON", file.toString());
+
+    Gazetteer.Processor p1 = new Gazetteer.Processor(settings);
+    GazetteerAutomaton automaton = Gazetteer.getAutomaton(settings);
+    Gazetteer.releaseAutomaton(automaton);
+
+    //Still held by the processor
+    assertSame(automaton, Gazetteer.getAutomaton(settings));
+    Gazetteer.releaseAutomaton(automaton);
+
+    //Released once the last processor using it is closed
+    p1.close();
+    GazetteerAutomaton recompiled = Gazetteer.getAutomaton(settings);
+    assertNotSame(automaton, recompiled);
+
+    //An edited file is compiled again, even while the old version is in use
+    Files.writeString(file, "Barack Obama\nJoe Biden\n");
+    Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 10000));
+
+    GazetteerAutomaton edited = Gazetteer.getAutomaton(settings);
+    assertNotSame(recompiled, edited);
+    assertEquals(1, recompiled.size());
+    assertEquals(2, edited.size());
+
+    Gazetteer.releaseAutomaton(recompiled);
+    Gazetteer.releaseAutomaton(edited);
+  }
+
+  @Test
+  public void testAutomaton(){
+    GazetteerAutomaton automaton = new GazetteerAutomaton.Builder(true)
+        .add(List.of("a", "b", "c"), "X")
+        .add(List.of("b"), "Y")
+        .add(List.of("b", "c", "d"), "Z")
+        .build();
+
+    assertEquals(3, automaton.size());
+    assertEquals(List.of(new GazetteerAutomaton.Match(1, 2, "Y"), new GazetteerAutomaton.Match(0, 3, "X"), new GazetteerAutomaton.Match(1, 4, "Z")),
+        automaton.match(List.of("a", "b", "c", "d")));
+    assertEquals(List.of(new GazetteerAutomaton.Match(0, 3, "X")),
+        automaton.matchLongest(List.of("a", "b", "c", "d")));
+    assertEquals(List.of(), automaton.match(List.of("A", "B", "C")));
+  }
+}
@@ -18,7 +18,6 @@ package uk.gov.dstl.annot8.corenlp;
 
 import io.annot8.api.components.Processor;
 import io.annot8.api.components.responses.ProcessorResponse;
-import io.annot8.api.settings.NoSettings;
 import io.annot8.common.data.bounds.SpanBounds;
 import io.annot8.conventions.AnnotationTypes;
 import io.annot8.conventions.PropertyKeys;
@@ -49,7 +48,7 @@ public class LemmaTest {
     content.getAnnotations().create().withBounds(new SpanBounds(22, 23)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, ".").save();
 
     Lemma lemma = new Lemma();
-    Processor p = lemma.createComponent(null, NoSettings.getInstance());
+    Processor p = lemma.createComponent(null, new Lemma.Settings());
 
     ProcessorResponse response = p.process(testItem);
     assertEquals(ProcessorResponse.Status.OK, response.getStatus());
@@ -70,4 +69,37 @@ public class LemmaTest {
           assertEquals(lemmas.get(content.getText(a).get()), l);
         });
   }
+
+  @Test
+  public void testCache(){
+    TestItem testItem = new TestItem();
+    TestStringContent content = testItem.createContent(TestStringContent.class)
+        .withData("dogs chase dogs.")
+        .save();
+
+    content.getAnnotations().create().withBounds(new SpanBounds(0, 16)).withType(AnnotationTypes.ANNOTATION_TYPE_SENTENCE).save();
+    content.getAnnotations().create().withBounds(new SpanBounds(0, 4)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "NNS").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(5, 10)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "VBP").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(11, 15)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "NNS").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(15, 16)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, ".").save();
+
+    Lemma.Processor p = new Lemma.Processor(100);
+
+    assertEquals(ProcessorResponse.Status.OK, p.process(testItem).getStatus());
+    assertEquals(0, p.getCacheHits());
+    assertEquals(4, p.getCacheMisses());
+
+    //Processing again should find every token in the cache
+    assertEquals(ProcessorResponse.Status.OK, p.process(testItem).getStatus());
+    assertEquals(4, p.getCacheHits());
+    assertEquals(4, p.getCacheMisses());
+
+    Map<String, String> lemmas = new HashMap<>();
+    lemmas.put("chase", "chase");
+    lemmas.put("dogs", "dog");
+    lemmas.put(".", ".");
+
+    content.getAnnotations().getByBoundsAndType(SpanBounds.class, AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN)
+        .forEach(a -> assertEquals(lemmas.get(content.getText(a).get()), a.getProperties().get(PropertyKeys.PROPERTY_KEY_LEMMA, String.class).get()));
+  }
 }
@@ -0,0 +1,64 @@
+/*
+ * Crown Copyright (C) 2021 Dstl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package uk.gov.dstl.annot8.corenlp;
+
+import io.annot8.api.components.Processor;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Records the approximate heap used by the models of each of the model-backed processors, and the memory they allocate
+ * per document, over the standard corpus. Each processor is created on its own, so that its model size isn't
+ * affected by models already loaded for another.
+ */
+public class MemoryIT {
+
+  private static final int ITERATIONS = 5;
+
+  @Test
+  public void evaluate() throws Exception {
+    Processor pLemma = new Lemma().createComponent(null, new Lemma.Settings());
+
+    NER.Settings nerSettings = new NER.Settings();
+    nerSettings.setMeasureModelMemory(true);
+    NER.Processor ner = new NER.Processor(nerSettings);
+    record("NER", ner, ner.getMemoryUsage(), pLemma);
+
+    Coreference.Settings corefSettings = new Coreference.Settings();
+    corefSettings.setMeasureModelMemory(true);
+    Coreference.Processor coref = new Coreference.Processor(corefSettings);
+    record("Coreference", coref, coref.getMemoryUsage(), pLemma, ner);
+
+    Relation.Settings relationSettings = new Relation.Settings();
+    relationSettings.setMeasureModelMemory(true);
+    Relation.Processor relation = new Relation.Processor(relationSettings);
+    record("Relation", relation, relation.getMemoryUsage(), pLemma, ner);
+
+    OpenIE.Settings openIESettings = new OpenIE.Settings();
+    openIESettings.setMeasureModelMemory(true);
+    OpenIE.Processor openIE = new OpenIE.Processor(openIESettings);
+    record("OpenIE", openIE, openIE.getMemoryUsage(), pLemma, ner);
+  }
+
+  private static void record(String name, Processor p, MemoryUsage usage, Processor... preprocessors){
+    long nanos = 0;
+    for(int i = 0; i < ITERATIONS; i++)
+      nanos += BenchmarkUtils.time(p, BenchmarkUtils.createItems(preprocessors));
+
+    BenchmarkUtils.printResult(name, nanos, ITERATIONS * BenchmarkUtils.CORPUS.size(), usage.getModelBytes(),
+        String.format("%.1f KB allocated/doc on average, %.1f KB max", usage.getMeanAllocatedBytes() / 1024.0, usage.getMaxAllocatedBytes() / 1024.0));
+  }
+}
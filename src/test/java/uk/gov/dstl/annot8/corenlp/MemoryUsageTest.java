@@ -0,0 +1,72 @@
+/*
+ * Crown Copyright (C) 2021 Dstl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package uk.gov.dstl.annot8.corenlp;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class MemoryUsageTest {
+
+  @Test
+  public void testAllocation(){
+    long before = MemoryUsage.currentThreadAllocatedBytes();
+    assumeTrue(before >= 0, "Thread allocation counters aren't supported");
+
+    MemoryUsage usage = new MemoryUsage(false);
+
+    byte[][] allocated = new byte[16][];
+    for(int i = 0; i < allocated.length; i++)
+      allocated[i] = new byte[1024 * 1024];
+
+    long bytes = usage.recordDocument(before);
+    assertTrue(bytes >= 16 * 1024 * 1024);
+    assertEquals(1, usage.getDocuments());
+    assertEquals(bytes, usage.getAllocatedBytes());
+    assertEquals(bytes, usage.getMaxAllocatedBytes());
+
+    usage.recordDocument(MemoryUsage.currentThreadAllocatedBytes());
+    assertEquals(2, usage.getDocuments());
+    assertEquals(bytes, usage.getMaxAllocatedBytes());
+    assertTrue(usage.getMeanAllocatedBytes() < bytes);
+
+    assertEquals(allocated.length, 16);
+  }
+
+  @Test
+  public void testModels(){
+    MemoryUsage notMeasured = new MemoryUsage(false);
+    assertEquals(-1, notMeasured.modelsLoaded());
+    assertEquals(-1, notMeasured.getModelBytes());
+
+    MemoryUsage measured = new MemoryUsage(true);
+    long[] model = new long[4 * 1024 * 1024];
+    assertTrue(measured.modelsLoaded() >= 0);
+    assertTrue(measured.toString().contains("MB"));
+
+    assertEquals(4 * 1024 * 1024, model.length);
+  }
+
+  @Test
+  public void testUnsupported(){
+    MemoryUsage usage = new MemoryUsage(false);
+    assertEquals(-1, usage.recordDocument(-1));
+    assertEquals(0, usage.getDocuments());
+    assertEquals(0.0, usage.getMeanAllocatedBytes());
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * Crown Copyright (C) 2021 Dstl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package uk.gov.dstl.annot8.corenlp;
+
+import io.annot8.api.components.Processor;
+import io.annot8.common.data.bounds.SpanBounds;
+import io.annot8.common.data.content.Text;
+import io.annot8.testing.testimpl.TestItem;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+/**
+ * Compares the throughput, heap usage and number of entities found by each {@link NER.Profile}
+ */
+public class NERProfileIT {
+
+  private static final int ITERATIONS = 10;
+
+  @Test
+  public void benchmark(){
+    for(NER.Profile profile : NER.Profile.values()){
+      long heapBefore = BenchmarkUtils.usedHeap();
+
+      NER.Settings settings = new NER.Settings();
+      settings.setProfile(profile);
+      Processor p = new NER().createComponent(null, settings);
+
+      long heapModel = BenchmarkUtils.usedHeap() - heapBefore;
+
+      //Warm up
+      BenchmarkUtils.time(p, BenchmarkUtils.createItems());
+
+      long nanos = 0;
+      long entities = 0;
+      for(int i = 0; i < ITERATIONS; i++){
+        List<TestItem> items = BenchmarkUtils.createItems();
+        nanos += BenchmarkUtils.time(p, items);
+
+        entities += items.stream()
+            .flatMap(item -> item.getContents(Text.class))
+            .mapToLong(c -> c.getAnnotations().getByBounds(SpanBounds.class).filter(CoreNLPUtils::isCoreNLPType).count())
+            .sum();
+      }
+
+      BenchmarkUtils.printResult("NER " + profile, nanos, ITERATIONS * BenchmarkUtils.CORPUS.size(), heapModel,
+          (entities / ITERATIONS) + " entities");
+    }
+  }
+}
@@ -26,7 +26,10 @@ import io.annot8.testing.testimpl.TestItem;
 import io.annot8.testing.testimpl.content.TestStringContent;
 import org.junit.jupiter.api.Test;
 
+import java.util.Properties;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class NERTest {
@@ -91,4 +94,129 @@ public class NERTest {
     assertEquals(1, content.getAnnotations().getByBoundsAndType(SpanBounds.class, AnnotationTypes.ANNOTATION_TYPE_SENTENCE).count());
     assertEquals(4, content.getAnnotations().getByBoundsAndType(SpanBounds.class, AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).count());
   }
+
+  @Test
+  public void testFastProfile(){
+    TestItem testItem = new TestItem();
+    TestStringContent content = testItem.createContent(TestStringContent.class)
+        .withData("Martin visited Peter, Joe and Louise in London last week.")
+        .save();
+
+    content.getAnnotations().create().withBounds(new SpanBounds(0, 57)).withType(AnnotationTypes.ANNOTATION_TYPE_SENTENCE).save();
+    content.getAnnotations().create().withBounds(new SpanBounds(0, 6)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "NNP").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(7, 14)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "VBD").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(15, 20)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "NNP").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(20, 21)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, ".").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(22, 25)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "NNP").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(26, 29)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "CC").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(30, 36)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "NNP").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(37, 39)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "IN").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(40, 46)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "NNP").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(47, 51)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "JJ").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(52, 56)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "NN").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(56, 57)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, ".").save();
+
+    NER.Settings settings = new NER.Settings();
+    settings.setProfile(NER.Profile.FAST);
+
+    NER ner = new NER();
+    Processor p = ner.createComponent(null, settings);
+
+    ProcessorResponse pr = p.process(testItem);
+    assertEquals(ProcessorResponse.Status.OK, pr.getStatus());
+
+    assertEquals(4, content.getAnnotations().getByBoundsAndType(SpanBounds.class, AnnotationTypes.ANNOTATION_TYPE_PERSON).count());
+    assertEquals(1, content.getAnnotations().getByBoundsAndType(SpanBounds.class, AnnotationTypes.ANNOTATION_TYPE_LOCATION).count());
+    assertEquals(0, content.getAnnotations().getByBoundsAndType(SpanBounds.class, AnnotationTypes.ANNOTATION_TYPE_TEMPORAL).count());
+
+    Annotation l = content.getAnnotations().getByBoundsAndType(SpanBounds.class, AnnotationTypes.ANNOTATION_TYPE_LOCATION).findFirst().get();
+    assertEquals("LOCATION", l.getProperties().get(PropertyKeys.PROPERTY_KEY_SUBTYPE).get());
+  }
+
+  @Test
+  public void testProfileProperties(){
+    Properties properties = new Properties();
+    properties.setProperty("ner.useSUTime", "true");
+
+    Properties applied = NER.Profile.FAST.apply(properties);
+    assertEquals("true", applied.getProperty("ner.useSUTime"));
+    assertEquals("false", applied.getProperty("ner.applyFineGrained"));
+    assertFalse(properties.containsKey("ner.applyFineGrained"));
+
+    assertEquals(properties.stringPropertyNames(), NER.Profile.FULL.apply(properties).stringPropertyNames());
+  }
+
+  @Test
+  public void testTriage() throws Exception {
+    TestItem testItem = new TestItem();
+    TestStringContent content = testItem.createContent(TestStringContent.class)
+        .withData("Martin lives in London. the cat sat on the mat.")
+        .save();
+
+    content.getAnnotations().create().withBounds(new SpanBounds(0, 23)).withType(AnnotationTypes.ANNOTATION_TYPE_SENTENCE).save();
+    content.getAnnotations().create().withBounds(new SpanBounds(0, 6)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "NNP").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(7, 12)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "VBZ").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(13, 15)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "IN").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(16, 22)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "NNP").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(22, 23)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, ".").save();
+
+    content.getAnnotations().create().withBounds(new SpanBounds(24, 47)).withType(AnnotationTypes.ANNOTATION_TYPE_SENTENCE).save();
+    content.getAnnotations().create().withBounds(new SpanBounds(24, 27)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "DT").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(28, 31)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "NN").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(32, 35)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "VBD").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(36, 38)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "IN").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(39, 42)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "DT").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(43, 46)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "NN").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(46, 47)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, ".").save();
+
+    NER.Settings settings = new NER.Settings();
+    settings.setTriage(true);
+
+    NER.Processor p = new NER.Processor(settings);
+
+    ProcessorResponse pr = p.process(testItem);
+    assertEquals(ProcessorResponse.Status.OK, pr.getStatus());
+
+    assertEquals(1, content.getAnnotations().getByBoundsAndType(SpanBounds.class, AnnotationTypes.ANNOTATION_TYPE_PERSON).count());
+    assertEquals(1, content.getAnnotations().getByBoundsAndType(SpanBounds.class, AnnotationTypes.ANNOTATION_TYPE_LOCATION).count());
+
+    assertEquals(2, p.getTriageSentences());
+    assertEquals(1, p.getTriageSkipped());
+    assertEquals(0.5, p.getTriageSkippedFraction());
+  }
+
+  @Test
+  public void testBatches(){
+    TestItem testItem = new TestItem();
+    TestStringContent content = testItem.createContent(TestStringContent.class)
+        .withData("Martin lives in London. Louise visited Paris.")
+        .save();
+
+    content.getAnnotations().create().withBounds(new SpanBounds(0, 23)).withType(AnnotationTypes.ANNOTATION_TYPE_SENTENCE).save();
+    content.getAnnotations().create().withBounds(new SpanBounds(0, 6)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "NNP").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(7, 12)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "VBZ").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(13, 15)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "IN").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(16, 22)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "NNP").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(22, 23)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, ".").save();
+
+    content.getAnnotations().create().withBounds(new SpanBounds(24, 45)).withType(AnnotationTypes.ANNOTATION_TYPE_SENTENCE).save();
+    content.getAnnotations().create().withBounds(new SpanBounds(24, 30)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "NNP").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(31, 38)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "VBD").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(39, 44)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "NNP").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(44, 45)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, ".").save();
+
+    NER.Settings settings = new NER.Settings();
+    settings.setBatchSize(1);
+
+    NER ner = new NER();
+    Processor p = ner.createComponent(null, settings);
+
+    ProcessorResponse pr = p.process(testItem);
+    assertEquals(ProcessorResponse.Status.OK, pr.getStatus());
+
+    assertEquals(2, content.getAnnotations().getByBoundsAndType(SpanBounds.class, AnnotationTypes.ANNOTATION_TYPE_PERSON).count());
+    assertEquals(2, content.getAnnotations().getByBoundsAndType(SpanBounds.class, AnnotationTypes.ANNOTATION_TYPE_LOCATION).count());
+    assertTrue(content.getAnnotations().getByBoundsAndType(SpanBounds.class, AnnotationTypes.ANNOTATION_TYPE_LOCATION)
+        .anyMatch(a -> "Paris".equals(content.getText(a).get())));
+  }
 }
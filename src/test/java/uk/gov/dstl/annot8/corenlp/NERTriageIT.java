@@ -0,0 +1,91 @@
+/*
+ * Crown Copyright (C) 2021 Dstl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package uk.gov.dstl.annot8.corenlp;
+
+import io.annot8.common.data.bounds.SpanBounds;
+import io.annot8.common.data.content.Text;
+import io.annot8.testing.testimpl.TestItem;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Compares the speed and accuracy of NER with and without sentence triage, using the entities found
+ * without triage as the reference
+ */
+public class NERTriageIT {
+
+  private static final int ITERATIONS = 10;
+
+  @Test
+  public void evaluate() throws Exception {
+    NER.Settings fullSettings = new NER.Settings();
+    NER.Processor full = new NER.Processor(fullSettings);
+
+    NER.Settings triageSettings = new NER.Settings();
+    triageSettings.setTriage(true);
+    NER.Processor triage = new NER.Processor(triageSettings);
+
+    //Warm up
+    BenchmarkUtils.time(full, BenchmarkUtils.createItems());
+    BenchmarkUtils.time(triage, BenchmarkUtils.createItems());
+
+    long fullNanos = 0;
+    long triageNanos = 0;
+    Set<String> fullEntities = new HashSet<>();
+    Set<String> triageEntities = new HashSet<>();
+
+    for(int i = 0; i < ITERATIONS; i++){
+      List<TestItem> fullItems = BenchmarkUtils.createItems();
+      fullNanos += BenchmarkUtils.time(full, fullItems);
+
+      List<TestItem> triageItems = BenchmarkUtils.createItems();
+      triageNanos += BenchmarkUtils.time(triage, triageItems);
+
+      if(i == 0) {
+        fullEntities.addAll(entities(fullItems));
+        triageEntities.addAll(entities(triageItems));
+      }
+    }
+
+    Set<String> found = new HashSet<>(triageEntities);
+    found.retainAll(fullEntities);
+
+    int documents = ITERATIONS * BenchmarkUtils.CORPUS.size();
+    BenchmarkUtils.printResult("NER", fullNanos, documents, 0, fullEntities.size() + " entities");
+    BenchmarkUtils.printResult("NER with triage", triageNanos, documents, 0, String.format("%d entities, recall %.3f, %.1f%% sentences skipped",
+        triageEntities.size(), fullEntities.isEmpty() ? 1.0 : (double) found.size() / fullEntities.size(), 100 * triage.getTriageSkippedFraction()));
+
+    fullEntities.removeAll(triageEntities);
+    fullEntities.forEach(e -> System.out.println("\tMissed by triage: " + e));
+  }
+
+  private static Set<String> entities(List<TestItem> items){
+    Set<String> entities = new HashSet<>();
+    for(int i = 0; i < items.size(); i++){
+      int document = i;
+      items.get(i).getContents(Text.class)
+          .forEach(c -> c.getAnnotations().getByBounds(SpanBounds.class)
+              .filter(CoreNLPUtils::isCoreNLPType)
+              .forEach(a -> entities.add(document + ":" + c.getText(a).orElse("") + ":" + a.getType())));
+    }
+
+    return entities;
+  }
+}
@@ -54,7 +54,7 @@ public class OpenIETest {
     Annotation aLondon = content.getAnnotations().create().withBounds(new SpanBounds(16, 22)).withType(AnnotationTypes.ANNOTATION_TYPE_LOCATION).withProperty(PropertyKeys.PROPERTY_KEY_SUBTYPE, "CITY").save();
 
     OpenIE relation = new OpenIE();
-    Processor p = relation.createComponent(null, new CoreNLPSettings());
+    Processor p = relation.createComponent(null, new OpenIE.Settings());
 
     ProcessorResponse pr = p.process(testItem);
     assertEquals(ProcessorResponse.Status.OK, pr.getStatus());
@@ -95,7 +95,7 @@ public class OpenIETest {
     Annotation aDavid = content.getAnnotations().create().withBounds(new SpanBounds(18, 23)).withType(AnnotationTypes.ANNOTATION_TYPE_PERSON).save();
 
     OpenIE relation = new OpenIE();
-    Processor p = relation.createComponent(null, new CoreNLPSettings());
+    Processor p = relation.createComponent(null, new OpenIE.Settings());
 
     ProcessorResponse pr = p.process(testItem);
     if(pr.hasExceptions())
@@ -125,7 +125,7 @@ public class OpenIETest {
     Annotation aAmerica = content.getAnnotations().create().withBounds(new SpanBounds(22, 29)).withType(AnnotationTypes.ANNOTATION_TYPE_LOCATION).withProperty(PropertyKeys.PROPERTY_KEY_SUBTYPE, "CITY").save();
 
     OpenIE relation = new OpenIE();
-    Processor p = relation.createComponent(null, new CoreNLPSettings());
+    Processor p = relation.createComponent(null, new OpenIE.Settings());
 
     ProcessorResponse pr = p.process(testItem);
     assertEquals(ProcessorResponse.Status.OK, pr.getStatus());
@@ -174,7 +174,7 @@ public class OpenIETest {
     Annotation aPresident = content.getAnnotations().create().withBounds(new SpanBounds(38, 47)).withType(CoreNLPUtils.UNDEFINED_ENTITY).withProperty(PropertyKeys.PROPERTY_KEY_SUBTYPE, "TITLE").save();
 
     OpenIE relation = new OpenIE();
-    Processor p = relation.createComponent(null, new CoreNLPSettings());
+    Processor p = relation.createComponent(null, new OpenIE.Settings());
 
     ProcessorResponse pr = p.process(testItem);
     if(pr.hasExceptions())
@@ -195,4 +195,94 @@ public class OpenIETest {
     assertTrue(g2.containsAnnotation(aPresident));
     assertEquals(GroupRoles.GROUP_ROLE_TARGET, g2.getRole(aPresident).get());
   }
+
+  @Test
+  public void testSentenceGate(){
+    TestItem testItem = new TestItem();
+    TestStringContent content = testItem.createContent(TestStringContent.class)
+        .withData("Rachel lives in London. She likes it.")
+        .save();
+
+    content.getAnnotations().create().withBounds(new SpanBounds(0, 23)).withType(AnnotationTypes.ANNOTATION_TYPE_SENTENCE).save();
+    content.getAnnotations().create().withBounds(new SpanBounds(0, 6)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "NNP").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(7, 12)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "VBZ").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(13, 15)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "IN").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(16, 22)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "NNP").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(22, 23)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, ".").save();
+
+    content.getAnnotations().create().withBounds(new SpanBounds(24, 37)).withType(AnnotationTypes.ANNOTATION_TYPE_SENTENCE).save();
+    content.getAnnotations().create().withBounds(new SpanBounds(24, 27)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "PRP").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(28, 33)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "VBZ").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(34, 36)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "PRP").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(36, 37)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, ".").save();
+
+    Annotation aRachel = content.getAnnotations().create().withBounds(new SpanBounds(0, 6)).withType(AnnotationTypes.ANNOTATION_TYPE_PERSON).save();
+    Annotation aLondon = content.getAnnotations().create().withBounds(new SpanBounds(16, 22)).withType(AnnotationTypes.ANNOTATION_TYPE_LOCATION).withProperty(PropertyKeys.PROPERTY_KEY_SUBTYPE, "CITY").save();
+
+    OpenIE.Processor p = new OpenIE().createComponent(null, new OpenIE.Settings());
+
+    ProcessorResponse pr = p.process(testItem);
+    assertEquals(ProcessorResponse.Status.OK, pr.getStatus());
+
+    assertEquals(1, p.getSentencesProcessed());
+    assertEquals(1, p.getSentencesSkipped());
+
+    assertEquals(1, testItem.getGroups().getAll().count());
+
+    Group g = testItem.getGroups().getAll().findFirst().get();
+    assertTrue(g.containsAnnotation(aRachel));
+    assertTrue(g.containsAnnotation(aLondon));
+  }
+
+  @Test
+  public void testEntityAnchored(){
+    TestItem testItem = new TestItem();
+    TestStringContent content = testItem.createContent(TestStringContent.class)
+        .withData("Rachel lives in London.")
+        .save();
+
+    content.getAnnotations().create().withBounds(new SpanBounds(0, 23)).withType(AnnotationTypes.ANNOTATION_TYPE_SENTENCE).save();
+    content.getAnnotations().create().withBounds(new SpanBounds(0, 6)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "NNP").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(7, 12)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "VBZ").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(13, 15)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "IN").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(16, 22)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "NNP").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(22, 23)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, ".").save();
+
+    Annotation aRachel = content.getAnnotations().create().withBounds(new SpanBounds(0, 6)).withType(AnnotationTypes.ANNOTATION_TYPE_PERSON).save();
+    Annotation aLondon = content.getAnnotations().create().withBounds(new SpanBounds(16, 22)).withType(AnnotationTypes.ANNOTATION_TYPE_LOCATION).withProperty(PropertyKeys.PROPERTY_KEY_SUBTYPE, "CITY").save();
+
+    OpenIE.Settings settings = new OpenIE.Settings();
+    settings.setEntityAnchored(true);
+    settings.setMaxEntailmentsPerClause(10);
+    OpenIE.Processor p = new OpenIE().createComponent(null, settings);
+
+    ProcessorResponse pr = p.process(testItem);
+    assertEquals(ProcessorResponse.Status.OK, pr.getStatus());
+
+    assertEquals(1, testItem.getGroups().getAll().count());
+    Group g = testItem.getGroups().getAll().findFirst().get();
+
+    assertEquals(GroupTypes.RELATION_PREFIX + "livesIn", g.getType());
+    assertTrue(g.getAnnotations(GroupRoles.GROUP_ROLE_SOURCE).anyMatch(aRachel::equals));
+    assertTrue(g.getAnnotations(GroupRoles.GROUP_ROLE_TARGET).anyMatch(aLondon::equals));
+
+    assertEquals(1, p.getTriplesKept());
+    assertTrue(p.getTriplesProduced() >= p.getTriplesKept());
+  }
+
+  @Test
+  public void testMaxEntailmentsProperty(){
+    OpenIE.Settings settings = new OpenIE.Settings();
+    settings.setMaxEntailmentsPerClause(10);
+    OpenIE.Processor p = new OpenIE().createComponent(null, settings);
+    assertEquals(10, p.getMaxEntailmentsPerClause());
+
+    //An explicit CoreNLP property isn't overwritten by the setting
+    settings = new OpenIE.Settings();
+    settings.setMaxEntailmentsPerClause(10);
+    settings.addProperty("openie.max_entailments_per_clause", "5");
+    p = new OpenIE().createComponent(null, settings);
+    assertEquals(5, p.getMaxEntailmentsPerClause());
+    assertEquals("5", settings.getProperties().getProperty("openie.max_entailments_per_clause"));
+  }
 }
@@ -26,7 +26,11 @@ import io.annot8.testing.testimpl.content.TestStringContent;
 import org.junit.jupiter.api.Test;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -52,7 +56,7 @@ public class POSTest {
     content.getAnnotations().create().withBounds(new SpanBounds(43, 44)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).save();
 
     POS pos = new POS();
-    Processor p = pos.createComponent(null, new CoreNLPSettings());
+    Processor p = pos.createComponent(null, new POS.Settings());
 
     ProcessorResponse response = p.process(testItem);
     assertEquals(ProcessorResponse.Status.OK, response.getStatus());
@@ -99,11 +103,55 @@ public class POSTest {
     content.getAnnotations().create().withBounds(new SpanBounds(43, 44)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).save();
 
     POS pos = new POS();
-    Processor p = pos.createComponent(null, new CoreNLPSettings());
+    Processor p = pos.createComponent(null, new POS.Settings());
 
     p.process(testItem);
 
     assertEquals(10, content.getAnnotations().getByType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).count());
     assertTrue(content.getAnnotations().getByBoundsAndType(SpanBounds.class, AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).allMatch(a -> a.getProperties().has(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, String.class)));
   }
+
+  @Test
+  public void testSentenceCache(){
+    POS.Settings settings = new POS.Settings();
+    settings.setSentenceCacheMegabytes(1);
+    POS.Processor p = new POS.Processor(settings);
+
+    TestItem first = createItem("The report is attached. John went to Oxford.", 23);
+    p.process(first);
+    assertEquals(0, p.getSentenceCacheHits());
+    assertEquals(2, p.getSentenceCacheMisses());
+
+    //The repeated sentence appears at a different offset, so only the token sequence can match
+    TestItem second = createItem("Mary went to Cambridge. The report is attached.", 23);
+    p.process(second);
+    assertEquals(1, p.getSentenceCacheHits());
+    assertEquals(3, p.getSentenceCacheMisses());
+
+    assertEquals(getTags(first).subList(0, 5), getTags(second).subList(5, 10));
+  }
+
+  private static TestItem createItem(String text, int sentenceBreak){
+    TestItem testItem = new TestItem();
+    TestStringContent content = testItem.createContent(TestStringContent.class)
+        .withData(text)
+        .save();
+
+    content.getAnnotations().create().withBounds(new SpanBounds(0, sentenceBreak)).withType(AnnotationTypes.ANNOTATION_TYPE_SENTENCE).save();
+    content.getAnnotations().create().withBounds(new SpanBounds(sentenceBreak + 1, text.length())).withType(AnnotationTypes.ANNOTATION_TYPE_SENTENCE).save();
+
+    Matcher m = Pattern.compile("\\w+|[^\\w\\s]").matcher(text);
+    while(m.find())
+      content.getAnnotations().create().withBounds(new SpanBounds(m.start(), m.end())).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).save();
+
+    return testItem;
+  }
+
+  private static List<String> getTags(TestItem testItem){
+    return testItem.getContents(TestStringContent.class).findFirst().get().getAnnotations()
+        .getByBoundsAndType(SpanBounds.class, AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN)
+        .sorted((a, b) -> Integer.compare(a.getBounds(SpanBounds.class).get().getBegin(), b.getBounds(SpanBounds.class).get().getBegin()))
+        .map(a -> a.getProperties().get(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, String.class).orElse(null))
+        .collect(Collectors.toList());
+  }
 }
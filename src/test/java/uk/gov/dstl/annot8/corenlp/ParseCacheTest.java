@@ -0,0 +1,209 @@
+/*
+ * Crown Copyright (C) 2021 Dstl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package uk.gov.dstl.annot8.corenlp;
+
+import edu.stanford.nlp.ling.CoreAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.pipeline.Annotator;
+import edu.stanford.nlp.semgraph.SemanticGraph;
+import edu.stanford.nlp.semgraph.SemanticGraphCoreAnnotations;
+import edu.stanford.nlp.trees.TreeCoreAnnotations;
+import edu.stanford.nlp.util.CoreMap;
+import io.annot8.common.data.bounds.SpanBounds;
+import io.annot8.conventions.AnnotationTypes;
+import io.annot8.conventions.PropertyKeys;
+import io.annot8.testing.testimpl.TestItem;
+import io.annot8.testing.testimpl.content.TestStringContent;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ParseCacheTest {
+
+  private static final String PARSE = "0:2:root 2:1:nsubj 2:4:obl 4:3:case 2:5:punct";
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  public void testPersistence() throws IOException {
+    String file = tempDir.resolve("parses.bin").toString();
+
+    CountingParser parser = new CountingParser();
+    try(ParseCache cache = ParseCache.open(file, 1024 * 1024)) {
+      assertEquals(1, cache.parse(parser, "test", createDocument(), createSentences()));
+      assertEquals(1, parser.sentences);
+      assertEquals(1, cache.size());
+
+      //Repeating within the same run
+      assertEquals(0, cache.parse(parser, "test", createDocument(), createSentences()));
+      assertEquals(1, cache.getHits());
+    }
+
+    //Reopening the file in a later run
+    try(ParseCache cache = ParseCache.open(file, 1024 * 1024)) {
+      assertEquals(1, cache.size());
+
+      List<CoreMap> sentences = createSentences();
+      assertEquals(0, cache.parse(parser, "test", createDocument(), sentences));
+      assertEquals(1, parser.sentences);
+
+      CoreMap sentence = sentences.get(0);
+      List<CoreLabel> tokens = sentence.get(CoreAnnotations.TokensAnnotation.class);
+      for(Class<? extends CoreAnnotation<SemanticGraph>> key : List.of(SemanticGraphCoreAnnotations.BasicDependenciesAnnotation.class,
+          SemanticGraphCoreAnnotations.EnhancedDependenciesAnnotation.class, SemanticGraphCoreAnnotations.EnhancedPlusPlusDependenciesAnnotation.class)){
+        assertEquals(Set.of(PARSE.split(" ")), Set.of(ParseUtils.encode(sentence.get(key)).split(" ")));
+      }
+      assertEquals(ParseUtils.placeholderTree(tokens).toString(), sentence.get(TreeCoreAnnotations.TreeAnnotation.class).toString());
+
+      //A different parser configuration doesn't share parses
+      assertEquals(1, cache.parse(parser, "other", createDocument(), createSentences()));
+      assertEquals(2, cache.size());
+    }
+  }
+
+  @Test
+  public void testIncompleteRecord() throws IOException {
+    Path path = tempDir.resolve("parses.bin");
+
+    try(ParseCache cache = ParseCache.open(path.toString(), 1024 * 1024)) {
+      cache.parse(new CountingParser(), "test", createDocument(), createSentences());
+    }
+
+    long size = Files.size(path);
+    try(FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)){
+      channel.truncate(size - 3);
+    }
+
+    try(ParseCache cache = ParseCache.open(path.toString(), 1024 * 1024)) {
+      assertEquals(0, cache.size());
+      assertEquals(8, cache.getFileSize());
+
+      CountingParser parser = new CountingParser();
+      cache.parse(parser, "test", createDocument(), createSentences());
+      assertEquals(1, parser.sentences);
+      assertEquals(1, cache.size());
+    }
+  }
+
+  @Test
+  public void testMaximumSize() throws IOException {
+    try(ParseCache cache = ParseCache.open(tempDir.resolve("parses.bin").toString(), 64)) {
+      CountingParser parser = new CountingParser();
+      cache.parse(parser, "test", createDocument(), createSentences());
+      cache.parse(parser, "test", createDocument(), createSentences());
+
+      assertEquals(2, parser.sentences);
+      assertEquals(0, cache.size());
+    }
+  }
+
+  @Test
+  public void testShared() throws IOException {
+    String file = tempDir.resolve("parses.bin").toString();
+
+    ParseCache first = ParseCache.open(file, 1024 * 1024);
+    ParseCache second = ParseCache.open(file, 1024 * 1024);
+    assertSame(first, second);
+
+    first.close();
+    first.parse(new CountingParser(), "test", createDocument(), createSentences());
+    assertEquals(1, second.size());
+    second.close();
+
+    assertNull(ParseCache.openOrNull(null, 1024));
+  }
+
+  @Test
+  public void testLocked() throws IOException {
+    Path file = tempDir.resolve("parses.bin");
+
+    //Another writer holding the file means it can't be opened
+    try(FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock ignored = channel.lock()) {
+      assertThrows(IOException.class, () -> ParseCache.open(file.toString(), 1024 * 1024));
+      assertNull(ParseCache.openOrNull(file.toString(), 1024 * 1024));
+    }
+
+    try(ParseCache cache = ParseCache.open(file.toString(), 1024 * 1024)) {
+      assertEquals(1, cache.parse(new CountingParser(), "test", createDocument(), createSentences()));
+    }
+  }
+
+  private static List<CoreMap> createSentences(){
+    return createDocument().get(CoreAnnotations.SentencesAnnotation.class);
+  }
+
+  private static Annotation createDocument(){
+    TestItem testItem = new TestItem();
+    TestStringContent content = testItem.createContent(TestStringContent.class)
+        .withData("Rachel lives in London.")
+        .save();
+
+    content.getAnnotations().create().withBounds(new SpanBounds(0, 23)).withType(AnnotationTypes.ANNOTATION_TYPE_SENTENCE).save();
+    content.getAnnotations().create().withBounds(new SpanBounds(0, 6)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "NNP").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(7, 12)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "VBZ").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(13, 15)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "IN").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(16, 22)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "NNP").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(22, 23)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, ".").save();
+
+    return CoreNLPUtils.createCoreNLPDocument(content);
+  }
+
+  /**
+   * Parser which gives each sentence a fixed parse, and counts the sentences it is given
+   */
+  private static class CountingParser implements Annotator {
+    private int sentences = 0;
+
+    @Override
+    public void annotate(Annotation annotation) {
+      for(CoreMap sentence : annotation.get(CoreAnnotations.SentencesAnnotation.class)){
+        sentences++;
+
+        List<CoreLabel> tokens = sentence.get(CoreAnnotations.TokensAnnotation.class);
+        sentence.set(TreeCoreAnnotations.TreeAnnotation.class, ParseUtils.placeholderTree(tokens));
+        sentence.set(SemanticGraphCoreAnnotations.BasicDependenciesAnnotation.class, ParseUtils.decode(PARSE, tokens));
+        sentence.set(SemanticGraphCoreAnnotations.EnhancedDependenciesAnnotation.class, ParseUtils.decode(PARSE, tokens));
+        sentence.set(SemanticGraphCoreAnnotations.EnhancedPlusPlusDependenciesAnnotation.class, ParseUtils.decode(PARSE, tokens));
+      }
+    }
+
+    @Override
+    public Set<Class<? extends CoreAnnotation>> requirementsSatisfied() {
+      return Collections.emptySet();
+    }
+
+    @Override
+    public Set<Class<? extends CoreAnnotation>> requires() {
+      return Collections.emptySet();
+    }
+  }
+}
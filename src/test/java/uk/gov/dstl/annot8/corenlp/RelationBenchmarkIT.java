@@ -0,0 +1,73 @@
+/*
+ * Crown Copyright (C) 2021 Dstl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package uk.gov.dstl.annot8.corenlp;
+
+import io.annot8.api.components.Processor;
+import io.annot8.testing.testimpl.TestItem;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+/**
+ * Compares the throughput, heap usage and number of groups created by different combinations of KBP extractors
+ */
+public class RelationBenchmarkIT {
+
+  private static final int ITERATIONS = 5;
+
+  @Test
+  public void benchmark(){
+    Processor pLemma = new Lemma().createComponent(null, new Lemma.Settings());
+    Processor pNer = new NER().createComponent(null, new NER.Settings());
+
+    benchmark("All extractors", createSettings(true, true, true), pLemma, pNer);
+    benchmark("Statistical", createSettings(true, false, false), pLemma, pNer);
+    benchmark("Semgrex and TokensRegex", createSettings(false, true, true), pLemma, pNer);
+    benchmark("Semgrex", createSettings(false, true, false), pLemma, pNer);
+    benchmark("TokensRegex", createSettings(false, false, true), pLemma, pNer);
+  }
+
+  private static Relation.Settings createSettings(boolean statistical, boolean semgrex, boolean tokensregex){
+    Relation.Settings settings = new Relation.Settings();
+    settings.setStatistical(statistical);
+    settings.setSemgrex(semgrex);
+    settings.setTokensregex(tokensregex);
+
+    return settings;
+  }
+
+  private static void benchmark(String name, Relation.Settings settings, Processor... preprocessors){
+    long heapBefore = BenchmarkUtils.usedHeap();
+    Processor p = new Relation().createComponent(null, settings);
+    long heapModel = BenchmarkUtils.usedHeap() - heapBefore;
+
+    //Warm up
+    BenchmarkUtils.time(p, BenchmarkUtils.createItems(preprocessors));
+
+    long nanos = 0;
+    long groups = 0;
+    for(int i = 0; i < ITERATIONS; i++){
+      List<TestItem> items = BenchmarkUtils.createItems(preprocessors);
+      nanos += BenchmarkUtils.time(p, items);
+
+      groups += items.stream().mapToLong(item -> item.getGroups().getAll().count()).sum();
+    }
+
+    BenchmarkUtils.printResult("Relation " + name, nanos, ITERATIONS * BenchmarkUtils.CORPUS.size(), heapModel,
+        (groups / ITERATIONS) + " groups");
+  }
+}
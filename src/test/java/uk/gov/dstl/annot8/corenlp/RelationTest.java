@@ -30,9 +30,13 @@ import io.annot8.testing.testimpl.content.TestStringContent;
 import org.junit.jupiter.api.Test;
 
 import java.util.List;
+import java.util.Properties;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class RelationTest {
@@ -54,7 +58,7 @@ public class RelationTest {
     Annotation aLondon = content.getAnnotations().create().withBounds(new SpanBounds(16, 22)).withType(AnnotationTypes.ANNOTATION_TYPE_LOCATION).withProperty(PropertyKeys.PROPERTY_KEY_SUBTYPE, "CITY").save();
 
     Relation relation = new Relation();
-    Processor p = relation.createComponent(null, new CoreNLPSettings());
+    Processor p = relation.createComponent(null, new Relation.Settings());
 
     ProcessorResponse pr = p.process(testItem);
     assertEquals(ProcessorResponse.Status.OK, pr.getStatus());
@@ -95,7 +99,7 @@ public class RelationTest {
     Annotation aDavid = content.getAnnotations().create().withBounds(new SpanBounds(18, 23)).withType(AnnotationTypes.ANNOTATION_TYPE_PERSON).save();
 
     Relation relation = new Relation();
-    Processor p = relation.createComponent(null, new CoreNLPSettings());
+    Processor p = relation.createComponent(null, new Relation.Settings());
 
     ProcessorResponse pr = p.process(testItem);
     assertEquals(ProcessorResponse.Status.OK, pr.getStatus());
@@ -135,7 +139,7 @@ public class RelationTest {
     Annotation aAmerica = content.getAnnotations().create().withBounds(new SpanBounds(22, 29)).withType(AnnotationTypes.ANNOTATION_TYPE_LOCATION).withProperty(PropertyKeys.PROPERTY_KEY_SUBTYPE, "CITY").save();
 
     Relation relation = new Relation();
-    Processor p = relation.createComponent(null, new CoreNLPSettings());
+    Processor p = relation.createComponent(null, new Relation.Settings());
 
     ProcessorResponse pr = p.process(testItem);
     assertEquals(ProcessorResponse.Status.OK, pr.getStatus());
@@ -184,7 +188,7 @@ public class RelationTest {
     Annotation aPresident = content.getAnnotations().create().withBounds(new SpanBounds(38, 47)).withType(CoreNLPUtils.UNDEFINED_ENTITY).withProperty(PropertyKeys.PROPERTY_KEY_SUBTYPE, "TITLE").save();
 
     Relation relation = new Relation();
-    Processor p = relation.createComponent(null, new CoreNLPSettings());
+    Processor p = relation.createComponent(null, new Relation.Settings());
 
     ProcessorResponse pr = p.process(testItem);
     if(pr.hasExceptions())
@@ -205,4 +209,173 @@ public class RelationTest {
     assertTrue(g2.containsAnnotation(aPresident));
     assertEquals(GroupRoles.GROUP_ROLE_TARGET, g2.getRole(aPresident).get());
   }
+
+  @Test
+  public void testSentenceGate(){
+    TestItem testItem = new TestItem();
+    TestStringContent content = testItem.createContent(TestStringContent.class)
+        .withData("Rachel lives in London. She likes it.")
+        .save();
+
+    content.getAnnotations().create().withBounds(new SpanBounds(0, 23)).withType(AnnotationTypes.ANNOTATION_TYPE_SENTENCE).save();
+    content.getAnnotations().create().withBounds(new SpanBounds(0, 6)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "NNP").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(7, 12)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "VBZ").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(13, 15)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "IN").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(16, 22)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "NNP").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(22, 23)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, ".").save();
+
+    content.getAnnotations().create().withBounds(new SpanBounds(24, 37)).withType(AnnotationTypes.ANNOTATION_TYPE_SENTENCE).save();
+    content.getAnnotations().create().withBounds(new SpanBounds(24, 27)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "PRP").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(28, 33)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "VBZ").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(34, 36)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "PRP").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(36, 37)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, ".").save();
+
+    Annotation aRachel = content.getAnnotations().create().withBounds(new SpanBounds(0, 6)).withType(AnnotationTypes.ANNOTATION_TYPE_PERSON).save();
+    Annotation aLondon = content.getAnnotations().create().withBounds(new SpanBounds(16, 22)).withType(AnnotationTypes.ANNOTATION_TYPE_LOCATION).withProperty(PropertyKeys.PROPERTY_KEY_SUBTYPE, "CITY").save();
+
+    Relation.Processor p = new Relation().createComponent(null, new Relation.Settings());
+
+    ProcessorResponse pr = p.process(testItem);
+    assertEquals(ProcessorResponse.Status.OK, pr.getStatus());
+
+    assertEquals(1, p.getSentencesProcessed());
+    assertEquals(1, p.getSentencesSkipped());
+
+    assertEquals(1, testItem.getGroups().getAll().count());
+
+    Group g = testItem.getGroups().getAll().findFirst().get();
+    assertTrue(g.containsAnnotation(aRachel));
+    assertTrue(g.containsAnnotation(aLondon));
+  }
+
+  @Test
+  public void testEnabledRelations(){
+    Relation.Settings settings = new Relation.Settings();
+    settings.addRelation("per:spouse");
+    Relation.Processor p = new Relation().createComponent(null, settings);
+
+    //Rachel could be the subject of per:spouse, but London can't be anyone's spouse
+    TestItem testItem = createRachelItem();
+    ProcessorResponse pr = p.process(testItem);
+    assertEquals(ProcessorResponse.Status.OK, pr.getStatus());
+
+    assertEquals(0, testItem.getGroups().getAll().count());
+    assertEquals(0, p.getSentencesProcessed());
+    assertEquals(1, p.getSentencesSkipped());
+
+    settings = new Relation.Settings();
+    settings.addRelation("org:founded_by");
+    p = new Relation().createComponent(null, settings);
+
+    //No organisation, so nothing could be the subject of org:founded_by
+    testItem = createRachelItem();
+    pr = p.process(testItem);
+    assertEquals(ProcessorResponse.Status.OK, pr.getStatus());
+
+    assertEquals(0, testItem.getGroups().getAll().count());
+    assertEquals(0, p.getSentencesProcessed());
+    assertEquals(1, p.getSentencesSkipped());
+
+    settings = new Relation.Settings();
+    settings.addRelation("per:cities_of_residence");
+    p = new Relation().createComponent(null, settings);
+
+    testItem = createRachelItem();
+    pr = p.process(testItem);
+    assertEquals(ProcessorResponse.Status.OK, pr.getStatus());
+
+    assertEquals(1, testItem.getGroups().getAll().count());
+    assertEquals(GroupTypes.RELATION_PREFIX + "locationOfResidence", testItem.getGroups().getAll().findFirst().get().getType());
+  }
+
+  @Test
+  public void testSubjectTypes(){
+    assertEquals(Set.of("PERSON"), Relation.Processor.getSubjectTypes(Set.of("per:spouse", "per:title")));
+    assertEquals(Set.of("PERSON", "ORGANIZATION"), Relation.Processor.getSubjectTypes(Set.of("per:spouse", "org:founded_by")));
+    assertNull(Relation.Processor.getSubjectTypes(Set.of("per:spouse", "custom")));
+  }
+
+  @Test
+  public void testMentionTypes(){
+    Set<String> types = Relation.Processor.getMentionTypes(Set.of("per:spouse", "per:date_of_birth"));
+    assertTrue(types.contains("PERSON"));
+    assertTrue(types.contains("DATE"));
+    assertFalse(types.contains("ORGANIZATION"));
+
+    assertNull(Relation.Processor.getMentionTypes(Set.of("per:spouse", "custom")));
+  }
+
+  @Test
+  public void testExtractors(){
+    Relation.Settings settings = new Relation.Settings();
+    assertTrue(settings.validate());
+
+    settings.setStatistical(false);
+    settings.setSemgrex(false);
+    Properties properties = Relation.Processor.getKBPProperties(settings);
+    assertEquals("none", properties.getProperty("kbp.model"));
+    assertEquals("none", properties.getProperty("kbp.semgrex"));
+    assertNull(properties.getProperty("kbp.tokensregex"));
+    assertTrue(settings.validate());
+
+    settings.setTokensregex(false);
+    assertFalse(settings.validate());
+
+    settings.setTokensregex(true);
+    settings.setConfidenceThreshold(1.5);
+    assertFalse(settings.validate());
+  }
+
+  @Test
+  public void testConfidenceThreshold(){
+    Relation.Settings settings = new Relation.Settings();
+    settings.setConfidenceThreshold(0.0);
+    Processor p = new Relation().createComponent(null, settings);
+
+    TestItem lowItem = createRachelItem();
+    assertEquals(ProcessorResponse.Status.OK, p.process(lowItem).getStatus());
+
+    List<Double> confidences = lowItem.getGroups().getAll()
+        .map(g -> g.getProperties().get(PropertyKeys.PROPERTY_KEY_PROBABILITY, Double.class).get())
+        .collect(Collectors.toList());
+    assertFalse(confidences.isEmpty());
+
+    //A threshold just above the lowest confidence drops at least that relation, and keeps only those above it
+    double lowest = confidences.stream().mapToDouble(Double::doubleValue).min().getAsDouble();
+    double threshold = Math.min(1.0, Math.nextUp(lowest));
+
+    settings = new Relation.Settings();
+    settings.setConfidenceThreshold(threshold);
+    p = new Relation().createComponent(null, settings);
+
+    TestItem highItem = createRachelItem();
+    assertEquals(ProcessorResponse.Status.OK, p.process(highItem).getStatus());
+
+    long kept = highItem.getGroups().getAll().count();
+    if(lowest < 1.0) {
+      assertTrue(kept < confidences.size());
+    }else{
+      assertEquals(confidences.size(), kept);
+    }
+    highItem.getGroups().getAll().forEach(g -> assertTrue(g.getProperties().get(PropertyKeys.PROPERTY_KEY_PROBABILITY, Double.class).get() >= threshold));
+  }
+
+  private static TestItem createRachelItem(){
+    TestItem testItem = new TestItem();
+    TestStringContent content = testItem.createContent(TestStringContent.class)
+        .withData("Rachel lives in London.")
+        .save();
+
+    content.getAnnotations().create().withBounds(new SpanBounds(0, 23)).withType(AnnotationTypes.ANNOTATION_TYPE_SENTENCE).save();
+    content.getAnnotations().create().withBounds(new SpanBounds(0, 6)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "NNP").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(7, 12)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "VBZ").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(13, 15)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "IN").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(16, 22)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "NNP").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(22, 23)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, ".").save();
+
+    content.getAnnotations().create().withBounds(new SpanBounds(0, 6)).withType(AnnotationTypes.ANNOTATION_TYPE_PERSON).save();
+    content.getAnnotations().create().withBounds(new SpanBounds(16, 22)).withType(AnnotationTypes.ANNOTATION_TYPE_LOCATION).withProperty(PropertyKeys.PROPERTY_KEY_SUBTYPE, "CITY").save();
+
+    return testItem;
+  }
 }
@@ -0,0 +1,163 @@
+/*
+ * Crown Copyright (C) 2021 Dstl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package uk.gov.dstl.annot8.corenlp;
+
+import io.annot8.api.annotations.Annotation;
+import io.annot8.api.annotations.Group;
+import io.annot8.common.data.bounds.SpanBounds;
+import io.annot8.common.data.content.Text;
+import io.annot8.conventions.AnnotationTypes;
+import io.annot8.conventions.GroupRoles;
+import io.annot8.conventions.GroupTypes;
+import io.annot8.conventions.PropertyKeys;
+import io.annot8.testing.testimpl.TestItem;
+import io.annot8.testing.testimpl.content.TestStringContent;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ResultCacheTest {
+
+  @Test
+  public void testReplay(){
+    ProcessorSettings settings = new ProcessorSettings();
+    settings.setResultCacheMegabytes(1);
+    CountingProcessor p = new CountingProcessor(settings);
+
+    p.process(createItem("John lives in London.", "London"));
+    assertEquals(1, p.processed);
+
+    TestItem duplicate = createItem("John lives in London.", "London");
+    p.process(duplicate);
+    assertEquals(1, p.processed);
+    assertEquals(1, p.getResultCacheHits());
+    assertEquals(1, p.getResultCacheMisses());
+    assertTrue(p.getResultCacheWeight() > 0);
+
+    TestStringContent content = duplicate.getContents(TestStringContent.class).findFirst().get();
+    Annotation person = content.getAnnotations().getByType(AnnotationTypes.ANNOTATION_TYPE_PERSON).findFirst().get();
+    assertEquals(new SpanBounds(0, 4), person.getBounds(SpanBounds.class).get());
+    assertEquals(0.9, person.getProperties().get(PropertyKeys.PROPERTY_KEY_PROBABILITY, Double.class).get());
+
+    Annotation location = content.getAnnotations().getByType(AnnotationTypes.ANNOTATION_TYPE_LOCATION).findFirst().get();
+
+    assertEquals(1, duplicate.getGroups().getAll().count());
+    Group g = duplicate.getGroups().getAll().findFirst().get();
+    assertEquals(GroupTypes.RELATION_PREFIX + "livesIn", g.getType());
+    assertEquals(0.5, g.getProperties().get(PropertyKeys.PROPERTY_KEY_PROBABILITY, Double.class).get());
+    assertEquals(person.getId(), g.getAnnotations(GroupRoles.GROUP_ROLE_SOURCE).findFirst().get().getId());
+    assertEquals(location.getId(), g.getAnnotations(GroupRoles.GROUP_ROLE_TARGET).findFirst().get().getId());
+  }
+
+  @Test
+  public void testKey(){
+    ProcessorSettings settings = new ProcessorSettings();
+    settings.setResultCacheMegabytes(1);
+    CountingProcessor p = new CountingProcessor(settings);
+
+    p.process(createItem("John lives in London.", "London"));
+    p.process(createItem("John lives in Londan.", "London"));
+    p.process(createItem("John lives in London.", "London, UK"));
+    assertEquals(3, p.processed);
+    assertEquals(0, p.getResultCacheHits());
+
+    ProcessorSettings other = new ProcessorSettings();
+    other.setResultCacheMegabytes(1);
+    other.addProperty("ner.model", "other");
+
+    assertNotEquals(ResultCache.fingerprint(CountingProcessor.class, settings), ResultCache.fingerprint(CountingProcessor.class, other));
+    assertEquals(ResultCache.fingerprint(CountingProcessor.class, settings), ResultCache.fingerprint(CountingProcessor.class, settings));
+  }
+
+  @Test
+  public void testDisabled(){
+    CountingProcessor p = new CountingProcessor(new ProcessorSettings());
+
+    p.process(createItem("John lives in London.", "London"));
+    p.process(createItem("John lives in London.", "London"));
+    assertEquals(2, p.processed);
+    assertEquals(0, p.getResultCacheHits());
+  }
+
+  @Test
+  public void testEviction(){
+    LruCache<String, String> cache = new LruCache<>(10, String::length);
+
+    cache.put("a", "12345");
+    cache.put("b", "12345");
+    assertEquals(10, cache.getWeight());
+
+    cache.get("a");
+    cache.put("c", "123");
+    assertEquals(2, cache.size());
+    assertNull(cache.get("b"));
+    assertEquals(8, cache.getWeight());
+    assertEquals(1, cache.getEvictions());
+
+    //Too large to ever be held, and doesn't displace the smaller entries
+    cache.put("d", "12345678901");
+    assertNull(cache.get("d"));
+    assertEquals("12345", cache.get("a"));
+    assertEquals("123", cache.get("c"));
+    assertEquals(8, cache.getWeight());
+    assertEquals(1, cache.getEvictions());
+
+    //Replacing an entry with a value that's too large removes the old value
+    cache.put("c", "12345678901");
+    assertNull(cache.get("c"));
+    assertEquals("12345", cache.get("a"));
+    assertEquals(5, cache.getWeight());
+  }
+
+  private static TestItem createItem(String text, String locationName){
+    TestItem testItem = new TestItem();
+    TestStringContent content = testItem.createContent(TestStringContent.class)
+        .withData(text)
+        .save();
+
+    content.getAnnotations().create().withBounds(new SpanBounds(14, 20)).withType(AnnotationTypes.ANNOTATION_TYPE_LOCATION).withProperty(PropertyKeys.PROPERTY_KEY_VALUE, locationName).save();
+
+    return testItem;
+  }
+
+  private static class CountingProcessor extends CoreNLPTextProcessor {
+    private int processed = 0;
+
+    private CountingProcessor(ProcessorSettings settings){
+      super(settings);
+    }
+
+    @Override
+    protected void processText(Text content) {
+      processed++;
+
+      Annotation person = content.getAnnotations().create()
+          .withBounds(new SpanBounds(0, 4))
+          .withType(AnnotationTypes.ANNOTATION_TYPE_PERSON)
+          .withProperty(PropertyKeys.PROPERTY_KEY_PROBABILITY, 0.9)
+          .save();
+      Annotation location = content.getAnnotations().getByType(AnnotationTypes.ANNOTATION_TYPE_LOCATION).findFirst().get();
+
+      content.getItem().getGroups().create()
+          .withType(GroupTypes.RELATION_PREFIX + "livesIn")
+          .withAnnotation(GroupRoles.GROUP_ROLE_SOURCE, person)
+          .withAnnotation(GroupRoles.GROUP_ROLE_TARGET, location)
+          .withProperty(PropertyKeys.PROPERTY_KEY_PROBABILITY, 0.5)
+          .save();
+    }
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Crown Copyright (C) 2021 Dstl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package uk.gov.dstl.annot8.corenlp;
+
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.util.CoreMap;
+import io.annot8.common.data.bounds.SpanBounds;
+import io.annot8.conventions.AnnotationTypes;
+import io.annot8.conventions.PropertyKeys;
+import io.annot8.testing.testimpl.TestItem;
+import io.annot8.testing.testimpl.content.TestStringContent;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SentenceCacheTest {
+
+  @Test
+  public void testKey(){
+    List<CoreMap> a = createSentences("John met Mary. John met Mary.", "NNP");
+    List<CoreMap> b = createSentences("Hello.  John met Mary.", "NNP");
+    List<CoreMap> c = createSentences("John met Mary.", "NN");
+
+    assertEquals(SentenceCache.key(a.get(0)), SentenceCache.key(a.get(1)));
+    assertEquals(SentenceCache.key(a.get(0)), SentenceCache.key(b.get(1)));
+    assertNotEquals(SentenceCache.key(a.get(0)), SentenceCache.key(b.get(0)));
+    assertNotEquals(SentenceCache.key(a.get(0)), SentenceCache.key(c.get(0)));
+  }
+
+  @Test
+  public void testTriple(){
+    List<CoreMap> sentences = createSentences("John met Mary. John met Mary.", "NNP");
+    List<CoreLabel> first = sentences.get(0).get(CoreAnnotations.TokensAnnotation.class);
+    List<CoreLabel> second = sentences.get(1).get(CoreAnnotations.TokensAnnotation.class);
+
+    SentenceCache.Triple triple = SentenceCache.Triple.of(sentences.get(0), "met", 0.5, first.subList(0, 1), first.subList(2, 3));
+    assertNotNull(triple);
+
+    assertEquals(List.of(second.get(0)), triple.getSubject(sentences.get(1)));
+    assertEquals(List.of(second.get(2)), triple.getObject(sentences.get(1)));
+
+    assertNull(SentenceCache.Triple.of(sentences.get(0), "met", 0.5, first.subList(0, 1), second.subList(2, 3)));
+  }
+
+  @Test
+  public void testCache(){
+    SentenceCache<String[]> cache = new SentenceCache<>(1024, tags -> 16 + 8L * tags.length);
+
+    assertNull(cache.get("a"));
+    cache.put("a", new String[]{"DT"});
+    assertArrayEquals(new String[]{"DT"}, cache.get("a"));
+
+    assertEquals(1, cache.getHits());
+    assertEquals(1, cache.getMisses());
+    assertTrue(cache.getWeight() > 0);
+
+    assertNull(SentenceCache.create(0, (String[] tags) -> 0L));
+  }
+
+  /**
+   * Create sentences of the form "John met Mary.", with John and Mary as people and the given tag on the names
+   */
+  private static List<CoreMap> createSentences(String text, String nameTag){
+    TestItem testItem = new TestItem();
+    TestStringContent content = testItem.createContent(TestStringContent.class)
+        .withData(text)
+        .save();
+
+    int begin = 0;
+    while(begin < text.length()){
+      int end = text.indexOf('.', begin) + 1;
+      content.getAnnotations().create().withBounds(new SpanBounds(begin, end)).withType(AnnotationTypes.ANNOTATION_TYPE_SENTENCE).save();
+
+      String sentence = text.substring(begin, end);
+      if(sentence.endsWith("John met Mary.")){
+        int offset = begin + sentence.indexOf("John");
+        content.getAnnotations().create().withBounds(new SpanBounds(offset, offset + 4)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, nameTag).save();
+        content.getAnnotations().create().withBounds(new SpanBounds(offset + 5, offset + 8)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "VBD").save();
+        content.getAnnotations().create().withBounds(new SpanBounds(offset + 9, offset + 13)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, nameTag).save();
+        content.getAnnotations().create().withBounds(new SpanBounds(offset + 13, offset + 14)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, ".").save();
+
+        content.getAnnotations().create().withBounds(new SpanBounds(offset, offset + 4)).withType(AnnotationTypes.ANNOTATION_TYPE_PERSON).save();
+        content.getAnnotations().create().withBounds(new SpanBounds(offset + 9, offset + 13)).withType(AnnotationTypes.ANNOTATION_TYPE_PERSON).save();
+      }else{
+        content.getAnnotations().create().withBounds(new SpanBounds(begin, end - 1)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "UH").save();
+        content.getAnnotations().create().withBounds(new SpanBounds(end - 1, end)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, ".").save();
+      }
+
+      begin = end;
+      while(begin < text.length() && text.charAt(begin) == ' ')
+        begin++;
+    }
+
+    Annotation document = CoreNLPUtils.createCoreNLPDocument(content);
+    return document.get(CoreAnnotations.SentencesAnnotation.class);
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Crown Copyright (C) 2021 Dstl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package uk.gov.dstl.annot8.corenlp;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SharedExecutorTest {
+
+  private static final String NAME = "test";
+
+  @AfterEach
+  public void shutdown(){
+    SharedExecutor.shutdown(NAME);
+  }
+
+  @Test
+  public void testConfigure(){
+    SharedExecutor executor = SharedExecutor.configure(NAME, 2, 4);
+    assertSame(executor, SharedExecutor.get(NAME));
+    assertSame(executor, SharedExecutor.configure(NAME, 2, 4));
+    assertThrows(IllegalStateException.class, () -> SharedExecutor.configure(NAME, 3, 4));
+
+    POS.Settings settings = new POS.Settings();
+    assertNull(SharedExecutor.forName(settings.getExecutor()));
+
+    settings.setExecutor(NAME);
+    assertSame(executor, SharedExecutor.forName(settings.getExecutor()));
+  }
+
+  @Test
+  public void testForEachChunk(){
+    SharedExecutor executor = SharedExecutor.configure(NAME, 4, 4);
+
+    List<Integer> items = IntStream.range(0, 100).boxed().collect(Collectors.toList());
+    Set<Integer> seen = ConcurrentHashMap.newKeySet();
+    List<List<Integer>> chunks = Collections.synchronizedList(new ArrayList<>());
+
+    executor.forEachChunk(items, i -> 1, chunk -> {
+      chunks.add(chunk);
+      seen.addAll(chunk);
+    });
+
+    assertEquals(100, seen.size());
+    assertEquals(4, chunks.size());
+    chunks.forEach(c -> assertEquals(25, c.size()));
+  }
+
+  @Test
+  public void testFailure(){
+    SharedExecutor executor = SharedExecutor.configure(NAME, 2, 4);
+
+    assertThrows(IllegalArgumentException.class, () -> executor.invokeAll(List.of(
+        () -> {},
+        () -> { throw new IllegalArgumentException(); }
+    )));
+  }
+
+  @Test
+  public void testSaturation() throws InterruptedException {
+    SharedExecutor executor = SharedExecutor.configure(NAME, 1, 1);
+
+    //Occupy the only thread, so that the queue fills. The first task runs on the calling thread,
+    //and waits so that the second can't be taken back from the queue.
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    Thread blocker = new Thread(() -> executor.invokeAll(List.of(
+        () -> {
+          try {
+            started.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        },
+        () -> {
+          started.countDown();
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+    )));
+    blocker.start();
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+
+    List<String> ran = Collections.synchronizedList(new ArrayList<>());
+    executor.invokeAll(List.of(() -> ran.add("a"), () -> ran.add("b"), () -> ran.add("c")));
+
+    assertEquals(3, ran.size());
+    assertEquals(0, executor.getQueueDepth());
+    assertEquals(3, executor.getTasksSubmitted());
+    assertEquals(2, executor.getTasksRunOnCaller());
+    assertTrue(executor.getSaturation() > 0.5);
+
+    release.countDown();
+    blocker.join();
+  }
+
+  @Test
+  public void testSingleThreaded(){
+    Properties properties = new Properties();
+    properties.setProperty("nthreads", "4");
+    properties.setProperty("depparse.nthreads", "8");
+    properties.setProperty("depparse.model", "model");
+
+    Properties restricted = SharedExecutor.singleThreaded(properties);
+    assertEquals("1", restricted.getProperty("nthreads"));
+    assertEquals("1", restricted.getProperty("depparse.nthreads"));
+    assertEquals("model", restricted.getProperty("depparse.model"));
+    assertEquals("8", properties.getProperty("depparse.nthreads"));
+  }
+}
@@ -0,0 +1,167 @@
+/*
+ * Crown Copyright (C) 2021 Dstl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package uk.gov.dstl.annot8.corenlp;
+
+import io.annot8.api.annotations.Annotation;
+import io.annot8.api.components.Processor;
+import io.annot8.common.data.bounds.SpanBounds;
+import io.annot8.common.data.content.Text;
+import io.annot8.conventions.AnnotationTypes;
+import io.annot8.conventions.PropertyKeys;
+import io.annot8.testing.testimpl.TestItem;
+import io.annot8.testing.testimpl.content.TestStringContent;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SlowDocumentCaptureTest {
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  public void testCapture() throws Exception {
+    ProcessorSettings settings = new ProcessorSettings();
+    settings.setCaptureDirectory(tempDir.toString());
+    settings.setCaptureThresholdMillis(0);
+    settings.setCostPerEntity(2.5);
+    settings.addProperty("ner.applyNumericClassifiers", "false");
+
+    EntityProcessor p = new EntityProcessor(settings);
+    p.process(createItem());
+    assertEquals(1, p.getSlowDocumentsCaptured());
+
+    List<Path> files = captures();
+    assertEquals(1, files.size());
+    assertTrue(files.get(0).getFileName().toString().startsWith("EntityProcessor-"));
+
+    SlowDocumentCapture.CapturedDocument captured = SlowDocumentCapture.read(files.get(0));
+    assertEquals(EntityProcessor.class.getName(), captured.getProcessor());
+    assertEquals("John lives in London.", captured.getText());
+    assertTrue(captured.getNanos() >= 0);
+    assertEquals(2.5, captured.getSettings().get("getCostPerEntity"));
+
+    //Only the inputs are captured, not the person added by the processor
+    assertEquals(2, captured.getAnnotations().size());
+    SlowDocumentCapture.CapturedAnnotation sentence = captured.getAnnotations().get(0);
+    assertEquals(AnnotationTypes.ANNOTATION_TYPE_SENTENCE, sentence.getType());
+    assertEquals(0, sentence.getBegin());
+    assertEquals(21, sentence.getEnd());
+
+    SlowDocumentCapture.CapturedAnnotation location = captured.getAnnotations().get(1);
+    assertEquals(AnnotationTypes.ANNOTATION_TYPE_LOCATION, location.getType());
+    assertEquals("London, UK", location.getProperties().get(PropertyKeys.PROPERTY_KEY_VALUE));
+    assertEquals(0.8, location.getProperties().get(PropertyKeys.PROPERTY_KEY_PROBABILITY));
+    assertEquals(3, location.getProperties().get("count"));
+
+    //Replaying recreates the inputs, and runs the processor over them with the captured settings
+    Processor replayed = CaptureReplay.createProcessor(captured.getProcessor(), captured.getSettings());
+    ProcessorSettings replayedSettings = ((EntityProcessor) replayed).settings;
+    assertEquals(2.5, replayedSettings.getCostPerEntity());
+    assertEquals("false", replayedSettings.getProperties().getProperty("ner.applyNumericClassifiers"));
+    assertNull(replayedSettings.getCaptureDirectory());
+
+    assertTrue(CaptureReplay.replay(captured, replayed) >= 0);
+    assertEquals(1, ((EntityProcessor) replayed).processed);
+    assertEquals(0, ((EntityProcessor) replayed).getSlowDocumentsCaptured());
+    assertEquals(1, captures().size());
+  }
+
+  @Test
+  public void testThreshold() throws IOException {
+    ProcessorSettings settings = new ProcessorSettings();
+    settings.setCaptureDirectory(tempDir.toString());
+    settings.setCaptureThresholdMillis(60000);
+
+    EntityProcessor p = new EntityProcessor(settings);
+    p.process(createItem());
+
+    assertEquals(0, p.getSlowDocumentsCaptured());
+    assertTrue(captures().isEmpty());
+  }
+
+  @Test
+  public void testRestore(){
+    SlowDocumentCapture capture = new SlowDocumentCapture(tempDir.toString(), 0);
+
+    TestItem item = createItem();
+    Text content = item.getContents(Text.class).findFirst().get();
+    Path file = capture.capture(EntityProcessor.class, content, SlowDocumentCapture.snapshot(content), 1000);
+    assertNotNull(file);
+
+    TestItem restored = new TestItem();
+    TestStringContent restoredContent = restored.createContent(TestStringContent.class)
+        .withData("John lives in London.")
+        .save();
+
+    assertDoesNotThrow(() -> SlowDocumentCapture.read(file).restore(restoredContent));
+
+    Annotation location = restoredContent.getAnnotations().getByType(AnnotationTypes.ANNOTATION_TYPE_LOCATION).findFirst().get();
+    assertEquals(new SpanBounds(14, 20), location.getBounds(SpanBounds.class).get());
+    assertEquals("London, UK", location.getProperties().get(PropertyKeys.PROPERTY_KEY_VALUE, String.class).get());
+    assertEquals(2, restoredContent.getAnnotations().getAll().count());
+  }
+
+  private List<Path> captures() throws IOException {
+    try(var files = Files.list(tempDir)) {
+      return files.sorted().collect(Collectors.toList());
+    }
+  }
+
+  private static TestItem createItem(){
+    TestItem testItem = new TestItem();
+    TestStringContent content = testItem.createContent(TestStringContent.class)
+        .withData("John lives in London.")
+        .save();
+
+    content.getAnnotations().create().withBounds(new SpanBounds(0, 21)).withType(AnnotationTypes.ANNOTATION_TYPE_SENTENCE).save();
+    content.getAnnotations().create().withBounds(new SpanBounds(14, 20)).withType(AnnotationTypes.ANNOTATION_TYPE_LOCATION)
+        .withProperty(PropertyKeys.PROPERTY_KEY_VALUE, "London, UK")
+        .withProperty(PropertyKeys.PROPERTY_KEY_PROBABILITY, 0.8)
+        .withProperty("count", 3)
+        .save();
+
+    return testItem;
+  }
+
+  public static class EntityProcessor extends CoreNLPTextProcessor {
+    private final ProcessorSettings settings;
+    private int processed = 0;
+
+    public EntityProcessor(ProcessorSettings settings){
+      super(settings);
+      this.settings = settings;
+    }
+
+    @Override
+    protected void processText(Text content) {
+      processed++;
+
+      content.getAnnotations().create()
+          .withBounds(new SpanBounds(0, 4))
+          .withType(AnnotationTypes.ANNOTATION_TYPE_PERSON)
+          .save();
+    }
+  }
+}
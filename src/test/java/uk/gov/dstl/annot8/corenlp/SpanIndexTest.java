@@ -0,0 +1,97 @@
+/*
+ * Crown Copyright (C) 2021 Dstl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package uk.gov.dstl.annot8.corenlp;
+
+import io.annot8.api.annotations.Annotation;
+import io.annot8.common.data.bounds.SpanBounds;
+import io.annot8.conventions.AnnotationTypes;
+import io.annot8.testing.testimpl.TestItem;
+import io.annot8.testing.testimpl.content.TestStringContent;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class SpanIndexTest {
+  @Test
+  public void test(){
+    TestItem testItem = new TestItem();
+    TestStringContent content = testItem.createContent(TestStringContent.class)
+        .withData("President Barack Obama lives in America.")
+        .save();
+
+    Annotation aPresident = content.getAnnotations().create().withBounds(new SpanBounds(0, 22)).withType(AnnotationTypes.ANNOTATION_TYPE_PERSON).save();
+    Annotation aBarackObama = content.getAnnotations().create().withBounds(new SpanBounds(10, 22)).withType(AnnotationTypes.ANNOTATION_TYPE_PERSON).save();
+    Annotation aObama = content.getAnnotations().create().withBounds(new SpanBounds(17, 22)).withType(AnnotationTypes.ANNOTATION_TYPE_PERSON).save();
+    Annotation aAmerica = content.getAnnotations().create().withBounds(new SpanBounds(32, 39)).withType(AnnotationTypes.ANNOTATION_TYPE_LOCATION).save();
+
+    SpanIndex index = new SpanIndex(List.of(aAmerica, aObama, aBarackObama, aPresident));
+    assertEquals(4, index.size());
+
+    assertEquals(List.of(aBarackObama), index.exact(10, 22));
+    assertEquals(List.of(), index.exact(10, 21));
+
+    assertEquals(List.of(aBarackObama, aObama), index.within(10, 22));
+    assertEquals(List.of(aPresident, aBarackObama), index.covering(10, 20));
+    assertEquals(List.of(aPresident, aBarackObama, aObama, aAmerica), index.overlapping(20, 35));
+    assertEquals(List.of(), index.overlapping(22, 32));
+
+    assertEquals(List.of(aBarackObama), index.find(10, 22, MatchPolicy.EXACT));
+    assertEquals(aBarackObama, index.find(10, 21, MatchPolicy.OVERLAP).stream().min(SpanIndex.closestTo(10, 21)).get());
+  }
+
+  @Test
+  public void testRandom(){
+    TestItem testItem = new TestItem();
+    TestStringContent content = testItem.createContent(TestStringContent.class)
+        .withData("x".repeat(1000))
+        .save();
+
+    Random random = new Random(42);
+    List<Annotation> annotations = new ArrayList<>();
+    for(int i = 0; i < 200; i++){
+      int begin = random.nextInt(990);
+      int end = begin + 1 + random.nextInt(10);
+      annotations.add(content.getAnnotations().create().withBounds(new SpanBounds(begin, end)).withType(AnnotationTypes.ANNOTATION_TYPE_PERSON).save());
+    }
+
+    SpanIndex index = new SpanIndex(annotations);
+    for(int i = 0; i < 200; i++){
+      int begin = random.nextInt(990);
+      int end = begin + 1 + random.nextInt(10);
+
+      assertEquals(bruteForce(annotations, sb -> sb.getBegin() == begin && sb.getEnd() == end), index.exact(begin, end));
+      assertEquals(bruteForce(annotations, sb -> sb.getBegin() >= begin && sb.getEnd() <= end), index.within(begin, end));
+      assertEquals(bruteForce(annotations, sb -> sb.getBegin() <= begin && sb.getEnd() >= end), index.covering(begin, end));
+      assertEquals(bruteForce(annotations, sb -> sb.getBegin() < end && sb.getEnd() > begin), index.overlapping(begin, end));
+    }
+  }
+
+  private static List<Annotation> bruteForce(List<Annotation> annotations, Predicate<SpanBounds> predicate){
+    return annotations.stream()
+        .filter(a -> predicate.test(a.getBounds(SpanBounds.class).get()))
+        .sorted(Comparator.<Annotation>comparingInt(a -> a.getBounds(SpanBounds.class).get().getBegin())
+            .thenComparingInt(a -> a.getBounds(SpanBounds.class).get().getEnd()))
+        .collect(Collectors.toList());
+  }
+}
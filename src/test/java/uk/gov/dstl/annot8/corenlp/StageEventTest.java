@@ -0,0 +1,90 @@
+/*
+ * Crown Copyright (C) 2021 Dstl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package uk.gov.dstl.annot8.corenlp;
+
+import io.annot8.api.components.Processor;
+import io.annot8.api.components.responses.ProcessorResponse;
+import io.annot8.common.data.bounds.SpanBounds;
+import io.annot8.conventions.AnnotationTypes;
+import io.annot8.conventions.PropertyKeys;
+import io.annot8.testing.testimpl.TestItem;
+import io.annot8.testing.testimpl.content.TestStringContent;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StageEventTest {
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  public void testEvents() throws Exception {
+    TestItem testItem = new TestItem();
+    TestStringContent content = testItem.createContent(TestStringContent.class)
+        .withData("John went to the shops.")
+        .save();
+
+    content.getAnnotations().create().withBounds(new SpanBounds(0, 23)).withType(AnnotationTypes.ANNOTATION_TYPE_SENTENCE).save();
+    content.getAnnotations().create().withBounds(new SpanBounds(0, 4)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "NNP").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(5, 9)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "VBD").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(10, 12)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "TO").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(13, 16)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "DT").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(17, 22)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, "NNS").save();
+    content.getAnnotations().create().withBounds(new SpanBounds(22, 23)).withType(AnnotationTypes.ANNOTATION_TYPE_WORDTOKEN).withProperty(PropertyKeys.PROPERTY_KEY_PARTOFSPEECH, ".").save();
+
+    Processor p = new Lemma.Processor();
+
+    Path file = tempDir.resolve("recording.jfr");
+    try(Recording recording = new Recording()) {
+      recording.enable(StageEvent.class).withThreshold(Duration.ZERO);
+      recording.start();
+
+      assertEquals(ProcessorResponse.Status.OK, p.process(testItem).getStatus());
+
+      recording.stop();
+      recording.dump(file);
+    }
+
+    Map<String, RecordedEvent> events = RecordingFile.readAllEvents(file).stream()
+        .filter(e -> e.getEventType().getName().equals("uk.gov.dstl.annot8.corenlp.Stage"))
+        .collect(Collectors.toMap(e -> e.getString("stage"), e -> e));
+    assertEquals(List.of(StageEvent.ANNOTATE, StageEvent.CONVERSION, StageEvent.WRITE), events.keySet().stream().sorted().collect(Collectors.toList()));
+
+    for(RecordedEvent event : events.values()) {
+      assertEquals(content.getId(), event.getString("documentId"));
+      assertEquals(23, event.getInt("characters"));
+      assertEquals(6, event.getInt("tokens"));
+      assertEquals(1, event.getInt("sentences"));
+    }
+
+    assertEquals(0, events.get(StageEvent.CONVERSION).getInt("outputs"));
+    assertEquals(-1, events.get(StageEvent.ANNOTATE).getInt("outputs"));
+    assertEquals(6, events.get(StageEvent.WRITE).getInt("outputs"));
+    assertEquals(Lemma.Processor.class.getName(), events.get(StageEvent.WRITE).getString("component"));
+  }
+}